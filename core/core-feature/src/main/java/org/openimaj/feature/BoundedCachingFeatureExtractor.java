@@ -0,0 +1,689 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.feature;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openimaj.citation.annotation.Reference;
+import org.openimaj.citation.annotation.ReferenceType;
+import org.openimaj.data.identity.Identifiable;
+
+/**
+ * A thread-safe wrapper for a feature extractor that caches the extracted
+ * features in memory, up to a maximum total weight. By default the weight of
+ * each feature is one, so the maximum weight is the maximum number of
+ * features; alternatively a {@link Weigher} can be provided to (for example)
+ * bound the cache by the approximate number of bytes used by the features.
+ * <p>
+ * Two eviction policies are available. {@link Policy#LRU} simply evicts the
+ * least-recently used features. {@link Policy#W_TINY_LFU} (the default) uses
+ * a small LRU admission window in front of a main LRU region; features leaving
+ * the window are only admitted to the main region if they have been requested
+ * more frequently than the feature that would have to be evicted to make room,
+ * as estimated by a compact count-min sketch of the recent request
+ * frequencies. This makes the cache resistant to scans of one-off objects
+ * whilst still adapting to bursts of recent requests.
+ * <p>
+ * The cache is split into independently locked segments so that it can be
+ * used by many threads concurrently (for example from within
+ * {@link org.openimaj.util.parallel.Parallel#forEach}). If several threads
+ * request the feature of the same object at the same time, it will only be
+ * extracted once. Statistics on the number of hits, misses and evictions are
+ * maintained.
+ * <p>
+ * The maximum weight is a limit on the whole cache, but it is divided equally
+ * between the segments, so a single feature can be no heavier than
+ * {@link #getMaxFeatureWeight()}; heavier features are returned to the caller
+ * but not cached. The number of segments is chosen from the expected number of
+ * cached features so that each segment can hold at least 64 of them. When a
+ * {@link Weigher} is given without an expected number of features, the cache
+ * has a single segment, so any feature that fits in the cache can be cached.
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ * 
+ * @param <FEATURE>
+ *            Type of feature
+ * @param <OBJECT>
+ *            Type of object
+ */
+@Reference(
+		type = ReferenceType.Article,
+		author = { "Einziger, G.", "Friedman, R.", "Manes, B." },
+		title = "TinyLFU: A Highly Efficient Cache Admission Policy",
+		year = "2017",
+		journal = "ACM Transactions on Storage",
+		volume = "13",
+		number = "4",
+		pages = { "35:1", "35:31" })
+public class BoundedCachingFeatureExtractor<FEATURE, OBJECT extends Identifiable>
+		implements
+		FeatureExtractor<FEATURE, OBJECT>
+{
+	/**
+	 * Eviction policies
+	 * 
+	 * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+	 */
+	public static enum Policy {
+		/**
+		 * Evict the least-recently used features
+		 */
+		LRU,
+		/**
+		 * Window TinyLFU: frequency-based admission to an LRU main region
+		 * behind a small LRU window
+		 */
+		W_TINY_LFU
+	}
+
+	/**
+	 * Interface for objects that compute the weight of a feature
+	 * 
+	 * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+	 * 
+	 * @param <T>
+	 *            Type of feature
+	 */
+	public static interface Weigher<T> {
+		/**
+		 * Compute the weight of the given feature. The weight must be
+		 * positive, and must not change whilst the feature is in the cache.
+		 * 
+		 * @param feature
+		 *            the feature
+		 * @return the weight
+		 */
+		public long weigh(T feature);
+	}
+
+	private static final int MAX_SEGMENTS = 16;
+	private static final int MIN_SEGMENT_ENTRIES = 64;
+	private static final double WINDOW_FRACTION = 0.01;
+
+	private final FeatureExtractor<FEATURE, OBJECT> extractor;
+	private final Weigher<? super FEATURE> weigher;
+	private final Policy policy;
+	private final long maxWeight;
+
+	private final Segment[] segments;
+	private final int segmentMask;
+
+	private final ConcurrentHashMap<String, FutureTask<FEATURE>> inFlight = new ConcurrentHashMap<String, FutureTask<FEATURE>>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Construct the cache with the given maximum number of features, using the
+	 * {@link Policy#W_TINY_LFU} policy.
+	 * 
+	 * @param extractor
+	 *            the feature extractor
+	 * @param maxSize
+	 *            the maximum number of features to cache
+	 */
+	public BoundedCachingFeatureExtractor(FeatureExtractor<FEATURE, OBJECT> extractor, long maxSize) {
+		this(extractor, maxSize, null, Policy.W_TINY_LFU);
+	}
+
+	/**
+	 * Construct the cache with the given maximum total weight of features and
+	 * eviction policy. If a weigher is given the cache has a single segment;
+	 * use
+	 * {@link #BoundedCachingFeatureExtractor(FeatureExtractor, long, Weigher, long, Policy)}
+	 * to allow it to be split into segments for concurrent access.
+	 * 
+	 * @param extractor
+	 *            the feature extractor
+	 * @param maxWeight
+	 *            the maximum total weight of the cached features
+	 * @param weigher
+	 *            the weigher for computing the weight of each feature; if
+	 *            <code>null</code> every feature has a weight of one
+	 * @param policy
+	 *            the eviction policy
+	 */
+	public BoundedCachingFeatureExtractor(FeatureExtractor<FEATURE, OBJECT> extractor, long maxWeight,
+			Weigher<? super FEATURE> weigher, Policy policy)
+	{
+		this(extractor, maxWeight, weigher, weigher == null ? maxWeight : 0, policy);
+	}
+
+	/**
+	 * Construct the cache with the given maximum total weight of features,
+	 * expected number of cached features and eviction policy. The expected
+	 * number of features determines how many segments the cache is split into
+	 * (and thus the weight of the heaviest feature that can be cached), and
+	 * the initial size of the frequency sketch used by the
+	 * {@link Policy#W_TINY_LFU} policy.
+	 * 
+	 * @param extractor
+	 *            the feature extractor
+	 * @param maxWeight
+	 *            the maximum total weight of the cached features
+	 * @param weigher
+	 *            the weigher for computing the weight of each feature; if
+	 *            <code>null</code> every feature has a weight of one
+	 * @param expectedEntries
+	 *            the expected number of features in a full cache (for
+	 *            example <code>maxWeight</code> divided by the average weight
+	 *            of a feature), or 0 if unknown
+	 * @param policy
+	 *            the eviction policy
+	 */
+	public BoundedCachingFeatureExtractor(FeatureExtractor<FEATURE, OBJECT> extractor, long maxWeight,
+			Weigher<? super FEATURE> weigher, long expectedEntries, Policy policy)
+	{
+		if (maxWeight <= 0)
+			throw new IllegalArgumentException("The maximum weight must be positive");
+		if (expectedEntries < 0)
+			throw new IllegalArgumentException("The expected number of features must not be negative");
+
+		this.extractor = extractor;
+		this.weigher = weigher;
+		this.policy = policy;
+		this.maxWeight = maxWeight;
+
+		// only split the cache into segments that can each hold a reasonable
+		// number of features
+		int nsegments = 1;
+		while (nsegments < MAX_SEGMENTS && expectedEntries / (nsegments * 2) >= MIN_SEGMENT_ENTRIES
+				&& maxWeight / (nsegments * 2) >= MIN_SEGMENT_ENTRIES)
+			nsegments *= 2;
+
+		@SuppressWarnings("unchecked")
+		final Segment[] segments = new BoundedCachingFeatureExtractor.Segment[nsegments];
+		for (int i = 0; i < nsegments; i++) {
+			// distribute any remainder
+			final long segmentWeight = maxWeight / nsegments + (i < maxWeight % nsegments ? 1 : 0);
+			segments[i] = new Segment(segmentWeight, expectedEntries / nsegments);
+		}
+
+		this.segments = segments;
+		this.segmentMask = nsegments - 1;
+	}
+
+	@Override
+	public FEATURE extractFeature(OBJECT object) {
+		final String id = object.getID();
+		final int hash = spread(id.hashCode());
+		final Segment segment = segments[hash & segmentMask];
+
+		final FEATURE cached = segment.get(id, hash);
+		if (cached != null) {
+			hits.incrementAndGet();
+			return cached;
+		}
+		misses.incrementAndGet();
+
+		// make sure that only one thread extracts a given feature
+		final ExtractionCallable callable = new ExtractionCallable(object, segment);
+		final FutureTask<FEATURE> task = new FutureTask<FEATURE>(callable);
+		final FutureTask<FEATURE> existing = inFlight.putIfAbsent(id, task);
+
+		if (existing != null)
+			return await(existing);
+
+		try {
+			task.run();
+			final FEATURE feature = await(task);
+
+			// cache before removing from the in-flight map, so that other
+			// threads always find it in one or the other
+			if (feature != null && callable.extracted)
+				segment.put(id, hash, feature, weigher == null ? 1 : weigher.weigh(feature));
+
+			return feature;
+		} finally {
+			inFlight.remove(id);
+		}
+	}
+
+	private FEATURE await(FutureTask<FEATURE> task) {
+		try {
+			return task.get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	private class ExtractionCallable implements Callable<FEATURE> {
+		private OBJECT object;
+		private Segment segment;
+		boolean extracted;
+
+		ExtractionCallable(OBJECT object, Segment segment) {
+			this.object = object;
+			this.segment = segment;
+		}
+
+		@Override
+		public FEATURE call() {
+			// another thread might have cached the feature and left the
+			// in-flight map between the initial lookup and this task being
+			// registered
+			final FEATURE cached = segment.peek(object.getID());
+			if (cached != null)
+				return cached;
+
+			extracted = true;
+			return extractor.extractFeature(object);
+		}
+	}
+
+	private static int spread(int h) {
+		h ^= (h >>> 16);
+		h *= 0x85ebca6b;
+		h ^= (h >>> 13);
+		return h;
+	}
+
+	/**
+	 * Get the number of times a feature was found in the cache
+	 * 
+	 * @return the number of hits
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * Get the number of times a feature was not found in the cache
+	 * 
+	 * @return the number of misses
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * Get the proportion of requests that were served from the cache
+	 * 
+	 * @return the hit rate, or 0 if there have been no requests
+	 */
+	public double getHitRate() {
+		final long h = hits.get();
+		final long total = h + misses.get();
+
+		return total == 0 ? 0 : (double) h / total;
+	}
+
+	/**
+	 * Get the number of features that have been evicted from the cache (or
+	 * were not admitted to it). Features that are too heavy to be cached at
+	 * all (see {@link #getMaxFeatureWeight()}) are not counted.
+	 * 
+	 * @return the number of evictions
+	 */
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+
+	/**
+	 * Reset the hit, miss and eviction counts
+	 */
+	public void resetStatistics() {
+		hits.set(0);
+		misses.set(0);
+		evictions.set(0);
+	}
+
+	/**
+	 * Get the number of features currently cached
+	 * 
+	 * @return the number of cached features
+	 */
+	public int size() {
+		int size = 0;
+		for (final Segment s : segments)
+			size += s.size();
+		return size;
+	}
+
+	/**
+	 * Get the total weight of the features currently cached
+	 * 
+	 * @return the total weight of the cached features
+	 */
+	public long getWeight() {
+		long weight = 0;
+		for (final Segment s : segments)
+			weight += s.weight();
+		return weight;
+	}
+
+	/**
+	 * Get the maximum total weight of the cached features
+	 * 
+	 * @return the maximum weight
+	 */
+	public long getMaxWeight() {
+		return maxWeight;
+	}
+
+	/**
+	 * Get the weight of the heaviest feature that can be cached. This is the
+	 * maximum weight divided by the number of segments that the cache is split
+	 * into.
+	 * 
+	 * @return the maximum weight of a single feature
+	 */
+	public long getMaxFeatureWeight() {
+		return maxWeight / segments.length;
+	}
+
+	/**
+	 * Get the eviction policy
+	 * 
+	 * @return the policy
+	 */
+	public Policy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * Remove all the features from the cache
+	 */
+	public void clear() {
+		for (final Segment s : segments)
+			s.clear();
+	}
+
+	@Override
+	public String toString() {
+		return this.extractor.toString();
+	}
+
+	private static final class Entry<T> {
+		final T value;
+		final long weight;
+
+		Entry(T value, long weight) {
+			this.value = value;
+			this.weight = weight;
+		}
+	}
+
+	/*
+	 * An independently locked part of the cache. With the LRU policy only the
+	 * main region is used.
+	 */
+	private final class Segment {
+		final LinkedHashMap<String, Entry<FEATURE>> window = new LinkedHashMap<String, Entry<FEATURE>>(16, 0.75f, true);
+		final LinkedHashMap<String, Entry<FEATURE>> main = new LinkedHashMap<String, Entry<FEATURE>>(16, 0.75f, true);
+		final long maxWindowWeight;
+		final long maxMainWeight;
+		final FrequencySketch sketch;
+		long windowWeight;
+		long mainWeight;
+
+		Segment(long maxWeight, long expectedEntries) {
+			if (policy == Policy.W_TINY_LFU && maxWeight > 1) {
+				maxWindowWeight = Math.max(1, (long) (maxWeight * WINDOW_FRACTION));
+				sketch = new FrequencySketch(expectedEntries);
+			} else {
+				maxWindowWeight = 0;
+				sketch = null;
+			}
+			maxMainWeight = maxWeight - maxWindowWeight;
+		}
+
+		synchronized FEATURE get(String key, int hash) {
+			if (sketch != null)
+				sketch.increment(hash);
+
+			Entry<FEATURE> e = window.get(key);
+			if (e == null)
+				e = main.get(key);
+
+			return e == null ? null : e.value;
+		}
+
+		/*
+		 * Get a cached feature without recording another request for it in
+		 * the sketch
+		 */
+		synchronized FEATURE peek(String key) {
+			Entry<FEATURE> e = window.get(key);
+			if (e == null)
+				e = main.get(key);
+
+			return e == null ? null : e.value;
+		}
+
+		synchronized void put(String key, int hash, FEATURE value, long weight) {
+			remove(key);
+
+			// too heavy to cache at all; this isn't an eviction
+			if (weight > maxWindowWeight + maxMainWeight)
+				return;
+
+			final Entry<FEATURE> entry = new Entry<FEATURE>(value, weight);
+			if (sketch == null) {
+				makeRoom(weight);
+				main.put(key, entry);
+				mainWeight += weight;
+			} else {
+				window.put(key, entry);
+				windowWeight += weight;
+
+				while (windowWeight > maxWindowWeight) {
+					final Iterator<Map.Entry<String, Entry<FEATURE>>> it = window.entrySet().iterator();
+					final Map.Entry<String, Entry<FEATURE>> candidate = it.next();
+					it.remove();
+					windowWeight -= candidate.getValue().weight;
+
+					admit(candidate.getKey(), candidate.getValue());
+				}
+
+				sketch.ensureCapacity(window.size() + main.size());
+			}
+		}
+
+		/*
+		 * Evict least-recently used features from the main region until there
+		 * is room for the given weight
+		 */
+		private void makeRoom(long weight) {
+			final Iterator<Entry<FEATURE>> it = main.values().iterator();
+
+			while (mainWeight + weight > maxMainWeight && it.hasNext()) {
+				mainWeight -= it.next().weight;
+				it.remove();
+				evictions.incrementAndGet();
+			}
+		}
+
+		/*
+		 * Try to move a candidate leaving the window into the main region. The
+		 * candidate is admitted if it is more frequently used than each of the
+		 * victims that would be evicted to make room for it.
+		 */
+		private void admit(String key, Entry<FEATURE> candidate) {
+			if (candidate.weight > maxMainWeight) {
+				evictions.incrementAndGet();
+				return;
+			}
+
+			final int candidateFreq = sketch.frequency(spread(key.hashCode()));
+
+			final Iterator<Map.Entry<String, Entry<FEATURE>>> it = main.entrySet().iterator();
+			while (mainWeight + candidate.weight > maxMainWeight) {
+				final Map.Entry<String, Entry<FEATURE>> victim = it.next();
+
+				if (candidateFreq <= sketch.frequency(spread(victim.getKey().hashCode()))) {
+					evictions.incrementAndGet();
+					return;
+				}
+
+				it.remove();
+				mainWeight -= victim.getValue().weight;
+				evictions.incrementAndGet();
+			}
+
+			main.put(key, candidate);
+			mainWeight += candidate.weight;
+		}
+
+		private void remove(String key) {
+			Entry<FEATURE> e = window.remove(key);
+			if (e != null)
+				windowWeight -= e.weight;
+
+			e = main.remove(key);
+			if (e != null)
+				mainWeight -= e.weight;
+		}
+
+		synchronized int size() {
+			return window.size() + main.size();
+		}
+
+		synchronized long weight() {
+			return windowWeight + mainWeight;
+		}
+
+		synchronized void clear() {
+			window.clear();
+			main.clear();
+			windowWeight = 0;
+			mainWeight = 0;
+		}
+	}
+
+	/*
+	 * A count-min sketch of 4-bit counters, with four counters per 64-bit word
+	 * row. All counters are halved periodically so that the sketch reflects
+	 * recent history. The sketch has (at least) one word per cached entry, and
+	 * is reallocated (losing its counts) if the number of entries outgrows it.
+	 */
+	static final class FrequencySketch {
+		private static final int MIN_WIDTH = 16;
+		private static final int MAX_WIDTH = 1 << 20;
+
+		long[] table;
+		int mask;
+		int sampleSize;
+		int additions;
+
+		FrequencySketch(long expectedEntries) {
+			allocate(expectedEntries);
+		}
+
+		private void allocate(long entries) {
+			int width = MIN_WIDTH;
+			while (width < entries && width < MAX_WIDTH)
+				width *= 2;
+
+			table = new long[width];
+			mask = width - 1;
+			sampleSize = 10 * width;
+			additions = 0;
+		}
+
+		/*
+		 * Grow the sketch if it is too small for the given number of entries
+		 */
+		void ensureCapacity(long entries) {
+			if (entries > table.length && table.length < MAX_WIDTH)
+				allocate(entries);
+		}
+
+		/*
+		 * Mix the hash independently for each row. All the keys in a segment
+		 * share the low bits of their hash, so neither the index of the word
+		 * nor the counter within it can be taken from those bits directly.
+		 */
+		private static long rehash(int hash, int i) {
+			long h = (hash + (i + 1) * 0x9e3779b97f4a7c15L) * 0xbf58476d1ce4e5b9L;
+			h ^= h >>> 31;
+			h *= 0x94d049bb133111ebL;
+			h ^= h >>> 29;
+			return h;
+		}
+
+		/*
+		 * The position of the counter for the hash in row i; the word index is
+		 * taken from the low bits of the mixed hash, and the counter within the
+		 * word (each row uses a separate 16 bits) from the top two bits
+		 */
+		int slot(int hash, int i) {
+			final long h = rehash(hash, i);
+			return (((int) h & mask) << 2) | (int) (h >>> 62);
+		}
+
+		void increment(int hash) {
+			boolean added = false;
+			for (int i = 0; i < 4; i++) {
+				final int slot = slot(hash, i);
+				final int idx = slot >>> 2;
+				final int bit = (i << 4) + ((slot & 3) << 2);
+
+				if (((table[idx] >>> bit) & 0xf) < 15) {
+					table[idx] += 1L << bit;
+					added = true;
+				}
+			}
+
+			if (added && ++additions >= sampleSize)
+				reset();
+		}
+
+		int frequency(int hash) {
+			int freq = Integer.MAX_VALUE;
+			for (int i = 0; i < 4; i++) {
+				final int slot = slot(hash, i);
+				final int bit = (i << 4) + ((slot & 3) << 2);
+
+				freq = Math.min(freq, (int) ((table[slot >>> 2] >>> bit) & 0xf));
+			}
+			return freq;
+		}
+
+		private void reset() {
+			for (int i = 0; i < table.length; i++)
+				table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+			additions /= 2;
+		}
+	}
+}
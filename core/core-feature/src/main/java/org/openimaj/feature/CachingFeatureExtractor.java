@@ -37,6 +37,10 @@ import org.openimaj.data.identity.Identifiable;
  * A simple wrapper for a feature extractor that caches the extracted feature to
  * a {@link HashMap}. If a feature has already been generated for a given
  * object, it will be re-read from the {@link HashMap}
+ * <p>
+ * The cache is unbounded and is not thread-safe; the
+ * {@link BoundedCachingFeatureExtractor} provides a bounded cache that can be
+ * used concurrently.
  * 
  * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
  * 
@@ -41,6 +41,11 @@ import org.openimaj.io.WriteableBinary;
  * A simple wrapper for a feature extractor that caches the extracted feature to
  * disk. If a feature has already been generated for a given object, it will be
  * re-read from disk rather than being re-generated.
+ * <p>
+ * A file is created for every object, so this is not suitable for caching the
+ * features of very large numbers of objects; the
+ * {@link LogCachingFeatureExtractor} stores all the features in a single file
+ * and should be used instead in such cases.
  *
  * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
  *
@@ -0,0 +1,171 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.feature;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.log4j.Logger;
+import org.openimaj.data.identity.Identifiable;
+
+/**
+ * A wrapper for a feature extractor that caches the extracted features to a
+ * single file on disk using a {@link LogStructuredFeatureCache}. If a feature
+ * has already been generated for a given object, it will be re-read from the
+ * cache rather than being re-generated.
+ * <p>
+ * Unlike the {@link DiskCachingFeatureExtractor}, which creates a file per
+ * object, all the features are appended to a single file, so this is suitable
+ * for caching the features of very large numbers of objects. The extractor is
+ * thread-safe (assuming the underlying extractor is), so can be used in
+ * parallel feature extraction pipelines (for example with
+ * {@link DatasetExtractors}). The cache should be {@link #close() closed}
+ * once it is no longer required.
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ * 
+ * @param <FEATURE>
+ *            Type of feature
+ * @param <OBJECT>
+ *            Type of object
+ */
+public class LogCachingFeatureExtractor<FEATURE, OBJECT extends Identifiable>
+		implements
+		FeatureExtractor<FEATURE, OBJECT>, Closeable
+{
+	private static Logger logger = Logger.getLogger(LogCachingFeatureExtractor.class);
+
+	private LogStructuredFeatureCache cache;
+	private FeatureExtractor<FEATURE, OBJECT> extractor;
+	private boolean force;
+
+	/**
+	 * Construct the cache in the given file. The given extractor will be used
+	 * to generate the features.
+	 * 
+	 * @param cacheFile
+	 *            the location of the cache
+	 * @param extractor
+	 *            the feature extractor
+	 */
+	public LogCachingFeatureExtractor(File cacheFile, FeatureExtractor<FEATURE, OBJECT> extractor) {
+		this(cacheFile, extractor, false);
+	}
+
+	/**
+	 * Construct the cache in the given file. The given extractor will be used
+	 * to generate the features. Optionally, all features can be regenerated.
+	 * 
+	 * @param cacheFile
+	 *            the location of the cache
+	 * @param extractor
+	 *            the feature extractor
+	 * @param force
+	 *            if true, then all features will be regenerated and saved,
+	 *            rather than being loaded.
+	 */
+	public LogCachingFeatureExtractor(File cacheFile, FeatureExtractor<FEATURE, OBJECT> extractor, boolean force) {
+		this(openCache(cacheFile), extractor, force);
+	}
+
+	/**
+	 * Construct with the given cache. The given extractor will be used to
+	 * generate the features. Optionally, all features can be regenerated.
+	 * 
+	 * @param cache
+	 *            the cache
+	 * @param extractor
+	 *            the feature extractor
+	 * @param force
+	 *            if true, then all features will be regenerated and saved,
+	 *            rather than being loaded.
+	 */
+	public LogCachingFeatureExtractor(LogStructuredFeatureCache cache, FeatureExtractor<FEATURE, OBJECT> extractor,
+			boolean force)
+	{
+		this.cache = cache;
+		this.extractor = extractor;
+		this.force = force;
+	}
+
+	private static LogStructuredFeatureCache openCache(File cacheFile) {
+		try {
+			return new LogStructuredFeatureCache(cacheFile);
+		} catch (final IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public FEATURE extractFeature(OBJECT object) {
+		final String id = object.getID();
+
+		if (!force) {
+			try {
+				final FEATURE feature = cache.get(id);
+
+				if (feature != null)
+					return feature;
+			} catch (final Exception e) {
+				logger.warn("Error reading from cache. Feature will be regenerated.");
+			}
+		}
+
+		final FEATURE feature = extractor.extractFeature(object);
+
+		try {
+			cache.put(id, feature);
+		} catch (final IOException e) {
+			logger.warn("Caching of the feature for the " + id + " object was disabled", e);
+		}
+
+		return feature;
+	}
+
+	/**
+	 * Get the underlying cache
+	 * 
+	 * @return the cache
+	 */
+	public LogStructuredFeatureCache getCache() {
+		return cache;
+	}
+
+	@Override
+	public void close() throws IOException {
+		cache.close();
+	}
+
+	@Override
+	public String toString() {
+		return this.extractor.toString();
+	}
+}
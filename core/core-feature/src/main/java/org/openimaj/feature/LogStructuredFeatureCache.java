@@ -0,0 +1,711 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.feature;
+
+import java.io.Closeable;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.openimaj.io.ByteBufferDataInput;
+import org.openimaj.io.IOUtils;
+import org.openimaj.io.ReadWriteableBinary;
+import org.openimaj.io.ReadableBinary;
+import org.openimaj.io.WriteableBinary;
+
+/**
+ * A persistent, append-only (log-structured) store of features (or any other
+ * objects) keyed by string identifiers. All the features are stored in a
+ * single file, which is memory-mapped in fixed-size segments, and are located
+ * through an in-memory hash index that lives outside the Java heap. The index
+ * is rebuilt by sequentially scanning the log when the store is opened.
+ * <p>
+ * Features implementing {@link ReadableBinary} and {@link WriteableBinary}
+ * (such as {@link ReadWriteableBinary}s and {@link FeatureVector}s) are stored
+ * in their binary form (preceded by their class name) and are read directly
+ * from the mapped file without any intermediate copying; all other objects
+ * are serialised with {@link IOUtils#write(Object, java.io.DataOutput)}.
+ * Writing a feature with an existing key appends a new record that supersedes
+ * the old one; the space used by superseded records is not reclaimed.
+ * <p>
+ * Any number of threads can read from the store concurrently with a single
+ * writer (calls to {@link #put(String, Object)} are serialised). Records
+ * written since the last call to {@link #flush()} or {@link #close()} might
+ * not survive a crash of the operating system. The log can grow to at most
+ * 2<sup>40</sup> bytes, individual records must fit within a segment, and the
+ * store can hold about 100 million distinct keys.
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class LogStructuredFeatureCache implements Closeable {
+	/**
+	 * The default size of the segments in which the file is mapped (64MB)
+	 */
+	public static final int DEFAULT_SEGMENT_SIZE = 1 << 26;
+
+	private static final long MAGIC = 0x4f494d4a46434c47L; // "OIMJFCLG"
+	private static final int VERSION = 1;
+
+	// file header layout
+	private static final int HEADER_MAGIC = 0;
+	private static final int HEADER_VERSION = 8;
+	private static final int HEADER_SEGMENT_SHIFT = 12;
+	private static final int HEADER_END = 16;
+	private static final int HEADER_SIZE = 24;
+
+	// record types
+	private static final byte TYPE_BINARY = 0;
+	private static final byte TYPE_OBJECT = 1;
+
+	// records start on 16 byte boundaries
+	private static final int ALIGNMENT_SHIFT = 4;
+	private static final long MAX_LOG_SIZE = (1L << 40) - (1 << ALIGNMENT_SHIFT);
+	private static final int INITIAL_INDEX_BITS = 16;
+
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final int segmentShift;
+	private final int segmentSize;
+
+	private final Object writeLock = new Object();
+
+	// the mapped segments; replaced (never modified) when a segment is added
+	private volatile MappedByteBuffer[] segments;
+
+	// the logical end of the log; all records before this are complete and
+	// visible to readers
+	private volatile long end;
+
+	private volatile Index index;
+
+	private final Map<String, Class<? extends ReadableBinary>> classes = new ConcurrentHashMap<String, Class<? extends ReadableBinary>>();
+
+	private final ThreadLocal<BufferDataOutput> outputBuffers = new ThreadLocal<BufferDataOutput>() {
+		@Override
+		protected BufferDataOutput initialValue() {
+			return new BufferDataOutput();
+		}
+	};
+
+	/**
+	 * Open (or create) a store in the given file using the default segment
+	 * size.
+	 * 
+	 * @param file
+	 *            the file
+	 * @throws IOException
+	 *             if an error occurs opening the file, or the file is not a
+	 *             valid store
+	 */
+	public LogStructuredFeatureCache(File file) throws IOException {
+		this(file, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Open (or create) a store in the given file. The segment size only
+	 * applies to a newly created file; existing files retain the segment size
+	 * they were created with.
+	 * 
+	 * @param file
+	 *            the file
+	 * @param segmentSize
+	 *            the segment size; must be a power of two and at least 1024.
+	 *            This is also the maximum size of a record.
+	 * @throws IOException
+	 *             if an error occurs opening the file, or the file is not a
+	 *             valid store
+	 */
+	public LogStructuredFeatureCache(File file, int segmentSize) throws IOException {
+		if (segmentSize < 1024 || Integer.bitCount(segmentSize) != 1)
+			throw new IllegalArgumentException("segment size must be a power of two greater than or equal to 1024");
+
+		final File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null)
+			parent.mkdirs();
+
+		final boolean exists = file.exists() && file.length() > 0;
+
+		this.raf = new RandomAccessFile(file, "rw");
+		this.channel = raf.getChannel();
+
+		try {
+			if (exists) {
+				final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				while (header.hasRemaining() && channel.read(header, header.position()) >= 0)
+					;
+				header.flip();
+
+				if (header.remaining() < HEADER_SIZE || header.getLong(HEADER_MAGIC) != MAGIC)
+					throw new IOException(file + " is not a feature cache");
+				if (header.getInt(HEADER_VERSION) != VERSION)
+					throw new IOException("Unsupported feature cache version " + header.getInt(HEADER_VERSION));
+
+				this.segmentShift = header.getInt(HEADER_SEGMENT_SHIFT);
+				this.segmentSize = 1 << segmentShift;
+				this.end = header.getLong(HEADER_END);
+
+				final int nsegments = (int) Math.max(1, (channel.size() + segmentSize - 1) >>> segmentShift);
+				this.segments = new MappedByteBuffer[nsegments];
+				for (int i = 0; i < nsegments; i++)
+					segments[i] = map(i);
+
+				this.index = new Index(INITIAL_INDEX_BITS);
+				rebuildIndex();
+			} else {
+				this.segmentShift = Integer.numberOfTrailingZeros(segmentSize);
+				this.segmentSize = segmentSize;
+				this.segments = new MappedByteBuffer[] { map(0) };
+				this.index = new Index(INITIAL_INDEX_BITS);
+
+				final MappedByteBuffer header = segments[0];
+				header.putLong(HEADER_MAGIC, MAGIC);
+				header.putInt(HEADER_VERSION, VERSION);
+				header.putInt(HEADER_SEGMENT_SHIFT, segmentShift);
+				header.putLong(HEADER_END, HEADER_SIZE);
+				this.end = HEADER_SIZE;
+			}
+		} catch (final IOException e) {
+			raf.close();
+			throw e;
+		}
+	}
+
+	private static long align(long pos) {
+		final long mask = (1 << ALIGNMENT_SHIFT) - 1;
+
+		return (pos + mask) & ~mask;
+	}
+
+	private MappedByteBuffer map(int segment) throws IOException {
+		return channel.map(MapMode.READ_WRITE, (long) segment << segmentShift, segmentSize);
+	}
+
+	/*
+	 * Scan the log, indexing every record. Later records with the same key
+	 * replace earlier ones.
+	 */
+	private void rebuildIndex() throws IOException {
+		long pos = align(HEADER_SIZE);
+
+		while (pos < end) {
+			final ByteBuffer buffer = segments[(int) (pos >>> segmentShift)].duplicate();
+			final int offset = (int) (pos & (segmentSize - 1));
+			final int length = offset + 4 <= segmentSize ? buffer.getInt(offset) : 0;
+
+			if (length == 0) {
+				// padding; the next record is in the next segment
+				pos = ((pos >>> segmentShift) + 1) << segmentShift;
+				continue;
+			}
+
+			buffer.position(offset + 4);
+			final String key = new ByteBufferDataInput(buffer).readUTF();
+
+			putIndex(hash(key), key, pos);
+			pos = align(pos + 4 + length);
+		}
+	}
+
+	/**
+	 * Get the number of distinct keys in the store
+	 * 
+	 * @return the number of keys
+	 */
+	public int size() {
+		return index.size;
+	}
+
+	/**
+	 * Test if the store contains a feature with the given key
+	 * 
+	 * @param key
+	 *            the key
+	 * @return true if the store contains the key; false otherwise
+	 */
+	public boolean containsKey(String key) {
+		return find(key) >= 0;
+	}
+
+	/**
+	 * Get the feature with the given key.
+	 * 
+	 * @param <T>
+	 *            the type of feature
+	 * @param key
+	 *            the key
+	 * @return the feature, or null if the key isn't in the store
+	 * @throws IOException
+	 *             if an error occurs reading the feature
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T get(String key) throws IOException {
+		final long pos = find(key);
+
+		if (pos < 0)
+			return null;
+
+		final ByteBufferDataInput in = open(pos);
+		in.skipBytes(in.readUnsignedShort()); // skip the key
+
+		if (in.readByte() == TYPE_BINARY) {
+			final ReadableBinary obj = IOUtils.newInstance(getClass(in.readUTF()));
+			obj.readBinary(in);
+			return (T) obj;
+		} else {
+			return (T) IOUtils.read(in);
+		}
+	}
+
+	/*
+	 * Find the position of the record with the given key, or -1 if not found.
+	 */
+	private long find(String key) {
+		// read end before the index; every record before end is visible
+		long e = end;
+		final Index idx = index;
+		final long hash = hash(key);
+
+		for (int slot = idx.slot(hash);; slot = (slot + 1) & idx.mask) {
+			final long entry = idx.get(slot);
+
+			if (entry == 0)
+				return -1;
+
+			if (Index.matches(entry, hash)) {
+				final long pos = Index.position(entry);
+
+				// the writer publishes end before indexing a record, so a
+				// position beyond the end read above may have been indexed
+				// since; re-read end before rejecting it
+				if (pos >= e)
+					e = end;
+
+				if (pos < e && keyAt(pos).equals(key))
+					return pos;
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private Class<? extends ReadableBinary> getClass(String name) {
+		Class<? extends ReadableBinary> cls = classes.get(name);
+
+		if (cls == null) {
+			try {
+				cls = (Class<? extends ReadableBinary>) Class.forName(name);
+			} catch (final ClassNotFoundException e) {
+				throw new RuntimeException(e);
+			}
+			classes.put(name, cls);
+		}
+
+		return cls;
+	}
+
+	private ByteBufferDataInput open(long pos) {
+		final ByteBuffer buffer = segments[(int) (pos >>> segmentShift)].duplicate();
+		final int offset = (int) (pos & (segmentSize - 1));
+
+		buffer.limit(offset + 4 + buffer.getInt(offset));
+		buffer.position(offset + 4);
+
+		return new ByteBufferDataInput(buffer);
+	}
+
+	private String keyAt(long pos) {
+		try {
+			return open(pos).readUTF();
+		} catch (final IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Add a feature to the store, replacing any existing feature with the same
+	 * key.
+	 * 
+	 * @param key
+	 *            the key
+	 * @param feature
+	 *            the feature
+	 * @throws IOException
+	 *             if an error occurs writing the feature, or it is too big to
+	 *             fit in a segment
+	 */
+	public void put(String key, Object feature) throws IOException {
+		// serialise outside of the lock
+		final BufferDataOutput out = outputBuffers.get();
+		out.reset();
+		out.writeInt(0); // placeholder for the length
+		out.writeUTF(key);
+
+		if (feature instanceof ReadableBinary && feature instanceof WriteableBinary) {
+			out.writeByte(TYPE_BINARY);
+			out.writeUTF(feature.getClass().getName());
+			((WriteableBinary) feature).writeBinary(out);
+		} else {
+			out.writeByte(TYPE_OBJECT);
+			IOUtils.write(feature, out);
+		}
+
+		final ByteBuffer record = out.buffer();
+		record.flip();
+		record.putInt(0, record.limit() - 4);
+
+		if (record.limit() > segmentSize - HEADER_SIZE)
+			throw new IOException("Feature of " + record.limit() + " bytes is too large for a segment of "
+					+ segmentSize + " bytes");
+
+		final long hash = hash(key);
+		synchronized (writeLock) {
+			if (segments == null)
+				throw new IOException("The feature cache is closed");
+
+			long pos = align(end);
+			if ((pos & (segmentSize - 1)) + record.limit() > segmentSize) {
+				// doesn't fit; leave the rest of this segment (zeros) as
+				// padding
+				pos = ((pos >>> segmentShift) + 1) << segmentShift;
+			}
+
+			if (pos + record.limit() > MAX_LOG_SIZE)
+				throw new IOException("The feature cache is full");
+
+			final int segment = (int) (pos >>> segmentShift);
+			if (segment >= segments.length) {
+				final MappedByteBuffer[] newSegments = new MappedByteBuffer[segment + 1];
+				System.arraycopy(segments, 0, newSegments, 0, segments.length);
+				newSegments[segment] = map(segment);
+				segments = newSegments;
+			}
+
+			final ByteBuffer buffer = segments[segment].duplicate();
+			buffer.position((int) (pos & (segmentSize - 1)));
+			buffer.put(record);
+
+			final long newEnd = pos + record.limit();
+			segments[0].putLong(HEADER_END, newEnd);
+
+			// publish the record before indexing it; if the index pointed at
+			// the new record before end covered it, a concurrent find would
+			// reject the position and (if the key was being replaced) report
+			// a miss rather than returning the old record
+			end = newEnd;
+
+			putIndex(hash, key, pos);
+		}
+	}
+
+	/*
+	 * Add or replace an index entry. Only called by the writer (or whilst
+	 * opening).
+	 */
+	private void putIndex(long hash, String key, long pos) {
+		Index idx = index;
+
+		for (int slot = idx.slot(hash);; slot = (slot + 1) & idx.mask) {
+			final long entry = idx.get(slot);
+
+			if (entry == 0) {
+				idx.put(slot, Index.entry(hash, pos));
+				idx.size++;
+				break;
+			}
+
+			if (Index.matches(entry, hash) && keyAt(Index.position(entry)).equals(key)) {
+				idx.put(slot, Index.entry(hash, pos));
+				return;
+			}
+		}
+
+		if (idx.size > idx.capacity() * 3L / 4)
+			index = idx.grow();
+	}
+
+	/**
+	 * Force any changes to be written to the underlying storage device.
+	 */
+	public void flush() {
+		synchronized (writeLock) {
+			if (segments != null)
+				for (final MappedByteBuffer b : segments)
+					b.force();
+		}
+	}
+
+	/**
+	 * Flush and close the store. The store must not be accessed by any other
+	 * threads whilst it is being closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (writeLock) {
+			if (segments == null)
+				return;
+
+			flush();
+			segments = null;
+			channel.close();
+			raf.close();
+		}
+	}
+
+	private static long hash(String key) {
+		// 64-bit FNV-1a over the characters, followed by a final mix
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < key.length(); i++) {
+			h ^= key.charAt(i);
+			h *= 0x100000001b3L;
+		}
+
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+
+		return h;
+	}
+
+	/*
+	 * Open-addressing hash table from keys to record positions, stored in a
+	 * direct buffer. Each slot is a single long holding the top 28 bits of the
+	 * hash of the key and the position of the record in units of the record
+	 * alignment, plus one (so that 0 indicates an empty slot). The slot is
+	 * selected by the top bits of the hash, so the table can be grown without
+	 * needing the keys. The table only ever grows and slots are only ever
+	 * written with complete values, so readers never see a torn entry. Keys
+	 * are verified against the record, so the partial hashes just need to be
+	 * good enough to avoid most unnecessary reads.
+	 */
+	private static final class Index {
+		private static final int POSITION_BITS = 36;
+		private static final long POSITION_MASK = (1L << POSITION_BITS) - 1;
+		// limited by the maximum size of a direct buffer
+		private static final int MAX_BITS = 27;
+
+		final LongBuffer table;
+		final int bits;
+		final int mask;
+		int size;
+
+		Index(int bits) {
+			this.bits = bits;
+			this.mask = (1 << bits) - 1;
+			this.table = ByteBuffer.allocateDirect((1 << bits) * 8).asLongBuffer();
+		}
+
+		int capacity() {
+			return mask + 1;
+		}
+
+		int slot(long hash) {
+			return (int) (hash >>> (64 - bits));
+		}
+
+		long get(int slot) {
+			return table.get(slot);
+		}
+
+		void put(int slot, long entry) {
+			table.put(slot, entry);
+		}
+
+		static long entry(long hash, long pos) {
+			return (hash & ~POSITION_MASK) | ((pos >>> ALIGNMENT_SHIFT) + 1);
+		}
+
+		static boolean matches(long entry, long hash) {
+			return ((entry ^ hash) & ~POSITION_MASK) == 0;
+		}
+
+		static long position(long entry) {
+			return ((entry & POSITION_MASK) - 1) << ALIGNMENT_SHIFT;
+		}
+
+		Index grow() {
+			if (bits >= MAX_BITS)
+				throw new RuntimeException("The feature cache index is full");
+
+			final Index idx = new Index(bits + 1);
+
+			for (int i = 0; i <= mask; i++) {
+				final long entry = table.get(i);
+
+				if (entry != 0) {
+					int slot = idx.slot(entry);
+					while (idx.get(slot) != 0)
+						slot = (slot + 1) & idx.mask;
+
+					idx.put(slot, entry);
+				}
+			}
+			idx.size = size;
+
+			return idx;
+		}
+	}
+
+	/*
+	 * A DataOutput writing to a growable heap buffer
+	 */
+	private static final class BufferDataOutput implements DataOutput {
+		private ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+		void reset() {
+			buffer.clear();
+		}
+
+		ByteBuffer buffer() {
+			return buffer;
+		}
+
+		private void ensure(int n) {
+			if (buffer.remaining() < n) {
+				final ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + n));
+				buffer.flip();
+				bigger.put(buffer);
+				buffer = bigger;
+			}
+		}
+
+		@Override
+		public void write(int b) {
+			ensure(1);
+			buffer.put((byte) b);
+		}
+
+		@Override
+		public void write(byte[] b) {
+			write(b, 0, b.length);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			ensure(len);
+			buffer.put(b, off, len);
+		}
+
+		@Override
+		public void writeBoolean(boolean v) {
+			write(v ? 1 : 0);
+		}
+
+		@Override
+		public void writeByte(int v) {
+			write(v);
+		}
+
+		@Override
+		public void writeShort(int v) {
+			ensure(2);
+			buffer.putShort((short) v);
+		}
+
+		@Override
+		public void writeChar(int v) {
+			ensure(2);
+			buffer.putChar((char) v);
+		}
+
+		@Override
+		public void writeInt(int v) {
+			ensure(4);
+			buffer.putInt(v);
+		}
+
+		@Override
+		public void writeLong(long v) {
+			ensure(8);
+			buffer.putLong(v);
+		}
+
+		@Override
+		public void writeFloat(float v) {
+			ensure(4);
+			buffer.putFloat(v);
+		}
+
+		@Override
+		public void writeDouble(double v) {
+			ensure(8);
+			buffer.putDouble(v);
+		}
+
+		@Override
+		public void writeBytes(String s) {
+			for (int i = 0; i < s.length(); i++)
+				write(s.charAt(i));
+		}
+
+		@Override
+		public void writeChars(String s) {
+			for (int i = 0; i < s.length(); i++)
+				writeChar(s.charAt(i));
+		}
+
+		@Override
+		public void writeUTF(String s) throws IOException {
+			// modified UTF-8, as DataOutputStream#writeUTF
+			int len = 0;
+			for (int i = 0; i < s.length(); i++) {
+				final char c = s.charAt(i);
+				len += (c >= 0x0001 && c <= 0x007F) ? 1 : (c > 0x07FF) ? 3 : 2;
+			}
+
+			if (len > 65535)
+				throw new UTFDataFormatException("encoded string too long: " + len + " bytes");
+
+			ensure(2 + len);
+			buffer.putShort((short) len);
+			for (int i = 0; i < s.length(); i++) {
+				final char c = s.charAt(i);
+
+				if (c >= 0x0001 && c <= 0x007F) {
+					buffer.put((byte) c);
+				} else if (c > 0x07FF) {
+					buffer.put((byte) (0xE0 | ((c >> 12) & 0x0F)));
+					buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+					buffer.put((byte) (0x80 | (c & 0x3F)));
+				} else {
+					buffer.put((byte) (0xC0 | ((c >> 6) & 0x1F)));
+					buffer.put((byte) (0x80 | (c & 0x3F)));
+				}
+			}
+		}
+	}
+}
@@ -38,12 +38,17 @@ import org.openimaj.feature.ArrayFeatureVector;
 import org.openimaj.feature.FeatureVector;
 import org.openimaj.feature.local.LocalFeature;
 import org.openimaj.feature.local.list.LocalFeatureList;
+import org.openimaj.feature.local.list.MemoryMappedLocalFeatureList;
 
 /**
  * A {@link DataSource} for the feature vector of one or more lists of
  * {@link LocalFeature}s that use an {@link ArrayFeatureVector} for the feature
  * vector. This can be used as a convenience when you want to feed multiple
  * lists of local features to a clustering algorithm.
+ * <p>
+ * If any of the lists is a {@link MemoryMappedLocalFeatureList}, the vectors
+ * of that list are read directly from the mapped file without deserialising
+ * the features.
  *
  * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
  *
@@ -103,6 +108,28 @@ AbstractMultiListDataSource<F, T>
 		return ((LocalFeatureList<T>) this.data.get(0)).vecLength();
 	}
 
+	@SuppressWarnings("unchecked")
+	@Override
+	public F getData(int row) {
+		int cumsum = 0;
+
+		for (int i = 0; i < data.size(); i++) {
+			final List<T> list = data.get(i);
+			final int sz = list.size();
+
+			if (row < cumsum + sz) {
+				if (list instanceof MemoryMappedLocalFeatureList)
+					return (F) ((MemoryMappedLocalFeatureList<?>) list).getVector(row - cumsum);
+
+				return convert(list.get(row - cumsum));
+			}
+
+			cumsum += sz;
+		}
+
+		throw new IndexOutOfBoundsException();
+	}
+
 	@Override
 	protected F convert(T ele) {
 		return ele.getFeatureVector().values;
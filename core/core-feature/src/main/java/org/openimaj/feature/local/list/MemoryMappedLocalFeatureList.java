@@ -0,0 +1,467 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.feature.local.list;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.RandomAccess;
+
+import org.openimaj.data.RandomData;
+import org.openimaj.feature.local.LocalFeature;
+import org.openimaj.io.ByteBufferDataInput;
+import org.openimaj.io.IOUtils;
+
+/**
+ * A {@link LocalFeatureList} backed by a memory-mapped binary local feature
+ * file. Unlike {@link FileLocalFeatureList}, which opens and seeks the file on
+ * every access, this list maps the file once and decodes features lazily
+ * directly from the mapped memory, so random access is cheap and safe to
+ * perform from multiple threads.
+ * <p>
+ * In addition to the normal {@link java.util.List} methods, the list provides direct
+ * access to the raw feature vectors without creating any feature objects:
+ * {@link #getVectorBuffer(int)} returns a zero-copy view of the encoded
+ * vector, and {@link #getVector(int)} and {@link #asDataArray(Object[])}
+ * decode the vectors straight into primitive arrays. This means that (for
+ * example) the vectors of a large keypoint file can be fed to a clustering
+ * algorithm or quantiser without deserialising every feature.
+ * <p>
+ * Only files in the binary {@link LocalFeatureList} format are supported.
+ * Sublists are views over the same mapping.
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ * 
+ * @param <T>
+ *            the type of local feature
+ */
+public class MemoryMappedLocalFeatureList<T extends LocalFeature<?, ?>> extends AbstractList<T>
+		implements
+		LocalFeatureList<T>,
+		RandomAccess
+{
+	/**
+	 * The maximum number of bytes in each mapped segment of the file
+	 */
+	private static final int MAX_SEGMENT_SIZE = 1 << 30;
+
+	private final Class<T> clz;
+	private final int veclen;
+	private final int recordLength;
+	private final int vectorOffset;
+	private final Class<?> vectorType;
+
+	private final ByteBuffer[] segments;
+	private final int recordsPerSegment;
+
+	private final int offset;
+	private final int size;
+
+	private MemoryMappedLocalFeatureList(Class<T> clz, int veclen, int recordLength, int vectorOffset,
+			Class<?> vectorType, ByteBuffer[] segments, int recordsPerSegment, int offset, int size)
+	{
+		this.clz = clz;
+		this.veclen = veclen;
+		this.recordLength = recordLength;
+		this.vectorOffset = vectorOffset;
+		this.vectorType = vectorType;
+		this.segments = segments;
+		this.recordsPerSegment = recordsPerSegment;
+		this.offset = offset;
+		this.size = size;
+	}
+
+	/**
+	 * Map a binary file containing a set of local features of type clz. As with
+	 * {@link FileLocalFeatureList#read(File, Class)}, it is assumed that clz
+	 * can instantiate itself either given a vec length or no parameters and
+	 * furthermore, that this instantiated instance can write itself, even when
+	 * filled with no other data.
+	 * 
+	 * @param <T>
+	 *            the local feature class
+	 * @param keypointFile
+	 *            the file
+	 * @param clz
+	 *            the local feature class
+	 * @return a list of local features backed by the mapped file
+	 * @throws IOException
+	 *             if a problem occurs reading the file, or the file is not in
+	 *             the binary format
+	 */
+	public static <T extends LocalFeature<?, ?>> MemoryMappedLocalFeatureList<T> read(File keypointFile, Class<T> clz)
+			throws IOException
+	{
+		if (!IOUtils.isBinary(keypointFile, LocalFeatureList.BINARY_HEADER))
+			throw new IOException("Only binary local feature files can be memory-mapped");
+
+		final int[] header = LocalFeatureListUtils.readHeader(keypointFile, true);
+		final int size = header[0];
+		final int veclen = header[1];
+		final int headerLength = header[2];
+
+		final T instance = LocalFeatureListUtils.newInstance(clz, veclen);
+		final Object vector = instance.getFeatureVector().getVector();
+		final Class<?> vectorType = vector == null ? null : vector.getClass().getComponentType();
+
+		if (vectorType != null && vectorType.isPrimitive())
+			fillPattern(vector);
+
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		instance.writeBinary(new DataOutputStream(baos));
+		final byte[] record = baos.toByteArray();
+		final int recordLength = record.length;
+
+		final int vectorOffset = findVectorOffset(record, vector, vectorType);
+
+		final int recordsPerSegment = Math.max(1, MAX_SEGMENT_SIZE / Math.max(1, recordLength));
+		final int nSegments = size == 0 ? 0 : (size + recordsPerSegment - 1) / recordsPerSegment;
+		final ByteBuffer[] segments = new ByteBuffer[nSegments];
+
+		final RandomAccessFile raf = new RandomAccessFile(keypointFile, "r");
+		try {
+			final FileChannel channel = raf.getChannel();
+
+			if (channel.size() < headerLength + (long) size * recordLength)
+				throw new IOException("File is shorter than expected from the header");
+
+			for (int i = 0; i < nSegments; i++) {
+				final long start = headerLength + (long) i * recordsPerSegment * recordLength;
+				final int n = Math.min(recordsPerSegment, size - i * recordsPerSegment);
+				final MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, start, (long) n * recordLength);
+
+				segments[i] = buffer;
+			}
+		} finally {
+			raf.close();
+		}
+
+		return new MemoryMappedLocalFeatureList<T>(clz, veclen, recordLength, vectorOffset,
+				vectorOffset < 0 ? null : vectorType, segments, recordsPerSegment, 0, size);
+	}
+
+	/*
+	 * Fill a primitive array with a pattern that is unlikely to occur
+	 * elsewhere in a serialised record
+	 */
+	private static void fillPattern(Object vector) {
+		final int len = Array.getLength(vector);
+		final Class<?> type = vector.getClass().getComponentType();
+
+		for (int i = 0; i < len; i++) {
+			final int v = 0x5a + 37 * i;
+
+			if (type == byte.class)
+				Array.setByte(vector, i, (byte) v);
+			else if (type == short.class)
+				Array.setShort(vector, i, (short) v);
+			else if (type == int.class)
+				Array.setInt(vector, i, v);
+			else if (type == long.class)
+				Array.setLong(vector, i, v);
+			else if (type == float.class)
+				Array.setFloat(vector, i, v);
+			else if (type == double.class)
+				Array.setDouble(vector, i, v);
+		}
+	}
+
+	/*
+	 * Find the position of the encoded vector within the record, or -1 if it
+	 * can't be located (in which case vectors are obtained by decoding the
+	 * features).
+	 */
+	private static int findVectorOffset(byte[] record, Object vector, Class<?> type) throws IOException {
+		if (type == null || !type.isPrimitive() || type == boolean.class || type == char.class)
+			return -1;
+
+		final int len = Array.getLength(vector);
+		if (len == 0)
+			return -1;
+
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final DataOutputStream dos = new DataOutputStream(baos);
+		for (int i = 0; i < len; i++) {
+			if (type == byte.class)
+				dos.writeByte(Array.getByte(vector, i));
+			else if (type == short.class)
+				dos.writeShort(Array.getShort(vector, i));
+			else if (type == int.class)
+				dos.writeInt(Array.getInt(vector, i));
+			else if (type == long.class)
+				dos.writeLong(Array.getLong(vector, i));
+			else if (type == float.class)
+				dos.writeFloat(Array.getFloat(vector, i));
+			else if (type == double.class)
+				dos.writeDouble(Array.getDouble(vector, i));
+		}
+		final byte[] encoded = baos.toByteArray();
+
+		int found = -1;
+		outer: for (int i = 0; i <= record.length - encoded.length; i++) {
+			for (int j = 0; j < encoded.length; j++) {
+				if (record[i + j] != encoded[j])
+					continue outer;
+			}
+
+			if (found >= 0)
+				return -1; // ambiguous
+
+			found = i;
+		}
+
+		return found;
+	}
+
+	/**
+	 * Get a buffer positioned at the start of the given record. The returned
+	 * buffer is independent of any other buffer returned by this method.
+	 */
+	private ByteBuffer recordBuffer(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+
+		final int idx = index + offset;
+		final ByteBuffer buffer = segments[idx / recordsPerSegment].duplicate();
+		buffer.position((idx % recordsPerSegment) * recordLength);
+
+		return buffer;
+	}
+
+	@Override
+	public T get(int index) {
+		final ByteBuffer buffer = recordBuffer(index);
+		buffer.limit(buffer.position() + recordLength);
+
+		try {
+			final T feature = LocalFeatureListUtils.newInstance(clz, veclen);
+			feature.readBinary(new ByteBufferDataInput(buffer));
+			return feature;
+		} catch (final IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Get the length of each encoded feature record in bytes
+	 * 
+	 * @return the record length
+	 */
+	public int getRecordLength() {
+		return recordLength;
+	}
+
+	/**
+	 * Get the offset of the encoded feature vector within each record, or -1
+	 * if the vector could not be located in the record. If the vector cannot
+	 * be located, {@link #getVectorBuffer(int)} is unavailable and the other
+	 * vector access methods fall back to decoding the features.
+	 * 
+	 * @return the offset of the vector within each record in bytes
+	 */
+	public int getVectorOffset() {
+		return vectorOffset;
+	}
+
+	/**
+	 * Get a read-only, zero-copy view of the encoded feature record at the
+	 * given index.
+	 * 
+	 * @param index
+	 *            the index of the feature
+	 * @return a buffer containing exactly the encoded record
+	 */
+	public ByteBuffer getRecordBuffer(int index) {
+		final ByteBuffer buffer = recordBuffer(index);
+		buffer.limit(buffer.position() + recordLength);
+
+		return buffer.slice().asReadOnlyBuffer();
+	}
+
+	/**
+	 * Get a read-only, zero-copy view of the encoded feature vector of the
+	 * feature at the given index. The vector elements are stored in big-endian
+	 * order, with the element type given by the component type of the
+	 * feature's vector (e.g. bytes for SIFT keypoints).
+	 * 
+	 * @param index
+	 *            the index of the feature
+	 * @return a buffer containing exactly the encoded vector
+	 * @throws UnsupportedOperationException
+	 *             if the vector could not be located in the record
+	 */
+	public ByteBuffer getVectorBuffer(int index) {
+		if (vectorOffset < 0)
+			throw new UnsupportedOperationException("The feature vector could not be located in the records");
+
+		final ByteBuffer buffer = recordBuffer(index);
+		final int start = buffer.position() + vectorOffset;
+		buffer.position(start);
+		buffer.limit(start + veclen * elementSize());
+
+		return buffer.slice().asReadOnlyBuffer();
+	}
+
+	/**
+	 * Get the feature vector of the feature at the given index as a primitive
+	 * array (e.g. a <code>byte[]</code> for SIFT keypoints). Where possible,
+	 * the vector is decoded directly from the mapped file without
+	 * deserialising the feature.
+	 * 
+	 * @param index
+	 *            the index of the feature
+	 * @return the vector
+	 */
+	public Object getVector(int index) {
+		if (vectorOffset < 0)
+			return get(index).getFeatureVector().getVector();
+
+		final ByteBuffer buffer = recordBuffer(index);
+		buffer.position(buffer.position() + vectorOffset);
+
+		if (vectorType == byte.class) {
+			final byte[] v = new byte[veclen];
+			buffer.get(v);
+			return v;
+		} else if (vectorType == short.class) {
+			final short[] v = new short[veclen];
+			buffer.asShortBuffer().get(v);
+			return v;
+		} else if (vectorType == int.class) {
+			final int[] v = new int[veclen];
+			buffer.asIntBuffer().get(v);
+			return v;
+		} else if (vectorType == long.class) {
+			final long[] v = new long[veclen];
+			buffer.asLongBuffer().get(v);
+			return v;
+		} else if (vectorType == float.class) {
+			final float[] v = new float[veclen];
+			buffer.asFloatBuffer().get(v);
+			return v;
+		} else {
+			final double[] v = new double[veclen];
+			buffer.asDoubleBuffer().get(v);
+			return v;
+		}
+	}
+
+	private int elementSize() {
+		if (vectorType == byte.class)
+			return 1;
+		if (vectorType == short.class)
+			return 2;
+		if (vectorType == int.class || vectorType == float.class)
+			return 4;
+		return 8;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <Q> Q[] asDataArray(Q[] a) {
+		if (a.length < size()) {
+			a = (Q[]) Array.newInstance(a.getClass().getComponentType(), size());
+		}
+
+		for (int i = 0; i < size; i++) {
+			a[i] = (Q) getVector(i);
+		}
+
+		return a;
+	}
+
+	@Override
+	public int vecLength() {
+		return veclen;
+	}
+
+	@Override
+	public MemoryMappedLocalFeatureList<T> subList(int fromIndex, int toIndex) {
+		if (fromIndex < 0 || toIndex > size || fromIndex > toIndex)
+			throw new IndexOutOfBoundsException("fromIndex: " + fromIndex + ", toIndex: " + toIndex + ", size: " + size);
+
+		return new MemoryMappedLocalFeatureList<T>(clz, veclen, recordLength, vectorOffset, vectorType, segments,
+				recordsPerSegment, offset + fromIndex, toIndex - fromIndex);
+	}
+
+	@Override
+	public MemoryLocalFeatureList<T> randomSubList(int nelem) {
+		MemoryLocalFeatureList<T> kl;
+
+		if (nelem > size()) {
+			kl = new MemoryLocalFeatureList<T>(this);
+			Collections.shuffle(kl);
+		} else {
+			final int[] rnds = RandomData.getUniqueRandomInts(nelem, 0, this.size());
+			kl = new MemoryLocalFeatureList<T>(veclen);
+
+			for (final int idx : rnds)
+				kl.add(this.get(idx));
+		}
+
+		return kl;
+	}
+
+	@Override
+	public void writeBinary(DataOutput out) throws IOException {
+		LocalFeatureListUtils.writeBinary(out, this);
+	}
+
+	@Override
+	public void writeASCII(PrintWriter out) throws IOException {
+		LocalFeatureListUtils.writeASCII(out, this);
+	}
+
+	@Override
+	public byte[] binaryHeader() {
+		return LocalFeatureList.BINARY_HEADER;
+	}
+
+	@Override
+	public String asciiHeader() {
+		return "";
+	}
+}
@@ -0,0 +1,304 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.feature;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.openimaj.data.identity.IdentifiableObject;
+import org.openimaj.feature.BoundedCachingFeatureExtractor.FrequencySketch;
+import org.openimaj.feature.BoundedCachingFeatureExtractor.Policy;
+import org.openimaj.feature.BoundedCachingFeatureExtractor.Weigher;
+import org.openimaj.util.function.Operation;
+import org.openimaj.util.parallel.Parallel;
+
+/**
+ * Tests for the {@link BoundedCachingFeatureExtractor}.
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class BoundedCachingFeatureExtractorTest {
+	private static class CountingExtractor implements FeatureExtractor<DoubleFV, IdentifiableObject<Integer>> {
+		AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public DoubleFV extractFeature(IdentifiableObject<Integer> object) {
+			count.incrementAndGet();
+			return new DoubleFV(new double[1 + object.data % 10]);
+		}
+	}
+
+	private static IdentifiableObject<Integer> obj(int i) {
+		return new IdentifiableObject<Integer>("obj" + i, i);
+	}
+
+	/**
+	 * Test the LRU policy evicts the least recently used feature
+	 */
+	@Test
+	public void testLRU() {
+		final CountingExtractor extractor = new CountingExtractor();
+		final BoundedCachingFeatureExtractor<DoubleFV, IdentifiableObject<Integer>> cache = new BoundedCachingFeatureExtractor<DoubleFV, IdentifiableObject<Integer>>(
+				extractor, 3, null, Policy.LRU);
+
+		cache.extractFeature(obj(1));
+		cache.extractFeature(obj(2));
+		cache.extractFeature(obj(3));
+		cache.extractFeature(obj(1));
+		cache.extractFeature(obj(4)); // evicts 2
+		assertEquals(3, cache.size());
+		assertEquals(4, extractor.count.get());
+
+		cache.extractFeature(obj(1));
+		cache.extractFeature(obj(3));
+		cache.extractFeature(obj(4));
+		assertEquals(4, extractor.count.get());
+
+		cache.extractFeature(obj(2));
+		assertEquals(5, extractor.count.get());
+
+		assertEquals(4, cache.getHitCount());
+		assertEquals(5, cache.getMissCount());
+		assertEquals(2, cache.getEvictionCount());
+	}
+
+	/**
+	 * Test the total weight is bounded
+	 */
+	@Test
+	public void testWeight() {
+		final Weigher<DoubleFV> weigher = new Weigher<DoubleFV>() {
+			@Override
+			public long weigh(DoubleFV feature) {
+				return 8 * feature.length();
+			}
+		};
+
+		for (final Policy policy : Policy.values()) {
+			final BoundedCachingFeatureExtractor<DoubleFV, IdentifiableObject<Integer>> cache = new BoundedCachingFeatureExtractor<DoubleFV, IdentifiableObject<Integer>>(
+					new CountingExtractor(), 1000, weigher, policy);
+
+			final Random rng = new Random(0);
+			for (int i = 0; i < 10000; i++) {
+				cache.extractFeature(obj(rng.nextInt(500)));
+				assertTrue(cache.getWeight() <= 1000);
+			}
+			assertTrue(cache.getWeight() > 500);
+		}
+	}
+
+	/**
+	 * Test that the W-TinyLFU policy keeps frequently used features when
+	 * there is a scan through lots of objects that are only used once
+	 */
+	@Test
+	public void testScanResistance() {
+		final double[] hitRates = new double[2];
+
+		for (final Policy policy : Policy.values()) {
+			final BoundedCachingFeatureExtractor<DoubleFV, IdentifiableObject<Integer>> cache = new BoundedCachingFeatureExtractor<DoubleFV, IdentifiableObject<Integer>>(
+					new CountingExtractor(), 100, null, policy);
+
+			final Random rng = new Random(0);
+			int scan = 1000;
+			for (int i = 0; i < 20000; i++) {
+				if (i == 10000)
+					cache.resetStatistics();
+
+				if (rng.nextBoolean())
+					cache.extractFeature(obj(rng.nextInt(80)));
+				else
+					cache.extractFeature(obj(scan++));
+			}
+
+			hitRates[policy.ordinal()] = cache.getHitRate();
+		}
+
+		// half the requests are for the hot set
+		assertTrue(hitRates[Policy.W_TINY_LFU.ordinal()] > 0.45);
+		assertTrue(hitRates[Policy.W_TINY_LFU.ordinal()] > hitRates[Policy.LRU.ordinal()]);
+	}
+
+	/**
+	 * Test concurrent use
+	 */
+	@Test
+	public void testConcurrent() {
+		final CountingExtractor extractor = new CountingExtractor();
+		final BoundedCachingFeatureExtractor<DoubleFV, IdentifiableObject<Integer>> cache = new BoundedCachingFeatureExtractor<DoubleFV, IdentifiableObject<Integer>>(
+				extractor, 100);
+
+		final List<Integer> requests = new ArrayList<Integer>();
+		final Random rng = new Random(0);
+		for (int i = 0; i < 20000; i++)
+			requests.add(rng.nextInt(200));
+
+		Parallel.forEach(requests, new Operation<Integer>() {
+			@Override
+			public void perform(Integer i) {
+				assertEquals(1 + i % 10, cache.extractFeature(obj(i)).length());
+			}
+		});
+
+		assertTrue(cache.size() <= 100);
+		assertEquals(requests.size(), cache.getHitCount() + cache.getMissCount());
+		assertTrue(extractor.count.get() <= cache.getMissCount());
+	}
+
+	/**
+	 * Test that when the cache is large enough to hold everything, each feature
+	 * is only ever extracted once, however many threads request it
+	 */
+	@Test
+	public void testExtractedOnce() {
+		final ThreadPoolExecutor pool = new ThreadPoolExecutor(8, 8, 0, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>());
+
+		try {
+			for (final Policy policy : Policy.values()) {
+				final CountingExtractor extractor = new CountingExtractor();
+				final BoundedCachingFeatureExtractor<DoubleFV, IdentifiableObject<Integer>> cache = new BoundedCachingFeatureExtractor<DoubleFV, IdentifiableObject<Integer>>(
+						extractor, 1000, null, policy);
+
+				final List<Integer> requests = new ArrayList<Integer>();
+				for (int i = 0; i < 200; i++)
+					for (int j = 0; j < 100; j++)
+						requests.add(i);
+				Collections.shuffle(requests, new Random(0));
+
+				Parallel.forEach(requests, new Operation<Integer>() {
+					@Override
+					public void perform(Integer i) {
+						cache.extractFeature(obj(i));
+					}
+				}, pool);
+
+				assertEquals(200, extractor.count.get());
+				assertEquals(200, cache.size());
+				assertEquals(requests.size(), cache.getHitCount() + cache.getMissCount());
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Test that with a weigher a feature much heavier than the average can be
+	 * cached unless the cache is explicitly segmented, and that features that
+	 * are too heavy to cache don't count as evictions
+	 */
+	@Test
+	public void testHeavyFeature() {
+		final Weigher<DoubleFV> weigher = new Weigher<DoubleFV>() {
+			@Override
+			public long weigh(DoubleFV feature) {
+				return feature.length() == 10 ? 1000 : 1;
+			}
+		};
+
+		for (final Policy policy : Policy.values()) {
+			final CountingExtractor extractor = new CountingExtractor();
+			final BoundedCachingFeatureExtractor<DoubleFV, IdentifiableObject<Integer>> cache = new BoundedCachingFeatureExtractor<DoubleFV, IdentifiableObject<Integer>>(
+					extractor, 2000, weigher, policy);
+			assertEquals(2000, cache.getMaxFeatureWeight());
+
+			cache.extractFeature(obj(9));
+			cache.extractFeature(obj(9));
+			assertEquals(1, extractor.count.get());
+			assertEquals(1000, cache.getWeight());
+
+			final BoundedCachingFeatureExtractor<DoubleFV, IdentifiableObject<Integer>> segmented = new BoundedCachingFeatureExtractor<DoubleFV, IdentifiableObject<Integer>>(
+					new CountingExtractor(), 2000, weigher, 2000, policy);
+			assertEquals(125, segmented.getMaxFeatureWeight());
+
+			segmented.extractFeature(obj(9));
+			assertEquals(0, segmented.size());
+			assertEquals(0, segmented.getEvictionCount());
+		}
+	}
+
+	/**
+	 * Test that the frequency sketch is sized by the number of entries and
+	 * grows with it
+	 */
+	@Test
+	public void testSketchSize() {
+		final FrequencySketch sketch = new FrequencySketch(0);
+		assertEquals(16, sketch.table.length);
+
+		sketch.ensureCapacity(10);
+		assertEquals(16, sketch.table.length);
+
+		sketch.ensureCapacity(1000);
+		assertEquals(1024, sketch.table.length);
+		assertEquals(1023, sketch.mask);
+
+		assertEquals(1 << 20, new FrequencySketch(Long.MAX_VALUE).table.length);
+	}
+
+	/**
+	 * Test that the frequency sketch spreads keys whose hashes share their low
+	 * bits (as all the keys in a segment do) over all the counters of every
+	 * row
+	 */
+	@Test
+	public void testSketchSpread() {
+		final int width = 1024;
+		final FrequencySketch sketch = new FrequencySketch(width);
+
+		for (int i = 0; i < 4; i++) {
+			final Set<Integer> slots = new HashSet<Integer>();
+			for (int k = 0; k < 4 * width; k++)
+				slots.add(sketch.slot(k << 4, i));
+
+			// a uniform spread would touch about 63% of the 4 * width slots
+			assertTrue(slots.size() > 2 * width);
+		}
+
+		for (int k = 0; k < 100; k++)
+			for (int j = 0; j <= k % 10; j++)
+				sketch.increment(k << 4);
+
+		for (int k = 0; k < 100; k++)
+			assertEquals(1 + k % 10, sketch.frequency(k << 4));
+	}
+}
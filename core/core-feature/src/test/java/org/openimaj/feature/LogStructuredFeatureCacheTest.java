@@ -0,0 +1,237 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.feature;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openimaj.data.identity.IdentifiableObject;
+
+/**
+ * Tests for the {@link LogStructuredFeatureCache} and
+ * {@link LogCachingFeatureExtractor}.
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class LogStructuredFeatureCacheTest {
+	/**
+	 * Temporary folder for the caches
+	 */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static DoubleFV createFeature(int i) {
+		final double[] v = new double[1 + i % 50];
+		for (int j = 0; j < v.length; j++)
+			v[j] = i * 1000 + j;
+		return new DoubleFV(v);
+	}
+
+	/**
+	 * Test storing and retrieving features, including across segments and
+	 * after re-opening
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testPutGet() throws Exception {
+		final File file = new File(folder.getRoot(), "cache.log");
+		final int n = 5000;
+
+		LogStructuredFeatureCache cache = new LogStructuredFeatureCache(file, 4096);
+		for (int i = 0; i < n; i++)
+			cache.put("id" + i, createFeature(i));
+		cache.put("object", new int[] { 1, 2, 3 });
+		cache.put("id7", createFeature(8)); // replace
+
+		assertEquals(n + 1, cache.size());
+		assertNull(cache.get("missing"));
+		assertFalse(cache.containsKey("missing"));
+		assertTrue(cache.containsKey("id0"));
+		cache.close();
+
+		cache = new LogStructuredFeatureCache(file);
+		assertEquals(n + 1, cache.size());
+		for (int i = 0; i < n; i++) {
+			final DoubleFV fv = cache.get("id" + i);
+			assertArrayEquals(createFeature(i == 7 ? 8 : i).values, fv.values, 0);
+		}
+		assertArrayEquals(new int[] { 1, 2, 3 }, (int[]) cache.get("object"));
+
+		// append some more after re-opening
+		cache.put("another", createFeature(42));
+		assertArrayEquals(createFeature(42).values, ((DoubleFV) cache.get("another")).values, 0);
+		cache.close();
+	}
+
+	/**
+	 * Test reading concurrently with writing
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testConcurrentAccess() throws Exception {
+		final LogStructuredFeatureCache cache = new LogStructuredFeatureCache(new File(folder.getRoot(), "c.log"),
+				1 << 16);
+		final int n = 20000;
+
+		final ExecutorService service = Executors.newFixedThreadPool(4);
+		try {
+			final List<Future<Integer>> readers = new ArrayList<Future<Integer>>();
+			for (int t = 0; t < 3; t++) {
+				readers.add(service.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						int found = 0;
+						for (int i = 0; i < n; i++) {
+							final DoubleFV fv = cache.get("id" + i);
+							if (fv != null) {
+								assertArrayEquals(createFeature(i).values, fv.values, 0);
+								found++;
+							}
+						}
+						return found;
+					}
+				}));
+			}
+
+			for (int i = 0; i < n; i++)
+				cache.put("id" + i, createFeature(i));
+
+			for (final Future<Integer> f : readers)
+				f.get();
+
+			for (int i = 0; i < n; i++)
+				assertArrayEquals(createFeature(i).values, ((DoubleFV) cache.get("id" + i)).values, 0);
+		} finally {
+			service.shutdown();
+			cache.close();
+		}
+	}
+
+	/**
+	 * Test that readers never miss a key whilst it is being replaced
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testConcurrentReplace() throws Exception {
+		final LogStructuredFeatureCache cache = new LogStructuredFeatureCache(new File(folder.getRoot(), "r.log"),
+				1 << 16);
+		final int n = 100;
+		final int rounds = 100;
+
+		for (int i = 0; i < n; i++)
+			cache.put("id" + i, createFeature(i));
+
+		final ExecutorService service = Executors.newFixedThreadPool(4);
+		try {
+			final List<Future<Integer>> readers = new ArrayList<Future<Integer>>();
+			for (int t = 0; t < 3; t++) {
+				readers.add(service.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						for (int r = 0; r < rounds; r++) {
+							for (int i = 0; i < n; i++) {
+								final DoubleFV fv = cache.get("id" + i);
+								assertNotNull(fv);
+								assertArrayEquals(createFeature(i).values, fv.values, 0);
+							}
+						}
+						return n * rounds;
+					}
+				}));
+			}
+
+			for (int r = 0; r < rounds; r++)
+				for (int i = 0; i < n; i++)
+					cache.put("id" + i, createFeature(i));
+
+			for (final Future<Integer> f : readers)
+				f.get();
+
+			assertEquals(n, cache.size());
+		} finally {
+			service.shutdown();
+			cache.close();
+		}
+	}
+
+	/**
+	 * Test the extractor only extracts each feature once
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testExtractor() throws Exception {
+		final AtomicInteger count = new AtomicInteger();
+		final FeatureExtractor<DoubleFV, IdentifiableObject<Integer>> extractor = new FeatureExtractor<DoubleFV, IdentifiableObject<Integer>>()
+		{
+			@Override
+			public DoubleFV extractFeature(IdentifiableObject<Integer> object) {
+				count.incrementAndGet();
+				return createFeature(object.data);
+			}
+		};
+
+		final File file = new File(folder.getRoot(), "extractor.log");
+		LogCachingFeatureExtractor<DoubleFV, IdentifiableObject<Integer>> cached = new LogCachingFeatureExtractor<DoubleFV, IdentifiableObject<Integer>>(
+				file, extractor);
+
+		for (int j = 0; j < 2; j++)
+			for (int i = 0; i < 100; i++)
+				assertArrayEquals(createFeature(i).values,
+						cached.extractFeature(new IdentifiableObject<Integer>("" + i, i)).values, 0);
+		assertEquals(100, count.get());
+		cached.close();
+
+		cached = new LogCachingFeatureExtractor<DoubleFV, IdentifiableObject<Integer>>(file, extractor);
+		for (int i = 0; i < 100; i++)
+			cached.extractFeature(new IdentifiableObject<Integer>("" + i, i));
+		assertEquals(100, count.get());
+		cached.close();
+	}
+}
@@ -30,6 +30,7 @@
 package org.openimaj.image;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
 import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -114,6 +115,33 @@ class ExtendedImageIO {
 	 *                if an error occurs during reading.
 	 */
 	public static BufferedImage read(File input) throws IOException {
+		return read(input, 0);
+	}
+
+	/**
+	 * Read an image from a file at reduced resolution. The image is decoded
+	 * with the largest integer subsampling factor that keeps its longest side
+	 * at least <code>size</code> pixels, so the decoding cost and memory
+	 * scale with the required size rather than the size of the original.
+	 * Images whose longest side is already less than twice
+	 * <code>size</code> are read at full resolution.
+	 *
+	 * @param input
+	 *            a <code>File</code> to read from.
+	 * @param size
+	 *            the minimum length of the longest side of the decoded image;
+	 *            if less than or equal to zero the image is read at full
+	 *            resolution
+	 *
+	 * @return a <code>BufferedImage</code> containing the decoded contents of
+	 *         the input, or <code>null</code>.
+	 *
+	 * @exception IllegalArgumentException
+	 *                if <code>input</code> is <code>null</code>.
+	 * @exception IOException
+	 *                if an error occurs during reading.
+	 */
+	public static BufferedImage read(File input, int size) throws IOException {
 		if (input == null) {
 			throw new IllegalArgumentException("input == null!");
 		}
@@ -123,7 +151,7 @@ class ExtendedImageIO {
 		InputStream stream = null;
 		try {
 			stream = new FileInputStream(input);
-			return read(stream);
+			return read(stream, size);
 		} finally {
 			try {
 				stream.close();
@@ -167,6 +195,35 @@ class ExtendedImageIO {
 	 *                if an error occurs during reading.
 	 */
 	public static BufferedImage read(InputStream input) throws IOException {
+		return read(input, 0);
+	}
+
+	/**
+	 * Read an image from a stream at reduced resolution. The image is decoded
+	 * with the largest integer subsampling factor that keeps its longest side
+	 * at least <code>size</code> pixels. See {@link #read(File, int)} for
+	 * details.
+	 * <p>
+	 * This method <em>does not</em> close the provided <code>InputStream</code>
+	 * after the read operation has completed; it is the responsibility of the
+	 * caller to close the stream, if desired.
+	 *
+	 * @param input
+	 *            an <code>InputStream</code> to read from.
+	 * @param size
+	 *            the minimum length of the longest side of the decoded image;
+	 *            if less than or equal to zero the image is read at full
+	 *            resolution
+	 *
+	 * @return a <code>BufferedImage</code> containing the decoded contents of
+	 *         the input, or <code>null</code>.
+	 *
+	 * @exception IllegalArgumentException
+	 *                if <code>input</code> is <code>null</code>.
+	 * @exception IOException
+	 *                if an error occurs during reading.
+	 */
+	public static BufferedImage read(InputStream input, int size) throws IOException {
 		if (input == null) {
 			throw new IllegalArgumentException("input == null!");
 		}
@@ -176,7 +233,7 @@ class ExtendedImageIO {
 
 		BufferedImage bi;
 		try {
-			bi = readInternal(buffer);
+			bi = readInternal(buffer, size);
 		} catch (final Exception ex) {
 			bi = null;
 		}
@@ -190,7 +247,9 @@ class ExtendedImageIO {
 			}
 		}
 
-		return bi;
+		// not all decoders support subsampling (in particular the JAI and
+		// Sanselan decoders), so make sure the result is subsampled
+		return subsample(bi, size);
 	}
 
 	/**
@@ -224,6 +283,31 @@ class ExtendedImageIO {
 	 *                if an error occurs during reading.
 	 */
 	public static BufferedImage read(URL input) throws IOException {
+		return read(input, 0);
+	}
+
+	/**
+	 * Read an image from a URL at reduced resolution. The image is decoded
+	 * with the largest integer subsampling factor that keeps its longest side
+	 * at least <code>size</code> pixels. See {@link #read(File, int)} for
+	 * details.
+	 *
+	 * @param input
+	 *            a <code>URL</code> to read from.
+	 * @param size
+	 *            the minimum length of the longest side of the decoded image;
+	 *            if less than or equal to zero the image is read at full
+	 *            resolution
+	 *
+	 * @return a <code>BufferedImage</code> containing the decoded contents of
+	 *         the input, or <code>null</code>.
+	 *
+	 * @exception IllegalArgumentException
+	 *                if <code>input</code> is <code>null</code>.
+	 * @exception IOException
+	 *                if an error occurs during reading.
+	 */
+	public static BufferedImage read(URL input, int size) throws IOException {
 		if (input == null) {
 			throw new IllegalArgumentException("input == null!");
 		}
@@ -235,7 +319,7 @@ class ExtendedImageIO {
 			throw new IIOException("Can't get input stream from URL!", e);
 		}
 
-		return read(istream);
+		return read(istream, size);
 	}
 
 	/**
@@ -247,6 +331,9 @@ class ExtendedImageIO {
 	 *
 	 * @param input
 	 *            an <code>ImageInputStream</code> to read from.
+	 * @param size
+	 *            the minimum size of the longest side of the decoded image, or
+	 *            zero for full resolution
 	 *
 	 * @return a <code>BufferedImage</code> containing the decoded contents of
 	 *         the input, or <code>null</code>.
@@ -257,7 +344,9 @@ class ExtendedImageIO {
 	 *                if an error occurs during reading.
 	 * @throws ImageReadException
 	 */
-	private static BufferedImage readInternal(BufferedInputStream binput) throws IOException, ImageReadException {
+	private static BufferedImage readInternal(BufferedInputStream binput, int size) throws IOException,
+			ImageReadException
+	{
 		if (binput == null) {
 			throw new IllegalArgumentException("stream == null!");
 		}
@@ -278,13 +367,17 @@ class ExtendedImageIO {
 				if (reader == null) {
 					// fallback to the ImageIO reader... one day it might be
 					// fixed
-					return ImageIO.read(binput);
+					return readImageIO(binput, size);
 				} else {
-					return loadWithReader(reader, binput);
+					return loadWithReader(reader, binput, size);
 				}
 			} else {
-				// first try JAI if it's available
+				// first try JAI if it's available; JAI can't subsample whilst
+				// decoding, so it's only used for full resolution reads
 				try {
+					if (size > 0)
+						throw new IIOException("JAI doesn't support subsampled decoding");
+
 					// OpenJDK7 doesn't work properly with JAI as some of the
 					// classes are missing!! This next line will throw in such
 					// cases:
@@ -304,37 +397,146 @@ class ExtendedImageIO {
 					if (reader == null) {
 						// fallback to the ImageIO reader... one day it might be
 						// fixed
-						return ImageIO.read(binput);
+						return readImageIO(binput, size);
 					} else {
 						try {
-							return loadWithReader(reader, binput);
+							return loadWithReader(reader, binput, size);
 						} catch (final Exception ee) {
 							// fallback to the ImageIO reader... one day it
 							// might be
 							// fixed
-							return ImageIO.read(binput);
+							binput.reset();
+							return readImageIO(binput, size);
 						}
 					}
 				}
 			}
 		} else {
+			return readImageIO(binput, size);
+		}
+	}
+
+	/**
+	 * Read with the first registered ImageIO reader that can decode the
+	 * stream. This is equivalent to {@link ImageIO#read(InputStream)}, but
+	 * allows the image to be subsampled whilst it is decoded.
+	 *
+	 * @param binput
+	 *            the stream
+	 * @param size
+	 *            the minimum size of the longest side of the decoded image, or
+	 *            zero for full resolution
+	 * @return the image, or null if no reader could be found
+	 * @throws IOException
+	 */
+	private static BufferedImage readImageIO(BufferedInputStream binput, int size) throws IOException {
+		if (size <= 0)
 			return ImageIO.read(binput);
+
+		final ImageInputStream stream = ImageIO.createImageInputStream(binput);
+		if (stream == null)
+			throw new IIOException("Can't create an ImageInputStream!");
+
+		try {
+			final Iterator<ImageReader> iter = ImageIO.getImageReaders(stream);
+			if (!iter.hasNext())
+				return null;
+
+			final ImageReader reader = iter.next();
+			try {
+				reader.setInput(stream, true, true);
+
+				return reader.read(0, createReadParam(reader, size));
+			} finally {
+				reader.dispose();
+			}
+		} finally {
+			stream.close();
 		}
 	}
 
+	/**
+	 * Create the parameters for reading the first image of the reader's input
+	 * subsampled for the given size
+	 */
+	private static ImageReadParam createReadParam(ImageReader reader, int size) throws IOException {
+		final ImageReadParam param = reader.getDefaultReadParam();
+
+		if (size > 0) {
+			final int factor = subsamplingFactor(reader.getWidth(0), reader.getHeight(0), size);
+
+			if (factor > 1)
+				param.setSourceSubsampling(factor, factor, 0, 0);
+		}
+
+		return param;
+	}
+
+	/**
+	 * Compute the largest integer subsampling factor that keeps the longest
+	 * side of an image at least the given size
+	 */
+	static int subsamplingFactor(int width, int height, int size) {
+		if (size <= 0)
+			return 1;
+
+		return Math.max(1, Math.max(width, height) / size);
+	}
+
+	/**
+	 * Subsample an image that was decoded at full resolution by taking every
+	 * n-th pixel, as would be done by the decoder.
+	 *
+	 * @param image
+	 *            the image (may be null)
+	 * @param size
+	 *            the minimum size of the longest side of the subsampled image
+	 * @return the subsampled image, or the input if no subsampling is
+	 *         required
+	 */
+	private static BufferedImage subsample(BufferedImage image, int size) {
+		if (image == null)
+			return null;
+
+		final int factor = subsamplingFactor(image.getWidth(), image.getHeight(), size);
+		if (factor <= 1)
+			return image;
+
+		final int width = (image.getWidth() + factor - 1) / factor;
+		final int height = (image.getHeight() + factor - 1) / factor;
+
+		final WritableRaster src = image.getRaster();
+		final WritableRaster dst = src.createCompatibleWritableRaster(width, height);
+
+		Object pixel = null;
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				pixel = src.getDataElements(x * factor, y * factor, pixel);
+				dst.setDataElements(x, y, pixel);
+			}
+		}
+
+		return new BufferedImage(image.getColorModel(), dst, image.isAlphaPremultiplied(), null);
+	}
+
 	/**
 	 * Load an image with the given reader
 	 *
 	 * @param reader
 	 * @param binput
+	 * @param size
+	 *            the minimum size of the longest side of the decoded image, or
+	 *            zero for full resolution
 	 * @return
 	 * @throws IOException
 	 */
-	private static BufferedImage loadWithReader(ImageReader reader, BufferedInputStream binput) throws IOException {
+	private static BufferedImage loadWithReader(ImageReader reader, BufferedInputStream binput, int size)
+			throws IOException
+	{
 		final ImageInputStream stream = ImageIO.createImageInputStream(binput);
 
-		final ImageReadParam param = reader.getDefaultReadParam();
 		reader.setInput(stream, true, true);
+		final ImageReadParam param = createReadParam(reader, size);
 
 		return reader.read(0, param);
 	}
@@ -0,0 +1,639 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.image;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.openimaj.image.renderer.FlatFImageRenderer;
+import org.openimaj.image.renderer.RenderHints;
+import org.openimaj.math.geometry.shape.Rectangle;
+import org.openimaj.math.util.Interpolation;
+
+/**
+ * A single-band floating-point image whose pixels are stored contiguously in
+ * a single <code>float[]</code> in row-major order; the pixel at
+ * <code>(x, y)</code> is at index <code>y * width + x</code> of
+ * {@link #pixels}.
+ * <p>
+ * The pixel values have the same meaning as those of an {@link FImage}, and
+ * the two can be converted with {@link #FlatFImage(FImage)} and
+ * {@link #toFImage()}. Whole-image operations run as a single loop over the
+ * array, and a large image is one object on the heap rather than one per
+ * row. Code written against the <code>pixels[y][x]</code> layout of an
+ * {@link FImage} can use {@link #getRow(int)} to get a view of a row without
+ * copying it.
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class FlatFImage extends SingleBandImage<Float, FlatFImage> {
+	private static final long serialVersionUID = 1L;
+
+	/** The pixels, in row-major order */
+	public float[] pixels;
+
+	/**
+	 * Create an empty image of the given size.
+	 * 
+	 * @param width
+	 *            the width
+	 * @param height
+	 *            the height
+	 */
+	public FlatFImage(int width, int height) {
+		this(new float[width * height], width, height);
+	}
+
+	/**
+	 * Create an image backed by the given pixels. The array is used directly
+	 * rather than being copied.
+	 * 
+	 * @param pixels
+	 *            the pixels in row-major order
+	 * @param width
+	 *            the width
+	 * @param height
+	 *            the height
+	 */
+	public FlatFImage(float[] pixels, int width, int height) {
+		if (pixels.length != width * height)
+			throw new IllegalArgumentException("Expected " + (width * height) + " pixels, but got " + pixels.length);
+
+		this.pixels = pixels;
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Create an image with a copy of the pixels of the given {@link FImage}.
+	 * 
+	 * @param image
+	 *            the image to copy
+	 */
+	public FlatFImage(FImage image) {
+		this(image.width, image.height);
+
+		for (int y = 0; y < height; y++)
+			System.arraycopy(image.pixels[y], 0, pixels, y * width, width);
+	}
+
+	/**
+	 * Copy the pixels into a new {@link FImage}.
+	 * 
+	 * @return the new image
+	 */
+	public FImage toFImage() {
+		final FImage image = new FImage(width, height);
+
+		for (int y = 0; y < height; y++)
+			System.arraycopy(pixels, y * width, image.pixels[y], 0, width);
+
+		return image;
+	}
+
+	/**
+	 * Get a view of a row of the image. Changes to the buffer write through
+	 * to the image and vice-versa.
+	 * 
+	 * @param y
+	 *            the row
+	 * @return a buffer of <code>width</code> pixels backed by the row
+	 */
+	public FloatBuffer getRow(int y) {
+		if (y < 0 || y >= height)
+			throw new IndexOutOfBoundsException("Row " + y + " is outside the image");
+
+		return FloatBuffer.wrap(pixels, y * width, width).slice();
+	}
+
+	/**
+	 * Get the sum of all the pixels
+	 * 
+	 * @return the sum
+	 */
+	public float sum() {
+		float sum = 0;
+		for (final float p : pixels)
+			sum += p;
+		return sum;
+	}
+
+	/*
+	 * The pixels of the other operand of an arithmetic operation, in this
+	 * image's layout.
+	 */
+	private static float[] operand(Image<?, ?> im) {
+		if (im instanceof FlatFImage)
+			return ((FlatFImage) im).pixels;
+		if (im instanceof FImage)
+			return new FlatFImage((FImage) im).pixels;
+
+		throw new UnsupportedOperationException("Unsupported Type");
+	}
+
+	@Override
+	public FlatFImage abs() {
+		for (int i = 0; i < pixels.length; i++)
+			pixels[i] = Math.abs(pixels[i]);
+		return this;
+	}
+
+	@Override
+	public FlatFImage addInplace(Image<?, ?> im) {
+		final float[] that = operand(im);
+		for (int i = 0; i < pixels.length; i++)
+			pixels[i] += that[i];
+		return this;
+	}
+
+	@Override
+	public FlatFImage addInplace(Float num) {
+		final float f = num;
+		for (int i = 0; i < pixels.length; i++)
+			pixels[i] += f;
+		return this;
+	}
+
+	@Override
+	public FlatFImage subtractInplace(Image<?, ?> im) {
+		final float[] that = operand(im);
+		for (int i = 0; i < pixels.length; i++)
+			pixels[i] -= that[i];
+		return this;
+	}
+
+	@Override
+	public FlatFImage subtractInplace(Float num) {
+		final float f = num;
+		for (int i = 0; i < pixels.length; i++)
+			pixels[i] -= f;
+		return this;
+	}
+
+	@Override
+	public FlatFImage multiplyInplace(Image<?, ?> im) {
+		final float[] that = operand(im);
+		for (int i = 0; i < pixels.length; i++)
+			pixels[i] *= that[i];
+		return this;
+	}
+
+	@Override
+	public FlatFImage multiplyInplace(Float num) {
+		final float f = num;
+		for (int i = 0; i < pixels.length; i++)
+			pixels[i] *= f;
+		return this;
+	}
+
+	@Override
+	public FlatFImage divideInplace(Image<?, ?> im) {
+		final float[] that = operand(im);
+		for (int i = 0; i < pixels.length; i++)
+			pixels[i] /= that[i];
+		return this;
+	}
+
+	@Override
+	public FlatFImage divideInplace(Float val) {
+		final float f = val;
+		for (int i = 0; i < pixels.length; i++)
+			pixels[i] /= f;
+		return this;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * As with {@link FImage#clip(Float, Float)}, pixels below the minimum
+	 * are set to 0 and pixels above the maximum are set to 1.
+	 */
+	@Override
+	public FlatFImage clip(Float min, Float max) {
+		return clipMin(min).clipMax(max);
+	}
+
+	@Override
+	public FlatFImage clipMax(Float thresh) {
+		final float f = thresh;
+		for (int i = 0; i < pixels.length; i++)
+			if (pixels[i] > f)
+				pixels[i] = 1;
+		return this;
+	}
+
+	@Override
+	public FlatFImage clipMin(Float thresh) {
+		final float f = thresh;
+		for (int i = 0; i < pixels.length; i++)
+			if (pixels[i] < f)
+				pixels[i] = 0;
+		return this;
+	}
+
+	@Override
+	public FlatFImage threshold(Float thresh) {
+		final float f = thresh;
+		for (int i = 0; i < pixels.length; i++)
+			pixels[i] = pixels[i] <= f ? 0 : 1;
+		return this;
+	}
+
+	@Override
+	public FlatFImage replace(Float target, Float replacement) {
+		final float t = target;
+		final float r = replacement;
+		for (int i = 0; i < pixels.length; i++)
+			if (pixels[i] == t)
+				pixels[i] = r;
+		return this;
+	}
+
+	@Override
+	public FlatFImage inverse() {
+		final float max = max();
+		for (int i = 0; i < pixels.length; i++)
+			pixels[i] = max - pixels[i];
+		return this;
+	}
+
+	@Override
+	public FlatFImage normalise() {
+		final float min = min();
+		final float max = max();
+
+		if (max == min)
+			return this;
+
+		for (int i = 0; i < pixels.length; i++)
+			pixels[i] = (pixels[i] - min) / (max - min);
+		return this;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * As with {@link FImage#max()}, the result is at least
+	 * {@link Float#MIN_VALUE}.
+	 */
+	@Override
+	public Float max() {
+		float max = Float.MIN_VALUE;
+		for (final float p : pixels)
+			if (max < p)
+				max = p;
+		return max;
+	}
+
+	@Override
+	public Float min() {
+		float min = Float.MAX_VALUE;
+		for (final float p : pixels)
+			if (min > p)
+				min = p;
+		return min;
+	}
+
+	@Override
+	public FlatFImage fill(Float colour) {
+		Arrays.fill(pixels, colour);
+		return this;
+	}
+
+	@Override
+	public FlatFImage zero() {
+		Arrays.fill(pixels, 0);
+		return this;
+	}
+
+	@Override
+	public FlatFImage clone() {
+		return new FlatFImage(pixels.clone(), width, height);
+	}
+
+	@Override
+	public FlatFImage newInstance(int width, int height) {
+		return new FlatFImage(width, height);
+	}
+
+	@Override
+	public FlatFImage internalCopy(FlatFImage im) {
+		System.arraycopy(im.pixels, 0, pixels, 0, pixels.length);
+		return this;
+	}
+
+	@Override
+	public FlatFImage internalAssign(FlatFImage im) {
+		pixels = im.pixels;
+		width = im.width;
+		height = im.height;
+		return this;
+	}
+
+	@Override
+	public FlatFImage internalAssign(int[] data, int width, int height) {
+		if (this.width != width || this.height != height) {
+			this.pixels = new float[width * height];
+			this.width = width;
+			this.height = height;
+		}
+
+		for (int i = 0; i < pixels.length; i++) {
+			final int rgb = data[i];
+			final float grey = 0.299f * ((rgb >> 16) & 0xff) + 0.587f * ((rgb >> 8) & 0xff) + 0.114f * (rgb & 0xff);
+
+			pixels[i] = ImageUtilities.BYTE_TO_FLOAT_LUT[(int) grey];
+		}
+		return this;
+	}
+
+	@Override
+	public FlatFImage extractROI(int x, int y, FlatFImage out) {
+		out.zero();
+
+		final int sx = Math.max(x, 0);
+		final int ex = Math.min(x + out.width, width);
+		if (ex <= sx)
+			return out;
+
+		for (int r = Math.max(y, 0); r < Math.min(y + out.height, height); r++)
+			System.arraycopy(pixels, r * width + sx, out.pixels, (r - y) * out.width + sx - x, ex - sx);
+
+		return out;
+	}
+
+	@Override
+	public FlatFImage extractROI(int x, int y, int w, int h) {
+		return extractROI(x, y, new FlatFImage(w, h));
+	}
+
+	@Override
+	public FlatFImage extractCentreSubPix(float cx, float cy, FlatFImage out) {
+		for (int y = 0, i = 0; y < out.height; y++) {
+			for (int x = 0; x < out.width; x++, i++) {
+				final float ix = (float) (x + cx - (out.width - 1) * 0.5);
+				final float iy = (float) (y + cy - (out.height - 1) * 0.5);
+				out.pixels[i] = getPixelInterpNative(ix, iy, 0f);
+			}
+		}
+		return out;
+	}
+
+	@Override
+	public FlatFImage overlayInplace(FlatFImage image, int x, int y) {
+		final int sx = Math.max(x, 0);
+		final int ex = Math.min(x + image.width, width);
+		if (ex <= sx)
+			return this;
+
+		for (int r = Math.max(y, 0); r < Math.min(y + image.height, height); r++)
+			System.arraycopy(image.pixels, (r - y) * image.width + sx - x, pixels, r * width + sx, ex - sx);
+
+		return this;
+	}
+
+	@Override
+	public FlatFImage flipX() {
+		for (int y = 0; y < height; y++) {
+			for (int i = y * width, j = i + width - 1; i < j; i++, j--) {
+				final float tmp = pixels[i];
+				pixels[i] = pixels[j];
+				pixels[j] = tmp;
+			}
+		}
+		return this;
+	}
+
+	@Override
+	public FlatFImage flipY() {
+		final float[] tmp = new float[width];
+		for (int y = 0, yy = height - 1; y < yy; y++, yy--) {
+			System.arraycopy(pixels, y * width, tmp, 0, width);
+			System.arraycopy(pixels, yy * width, pixels, y * width, width);
+			System.arraycopy(tmp, 0, pixels, yy * width, width);
+		}
+		return this;
+	}
+
+	@Override
+	public Rectangle getContentArea() {
+		int minc = width, maxc = 0, minr = height, maxr = 0;
+
+		for (int r = 0, i = 0; r < height; r++) {
+			for (int c = 0; c < width; c++, i++) {
+				if (pixels[i] > 0) {
+					minc = Math.min(minc, c);
+					maxc = Math.max(maxc, c);
+					minr = Math.min(minr, r);
+					maxr = Math.max(maxr, r);
+				}
+			}
+		}
+
+		return new Rectangle(minc, minr, maxc - minc + 1, maxr - minr + 1);
+	}
+
+	@Override
+	public FlatFImage getField(Field f) {
+		final FlatFImage img = new FlatFImage(width, height / 2);
+
+		for (int r = f == Field.ODD ? 1 : 0, r2 = 0; r2 < img.height; r += 2, r2++)
+			System.arraycopy(pixels, r * width, img.pixels, r2 * width, width);
+
+		return img;
+	}
+
+	@Override
+	public FlatFImage getFieldCopy(Field f) {
+		final FlatFImage img = new FlatFImage(width, height);
+
+		for (int r = 0; r + 1 < height; r += 2) {
+			final int src = (f == Field.EVEN ? r : r + 1) * width;
+			System.arraycopy(pixels, src, img.pixels, r * width, width);
+			System.arraycopy(pixels, src, img.pixels, (r + 1) * width, width);
+		}
+
+		return img;
+	}
+
+	@Override
+	public FlatFImage getFieldInterpolate(Field f) {
+		final FlatFImage img = new FlatFImage(width, height);
+
+		for (int r = 0; r + 1 < height; r += 2) {
+			final int ri = r * width;
+			final int ri1 = ri + width;
+
+			for (int c = 0; c < width; c++) {
+				if (f == Field.EVEN) {
+					img.pixels[ri + c] = pixels[ri + c];
+					img.pixels[ri1 + c] = r + 2 == height ? pixels[ri + c] : 0.5F * (pixels[ri + c] + pixels[ri1 + width + c]);
+				} else {
+					img.pixels[ri1 + c] = pixels[ri1 + c];
+					img.pixels[ri + c] = r == 0 ? pixels[ri1 + c] : 0.5F * (pixels[ri - width + c] + pixels[ri1 + c]);
+				}
+			}
+		}
+
+		return img;
+	}
+
+	@Override
+	public Float getPixel(int x, int y) {
+		return pixels[y * width + x];
+	}
+
+	@Override
+	public void setPixel(int x, int y, Float val) {
+		if (x >= 0 && x < width && y >= 0 && y < height)
+			pixels[y * width + x] = val;
+	}
+
+	@Override
+	public Comparator<? super Float> getPixelComparator() {
+		return new Comparator<Float>() {
+			@Override
+			public int compare(Float o1, Float o2) {
+				return o1.compareTo(o2);
+			}
+		};
+	}
+
+	@Override
+	public Float getPixelInterp(double x, double y) {
+		final int x0 = Math.max(0, Math.min(width - 1, (int) Math.floor(x)));
+		final int x1 = Math.max(0, Math.min(width - 1, (int) Math.floor(x) + 1));
+		final int y0 = Math.max(0, Math.min(height - 1, (int) Math.floor(y)));
+		final int y1 = Math.max(0, Math.min(height - 1, (int) Math.floor(y) + 1));
+
+		float dx = (float) (x - x0);
+		float dy = (float) (y - y0);
+		if (dx < 0)
+			dx = 1 + dx;
+		if (dy < 0)
+			dy = 1 + dy;
+
+		return Interpolation.bilerp(dx, dy, pixels[y0 * width + x0], pixels[y1 * width + x0],
+				pixels[y0 * width + x1], pixels[y1 * width + x1]);
+	}
+
+	@Override
+	public Float getPixelInterp(double x, double y, Float background) {
+		final float bg = background;
+		final int x0 = (int) Math.floor(x);
+		final int y0 = (int) Math.floor(y);
+
+		double dx = x - x0;
+		double dy = y - y0;
+		if (dx < 0)
+			dx = 1 + dx;
+		if (dy < 0)
+			dy = 1 + dy;
+
+		return (float) Interpolation.bilerp(dx, dy, pixelOr(x0, y0, bg), pixelOr(x0, y0 + 1, bg),
+				pixelOr(x0 + 1, y0, bg), pixelOr(x0 + 1, y0 + 1, bg));
+	}
+
+	/**
+	 * Bilinearly interpolate the pixel value at a sub-pixel position; pixels
+	 * outside the image take the background value.
+	 * 
+	 * @param x
+	 *            the x-coordinate
+	 * @param y
+	 *            the y-coordinate
+	 * @param background
+	 *            the value of pixels outside the image
+	 * @return the interpolated value
+	 */
+	public float getPixelInterpNative(float x, float y, float background) {
+		final int x0 = (int) Math.floor(x);
+		final int y0 = (int) Math.floor(y);
+
+		float dx = x - x0;
+		float dy = y - y0;
+		if (dx < 0)
+			dx = 1 + dx;
+		if (dy < 0)
+			dy = 1 + dy;
+
+		return Interpolation.bilerpf(dx, dy, pixelOr(x0, y0, background), pixelOr(x0, y0 + 1, background),
+				pixelOr(x0 + 1, y0, background), pixelOr(x0 + 1, y0 + 1, background));
+	}
+
+	private float pixelOr(int x, int y, float background) {
+		return x >= 0 && x < width && y >= 0 && y < height ? pixels[y * width + x] : background;
+	}
+
+	@Override
+	public byte[] toByteImage() {
+		final byte[] data = new byte[pixels.length];
+		for (int i = 0; i < pixels.length; i++)
+			data[i] = (byte) Math.max(0, Math.min(255, (int) (255.0f * pixels[i])));
+		return data;
+	}
+
+	@Override
+	public int[] toPackedARGBPixels() {
+		final int[] data = new int[pixels.length];
+		for (int i = 0; i < pixels.length; i++) {
+			final int v = Math.max(0, Math.min(255, (int) (pixels[i] * 255)));
+			data[i] = 0xff << 24 | v << 16 | v << 8 | v;
+		}
+		return data;
+	}
+
+	@Override
+	public FlatFImageRenderer createRenderer() {
+		return new FlatFImageRenderer(this);
+	}
+
+	@Override
+	public FlatFImageRenderer createRenderer(RenderHints options) {
+		return new FlatFImageRenderer(this, options);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof FlatFImage))
+			return false;
+
+		final FlatFImage that = (FlatFImage) o;
+		if (width != that.width || height != that.height)
+			return false;
+
+		for (int i = 0; i < pixels.length; i++)
+			if (Math.abs(that.pixels[i] - pixels[i]) > 0)
+				return false;
+
+		return true;
+	}
+}
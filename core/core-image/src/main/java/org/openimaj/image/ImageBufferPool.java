@@ -0,0 +1,446 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.image;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.openimaj.image.colour.ColourSpace;
+
+/**
+ * A thread-safe pool of the <code>float[][]</code> arrays that back
+ * {@link FImage}s (and the bands of {@link MBFImage}s). Buffers are pooled by
+ * their dimensions; multi-band images are built from the required number of
+ * buffers. Processing chains that repeatedly create and throw away images of
+ * the same size (for example when processing the frames of a video) can
+ * borrow buffers from the pool and return them when they are no longer
+ * needed, which avoids allocating and garbage collecting the buffers for
+ * every frame.
+ * <p>
+ * The contents of a borrowed buffer are undefined. A buffer must not be used
+ * after it has been released, and must only be released once. Released
+ * buffers are retained up to a maximum total size; beyond that they are left
+ * to the garbage collector.
+ * <p>
+ * Buffers that weren't borrowed from the pool (for example the new pixels
+ * created by a processor) may also be released, in which case the pool
+ * takes ownership of them.
+ * <p>
+ * In debug mode the pool records where each buffer was borrowed. Releasing a
+ * buffer that is already in the pool is then reported and ignored, and
+ * buffers that are garbage collected without having been released are
+ * reported as leaks. Debug mode can be enabled with
+ * {@link #setDebug(boolean)}, or for the default pool by setting the
+ * <code>openimaj.image.pool.debug</code> system property to
+ * <code>true</code>.
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class ImageBufferPool {
+	private static final Logger logger = Logger.getLogger(ImageBufferPool.class);
+
+	/**
+	 * The system property that enables debug mode in the default pool
+	 */
+	public static final String DEBUG_PROPERTY = "openimaj.image.pool.debug";
+
+	private static final ImageBufferPool DEFAULT = new ImageBufferPool(Math.min(256L << 20,
+			Runtime.getRuntime().maxMemory() / 8));
+
+	static {
+		DEFAULT.setDebug(Boolean.getBoolean(DEBUG_PROPERTY));
+	}
+
+	/**
+	 * Record of where a buffer was borrowed, used in debug mode
+	 */
+	private static final class BorrowRecord extends WeakReference<float[][]> {
+		final Throwable trace;
+
+		BorrowRecord(float[][] buffer, ReferenceQueue<float[][]> queue) {
+			super(buffer, queue);
+			this.trace = new Throwable("Buffer of size " + (buffer.length == 0 ? 0 : buffer[0].length) + "x"
+					+ buffer.length + " borrowed here");
+		}
+	}
+
+	private final long maxPooledBytes;
+	private final ConcurrentHashMap<Long, Queue<float[][]>> pool = new ConcurrentHashMap<Long, Queue<float[][]>>();
+	private final AtomicLong pooledBytes = new AtomicLong();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong releases = new AtomicLong();
+	private final AtomicLong leaks = new AtomicLong();
+
+	private volatile boolean debug;
+	private final Map<Integer, List<BorrowRecord>> borrowed = new HashMap<Integer, List<BorrowRecord>>();
+	private final ReferenceQueue<float[][]> collected = new ReferenceQueue<float[][]>();
+
+	/**
+	 * Construct a pool that retains at most the given number of bytes of
+	 * released buffers.
+	 * 
+	 * @param maxPooledBytes
+	 *            the maximum total size of the retained buffers
+	 */
+	public ImageBufferPool(long maxPooledBytes) {
+		this.maxPooledBytes = maxPooledBytes;
+	}
+
+	/**
+	 * Get the default shared pool. The default pool retains up to 256MB of
+	 * buffers (or an eighth of the maximum heap if that is smaller).
+	 * 
+	 * @return the default pool
+	 */
+	public static ImageBufferPool getDefault() {
+		return DEFAULT;
+	}
+
+	private static long key(int width, int height) {
+		return ((long) width << 32) | (height & 0xffffffffL);
+	}
+
+	private static long bytes(int width, int height) {
+		return 4L * width * height;
+	}
+
+	/**
+	 * Borrow a buffer of the given size. The contents of the buffer are
+	 * undefined.
+	 * 
+	 * @param width
+	 *            the width (length of each row)
+	 * @param height
+	 *            the height (number of rows)
+	 * @return the buffer
+	 */
+	public float[][] borrow(int width, int height) {
+		final Queue<float[][]> queue = pool.get(key(width, height));
+		float[][] buffer = queue == null ? null : queue.poll();
+
+		if (buffer != null) {
+			pooledBytes.addAndGet(-bytes(width, height));
+			hits.incrementAndGet();
+		} else {
+			buffer = new float[height][width];
+			misses.incrementAndGet();
+		}
+
+		if (debug)
+			track(buffer);
+
+		return buffer;
+	}
+
+	/**
+	 * Return a buffer to the pool. The buffer must not be used after it has
+	 * been released. The buffer doesn't have to have been borrowed from the
+	 * pool.
+	 * 
+	 * @param buffer
+	 *            the buffer
+	 */
+	public void release(float[][] buffer) {
+		if (buffer == null || buffer.length == 0)
+			return;
+
+		if (debug && !untrack(buffer))
+			return;
+
+		releases.incrementAndGet();
+
+		final int height = buffer.length;
+		final int width = buffer[0].length;
+		final long size = bytes(width, height);
+
+		if (pooledBytes.addAndGet(size) > maxPooledBytes) {
+			pooledBytes.addAndGet(-size);
+			return;
+		}
+
+		final Long key = key(width, height);
+		Queue<float[][]> queue = pool.get(key);
+		if (queue == null) {
+			final Queue<float[][]> newQueue = new ConcurrentLinkedQueue<float[][]>();
+			queue = pool.putIfAbsent(key, newQueue);
+			if (queue == null)
+				queue = newQueue;
+		}
+
+		queue.offer(buffer);
+	}
+
+	/**
+	 * Borrow an {@link FImage} of the given size. The pixel values are
+	 * undefined.
+	 * 
+	 * @param width
+	 *            the width
+	 * @param height
+	 *            the height
+	 * @return the image
+	 */
+	public FImage borrowFImage(int width, int height) {
+		if (height == 0)
+			return new FImage(width, height);
+
+		return new FImage(borrow(width, height));
+	}
+
+	/**
+	 * Borrow an {@link MBFImage} of the given size with the given number of
+	 * bands. The pixel values are undefined.
+	 * 
+	 * @param width
+	 *            the width
+	 * @param height
+	 *            the height
+	 * @param colourSpace
+	 *            the colour space, which determines the number of bands
+	 * @return the image
+	 */
+	public MBFImage borrowMBFImage(int width, int height, ColourSpace colourSpace) {
+		final FImage[] bands = new FImage[colourSpace.getNumBands()];
+
+		for (int i = 0; i < bands.length; i++)
+			bands[i] = borrowFImage(width, height);
+
+		return new MBFImage(colourSpace, bands);
+	}
+
+	/**
+	 * Copy an image into a buffer borrowed from the pool.
+	 * 
+	 * @param image
+	 *            the image to copy
+	 * @return the copy
+	 */
+	public FImage copy(FImage image) {
+		return borrowFImage(image.width, image.height).internalCopy(image);
+	}
+
+	/**
+	 * Copy an image into buffers borrowed from the pool.
+	 * 
+	 * @param image
+	 *            the image to copy
+	 * @return the copy
+	 */
+	public MBFImage copy(MBFImage image) {
+		final FImage[] bands = new FImage[image.numBands()];
+
+		for (int i = 0; i < bands.length; i++)
+			bands[i] = copy(image.getBand(i));
+
+		return new MBFImage(image.colourSpace, bands);
+	}
+
+	/**
+	 * Return the buffer backing the given image to the pool. The pixels of
+	 * the image are set to null, so the image can't be used afterwards.
+	 * 
+	 * @param image
+	 *            the image
+	 */
+	public void release(FImage image) {
+		release(image.pixels);
+		image.pixels = null;
+	}
+
+	/**
+	 * Return the buffers backing the bands of the given image to the pool.
+	 * The pixels of the bands are set to null, so the image can't be used
+	 * afterwards.
+	 * 
+	 * @param image
+	 *            the image
+	 */
+	public void release(MBFImage image) {
+		for (final FImage band : image.bands)
+			release(band);
+	}
+
+	/**
+	 * Enable or disable debug mode. Only buffers borrowed whilst debug mode is
+	 * enabled are tracked.
+	 * 
+	 * @param debug
+	 *            true to enable debug mode
+	 */
+	public void setDebug(boolean debug) {
+		this.debug = debug;
+	}
+
+	/**
+	 * @return true if debug mode is enabled
+	 */
+	public boolean isDebug() {
+		return debug;
+	}
+
+	private void track(float[][] buffer) {
+		synchronized (borrowed) {
+			expungeCollected();
+
+			final Integer hash = System.identityHashCode(buffer);
+			List<BorrowRecord> records = borrowed.get(hash);
+			if (records == null)
+				borrowed.put(hash, records = new ArrayList<BorrowRecord>(1));
+
+			records.add(new BorrowRecord(buffer, collected));
+		}
+	}
+
+	private boolean untrack(float[][] buffer) {
+		synchronized (borrowed) {
+			expungeCollected();
+
+			final Integer hash = System.identityHashCode(buffer);
+			final List<BorrowRecord> records = borrowed.get(hash);
+
+			if (records != null) {
+				for (int i = 0; i < records.size(); i++) {
+					final BorrowRecord record = records.get(i);
+
+					if (record.get() == buffer) {
+						record.clear();
+						records.remove(i);
+						if (records.isEmpty())
+							borrowed.remove(hash);
+						return true;
+					}
+				}
+			}
+		}
+
+		// not borrowed; either a new buffer or one that's already been
+		// released
+		final Queue<float[][]> queue = pool.get(key(buffer[0].length, buffer.length));
+		if (queue != null) {
+			for (final float[][] pooled : queue) {
+				if (pooled == buffer) {
+					logger.warn("Ignoring a buffer that has already been released to the pool",
+							new Throwable("Released again here"));
+					return false;
+				}
+			}
+		}
+
+		return true;
+	}
+
+	/*
+	 * Report buffers that have been garbage collected without being released.
+	 * Must be called whilst synchronised on borrowed.
+	 */
+	private void expungeCollected() {
+		Reference<? extends float[][]> ref;
+
+		while ((ref = collected.poll()) != null) {
+			final BorrowRecord record = (BorrowRecord) ref;
+
+			for (final List<BorrowRecord> records : borrowed.values()) {
+				if (records.remove(record)) {
+					leaks.incrementAndGet();
+					logger.warn("Image buffer was garbage collected without being released", record.trace);
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get the number of buffers that were borrowed in debug mode and then
+	 * garbage collected without being released. Detection depends on the
+	 * garbage collector, so leaked buffers may not be counted immediately.
+	 * 
+	 * @return the number of leaked buffers
+	 */
+	public long getLeakCount() {
+		synchronized (borrowed) {
+			expungeCollected();
+		}
+
+		return leaks.get();
+	}
+
+	/**
+	 * @return the number of borrows that were satisfied from the pool
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of borrows that required a new buffer to be
+	 *         allocated
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * @return the number of buffers that have been released
+	 */
+	public long getReleaseCount() {
+		return releases.get();
+	}
+
+	/**
+	 * @return the total size in bytes of the buffers currently retained by the
+	 *         pool
+	 */
+	public long getPooledBytes() {
+		return pooledBytes.get();
+	}
+
+	/**
+	 * Discard all the buffers retained by the pool.
+	 */
+	public void clear() {
+		for (final Queue<float[][]> queue : pool.values()) {
+			float[][] buffer;
+			while ((buffer = queue.poll()) != null)
+				pooledBytes.addAndGet(-bytes(buffer.length == 0 ? 0 : buffer[0].length, buffer.length));
+		}
+	}
+}
@@ -59,6 +59,10 @@ import org.apache.sanselan.common.byteSources.ByteSource;
 import org.apache.sanselan.common.byteSources.ByteSourceInputStream;
 import org.openimaj.image.colour.ColourSpace;
 import org.openimaj.io.InputStreamObjectReader;
+import org.openimaj.util.function.Operation;
+import org.openimaj.util.parallel.GlobalExecutorPool;
+import org.openimaj.util.parallel.Parallel;
+import org.openimaj.util.parallel.Parallel.IntRange;
 
 /**
  * A static utility class with methods for dealing with images.
@@ -111,11 +115,33 @@ public class ImageUtilities {
 	/** Lookup table for byte->float conversion */
 	public final static float[] BYTE_TO_FLOAT_LUT;
 
+	/** Lookup table for unscaled byte->float conversion */
+	private final static float[] BYTE_TO_UNSCALED_FLOAT_LUT;
+
+	/**
+	 * Lookup table for the conversion of a grey byte to a normalised float
+	 * using the same NTSC weighting as {@link FImage#internalAssign(int[], int, int)}
+	 */
+	private final static float[] GREY_BYTE_TO_FLOAT_LUT;
+
+	/**
+	 * The minimum number of pixels in an image before the conversion from a
+	 * {@link BufferedImage} is performed in parallel
+	 */
+	private final static int PARALLEL_CONVERSION_THRESHOLD = 1 << 20;
+
 	// Static initialisation
 	static {
 		BYTE_TO_FLOAT_LUT = new float[256];
 		for (int i = 0; i < ImageUtilities.BYTE_TO_FLOAT_LUT.length; i++)
 			ImageUtilities.BYTE_TO_FLOAT_LUT[i] = i / 255f;
+
+		BYTE_TO_UNSCALED_FLOAT_LUT = new float[256];
+		GREY_BYTE_TO_FLOAT_LUT = new float[256];
+		for (int i = 0; i < 256; i++) {
+			BYTE_TO_UNSCALED_FLOAT_LUT[i] = i;
+			GREY_BYTE_TO_FLOAT_LUT[i] = BYTE_TO_FLOAT_LUT[(int) (0.299f * i + 0.587f * i + 0.114f * i)];
+		}
 	}
 
 	private ImageUtilities() {
@@ -133,13 +159,22 @@ public class ImageUtilities {
 	 */
 	public static FImage[] getNormalisedColourPlanes(final BufferedImage bimg) {
 		final FImage[] images = new FImage[3];
-		final BufferedImage workingImage = ImageUtilities.createWorkingImage(bimg);
-		final int[] data = workingImage.getRGB(0, 0, workingImage.getWidth(), workingImage.getHeight(), null, 0,
-				workingImage.getWidth());
+		final ByteRaster raster = ByteRaster.create(bimg);
 
-		images[0] = new FImage(data, bimg.getWidth(), bimg.getHeight(), ARGBPlane.RED);
-		images[1] = new FImage(data, bimg.getWidth(), bimg.getHeight(), ARGBPlane.GREEN);
-		images[2] = new FImage(data, bimg.getWidth(), bimg.getHeight(), ARGBPlane.BLUE);
+		if (raster != null) {
+			for (int i = 0; i < 3; i++)
+				images[i] = new FImage(bimg.getWidth(), bimg.getHeight());
+
+			raster.convert(images[0].pixels, images[1].pixels, images[2].pixels, null, BYTE_TO_UNSCALED_FLOAT_LUT);
+		} else {
+			final BufferedImage workingImage = ImageUtilities.createWorkingImage(bimg);
+			final int[] data = workingImage.getRGB(0, 0, workingImage.getWidth(), workingImage.getHeight(), null, 0,
+					workingImage.getWidth());
+
+			images[0] = new FImage(data, bimg.getWidth(), bimg.getHeight(), ARGBPlane.RED);
+			images[1] = new FImage(data, bimg.getWidth(), bimg.getHeight(), ARGBPlane.GREEN);
+			images[2] = new FImage(data, bimg.getWidth(), bimg.getHeight(), ARGBPlane.BLUE);
+		}
 
 		int r, c;
 		for (r = 0; r < images[0].height; r++) {
@@ -273,6 +308,157 @@ public class ImageUtilities {
 		ImageIO.write(ImageUtilities.createBufferedImageForDisplay(image), format, output);
 	}
 
+	/**
+	 * Direct access to the pixel data of a {@link BufferedImage} with
+	 * interleaved byte samples (i.e. {@link BufferedImage#TYPE_3BYTE_BGR},
+	 * {@link BufferedImage#TYPE_4BYTE_ABGR} and
+	 * {@link BufferedImage#TYPE_BYTE_GRAY}, which covers the images produced
+	 * by most image decoders). This avoids redrawing the image into an ARGB
+	 * buffer and unpacking it through the colour model.
+	 */
+	private static final class ByteRaster {
+		final byte[] data;
+		final int width;
+		final int height;
+		final int base;
+		final int scanlineStride;
+		final int pixelStride;
+		final int[] bandOffsets;
+
+		private ByteRaster(byte[] data, int width, int height, int base, int scanlineStride, int pixelStride,
+				int[] bandOffsets)
+		{
+			this.data = data;
+			this.width = width;
+			this.height = height;
+			this.base = base;
+			this.scanlineStride = scanlineStride;
+			this.pixelStride = pixelStride;
+			this.bandOffsets = bandOffsets;
+		}
+
+		/**
+		 * Get the raster of the image if it is of a supported type, or null
+		 * otherwise.
+		 */
+		static ByteRaster create(BufferedImage image) {
+			final int type = image.getType();
+			if (type != BufferedImage.TYPE_3BYTE_BGR && type != BufferedImage.TYPE_4BYTE_ABGR
+					&& type != BufferedImage.TYPE_BYTE_GRAY)
+				return null;
+
+			final WritableRaster raster = image.getRaster();
+			if (!(raster.getDataBuffer() instanceof DataBufferByte) || !(raster.getSampleModel() instanceof ComponentSampleModel))
+				return null;
+
+			final DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+			final ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+			if (buffer.getNumBanks() != 1)
+				return null;
+
+			final int base = buffer.getOffset() - raster.getSampleModelTranslateY() * sm.getScanlineStride()
+					- raster.getSampleModelTranslateX() * sm.getPixelStride();
+
+			// band offsets are in the order R, G, B, (A) for the colour types
+			return new ByteRaster(buffer.getData(), image.getWidth(), image.getHeight(), base,
+					sm.getScanlineStride(), sm.getPixelStride(), sm.getBandOffsets());
+		}
+
+		/**
+		 * Convert to greyscale in the same way as
+		 * {@link FImage#internalAssign(int[], int, int)}
+		 */
+		void convert(final float[][] pixels) {
+			if (parallel()) {
+				Parallel.forRange(0, height, 1, new Operation<IntRange>() {
+					@Override
+					public void perform(IntRange range) {
+						convert(pixels, range.start, range.stop);
+					}
+				});
+			} else {
+				convert(pixels, 0, height);
+			}
+		}
+
+		private void convert(final float[][] pixels, final int startY, final int stopY) {
+			if (bandOffsets.length == 1) {
+				for (int y = startY; y < stopY; y++) {
+					final float[] row = pixels[y];
+					for (int x = 0, p = base + y * scanlineStride + bandOffsets[0]; x < width; x++, p += pixelStride)
+						row[x] = GREY_BYTE_TO_FLOAT_LUT[data[p] & 0xff];
+				}
+			} else {
+				final int ro = bandOffsets[0];
+				final int go = bandOffsets[1];
+				final int bo = bandOffsets[2];
+
+				for (int y = startY; y < stopY; y++) {
+					final float[] row = pixels[y];
+					for (int x = 0, p = base + y * scanlineStride; x < width; x++, p += pixelStride) {
+						final int red = data[p + ro] & 0xff;
+						final int green = data[p + go] & 0xff;
+						final int blue = data[p + bo] & 0xff;
+
+						row[x] = BYTE_TO_FLOAT_LUT[(int) (0.299f * red + 0.587f * green + 0.114f * blue)];
+					}
+				}
+			}
+		}
+
+		/**
+		 * Convert to separate planes using the given lookup table. The alpha
+		 * plane may be null.
+		 */
+		void convert(final float[][] r, final float[][] g, final float[][] b, final float[][] a, final float[] lut) {
+			if (parallel()) {
+				Parallel.forRange(0, height, 1, new Operation<IntRange>() {
+					@Override
+					public void perform(IntRange range) {
+						convert(r, g, b, a, lut, range.start, range.stop);
+					}
+				});
+			} else {
+				convert(r, g, b, a, lut, 0, height);
+			}
+		}
+
+		private void convert(final float[][] r, final float[][] g, final float[][] b, final float[][] a,
+				final float[] lut, final int startY, final int stopY)
+		{
+			final boolean grey = bandOffsets.length == 1;
+			final int ro = bandOffsets[0];
+			final int go = grey ? ro : bandOffsets[1];
+			final int bo = grey ? ro : bandOffsets[2];
+			final int ao = bandOffsets.length == 4 ? bandOffsets[3] : -1;
+
+			for (int y = startY; y < stopY; y++) {
+				final float[] rr = r[y];
+				final float[] gr = g[y];
+				final float[] br = b[y];
+
+				for (int x = 0, p = base + y * scanlineStride; x < width; x++, p += pixelStride) {
+					rr[x] = lut[data[p + ro] & 0xff];
+					gr[x] = lut[data[p + go] & 0xff];
+					br[x] = lut[data[p + bo] & 0xff];
+				}
+
+				if (a != null) {
+					final float[] ar = a[y];
+					for (int x = 0, p = base + y * scanlineStride; x < width; x++, p += pixelStride)
+						ar[x] = ao < 0 ? lut[255] : lut[data[p + ao] & 0xff];
+				}
+			}
+		}
+
+		/*
+		 * Large images are converted in parallel if the global pool allows it
+		 */
+		private boolean parallel() {
+			return (long) width * height >= PARALLEL_CONVERSION_THRESHOLD && GlobalExecutorPool.canParallelise();
+		}
+	}
+
 	/**
 	 * Create an FImage from a buffered image.
 	 * 
@@ -281,6 +467,13 @@ public class ImageUtilities {
 	 * @return an FImage representation of the input image
 	 */
 	public static FImage createFImage(final BufferedImage image) {
+		final ByteRaster raster = ByteRaster.create(image);
+		if (raster != null) {
+			final FImage fimage = new FImage(image.getWidth(), image.getHeight());
+			raster.convert(fimage.pixels);
+			return fimage;
+		}
+
 		final BufferedImage bimg = ImageUtilities.createWorkingImage(image);
 		final int[] data = bimg.getRGB(0, 0, bimg.getWidth(), bimg.getHeight(), null, 0, bimg.getWidth());
 
@@ -297,6 +490,14 @@ public class ImageUtilities {
 	 * @return an MBFImage representation of the input image
 	 */
 	public static MBFImage createMBFImage(final BufferedImage image, final boolean alpha) {
+		final ByteRaster raster = ByteRaster.create(image);
+		if (raster != null) {
+			final MBFImage mbfimage = new MBFImage(image.getWidth(), image.getHeight(), alpha ? 4 : 3);
+			raster.convert(mbfimage.getBand(0).pixels, mbfimage.getBand(1).pixels, mbfimage.getBand(2).pixels,
+					alpha ? mbfimage.getBand(3).pixels : null, BYTE_TO_FLOAT_LUT);
+			return mbfimage;
+		}
+
 		final BufferedImage bimg = ImageUtilities.createWorkingImage(image);
 		final int[] data = bimg.getRGB(0, 0, bimg.getWidth(), bimg.getHeight(), null, 0, bimg.getWidth());
 
@@ -316,6 +517,28 @@ public class ImageUtilities {
 		return ImageUtilities.createFImage(ExtendedImageIO.read(input));
 	}
 
+	/**
+	 * Reads an {@link FImage} from the given file at reduced resolution.
+	 * The image is subsampled whilst it is decoded by the largest integer
+	 * factor that keeps its longest side at least <code>size</code> pixels,
+	 * which is much cheaper in time and memory than decoding a large image at
+	 * full resolution and then resizing it. The longest side of the returned
+	 * image will be between <code>size</code> and <code>2*size</code> pixels
+	 * (unless the original image is smaller than <code>size</code>); a
+	 * ResizeProcessor can be applied afterwards to reach an exact size.
+	 * 
+	 * @param input
+	 *            The file to read the {@link FImage} from.
+	 * @param size
+	 *            the minimum length of the longest side of the image
+	 * @return An {@link FImage}
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	public static FImage readF(final File input, final int size) throws IOException {
+		return ImageUtilities.createFImage(ExtendedImageIO.read(input, size));
+	}
+
 	/**
 	 * Reads an {@link FImage} from the given input stream.
 	 * 
@@ -329,6 +552,28 @@ public class ImageUtilities {
 		return ImageUtilities.createFImage(ExtendedImageIO.read(input));
 	}
 
+	/**
+	 * Reads an {@link FImage} from the given input stream at reduced resolution.
+	 * The image is subsampled whilst it is decoded by the largest integer
+	 * factor that keeps its longest side at least <code>size</code> pixels,
+	 * which is much cheaper in time and memory than decoding a large image at
+	 * full resolution and then resizing it. The longest side of the returned
+	 * image will be between <code>size</code> and <code>2*size</code> pixels
+	 * (unless the original image is smaller than <code>size</code>); a
+	 * ResizeProcessor can be applied afterwards to reach an exact size.
+	 * 
+	 * @param input
+	 *            The input stream to read the {@link FImage} from.
+	 * @param size
+	 *            the minimum length of the longest side of the image
+	 * @return An {@link FImage}
+	 * @throws IOException
+	 *             if the stream cannot be read
+	 */
+	public static FImage readF(final InputStream input, final int size) throws IOException {
+		return ImageUtilities.createFImage(ExtendedImageIO.read(input, size));
+	}
+
 	/**
 	 * Reads an {@link FImage} from the given URL.
 	 * 
@@ -342,6 +587,28 @@ public class ImageUtilities {
 		return ImageUtilities.createFImage(ExtendedImageIO.read(input));
 	}
 
+	/**
+	 * Reads an {@link FImage} from the given URL at reduced resolution.
+	 * The image is subsampled whilst it is decoded by the largest integer
+	 * factor that keeps its longest side at least <code>size</code> pixels,
+	 * which is much cheaper in time and memory than decoding a large image at
+	 * full resolution and then resizing it. The longest side of the returned
+	 * image will be between <code>size</code> and <code>2*size</code> pixels
+	 * (unless the original image is smaller than <code>size</code>); a
+	 * ResizeProcessor can be applied afterwards to reach an exact size.
+	 * 
+	 * @param input
+	 *            The URL to read the {@link FImage} from.
+	 * @param size
+	 *            the minimum length of the longest side of the image
+	 * @return An {@link FImage}
+	 * @throws IOException
+	 *             if the URL stream cannot be read
+	 */
+	public static FImage readF(final URL input, final int size) throws IOException {
+		return ImageUtilities.createFImage(ExtendedImageIO.read(input, size));
+	}
+
 	/**
 	 * Reads an {@link MBFImage} from the given file.
 	 * 
@@ -355,6 +622,28 @@ public class ImageUtilities {
 		return ImageUtilities.createMBFImage(ExtendedImageIO.read(input), false);
 	}
 
+	/**
+	 * Reads an {@link MBFImage} from the given file at reduced resolution.
+	 * The image is subsampled whilst it is decoded by the largest integer
+	 * factor that keeps its longest side at least <code>size</code> pixels,
+	 * which is much cheaper in time and memory than decoding a large image at
+	 * full resolution and then resizing it. The longest side of the returned
+	 * image will be between <code>size</code> and <code>2*size</code> pixels
+	 * (unless the original image is smaller than <code>size</code>); a
+	 * ResizeProcessor can be applied afterwards to reach an exact size.
+	 * 
+	 * @param input
+	 *            The file to read the {@link MBFImage} from.
+	 * @param size
+	 *            the minimum length of the longest side of the image
+	 * @return An {@link MBFImage}
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	public static MBFImage readMBF(final File input, final int size) throws IOException {
+		return ImageUtilities.createMBFImage(ExtendedImageIO.read(input, size), false);
+	}
+
 	/**
 	 * Reads an {@link MBFImage} from the given input stream.
 	 * 
@@ -368,6 +657,28 @@ public class ImageUtilities {
 		return ImageUtilities.createMBFImage(ExtendedImageIO.read(input), false);
 	}
 
+	/**
+	 * Reads an {@link MBFImage} from the given input stream at reduced resolution.
+	 * The image is subsampled whilst it is decoded by the largest integer
+	 * factor that keeps its longest side at least <code>size</code> pixels,
+	 * which is much cheaper in time and memory than decoding a large image at
+	 * full resolution and then resizing it. The longest side of the returned
+	 * image will be between <code>size</code> and <code>2*size</code> pixels
+	 * (unless the original image is smaller than <code>size</code>); a
+	 * ResizeProcessor can be applied afterwards to reach an exact size.
+	 * 
+	 * @param input
+	 *            The input stream to read the {@link MBFImage} from.
+	 * @param size
+	 *            the minimum length of the longest side of the image
+	 * @return An {@link MBFImage}
+	 * @throws IOException
+	 *             if the stream cannot be read
+	 */
+	public static MBFImage readMBF(final InputStream input, final int size) throws IOException {
+		return ImageUtilities.createMBFImage(ExtendedImageIO.read(input, size), false);
+	}
+
 	/**
 	 * Reads an {@link MBFImage} from the given URL.
 	 * 
@@ -381,6 +692,28 @@ public class ImageUtilities {
 		return ImageUtilities.createMBFImage(ExtendedImageIO.read(input), false);
 	}
 
+	/**
+	 * Reads an {@link MBFImage} from the given URL at reduced resolution.
+	 * The image is subsampled whilst it is decoded by the largest integer
+	 * factor that keeps its longest side at least <code>size</code> pixels,
+	 * which is much cheaper in time and memory than decoding a large image at
+	 * full resolution and then resizing it. The longest side of the returned
+	 * image will be between <code>size</code> and <code>2*size</code> pixels
+	 * (unless the original image is smaller than <code>size</code>); a
+	 * ResizeProcessor can be applied afterwards to reach an exact size.
+	 * 
+	 * @param input
+	 *            The URL to read the {@link MBFImage} from.
+	 * @param size
+	 *            the minimum length of the longest side of the image
+	 * @return An {@link MBFImage}
+	 * @throws IOException
+	 *             if the URL stream cannot be read
+	 */
+	public static MBFImage readMBF(final URL input, final int size) throws IOException {
+		return ImageUtilities.createMBFImage(ExtendedImageIO.read(input, size), false);
+	}
+
 	/**
 	 * Reads an {@link MBFImage} from the given file. The resultant MBImage will
 	 * contain an alpha channel
@@ -68,7 +68,7 @@ public enum ColourSpace {
 	HSV {
 		@Override
 		public MBFImage convertFromRGB(final MBFImage input) {
-			return Transforms.RGB_TO_HSV(input);
+			return FastColourTransforms.RGB_TO_HSV(input);
 		}
 
 		@Override
@@ -539,7 +539,7 @@ public enum ColourSpace {
 	CIE_XYZ {
 		@Override
 		public MBFImage convertFromRGB(final MBFImage input) {
-			return Transforms.RGB_TO_CIEXYZ(input);
+			return FastColourTransforms.RGB_TO_CIEXYZ(input);
 		}
 
 		@Override
@@ -570,7 +570,7 @@ public enum ColourSpace {
 	CIE_Lab {
 		@Override
 		public MBFImage convertFromRGB(final MBFImage input) {
-			return Transforms.RGB_TO_CIELab(input);
+			return FastColourTransforms.RGB_TO_CIELab(input);
 		}
 
 		@Override
@@ -600,7 +600,7 @@ public enum ColourSpace {
 	CIE_Lab_Norm {
 		@Override
 		public MBFImage convertFromRGB(final MBFImage input) {
-			return Transforms.RGB_TO_CIELabNormalised(input);
+			return FastColourTransforms.RGB_TO_CIELabNormalised(input);
 		}
 
 		@Override
@@ -629,7 +629,7 @@ public enum ColourSpace {
 
 		@Override
 		public MBFImage convertFromRGB(final MBFImage input) {
-			return Transforms.RGB_TO_CIELUV(input);
+			return FastColourTransforms.RGB_TO_CIELUV(input);
 		}
 
 		@Override
@@ -0,0 +1,468 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.image.colour;
+
+import org.openimaj.image.MBFImage;
+import org.openimaj.util.function.Operation;
+import org.openimaj.util.parallel.GlobalExecutorPool;
+import org.openimaj.util.parallel.Parallel;
+import org.openimaj.util.parallel.Parallel.IntRange;
+
+/**
+ * Fast conversions from RGB to other colour spaces. The conversions compute
+ * the same transforms as the corresponding methods in {@link Transforms}, but
+ * go directly from RGB to the target space in a single pass without creating
+ * intermediate images (i.e. RGB to CIE Lab doesn't create an XYZ image), use
+ * a precomputed lookup table for the inverse sRGB companding and a fast cube
+ * root (rather than calling {@link Math#pow(double, double)} for every pixel)
+ * and convert the rows of large images in parallel. The output can optionally
+ * be written into a caller-supplied image, which may be the input itself. All
+ * the conversions require an RGB or RGBA input image.
+ * <p>
+ * The results agree with {@link Transforms} to within floating point
+ * rounding, with one exception: {@link #RGB_TO_CIELUV(MBFImage)} returns u =
+ * v = 0 for black pixels, for which {@link Transforms#RGB_TO_CIELUV(MBFImage)}
+ * gives NaN.
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public final class FastColourTransforms {
+	/**
+	 * Number of intervals in the companding lookup table
+	 */
+	private static final int LUT_SIZE = 4096;
+
+	/**
+	 * Inverse sRGB companding at LUT_SIZE + 1 evenly spaced points in 0..1,
+	 * plus a guard entry so that interpolation at 1.0 doesn't need a special
+	 * case
+	 */
+	private static final double[] INVERSE_COMPANDING_LUT = new double[LUT_SIZE + 2];
+
+	/**
+	 * The minimum number of pixels in an image before the conversion is
+	 * performed in parallel
+	 */
+	private static final int PARALLEL_THRESHOLD = 1 << 16;
+
+	// CIE standard constants & D65 reference white, as used by Transforms
+	private static final double EPSILON = 0.008856;
+	private static final double KAPPA = 903.3;
+	private static final double Xr = 0.950456;
+	private static final double Yr = 1.0;
+	private static final double Zr = 1.088754;
+
+	static {
+		for (int i = 0; i <= LUT_SIZE; i++)
+			INVERSE_COMPANDING_LUT[i] = inverseCompanding((double) i / LUT_SIZE);
+
+		INVERSE_COMPANDING_LUT[LUT_SIZE + 1] = INVERSE_COMPANDING_LUT[LUT_SIZE];
+	}
+
+	private FastColourTransforms() {
+	}
+
+	private static double inverseCompanding(double v) {
+		return (v <= 0.04045) ? (v / 12.92) : (Math.pow((v + 0.055) / 1.055, 2.4));
+	}
+
+	/**
+	 * Inverse sRGB companding by linear interpolation of the lookup table.
+	 * Values outside 0..1 are computed directly.
+	 */
+	private static double linearise(float v) {
+		if (v >= 0 && v <= 1) {
+			final float pos = v * LUT_SIZE;
+			final int idx = (int) pos;
+			final double frac = pos - idx;
+
+			return INVERSE_COMPANDING_LUT[idx] + frac * (INVERSE_COMPANDING_LUT[idx + 1] - INVERSE_COMPANDING_LUT[idx]);
+		}
+
+		return inverseCompanding(v);
+	}
+
+	/**
+	 * Cube root of a positive, finite value. The estimate from the exponent
+	 * bits is refined by three Newton iterations, which gives a relative error
+	 * of about 1e-12 at less than half the cost of {@link Math#cbrt(double)}.
+	 */
+	private static double cbrt(double t) {
+		double y = Double.longBitsToDouble(Double.doubleToRawLongBits(t) / 3 + 0x2a9f7893782da1ceL);
+
+		y = (2 * y + t / (y * y)) * (1.0 / 3.0);
+		y = (2 * y + t / (y * y)) * (1.0 / 3.0);
+		y = (2 * y + t / (y * y)) * (1.0 / 3.0);
+
+		return y;
+	}
+
+	/**
+	 * The conversion of a row of pixels
+	 */
+	private static abstract class RowTransform {
+		abstract void transform(float[] R, float[] G, float[] B, float[] O1, float[] O2, float[] O3, int width);
+	}
+
+	private static final RowTransform TO_XYZ = new RowTransform() {
+		@Override
+		void transform(float[] R, float[] G, float[] B, float[] X, float[] Y, float[] Z, int width) {
+			for (int x = 0; x < width; x++) {
+				final double r = linearise(R[x]);
+				final double g = linearise(G[x]);
+				final double b = linearise(B[x]);
+
+				X[x] = (float) (r * 0.4124564 + g * 0.3575761 + b * 0.1804375);
+				Y[x] = (float) (r * 0.2126729 + g * 0.7151522 + b * 0.0721750);
+				Z[x] = (float) (r * 0.0193339 + g * 0.1191920 + b * 0.9503041);
+			}
+		}
+	};
+
+	private static final class ToLab extends RowTransform {
+		final float Lscale;
+		final float abscale;
+		final float abdelta;
+
+		ToLab(boolean norm) {
+			Lscale = norm ? 1f / 100f : 1;
+			abscale = norm ? 1f / 256f : 1;
+			abdelta = norm ? 127 : 0;
+		}
+
+		private static double f(double t) {
+			return (t > EPSILON) ? cbrt(t) : ((KAPPA * t + 16.0) / 116.0);
+		}
+
+		@Override
+		void transform(float[] R, float[] G, float[] B, float[] L, float[] a, float[] b, int width) {
+			for (int x = 0; x < width; x++) {
+				final double rl = linearise(R[x]);
+				final double gl = linearise(G[x]);
+				final double bl = linearise(B[x]);
+
+				final float X = (float) (rl * 0.4124564 + gl * 0.3575761 + bl * 0.1804375);
+				final float Y = (float) (rl * 0.2126729 + gl * 0.7151522 + bl * 0.0721750);
+				final float Z = (float) (rl * 0.0193339 + gl * 0.1191920 + bl * 0.9503041);
+
+				final double fx = f(X / Xr);
+				final double fy = f(Y / Yr);
+				final double fz = f(Z / Zr);
+
+				L[x] = ((float) (116.0 * fy - 16.0)) * Lscale;
+				a[x] = ((float) (500.0 * (fx - fy)) + abdelta) * abscale;
+				b[x] = ((float) (200.0 * (fy - fz)) + abdelta) * abscale;
+			}
+		}
+	}
+
+	private static final RowTransform TO_LAB = new ToLab(false);
+	private static final RowTransform TO_LAB_NORM = new ToLab(true);
+
+	private static final RowTransform TO_LUV = new RowTransform() {
+		private final double urp = (float) ((4 * Xr) / (Xr + 15 * Yr + 3 * Zr));
+		private final double vrp = (9 * Yr) / (Xr + 15 * Yr + 3 * Zr);
+
+		@Override
+		void transform(float[] R, float[] G, float[] B, float[] Lo, float[] uo, float[] vo, int width) {
+			for (int x = 0; x < width; x++) {
+				final double rl = linearise(R[x]);
+				final double gl = linearise(G[x]);
+				final double bl = linearise(B[x]);
+
+				final float X = (float) (rl * 0.4124564 + gl * 0.3575761 + bl * 0.1804375);
+				final float Y = (float) (rl * 0.2126729 + gl * 0.7151522 + bl * 0.0721750);
+				final float Z = (float) (rl * 0.0193339 + gl * 0.1191920 + bl * 0.9503041);
+
+				final double yr = Y / Yr;
+				final float L = (float) ((yr > EPSILON) ? (116 * cbrt(yr) - 16) : (KAPPA * yr));
+
+				final float denom = X + 15 * Y + 3 * Z;
+				if (denom == 0) {
+					Lo[x] = L;
+					uo[x] = 0;
+					vo[x] = 0;
+				} else {
+					final double up = (4 * X) / denom;
+					final double vp = (9 * Y) / denom;
+
+					Lo[x] = L;
+					uo[x] = (float) (13 * L * (up - urp));
+					vo[x] = (float) (13 * L * (vp - vrp));
+				}
+			}
+		}
+	};
+
+	/*
+	 * The same computation as Transforms#RGB_TO_HSV(float[], float[]), with
+	 * the three branches (depending on the dominant colour) reduced to the
+	 * choice of the value, minimum and hue offset
+	 */
+	private static final RowTransform TO_HSV = new RowTransform() {
+		@Override
+		void transform(float[] R, float[] G, float[] B, float[] H, float[] S, float[] V, int width) {
+			for (int x = 0; x < width; x++) {
+				final float r = R[x];
+				final float g = G[x];
+				final float b = B[x];
+
+				final float v, min, offset, diff;
+				if (b > g && b > r) {
+					v = b;
+					min = r > g ? g : r;
+					offset = 4;
+					diff = r - g;
+				} else if (g > r) {
+					v = g;
+					min = r > b ? b : r;
+					offset = 2;
+					diff = b - r;
+				} else {
+					v = r;
+					min = g > b ? b : g;
+					offset = 0;
+					diff = g - b;
+				}
+
+				float h = 0;
+				float s = 0;
+				if (v != 0) {
+					final float delta = v - min;
+
+					if (delta != 0) {
+						s = delta / v;
+						h = offset + diff / delta;
+					} else {
+						h = offset + diff;
+					}
+
+					h *= 60;
+					if (h < 0)
+						h += 360;
+					h /= 360;
+				}
+
+				H[x] = h;
+				S[x] = s;
+				V[x] = v;
+			}
+		}
+	};
+
+	/**
+	 * Apply a transform to all the pixels of the input, writing to the output
+	 * (which is created if null).
+	 */
+	private static MBFImage apply(final MBFImage in, MBFImage out, final ColourSpace space, final RowTransform transform)
+	{
+		if (in.colourSpace != ColourSpace.RGB && in.colourSpace != ColourSpace.RGBA)
+			throw new IllegalArgumentException("RGB or RGBA colourspace is required");
+
+		final int width = in.getWidth();
+		final int height = in.getHeight();
+
+		if (out == null) {
+			out = new MBFImage(width, height, space);
+		} else {
+			if (out.getWidth() != width || out.getHeight() != height)
+				throw new IllegalArgumentException("Output image must be the same size as the input");
+			if (out.numBands() != space.getNumBands())
+				throw new IllegalArgumentException("Output image must have " + space.getNumBands() + " bands");
+		}
+
+		final float[][] R = in.getBand(0).pixels;
+		final float[][] G = in.getBand(1).pixels;
+		final float[][] B = in.getBand(2).pixels;
+		final float[][] O1 = out.getBand(0).pixels;
+		final float[][] O2 = out.getBand(1).pixels;
+		final float[][] O3 = out.getBand(2).pixels;
+
+		if ((long) width * height >= PARALLEL_THRESHOLD && GlobalExecutorPool.canParallelise()) {
+			Parallel.forRange(0, height, 1, new Operation<IntRange>() {
+				@Override
+				public void perform(IntRange range) {
+					for (int y = range.start; y < range.stop; y++)
+						transform.transform(R[y], G[y], B[y], O1[y], O2[y], O3[y], width);
+				}
+			}, GlobalExecutorPool.getPool());
+		} else {
+			for (int y = 0; y < height; y++)
+				transform.transform(R[y], G[y], B[y], O1[y], O2[y], O3[y], width);
+		}
+
+		out.colourSpace = space;
+
+		return out;
+	}
+
+	/**
+	 * Convert RGB to CIE XYZ. Equivalent to
+	 * {@link Transforms#RGB_TO_CIEXYZ(MBFImage)}.
+	 * 
+	 * @param in
+	 *            RGB or RGBA image
+	 * @return CIE XYZ image
+	 */
+	public static MBFImage RGB_TO_CIEXYZ(final MBFImage in) {
+		return RGB_TO_CIEXYZ(in, null);
+	}
+
+	/**
+	 * Convert RGB to CIE XYZ, writing the result into the given image.
+	 * Equivalent to {@link Transforms#RGB_TO_CIEXYZ(MBFImage)}.
+	 * 
+	 * @param in
+	 *            RGB or RGBA image
+	 * @param out
+	 *            the output image; must be 3 bands and the same size as the
+	 *            input. Can be the input if it has 3 bands. If null a new
+	 *            image is created.
+	 * @return the output image
+	 */
+	public static MBFImage RGB_TO_CIEXYZ(final MBFImage in, final MBFImage out) {
+		return apply(in, out, ColourSpace.CIE_XYZ, TO_XYZ);
+	}
+
+	/**
+	 * Convert RGB to CIE Lab. Equivalent to
+	 * {@link Transforms#RGB_TO_CIELab(MBFImage)}.
+	 * 
+	 * @param in
+	 *            RGB or RGBA image
+	 * @return CIE Lab image
+	 */
+	public static MBFImage RGB_TO_CIELab(final MBFImage in) {
+		return RGB_TO_CIELab(in, null);
+	}
+
+	/**
+	 * Convert RGB to CIE Lab, writing the result into the given image.
+	 * Equivalent to {@link Transforms#RGB_TO_CIELab(MBFImage)}.
+	 * 
+	 * @param in
+	 *            RGB or RGBA image
+	 * @param out
+	 *            the output image; must be 3 bands and the same size as the
+	 *            input. Can be the input if it has 3 bands. If null a new
+	 *            image is created.
+	 * @return the output image
+	 */
+	public static MBFImage RGB_TO_CIELab(final MBFImage in, final MBFImage out) {
+		return apply(in, out, ColourSpace.CIE_Lab, TO_LAB);
+	}
+
+	/**
+	 * Convert RGB to normalised CIE Lab. Equivalent to
+	 * {@link Transforms#RGB_TO_CIELabNormalised(MBFImage)}.
+	 * 
+	 * @param in
+	 *            RGB or RGBA image
+	 * @return normalised CIE Lab image
+	 */
+	public static MBFImage RGB_TO_CIELabNormalised(final MBFImage in) {
+		return RGB_TO_CIELabNormalised(in, null);
+	}
+
+	/**
+	 * Convert RGB to normalised CIE Lab, writing the result into the given
+	 * image. Equivalent to
+	 * {@link Transforms#RGB_TO_CIELabNormalised(MBFImage)}.
+	 * 
+	 * @param in
+	 *            RGB or RGBA image
+	 * @param out
+	 *            the output image; must be 3 bands and the same size as the
+	 *            input. Can be the input if it has 3 bands. If null a new
+	 *            image is created.
+	 * @return the output image
+	 */
+	public static MBFImage RGB_TO_CIELabNormalised(final MBFImage in, final MBFImage out) {
+		return apply(in, out, ColourSpace.CIE_Lab_Norm, TO_LAB_NORM);
+	}
+
+	/**
+	 * Convert RGB to CIE LUV. Equivalent to
+	 * {@link Transforms#RGB_TO_CIELUV(MBFImage)}, except that black pixels
+	 * have u = v = 0 rather than NaN.
+	 * 
+	 * @param in
+	 *            RGB or RGBA image
+	 * @return CIE LUV image
+	 */
+	public static MBFImage RGB_TO_CIELUV(final MBFImage in) {
+		return RGB_TO_CIELUV(in, null);
+	}
+
+	/**
+	 * Convert RGB to CIE LUV, writing the result into the given image.
+	 * Equivalent to {@link Transforms#RGB_TO_CIELUV(MBFImage)}, except that
+	 * black pixels have u = v = 0 rather than NaN.
+	 * 
+	 * @param in
+	 *            RGB or RGBA image
+	 * @param out
+	 *            the output image; must be 3 bands and the same size as the
+	 *            input. Can be the input if it has 3 bands. If null a new
+	 *            image is created.
+	 * @return the output image
+	 */
+	public static MBFImage RGB_TO_CIELUV(final MBFImage in, final MBFImage out) {
+		return apply(in, out, ColourSpace.CIE_Luv, TO_LUV);
+	}
+
+	/**
+	 * Convert RGB to HSV. Equivalent to
+	 * {@link Transforms#RGB_TO_HSV(MBFImage)}.
+	 * 
+	 * @param in
+	 *            RGB or RGBA image
+	 * @return HSV image
+	 */
+	public static MBFImage RGB_TO_HSV(final MBFImage in) {
+		return RGB_TO_HSV(in, null);
+	}
+
+	/**
+	 * Convert RGB to HSV, writing the result into the given image. Equivalent
+	 * to {@link Transforms#RGB_TO_HSV(MBFImage)}.
+	 * 
+	 * @param in
+	 *            RGB or RGBA image
+	 * @param out
+	 *            the output image; must be 3 bands and the same size as the
+	 *            input. Can be the input if it has 3 bands. If null a new
+	 *            image is created.
+	 * @return the output image
+	 */
+	public static MBFImage RGB_TO_HSV(final MBFImage in, final MBFImage out) {
+		return apply(in, out, ColourSpace.HSV, TO_HSV);
+	}
+}
@@ -0,0 +1,164 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.image.renderer;
+
+import org.openimaj.image.FlatFImage;
+import org.openimaj.math.geometry.point.Point2d;
+import org.openimaj.math.geometry.point.Point2dImpl;
+import org.openimaj.math.geometry.shape.Polygon;
+
+/**
+ * {@link ImageRenderer} for {@link FlatFImage} images. Lines of unit
+ * thickness are drawn one pixel per step along their major axis; thicker
+ * lines are drawn as filled rectangles. Anti-aliasing is not supported, so
+ * the drawing algorithm in the {@link RenderHints} is ignored.
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class FlatFImageRenderer extends ImageRenderer<Float, FlatFImage> {
+	/**
+	 * Construct with given target image.
+	 * 
+	 * @param targetImage
+	 *            the target image.
+	 */
+	public FlatFImageRenderer(final FlatFImage targetImage) {
+		super(targetImage);
+	}
+
+	/**
+	 * Construct with given target image and rendering hints.
+	 * 
+	 * @param targetImage
+	 *            the target image.
+	 * @param hints
+	 *            the render hints
+	 */
+	public FlatFImageRenderer(final FlatFImage targetImage, final RenderHints hints) {
+		super(targetImage, hints);
+	}
+
+	@Override
+	public Float defaultForegroundColour() {
+		return 1f;
+	}
+
+	@Override
+	public Float defaultBackgroundColour() {
+		return 0f;
+	}
+
+	@Override
+	public void drawLine(final int x1, final int y1, final double theta, final int length, final int thickness,
+			final Float grey)
+	{
+		final int x2 = x1 + (int) Math.round(Math.cos(theta) * length);
+		final int y2 = y1 + (int) Math.round(Math.sin(theta) * length);
+
+		this.drawLine(x1, y1, x2, y2, thickness, grey);
+	}
+
+	@Override
+	public void drawLine(final int x0, final int y0, final int x1, final int y1, final int thickness, final Float grey) {
+		this.drawLine((float) x0, (float) y0, (float) x1, (float) y1, thickness, grey);
+	}
+
+	@Override
+	public void drawLine(final float x0, final float y0, final float x1, final float y1, final int thickness,
+			final Float grey)
+	{
+		if (thickness <= 1) {
+			final int steps = Math.round(Math.max(Math.abs(x1 - x0), Math.abs(y1 - y0)));
+			final float dx = steps == 0 ? 0 : (x1 - x0) / steps;
+			final float dy = steps == 0 ? 0 : (y1 - y0) / steps;
+
+			for (int i = 0; i <= steps; i++)
+				this.targetImage.setPixel(Math.round(x0 + i * dx), Math.round(y0 + i * dy), grey);
+		} else {
+			final double theta = Math.atan2(y1 - y0, x1 - x0);
+			final double t = thickness / 2.0;
+			final double sin = t * Math.sin(theta);
+			final double cos = t * Math.cos(theta);
+
+			final Polygon p = new Polygon();
+			p.addVertex(new Point2dImpl((float) (x0 - sin), (float) (y0 + cos)));
+			p.addVertex(new Point2dImpl((float) (x0 + sin), (float) (y0 - cos)));
+			p.addVertex(new Point2dImpl((float) (x1 + sin), (float) (y1 - cos)));
+			p.addVertex(new Point2dImpl((float) (x1 - sin), (float) (y1 + cos)));
+
+			this.drawPolygonFilled(p, grey);
+		}
+	}
+
+	@Override
+	public void drawPoint(final Point2d p, final Float grey, final int size) {
+		final int halfsize = (size + 1) / 2;
+		final int x = Math.round(p.getX());
+		final int y = Math.round(p.getY());
+
+		for (int j = y - (halfsize - 1); j < y + halfsize; j++)
+			this.drawHorizLine(x - (halfsize - 1), x + halfsize - 1, j, grey);
+	}
+
+	@Override
+	public void drawPolygon(final Polygon p, final int thickness, final Float grey) {
+		final int n = p.nVertices();
+		if (n < 2)
+			return;
+
+		for (int i = 0; i < n; i++) {
+			final Point2d p1 = p.getVertices().get(i);
+			final Point2d p2 = p.getVertices().get((i + 1) % n);
+			this.drawLine(p1.getX(), p1.getY(), p2.getX(), p2.getY(), thickness, grey);
+		}
+
+		for (final Polygon i : p.getInnerPolys())
+			drawPolygon(i, thickness, grey);
+	}
+
+	@Override
+	protected void drawHorizLine(final int x1, final int x2, final int y, final Float col) {
+		final FlatFImage image = this.targetImage;
+		if (y < 0 || y >= image.height)
+			return;
+
+		final int startx = Math.max(0, Math.min(x1, x2));
+		final int stopx = Math.min(Math.max(x1, x2), image.width - 1);
+		final float c = col;
+
+		for (int i = y * image.width + startx, end = y * image.width + stopx; i <= end; i++)
+			image.pixels[i] = c;
+	}
+
+	@Override
+	protected Float sanitise(final Float colour) {
+		return colour;
+	}
+}
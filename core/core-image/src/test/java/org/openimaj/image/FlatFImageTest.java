@@ -0,0 +1,195 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.image;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openimaj.image.Image.Field;
+import org.openimaj.math.geometry.point.Point2dImpl;
+import org.openimaj.math.geometry.shape.Circle;
+
+/**
+ * Tests for {@link FlatFImage}, checking that it behaves in the same way as
+ * {@link FImage}.
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class FlatFImageTest {
+	private FImage image;
+	private FImage other;
+
+	/**
+	 * Create the test images
+	 */
+	@Before
+	public void setup() {
+		final Random rng = new Random(42);
+
+		image = new FImage(37, 22);
+		other = new FImage(37, 22);
+		for (int y = 0; y < image.height; y++) {
+			for (int x = 0; x < image.width; x++) {
+				image.pixels[y][x] = rng.nextFloat();
+				other.pixels[y][x] = rng.nextFloat() + 0.5f;
+			}
+		}
+	}
+
+	private static void check(FImage expected, FlatFImage actual) {
+		assertEquals(expected, actual.toFImage());
+	}
+
+	private FlatFImage flat() {
+		return new FlatFImage(image);
+	}
+
+	/**
+	 * Test conversion to and from {@link FImage} and the row views
+	 */
+	@Test
+	public void testConversion() {
+		final FlatFImage flat = flat();
+		check(image, flat);
+
+		for (int y = 0; y < image.height; y++)
+			for (int x = 0; x < image.width; x++)
+				assertEquals(image.pixels[y][x], flat.getPixel(x, y), 0);
+
+		assertArrayEquals(image.toPackedARGBPixels(), flat.toPackedARGBPixels());
+		assertArrayEquals(image.toByteImage(), flat.toByteImage());
+		check(new FImage(image.toPackedARGBPixels(), image.width, image.height),
+				flat().internalAssign(image.toPackedARGBPixels(), image.width, image.height));
+
+		final FloatBuffer row = flat.getRow(3);
+		assertEquals(image.width, row.remaining());
+		assertEquals(image.pixels[3][5], row.get(5), 0);
+		row.put(5, -1f);
+		assertEquals(-1f, flat.pixels[3 * image.width + 5], 0);
+	}
+
+	/**
+	 * Test the arithmetic operations, with both {@link FlatFImage} and
+	 * {@link FImage} operands
+	 */
+	@Test
+	public void testArithmetic() {
+		final FlatFImage o = new FlatFImage(other);
+
+		check(image.add(other), flat().add(o));
+		check(image.subtract(other), flat().subtract(other));
+		check(image.divide(other), flat().divide(o));
+		check(image.clone().multiplyInplace(other), flat().multiplyInplace(other));
+		check(image.clone().addInplace(0.25f), flat().addInplace(0.25f));
+		check(image.clone().subtractInplace(0.25f), flat().subtractInplace(0.25f));
+		check(image.clone().multiplyInplace(3f), flat().multiplyInplace(3f));
+		check(image.clone().divideInplace(3f), flat().divideInplace(3f));
+		check(image.clone().normalise(), flat().normalise());
+		check(image.clone().inverse(), flat().inverse());
+		check(image.clone().threshold(0.5f), flat().threshold(0.5f));
+		check(image.clone().clip(0.25f, 0.75f), flat().clip(0.25f, 0.75f));
+
+		assertEquals(image.sum(), flat().sum(), 0);
+		assertEquals(image.min(), flat().min());
+		assertEquals(image.max(), flat().max());
+	}
+
+	/**
+	 * Test the geometric operations
+	 */
+	@Test
+	public void testGeometry() {
+		check(image.extractROI(-3, 5, 20, 30), flat().extractROI(-3, 5, 20, 30));
+		check(image.extractROI(30, -2, 20, 10), flat().extractROI(30, -2, 20, 10));
+		check(image.extractROI(50, 5, 4, 4), flat().extractROI(50, 5, 4, 4));
+		check(image.clone().flipX(), flat().flipX());
+		check(image.clone().flipY(), flat().flipY());
+
+		for (final Field f : Field.values()) {
+			check(image.getField(f), flat().getField(f));
+			check(image.getFieldCopy(f), flat().getFieldCopy(f));
+			check(image.getFieldInterpolate(f), flat().getFieldInterpolate(f));
+		}
+
+		final FImage small = other.extractROI(0, 0, 10, 8);
+		check(image.clone().overlayInplace(small, 30, 18), flat().overlayInplace(new FlatFImage(small), 30, 18));
+
+		final FlatFImage flat = flat();
+		for (float y = -1; y < image.height + 1; y += 0.7f) {
+			for (float x = -1; x < image.width + 1; x += 0.7f) {
+				assertEquals(image.getPixelInterp(x, y), flat.getPixelInterp(x, y), 0);
+				assertEquals(image.getPixelInterp(x, y, 0.5f), flat.getPixelInterp(x, y, 0.5f), 0);
+				assertEquals(image.getPixelInterpNative(x, y, 0.5f), flat.getPixelInterpNative(x, y, 0.5f), 0);
+			}
+		}
+
+		check(image.extractCentreSubPix(10.5f, 7.2f, new FImage(9, 5)),
+				flat.extractCentreSubPix(10.5f, 7.2f, new FlatFImage(9, 5)));
+	}
+
+	/**
+	 * Test drawing. Filled shapes and points are drawn as on an
+	 * {@link FImage}; thin lines set one pixel per column (or row), and thick
+	 * lines are filled to their thickness.
+	 */
+	@Test
+	public void testRendering() {
+		final FImage expected = image.clone();
+		final FlatFImage actual = flat();
+
+		expected.createRenderer().drawShapeFilled(new Circle(30, 15, 10), 0.2f);
+		actual.createRenderer().drawShapeFilled(new Circle(30, 15, 10), 0.2f);
+		expected.createRenderer().drawPoint(new Point2dImpl(2, 2), 0.7f, 3);
+		actual.createRenderer().drawPoint(new Point2dImpl(2, 2), 0.7f, 3);
+		check(expected, actual);
+
+		final FlatFImage line = new FlatFImage(37, 22);
+		line.createRenderer().drawLine(2, 3, 30, 12, 1, 1f);
+		assertEquals(29, line.sum(), 0);
+		assertEquals(1, line.getPixel(2, 3), 0);
+		assertEquals(1, line.getPixel(30, 12), 0);
+		for (int x = 2; x <= 30; x++)
+			assertEquals(1, line.extractROI(x, 0, 1, 22).sum(), 0);
+
+		final FlatFImage thick = new FlatFImage(37, 22);
+		thick.createRenderer().drawLine(0, 5, 36, 15, 3, 1f);
+		for (int x = 1; x < 36; x++) {
+			final float sum = thick.extractROI(x, 0, 1, 22).sum();
+			assertTrue(sum >= 3 && sum <= 4);
+			assertEquals(1, thick.getPixel(x, Math.round(5 + x * 10f / 36)), 0);
+		}
+	}
+}
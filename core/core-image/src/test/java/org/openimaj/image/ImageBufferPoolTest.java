@@ -0,0 +1,154 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.image;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.openimaj.image.colour.ColourSpace;
+
+/**
+ * Tests for {@link ImageBufferPool}
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class ImageBufferPoolTest {
+	/**
+	 * Released buffers should be reused by borrows of the same size only
+	 */
+	@Test
+	public void testReuse() {
+		final ImageBufferPool pool = new ImageBufferPool(1 << 20);
+
+		final float[][] a = pool.borrow(10, 20);
+		assertEquals(20, a.length);
+		assertEquals(10, a[0].length);
+		pool.release(a);
+
+		assertNotSame(a, pool.borrow(20, 10));
+		assertSame(a, pool.borrow(10, 20));
+		assertEquals(1, pool.getHitCount());
+		assertEquals(2, pool.getMissCount());
+		assertEquals(0, pool.getPooledBytes());
+	}
+
+	/**
+	 * Test borrowing and releasing images
+	 */
+	@Test
+	public void testImages() {
+		final ImageBufferPool pool = new ImageBufferPool(1 << 20);
+
+		final MBFImage image = new MBFImage(16, 8, ColourSpace.RGB);
+		image.fill(new Float[] { 0.1f, 0.2f, 0.3f });
+
+		final MBFImage copy = pool.copy(image);
+		assertEquals(ColourSpace.RGB, copy.colourSpace);
+		assertTrue(image.equals(copy));
+
+		final float[][] band = copy.getBand(0).pixels;
+		pool.release(copy);
+		assertNull(copy.getBand(0).pixels);
+		assertEquals(3 * 16 * 8 * 4, pool.getPooledBytes());
+
+		final FImage borrowed = pool.borrowFImage(16, 8);
+		assertSame(band, borrowed.pixels);
+		assertEquals(16, borrowed.width);
+		assertEquals(8, borrowed.height);
+	}
+
+	/**
+	 * Buffers beyond the capacity of the pool shouldn't be retained
+	 */
+	@Test
+	public void testCapacity() {
+		final ImageBufferPool pool = new ImageBufferPool(2 * 10 * 10 * 4);
+
+		final float[][] a = pool.borrow(10, 10);
+		final float[][] b = pool.borrow(10, 10);
+		final float[][] c = pool.borrow(10, 10);
+		pool.release(a);
+		pool.release(b);
+		pool.release(c);
+
+		assertEquals(2 * 10 * 10 * 4, pool.getPooledBytes());
+
+		pool.clear();
+		assertEquals(0, pool.getPooledBytes());
+		assertNotSame(a, pool.borrow(10, 10));
+	}
+
+	/**
+	 * In debug mode, releasing a buffer twice should be ignored
+	 */
+	@Test
+	public void testDoubleRelease() {
+		final ImageBufferPool pool = new ImageBufferPool(1 << 20);
+		pool.setDebug(true);
+
+		final float[][] a = pool.borrow(10, 10);
+		pool.release(a);
+		pool.release(a);
+
+		assertSame(a, pool.borrow(10, 10));
+		assertNotSame(a, pool.borrow(10, 10));
+
+		// buffers from elsewhere can be given to the pool
+		final float[][] b = new float[10][10];
+		pool.release(b);
+		assertSame(b, pool.borrow(10, 10));
+	}
+
+	/**
+	 * In debug mode, buffers that are collected without being released should
+	 * be detected
+	 * 
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testLeakDetection() throws InterruptedException {
+		final ImageBufferPool pool = new ImageBufferPool(1 << 20);
+		pool.setDebug(true);
+
+		pool.release(pool.borrow(10, 10));
+		pool.borrow(100, 100);
+
+		for (int i = 0; i < 50 && pool.getLeakCount() == 0; i++) {
+			System.gc();
+			Thread.sleep(20);
+		}
+
+		assertEquals(1, pool.getLeakCount());
+	}
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.image;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link ImageUtilities}
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class ImageUtilitiesTest {
+	private static BufferedImage createImage(int type, int width, int height, boolean opaque) {
+		final BufferedImage image = new BufferedImage(width, height, type);
+		final byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+
+		new Random(42).nextBytes(data);
+
+		if (opaque && type == BufferedImage.TYPE_4BYTE_ABGR) {
+			for (int i = 0; i < data.length; i += 4)
+				data[i] = (byte) 255;
+		}
+
+		return image;
+	}
+
+	/*
+	 * Convert the image using the general purpose code path
+	 */
+	private static BufferedImage toARGB(BufferedImage image, boolean draw) {
+		if (draw)
+			return ImageUtilities.createWorkingImage(image);
+
+		final BufferedImage argb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+		argb.setRGB(0, 0, image.getWidth(), image.getHeight(),
+				image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth()), 0, image.getWidth());
+		return argb;
+	}
+
+	private static void checkConversion(BufferedImage image, boolean draw) {
+		final BufferedImage argb = toARGB(image, draw);
+
+		assertEquals(ImageUtilities.createFImage(argb), ImageUtilities.createFImage(image));
+		assertEquals(ImageUtilities.createMBFImage(argb, false), ImageUtilities.createMBFImage(image, false));
+		assertEquals(ImageUtilities.createMBFImage(argb, true), ImageUtilities.createMBFImage(image, true));
+
+		final FImage[] expected = ImageUtilities.getNormalisedColourPlanes(argb);
+		final FImage[] actual = ImageUtilities.getNormalisedColourPlanes(image);
+		assertArrayEquals(expected, actual);
+	}
+
+	/**
+	 * Test that conversion of the directly supported {@link BufferedImage}
+	 * types gives the same result as the general purpose conversion
+	 */
+	@Test
+	public void testByteImageConversion() {
+		checkConversion(createImage(BufferedImage.TYPE_3BYTE_BGR, 67, 45, true), true);
+		checkConversion(createImage(BufferedImage.TYPE_4BYTE_ABGR, 67, 45, true), true);
+		checkConversion(createImage(BufferedImage.TYPE_BYTE_GRAY, 67, 45, true), true);
+
+		// translucent pixels are not changed by compositing
+		checkConversion(createImage(BufferedImage.TYPE_4BYTE_ABGR, 67, 45, false), false);
+
+		// images that share a larger raster
+		checkConversion(createImage(BufferedImage.TYPE_3BYTE_BGR, 67, 45, true).getSubimage(5, 7, 31, 20), true);
+		checkConversion(createImage(BufferedImage.TYPE_BYTE_GRAY, 67, 45, true).getSubimage(5, 7, 31, 20), true);
+	}
+
+	/**
+	 * Test the conversion of an image large enough to be converted in parallel
+	 */
+	@Test
+	public void testLargeImageConversion() {
+		checkConversion(createImage(BufferedImage.TYPE_3BYTE_BGR, 1280, 1024, true), true);
+	}
+
+	private static byte[] encode(BufferedImage image, String format) throws IOException {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		ImageIO.write(image, format, baos);
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Test reading images at reduced resolution
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testReducedResolutionRead() throws IOException {
+		final BufferedImage image = createImage(BufferedImage.TYPE_3BYTE_BGR, 1000, 601, true);
+
+		for (final String format : new String[] { "jpg", "png" }) {
+			final byte[] data = encode(image, format);
+
+			final MBFImage full = ImageUtilities.readMBF(new ByteArrayInputStream(data));
+			final MBFImage reduced = ImageUtilities.readMBF(new ByteArrayInputStream(data), 200);
+			final FImage reducedF = ImageUtilities.readF(new ByteArrayInputStream(data), 200);
+
+			assertEquals(1000, full.getWidth());
+			assertEquals(601, full.getHeight());
+			assertEquals(200, reduced.getWidth());
+			assertEquals(121, reduced.getHeight());
+			assertEquals(200, reducedF.getWidth());
+			assertEquals(121, reducedF.getHeight());
+
+			// subsampling by 2 or more is only applied when it still
+			// leaves the longest side at least as big as requested
+			assertEquals(1000, ImageUtilities.readMBF(new ByteArrayInputStream(data), 501).getWidth());
+			assertEquals(500, ImageUtilities.readMBF(new ByteArrayInputStream(data), 500).getWidth());
+			assertEquals(1000, ImageUtilities.readMBF(new ByteArrayInputStream(data), 0).getWidth());
+
+			if (format.equals("png")) {
+				// lossless, so the pixels can be compared exactly
+				for (int y = 0; y < reduced.getHeight(); y++)
+					for (int x = 0; x < reduced.getWidth(); x++)
+						assertArrayEquals(full.getPixel(x * 5, y * 5), reduced.getPixel(x, y));
+			}
+		}
+	}
+}
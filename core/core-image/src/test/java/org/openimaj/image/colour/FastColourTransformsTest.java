@@ -0,0 +1,170 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.image.colour;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import org.openimaj.image.MBFImage;
+
+/**
+ * Tests for {@link FastColourTransforms}
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class FastColourTransformsTest {
+	/*
+	 * A random image with all of the 8-bit grey levels (including black and
+	 * white) in the first row
+	 */
+	private static MBFImage createImage(int width, int height) {
+		final MBFImage image = MBFImage.randomImage(width, height);
+
+		for (int x = 0; x < 256 && x < width; x++) {
+			for (int b = 0; b < 3; b++)
+				image.getBand(b).pixels[0][x] = x / 255f;
+		}
+
+		return image;
+	}
+
+	private static void assertClose(MBFImage expected, MBFImage actual, ColourSpace cs, float tol) {
+		assertEquals(cs, actual.colourSpace);
+		assertEquals(expected.numBands(), actual.numBands());
+
+		for (int b = 0; b < expected.numBands(); b++) {
+			final float[][] e = expected.getBand(b).pixels;
+			final float[][] a = actual.getBand(b).pixels;
+
+			// the tolerance is relative to the range of the band
+			float range = 1;
+			for (int y = 0; y < e.length; y++)
+				for (int x = 0; x < e[y].length; x++)
+					if (!Float.isNaN(e[y][x]))
+						range = Math.max(range, Math.abs(e[y][x]));
+
+			for (int y = 0; y < e.length; y++) {
+				for (int x = 0; x < e[y].length; x++) {
+					if (Float.isNaN(e[y][x]))
+						assertEquals(0, a[y][x], 0);
+					else
+						assertEquals(e[y][x], a[y][x], tol * range);
+				}
+			}
+		}
+	}
+
+	private static void checkAccuracy(int width, int height) {
+		final MBFImage in = createImage(width, height);
+
+		assertClose(Transforms.RGB_TO_CIEXYZ(in), FastColourTransforms.RGB_TO_CIEXYZ(in), ColourSpace.CIE_XYZ, 1e-5f);
+		assertClose(Transforms.RGB_TO_CIELab(in), FastColourTransforms.RGB_TO_CIELab(in), ColourSpace.CIE_Lab, 1e-5f);
+		assertClose(Transforms.RGB_TO_CIELabNormalised(in), FastColourTransforms.RGB_TO_CIELabNormalised(in),
+				ColourSpace.CIE_Lab_Norm, 1e-5f);
+		assertClose(Transforms.RGB_TO_CIELUV(in), FastColourTransforms.RGB_TO_CIELUV(in), ColourSpace.CIE_Luv, 1e-5f);
+		assertClose(Transforms.RGB_TO_HSV(in), FastColourTransforms.RGB_TO_HSV(in), ColourSpace.HSV, 0);
+	}
+
+	/**
+	 * Test the conversions against {@link Transforms}
+	 */
+	@Test
+	public void testAccuracy() {
+		checkAccuracy(300, 20);
+	}
+
+	/**
+	 * Test the conversions of an image large enough to be converted in
+	 * parallel against {@link Transforms}
+	 */
+	@Test
+	public void testAccuracyLarge() {
+		checkAccuracy(512, 512);
+	}
+
+	/**
+	 * Test conversion into a supplied image, and in-place
+	 */
+	@Test
+	public void testOutput() {
+		final MBFImage in = createImage(300, 20);
+		final MBFImage expected = Transforms.RGB_TO_CIELab(in);
+
+		final MBFImage out = new MBFImage(300, 20, ColourSpace.CIE_Lab);
+		assertSame(out, FastColourTransforms.RGB_TO_CIELab(in, out));
+		assertClose(expected, out, ColourSpace.CIE_Lab, 1e-5f);
+
+		final MBFImage inPlace = in.clone();
+		assertSame(inPlace, FastColourTransforms.RGB_TO_CIELab(inPlace, inPlace));
+		assertClose(expected, inPlace, ColourSpace.CIE_Lab, 1e-5f);
+	}
+
+	/**
+	 * Test that the output must match the input
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testBadOutput() {
+		FastColourTransforms.RGB_TO_CIELab(createImage(300, 20), new MBFImage(300, 21, ColourSpace.CIE_Lab));
+	}
+
+	/**
+	 * Test that all the conversions require an RGB input
+	 */
+	@Test
+	public void testBadColourSpace() {
+		final MBFImage in = new MBFImage(30, 20, ColourSpace.HSV);
+
+		for (int i = 0; i < 5; i++) {
+			try {
+				switch (i) {
+				case 0:
+					FastColourTransforms.RGB_TO_CIEXYZ(in);
+					break;
+				case 1:
+					FastColourTransforms.RGB_TO_CIELab(in);
+					break;
+				case 2:
+					FastColourTransforms.RGB_TO_CIELabNormalised(in);
+					break;
+				case 3:
+					FastColourTransforms.RGB_TO_CIELUV(in);
+					break;
+				default:
+					FastColourTransforms.RGB_TO_HSV(in);
+				}
+				fail("Expected an IllegalArgumentException");
+			} catch (final IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+}
@@ -32,13 +32,32 @@
  */
 package org.openimaj.video.processor;
 
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openimaj.image.FImage;
 import org.openimaj.image.Image;
+import org.openimaj.image.ImageBufferPool;
+import org.openimaj.image.MBFImage;
 import org.openimaj.image.processor.ImageProcessor;
 import org.openimaj.video.Video;
 
 /**
  * This class is a {@link VideoProcessor} that uses an {@link ImageProcessor}
  * for processing frames of a video.
+ * <p>
+ * By default each frame is cloned before it is processed. If an
+ * {@link ImageBufferPool} is set with {@link #setBufferPool(ImageBufferPool)},
+ * {@link FImage} and {@link MBFImage} frames are instead copied into buffers
+ * borrowed from the pool. Buffers that the processor replaces are returned to
+ * the pool straight away, and the rest are returned when the next frame is
+ * processed (or processing completes); buffers allocated by the processor
+ * are left to the garbage collector. This avoids allocating
+ * new buffers for every frame, but means that a processed frame is only valid
+ * until the next frame is processed, and that the processor must not keep
+ * references to the pixels of the frames it processes.
  * 
  * @author David Dupplaw (dpd@ecs.soton.ac.uk)
  * @created 27 Jul 2011
@@ -53,6 +72,12 @@ public class VideoFrameProcessor<I extends Image<?, I>>
 	/** The processor that will be used to process frames */
 	private ImageProcessor<I> processor = null;
 
+	/** The pool to borrow frame buffers from; null if not pooling */
+	private ImageBufferPool pool = null;
+
+	/** The buffers borrowed from the pool that back the last processed frame */
+	private List<float[][]> borrowedBuffers = new ArrayList<float[][]>();
+
 	/**
 	 * Non-chainable constructor
 	 * 
@@ -78,15 +103,95 @@ public class VideoFrameProcessor<I extends Image<?, I>>
 		this.processor = processor;
 	}
 
+	/**
+	 * Set the pool that frame buffers are borrowed from. Setting the pool to
+	 * null (the default) disables pooling.
+	 * 
+	 * @param pool
+	 *            the pool; can be null
+	 */
+	public void setBufferPool(ImageBufferPool pool)
+	{
+		releaseBuffers();
+		this.pool = pool;
+	}
+
+	/**
+	 * @return the pool that frame buffers are borrowed from, or null if
+	 *         pooling is disabled
+	 */
+	public ImageBufferPool getBufferPool()
+	{
+		return pool;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 * 
 	 * @see org.openimaj.video.processor.VideoProcessor#processFrame(org.openimaj.image.Image)
 	 */
+	@SuppressWarnings("unchecked")
 	@Override
 	public I processFrame(I frame)
 	{
-		return frame.process(this.processor);
+		if (pool == null || !(frame instanceof FImage || frame instanceof MBFImage))
+			return frame.process(this.processor);
+
+		releaseBuffers();
+
+		final I copy;
+		if (frame instanceof FImage)
+			copy = (I) pool.copy((FImage) frame);
+		else
+			copy = (I) pool.copy((MBFImage) frame);
+
+		final List<float[][]> borrowed = getBuffers(copy);
+		copy.processInplace(this.processor);
+
+		// buffers still backing the frame are released when the next frame
+		// is processed; any the processor replaced can be released now.
+		// Buffers the processor allocated itself are never put in the pool.
+		final Map<float[][], Boolean> current = new IdentityHashMap<float[][], Boolean>();
+		for (final float[][] buffer : getBuffers(copy))
+			current.put(buffer, Boolean.TRUE);
+
+		for (final float[][] buffer : borrowed) {
+			if (current.containsKey(buffer))
+				borrowedBuffers.add(buffer);
+			else
+				pool.release(buffer);
+		}
+
+		return copy;
+	}
+
+	private static List<float[][]> getBuffers(Image<?, ?> image)
+	{
+		final List<float[][]> buffers = new ArrayList<float[][]>();
+
+		if (image instanceof FImage) {
+			buffers.add(((FImage) image).pixels);
+		} else {
+			for (final FImage band : ((MBFImage) image).bands)
+				buffers.add(band.pixels);
+		}
+
+		return buffers;
+	}
+
+	private void releaseBuffers()
+	{
+		if (pool != null) {
+			for (final float[][] buffer : borrowedBuffers)
+				pool.release(buffer);
+		}
+
+		borrowedBuffers.clear();
 	}
 
+	@Override
+	public void processingComplete()
+	{
+		releaseBuffers();
+	}
 }
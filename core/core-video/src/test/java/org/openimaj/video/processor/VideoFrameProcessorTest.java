@@ -0,0 +1,191 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.video.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.openimaj.image.FImage;
+import org.openimaj.image.ImageBufferPool;
+import org.openimaj.image.MBFImage;
+import org.openimaj.image.colour.ColourSpace;
+import org.openimaj.image.processor.ImageProcessor;
+
+/**
+ * Tests for the buffer pooling in {@link VideoFrameProcessor}
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class VideoFrameProcessorTest {
+	private static final int WIDTH = 32;
+	private static final int HEIGHT = 16;
+	private static final long FRAME_BYTES = 4L * WIDTH * HEIGHT;
+
+	/** Adds 0.5 to every pixel in place */
+	private static class InPlace implements ImageProcessor<FImage> {
+		@Override
+		public void processImage(FImage image) {
+			image.addInplace(0.5f);
+		}
+	}
+
+	/** Adds 0.5 to every pixel of every band in place */
+	private static class MultibandInPlace implements ImageProcessor<MBFImage> {
+		@Override
+		public void processImage(MBFImage image) {
+			for (final FImage band : image.bands)
+				band.addInplace(0.5f);
+		}
+	}
+
+	/** Replaces the frame's pixels with a newly allocated half-size image */
+	private static class Replacing implements ImageProcessor<FImage> {
+		@Override
+		public void processImage(FImage image) {
+			final FImage half = new FImage(image.width / 2, image.height / 2);
+			half.fill(image.pixels[0][0]);
+			image.internalAssign(half);
+		}
+	}
+
+	private static FImage frame(float value) {
+		return new FImage(WIDTH, HEIGHT).fill(value);
+	}
+
+	/**
+	 * Without a pool the frame should be cloned
+	 */
+	@Test
+	public void testNoPool() {
+		final VideoFrameProcessor<FImage> vfp = new VideoFrameProcessor<FImage>(new InPlace());
+		final FImage frame = frame(0.25f);
+
+		final FImage result = vfp.processFrame(frame);
+		assertNotSame(frame, result);
+		assertEquals(0.25f, frame.pixels[0][0], 0);
+		assertEquals(0.75f, result.pixels[0][0], 0);
+	}
+
+	/**
+	 * The buffer backing a processed frame should be released when the next
+	 * frame is processed and reused for that frame
+	 */
+	@Test
+	public void testBuffersReusedAcrossFrames() {
+		final ImageBufferPool pool = new ImageBufferPool(1 << 20);
+		pool.setDebug(true);
+
+		final VideoFrameProcessor<FImage> vfp = new VideoFrameProcessor<FImage>(new InPlace());
+		vfp.setBufferPool(pool);
+
+		final FImage frame = frame(0.25f);
+		final FImage first = vfp.processFrame(frame);
+		assertEquals(0.25f, frame.pixels[0][0], 0);
+		assertEquals(0.75f, first.pixels[0][0], 0);
+		assertEquals(1, pool.getMissCount());
+		assertEquals(0, pool.getReleaseCount());
+
+		final float[][] firstPixels = first.pixels;
+		final FImage second = vfp.processFrame(frame(0.5f));
+		assertSame(firstPixels, second.pixels);
+		assertEquals(1f, second.pixels[0][0], 0);
+		assertEquals(1, pool.getMissCount());
+		assertEquals(1, pool.getHitCount());
+		assertEquals(1, pool.getReleaseCount());
+
+		vfp.processingComplete();
+		assertEquals(2, pool.getReleaseCount());
+		assertEquals(FRAME_BYTES, pool.getPooledBytes());
+
+		// nothing is outstanding, so completing again releases nothing
+		vfp.processingComplete();
+		assertEquals(2, pool.getReleaseCount());
+	}
+
+	/**
+	 * A buffer replaced by the processor should be released immediately, and
+	 * buffers the processor allocated should never be put in the pool
+	 */
+	@Test
+	public void testReplacedBuffers() {
+		final ImageBufferPool pool = new ImageBufferPool(1 << 20);
+		pool.setDebug(true);
+
+		final VideoFrameProcessor<FImage> vfp = new VideoFrameProcessor<FImage>(new Replacing());
+		vfp.setBufferPool(pool);
+
+		final FImage first = vfp.processFrame(frame(0.25f));
+		assertEquals(WIDTH / 2, first.width);
+		assertEquals(0.25f, first.pixels[0][0], 0);
+		assertEquals(1, pool.getReleaseCount());
+		assertEquals(FRAME_BYTES, pool.getPooledBytes());
+
+		final FImage second = vfp.processFrame(frame(0.5f));
+		assertEquals(0.5f, second.pixels[0][0], 0);
+		assertEquals(1, pool.getHitCount());
+		assertEquals(2, pool.getReleaseCount());
+
+		vfp.processingComplete();
+		assertEquals(2, pool.getReleaseCount());
+		assertEquals(FRAME_BYTES, pool.getPooledBytes());
+	}
+
+	/**
+	 * Each band of a multi-band frame should be borrowed and released
+	 */
+	@Test
+	public void testMultiband() {
+		final ImageBufferPool pool = new ImageBufferPool(1 << 20);
+		pool.setDebug(true);
+
+		final VideoFrameProcessor<MBFImage> vfp = new VideoFrameProcessor<MBFImage>(new MultibandInPlace());
+		vfp.setBufferPool(pool);
+
+		final MBFImage frame = new MBFImage(WIDTH, HEIGHT, ColourSpace.RGB);
+		frame.fill(new Float[] { 0f, 0.5f, 1f });
+
+		MBFImage result = vfp.processFrame(frame);
+		assertEquals(3, pool.getMissCount());
+		assertEquals(0.5f, result.getBand(0).pixels[0][0], 0);
+
+		result = vfp.processFrame(frame);
+		assertEquals(3, pool.getHitCount());
+		assertEquals(3, pool.getReleaseCount());
+
+		// changing the pool releases the buffers to the old pool
+		vfp.setBufferPool(null);
+		assertEquals(6, pool.getReleaseCount());
+		assertEquals(3 * FRAME_BYTES, pool.getPooledBytes());
+		assertTrue(vfp.getBufferPool() == null);
+	}
+}
@@ -0,0 +1,176 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.io;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link DataInput} that reads directly from a {@link ByteBuffer}. When used
+ * with a direct or memory-mapped buffer this allows {@link ReadableBinary}
+ * objects to be read without first copying the data into a byte array. The
+ * buffer should use big-endian byte order (the default) to be compatible with
+ * data written through {@link java.io.DataOutputStream}.
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class ByteBufferDataInput implements DataInput {
+	private final ByteBuffer buffer;
+
+	/**
+	 * Construct with the given buffer. Reading starts from the current
+	 * position of the buffer, and advances it.
+	 * 
+	 * @param buffer
+	 *            the buffer
+	 */
+	public ByteBufferDataInput(ByteBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	/**
+	 * Get the underlying buffer
+	 * 
+	 * @return the buffer
+	 */
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	private void check(int n) throws EOFException {
+		if (buffer.remaining() < n)
+			throw new EOFException();
+	}
+
+	@Override
+	public void readFully(byte[] b) throws IOException {
+		readFully(b, 0, b.length);
+	}
+
+	@Override
+	public void readFully(byte[] b, int off, int len) throws IOException {
+		check(len);
+		buffer.get(b, off, len);
+	}
+
+	@Override
+	public int skipBytes(int n) {
+		n = Math.max(0, Math.min(n, buffer.remaining()));
+		buffer.position(buffer.position() + n);
+		return n;
+	}
+
+	@Override
+	public boolean readBoolean() throws IOException {
+		return readByte() != 0;
+	}
+
+	@Override
+	public byte readByte() throws IOException {
+		check(1);
+		return buffer.get();
+	}
+
+	@Override
+	public int readUnsignedByte() throws IOException {
+		return readByte() & 0xff;
+	}
+
+	@Override
+	public short readShort() throws IOException {
+		check(2);
+		return buffer.getShort();
+	}
+
+	@Override
+	public int readUnsignedShort() throws IOException {
+		return readShort() & 0xffff;
+	}
+
+	@Override
+	public char readChar() throws IOException {
+		check(2);
+		return buffer.getChar();
+	}
+
+	@Override
+	public int readInt() throws IOException {
+		check(4);
+		return buffer.getInt();
+	}
+
+	@Override
+	public long readLong() throws IOException {
+		check(8);
+		return buffer.getLong();
+	}
+
+	@Override
+	public float readFloat() throws IOException {
+		check(4);
+		return buffer.getFloat();
+	}
+
+	@Override
+	public double readDouble() throws IOException {
+		check(8);
+		return buffer.getDouble();
+	}
+
+	@Override
+	public String readLine() throws IOException {
+		if (!buffer.hasRemaining())
+			return null;
+
+		final StringBuilder sb = new StringBuilder();
+		while (buffer.hasRemaining()) {
+			final char c = (char) (buffer.get() & 0xff);
+
+			if (c == '\n')
+				break;
+			if (c == '\r') {
+				if (buffer.hasRemaining() && buffer.get(buffer.position()) == '\n')
+					buffer.get();
+				break;
+			}
+			sb.append(c);
+		}
+
+		return sb.toString();
+	}
+
+	@Override
+	public String readUTF() throws IOException {
+		return DataInputStream.readUTF(this);
+	}
+}
@@ -67,4 +67,18 @@ public class GlobalExecutorPool {
 	public static ThreadPoolExecutor getPool() {
 		return pool;
 	}
+
+	/**
+	 * Determine whether the calling thread can split its work into tasks on
+	 * the pool and wait for them to complete. This is only the case if the
+	 * pool has more than one thread and is idle; the latter guarantees that
+	 * the calling thread is not itself a pool worker that would end up
+	 * waiting on its own tasks.
+	 * 
+	 * @return true if work can be parallelised on the pool; false if it
+	 *         should be performed by the calling thread
+	 */
+	public static boolean canParallelise() {
+		return pool.getMaximumPoolSize() > 1 && pool.getActiveCount() == 0;
+	}
 }
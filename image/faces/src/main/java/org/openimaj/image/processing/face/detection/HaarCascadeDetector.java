@@ -399,7 +399,7 @@ public class HaarCascadeDetector implements FaceDetector<DetectedFace, FImage> {
 
 		hashCode = HashCodeUtil.hash(hashCode, this.detector.getMinimumDetectionSize());
 		hashCode = HashCodeUtil.hash(hashCode, this.detector.getScaleFactor());
-		hashCode = HashCodeUtil.hash(hashCode, this.detector.getClassifier().getName());
+		hashCode = HashCodeUtil.hash(hashCode, getCascadeName());
 		hashCode = HashCodeUtil.hash(hashCode, this.groupingFilter);
 		hashCode = HashCodeUtil.hash(hashCode, this.histogramEqualize);
 
@@ -429,16 +429,28 @@ public class HaarCascadeDetector implements FaceDetector<DetectedFace, FImage> {
 
 	@Override
 	public String toString() {
-		return "HaarCascadeDetector[cascade=" + detector.getClassifier().getName() + "]";
+		return "HaarCascadeDetector[cascade=" + getCascadeName() + "]";
 	}
 
 	/**
-	 * @return the underlying Haar cascade.
+	 * @return the underlying Haar cascade; <code>null</code> if the underlying
+	 *         {@link Detector} was constructed with a compiled cascade.
 	 */
 	public StageTreeClassifier getCascade() {
 		return detector.getClassifier();
 	}
 
+	/**
+	 * @return the name of the underlying Haar cascade, whether or not it is
+	 *         compiled.
+	 */
+	public String getCascadeName() {
+		if (detector.getClassifier() != null)
+			return detector.getClassifier().getName();
+
+		return detector.getCompiledClassifier().getName();
+	}
+
 	/**
 	 * @return the underlying {@link Detector}.
 	 */
@@ -0,0 +1,62 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.image.processing.face.detection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+import org.openimaj.image.objectdetection.haar.CompiledStageTreeClassifier;
+import org.openimaj.image.objectdetection.haar.Detector;
+
+/**
+ * Tests for {@link HaarCascadeDetector}
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class HaarCascadeDetectorTest {
+	/**
+	 * A detector backed by a compiled cascade (for example after
+	 * deserialisation) must still have a name, hash code and string form
+	 */
+	@Test
+	public void testCompiledCascade() {
+		final HaarCascadeDetector expected = new HaarCascadeDetector();
+		final HaarCascadeDetector compiled = new HaarCascadeDetector();
+		compiled.detector = new Detector(new CompiledStageTreeClassifier(expected.getCascade()),
+				expected.getDetector().getScaleFactor());
+		compiled.setGroupingFilter(expected.getGroupingFilter());
+
+		assertNull(compiled.getCascade());
+		assertEquals(expected.getCascade().getName(), compiled.getCascadeName());
+		assertEquals(expected.toString(), compiled.toString());
+		assertEquals(expected.hashCode(), compiled.hashCode());
+	}
+}
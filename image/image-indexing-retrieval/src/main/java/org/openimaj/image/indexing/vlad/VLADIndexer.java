@@ -38,7 +38,7 @@ import org.openimaj.image.MBFImage;
 import org.openimaj.image.indexing.IncrementalIndexer;
 import org.openimaj.image.searching.ImageSearchResult;
 import org.openimaj.image.searching.IncrementalMetaIndex;
-import org.openimaj.knn.pq.IncrementalFloatADCNearestNeighbours;
+import org.openimaj.knn.IncrementalNearestNeighbours;
 import org.openimaj.util.pair.IntFloatPair;
 
 public class VLADIndexer<DATA extends ImageProvider<MBFImage>, METADATA extends Identifiable>
@@ -48,12 +48,18 @@ public class VLADIndexer<DATA extends ImageProvider<MBFImage>, METADATA extends
 	private static final int DEFAULT_MAX_RESULTS = 5000;
 
 	private VLADIndexerData indexerData;
-	private IncrementalFloatADCNearestNeighbours nn;
+	private IncrementalNearestNeighbours<float[], float[], IntFloatPair> nn;
 	private IncrementalMetaIndex<DATA, METADATA> metaStore;
 
 	public VLADIndexer(VLADIndexerData indexerData, IncrementalMetaIndex<DATA, METADATA> metaStore) {
+		this(indexerData, indexerData.createIncrementalIndex(), metaStore);
+	}
+
+	public VLADIndexer(VLADIndexerData indexerData, IncrementalNearestNeighbours<float[], float[], IntFloatPair> nn,
+			IncrementalMetaIndex<DATA, METADATA> metaStore)
+	{
 		this.indexerData = indexerData;
-		this.nn = indexerData.createIncrementalIndex();
+		this.nn = nn;
 		this.metaStore = metaStore;
 	}
 
@@ -70,6 +76,11 @@ public class VLADIndexer<DATA extends ImageProvider<MBFImage>, METADATA extends
 		final List<ImageSearchResult<METADATA>> results = new ArrayList<ImageSearchResult<METADATA>>(res.size());
 		for (int i = 0; i < res.size(); i++) {
 			final IntFloatPair r = res.get(i);
+
+			// approximate indexes (e.g. IVFADC) may not fill all results
+			if (r.first < 0)
+				break;
+
 			results.add(new ImageSearchResult<METADATA>(metaStore.get(r.first), r.second));
 		}
 
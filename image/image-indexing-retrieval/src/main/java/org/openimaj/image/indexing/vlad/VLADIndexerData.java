@@ -45,11 +45,17 @@ import org.openimaj.feature.local.LocalFeatureExtractor;
 import org.openimaj.image.MBFImage;
 import org.openimaj.image.feature.local.aggregate.VLAD;
 import org.openimaj.io.IOUtils;
+import org.openimaj.knn.FloatNearestNeighboursExact;
+import org.openimaj.knn.IncrementalNearestNeighbours;
+import org.openimaj.knn.pq.FloatIVFADCNearestNeighbours;
+import org.openimaj.knn.pq.FloatIVFADCNearestNeighboursUtilities;
 import org.openimaj.knn.pq.FloatProductQuantiser;
 import org.openimaj.knn.pq.IncrementalFloatADCNearestNeighbours;
+import org.openimaj.knn.pq.MemoryMappedFloatADCNearestNeighbours;
 import org.openimaj.ml.pca.FeatureVectorPCA;
 import org.openimaj.util.array.ArrayUtils;
 import org.openimaj.util.function.Function;
+import org.openimaj.util.pair.IntFloatPair;
 
 /**
  * Class representing the data required to build a VLAD + PCA +
@@ -176,6 +182,72 @@ public class VLADIndexerData {
 		return new IncrementalFloatADCNearestNeighbours(pq, pca.getMean().length);
 	}
 
+	/**
+	 * Create (or re-open) a {@link MemoryMappedFloatADCNearestNeighbours}
+	 * backed by the given file, pre-prepared to index data. Unlike
+	 * {@link #createIncrementalIndex()}, the product-quantised data is stored
+	 * in the file rather than on the heap, so very large indexes can be opened
+	 * almost instantly.
+	 * 
+	 * @param file
+	 *            the file in which to store the product-quantised data
+	 * @return a new {@link MemoryMappedFloatADCNearestNeighbours}
+	 * @throws IOException
+	 *             if an error occurs opening the file
+	 */
+	public MemoryMappedFloatADCNearestNeighbours createMemoryMappedIndex(File file) throws IOException {
+		return new MemoryMappedFloatADCNearestNeighbours(pq, file);
+	}
+
+	/**
+	 * Create a {@link FloatIVFADCNearestNeighbours} pre-prepared to index data
+	 * using the given coarse quantiser and residual product quantiser. Both
+	 * quantisers must have been learnt from PCA-VLAD vectors (see
+	 * {@link #extractPcaVlad(MBFImage)}); note that the residual quantiser is
+	 * different to the one returned by {@link #getProductQuantiser()}, which
+	 * encodes the vectors directly.
+	 * 
+	 * @param coarse
+	 *            the coarse quantiser
+	 * @param residualPQ
+	 *            the product quantiser for the residuals
+	 * @param nprobe
+	 *            the number of inverted lists to visit for each query
+	 * @return a new {@link FloatIVFADCNearestNeighbours}
+	 */
+	public FloatIVFADCNearestNeighbours createIVFADCIndex(FloatNearestNeighboursExact coarse,
+			FloatProductQuantiser residualPQ, int nprobe)
+	{
+		return new FloatIVFADCNearestNeighbours(coarse, residualPQ, nprobe);
+	}
+
+	/**
+	 * Create a {@link FloatIVFADCNearestNeighbours} pre-prepared to index data,
+	 * learning the coarse quantiser and residual product quantiser from the
+	 * given sample of PCA-VLAD vectors (see {@link #extractPcaVlad(MBFImage)})
+	 * with K-Means. Unlike {@link #createIncrementalIndex()}, searches only
+	 * visit the <code>nprobe</code> closest inverted lists rather than the
+	 * whole index, so can be much faster for large collections.
+	 * 
+	 * @param pcaVlads
+	 *            the sample of PCA-VLAD vectors to learn the quantisers from
+	 * @param numLists
+	 *            the number of coarse centroids (inverted lists)
+	 * @param numAssigners
+	 *            the number of sub-quantisers of the residual product
+	 *            quantiser
+	 * @param nprobe
+	 *            the number of inverted lists to visit for each query
+	 * @param nIter
+	 *            the maximum number of iterations for each k-means clustering
+	 * @return a new {@link FloatIVFADCNearestNeighbours}
+	 */
+	public FloatIVFADCNearestNeighbours createIVFADCIndex(float[][] pcaVlads, int numLists, int numAssigners,
+			int nprobe, int nIter)
+	{
+		return FloatIVFADCNearestNeighboursUtilities.train(pcaVlads, numLists, numAssigners, nprobe, nIter);
+	}
+
 	/**
 	 * Index the given features into the given nearest neighbours object by
 	 * converting them to the PCA-VLAD representation and then
@@ -188,7 +260,9 @@ public class VLADIndexerData {
 	 * @return the index at which the features were added in the nearest
 	 *         neighbours object
 	 */
-	public int index(List<? extends LocalFeature<?, ?>> features, IncrementalFloatADCNearestNeighbours nn) {
+	public int index(List<? extends LocalFeature<?, ?>> features,
+			IncrementalNearestNeighbours<float[], float[], IntFloatPair> nn)
+	{
 		return nn.add(extractPcaVlad(features));
 	}
 
@@ -203,7 +277,7 @@ public class VLADIndexerData {
 	 * @return the index at which the features were added in the nearest
 	 *         neighbours object
 	 */
-	public int index(MBFImage image, IncrementalFloatADCNearestNeighbours nn) {
+	public int index(MBFImage image, IncrementalNearestNeighbours<float[], float[], IntFloatPair> nn) {
 		return nn.add(extractPcaVlad(image));
 	}
 
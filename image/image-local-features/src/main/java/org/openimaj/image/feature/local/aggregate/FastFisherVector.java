@@ -0,0 +1,409 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.image.feature.local.aggregate;
+
+import java.util.List;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.openimaj.feature.ArrayFeatureVector;
+import org.openimaj.feature.FloatFV;
+import org.openimaj.feature.local.LocalFeature;
+import org.openimaj.math.statistics.distribution.MixtureOfGaussians;
+import org.openimaj.math.statistics.distribution.MultivariateGaussian;
+import org.openimaj.util.function.Operation;
+import org.openimaj.util.parallel.Parallel;
+import org.openimaj.util.parallel.Parallel.IntRange;
+
+/**
+ * A faster implementation of the {@link FisherVector} encoding for
+ * <code>float[]</code> features (e.g. SIFT). The output is the same as that of
+ * a {@link FisherVector} with the same options, to within floating point
+ * precision.
+ * <p>
+ * The means and (diagonal) variances of the gaussians are copied into flat
+ * arrays on construction, and the posteriors of the gaussians are computed
+ * directly for blocks of features rather than through the
+ * {@link MixtureOfGaussians}. Gaussians whose posterior for a feature falls
+ * below a threshold are skipped when accumulating the statistics for that
+ * feature. Large sets of features can optionally be split across the threads
+ * of a thread pool.
+ * <p>
+ * Like the {@link FisherVector}, the covariance matrices of the gaussians are
+ * all assumed to be diagonal; any off-diagonal values are ignored.
+ *
+ * @see FisherVector
+ *
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class FastFisherVector implements VectorAggregator<ArrayFeatureVector<float[]>, FloatFV> {
+	/**
+	 * The default posterior threshold. This is the same threshold used by
+	 * {@link FisherVector}.
+	 */
+	public static final double DEFAULT_POSTERIOR_THRESHOLD = 1e-6;
+
+	/**
+	 * The number of features that have their posteriors computed together
+	 */
+	private static final int BLOCK_SIZE = 32;
+
+	/**
+	 * The minimum number of features given to each thread in parallel mode
+	 */
+	private static final int MIN_FEATURES_PER_THREAD = 256;
+
+	/**
+	 * Log-ratio below which a term is too small to change a sum of terms in
+	 * double precision
+	 */
+	private static final double NEGLIGIBLE_LOG_RATIO = -40;
+
+	private final int K;
+	private final int D;
+	private final float[] means;
+	private final float[] invSigmas;
+	private final double[] weights;
+
+	// the terms of the expanded log-probabilities, with the dimensions
+	// outermost: -0.5 * sum_j (x_j^2 / var_jk - 2 * x_j * mean_jk / var_jk) +
+	// logConsts_k
+	private final double[] invVarsT;
+	private final double[] meanInvVarsT;
+	private final double[] logConsts;
+
+	private boolean hellinger;
+	private boolean l2normalise;
+	private double posteriorThreshold;
+	private ThreadPoolExecutor pool;
+
+	/**
+	 * Construct with the given mixture of Gaussians, optional improvement
+	 * steps, and posterior threshold.
+	 *
+	 * @param gmm
+	 *            the mixture of gaussians
+	 * @param hellinger
+	 *            if true then use Hellinger's kernel rather than the linear one
+	 *            by signed square rooting the values in the final vector
+	 * @param l2normalise
+	 *            if true then apply l2 normalisation to the final vector. This
+	 *            occurs after the Hellinger step if it is used.
+	 * @param posteriorThreshold
+	 *            gaussians with a posterior probability below this threshold
+	 *            for a feature are ignored for that feature
+	 */
+	public FastFisherVector(MixtureOfGaussians gmm, boolean hellinger, boolean l2normalise,
+			double posteriorThreshold)
+	{
+		this.hellinger = hellinger;
+		this.l2normalise = l2normalise;
+		this.posteriorThreshold = posteriorThreshold;
+
+		this.K = gmm.gaussians.length;
+		this.D = gmm.gaussians[0].getMean().getColumnDimension();
+		this.means = new float[K * D];
+		this.invSigmas = new float[K * D];
+		this.weights = gmm.weights.clone();
+		this.invVarsT = new double[D * K];
+		this.meanInvVarsT = new double[D * K];
+		this.logConsts = new double[K];
+
+		for (int k = 0; k < K; k++) {
+			final MultivariateGaussian gauss = gmm.gaussians[k];
+			final double[] mean = gauss.getMean().getArray()[0];
+
+			double logDet = 0;
+			double meanSq = 0;
+			for (int j = 0; j < D; j++) {
+				final double var = gauss.getCovariance(j, j);
+
+				means[k * D + j] = (float) mean[j];
+				invSigmas[k * D + j] = (float) (1.0 / Math.sqrt(var));
+				invVarsT[j * K + k] = 1.0 / var;
+				meanInvVarsT[j * K + k] = 2 * mean[j] / var;
+
+				logDet += Math.log(var);
+				meanSq += mean[j] * mean[j] / var;
+			}
+
+			logConsts[k] = Math.log(weights[k]) - 0.5 * (D * Math.log(2 * Math.PI) + logDet + meanSq);
+		}
+	}
+
+	/**
+	 * Construct with the given mixture of Gaussians and optional improvement
+	 * steps, using the {@link #DEFAULT_POSTERIOR_THRESHOLD}.
+	 *
+	 * @param gmm
+	 *            the mixture of gaussians
+	 * @param hellinger
+	 *            if true then use Hellinger's kernel rather than the linear one
+	 *            by signed square rooting the values in the final vector
+	 * @param l2normalise
+	 *            if true then apply l2 normalisation to the final vector. This
+	 *            occurs after the Hellinger step if it is used.
+	 */
+	public FastFisherVector(MixtureOfGaussians gmm, boolean hellinger, boolean l2normalise) {
+		this(gmm, hellinger, l2normalise, DEFAULT_POSTERIOR_THRESHOLD);
+	}
+
+	/**
+	 * Construct the Fisher Vector encoder with the given mixture of Gaussians
+	 * and the optional improvement steps (in the sense of the VLFeat
+	 * documentation). For the improved version, the final vector is projected
+	 * into Hellinger's kernel and then l2 normalised.
+	 *
+	 * @param gmm
+	 *            the mixture of gaussians
+	 * @param improved
+	 *            if true then Hellinger's kernel is used, and the vector is l2
+	 *            normalised.
+	 */
+	public FastFisherVector(MixtureOfGaussians gmm, boolean improved) {
+		this(gmm, improved, improved);
+	}
+
+	/**
+	 * Construct the standard Fisher Vector encoder with the given mixture of
+	 * Gaussians.
+	 *
+	 * @param gmm
+	 *            the mixture of gaussians
+	 */
+	public FastFisherVector(MixtureOfGaussians gmm) {
+		this(gmm, false);
+	}
+
+	/**
+	 * Set the thread pool used to encode large sets of features in parallel.
+	 * Sets of features that are too small to be worth splitting are always
+	 * encoded in the calling thread.
+	 *
+	 * @param pool
+	 *            the thread pool; if null (the default) all features are
+	 *            encoded in the calling thread
+	 */
+	public void setThreadPool(ThreadPoolExecutor pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Get the thread pool used to encode large sets of features in parallel.
+	 *
+	 * @return the thread pool; null if parallel encoding is disabled
+	 */
+	public ThreadPoolExecutor getThreadPool() {
+		return pool;
+	}
+
+	@Override
+	public FloatFV aggregate(List<? extends LocalFeature<?, ? extends ArrayFeatureVector<float[]>>> features) {
+		if (features == null || features.size() <= 0)
+			return null;
+
+		final float[][] X = new float[features.size()][];
+		for (int i = 0; i < X.length; i++)
+			X[i] = features.get(i).getFeatureVector().values;
+
+		return aggregate(X);
+	}
+
+	@Override
+	public FloatFV aggregateVectors(List<? extends ArrayFeatureVector<float[]>> features) {
+		if (features == null || features.size() <= 0)
+			return null;
+
+		final float[][] X = new float[features.size()][];
+		for (int i = 0; i < X.length; i++)
+			X[i] = features.get(i).values;
+
+		return aggregate(X);
+	}
+
+	/**
+	 * Compute the Fisher Vector of the given features.
+	 *
+	 * @param features
+	 *            the features
+	 * @return the Fisher Vector, or null if there are no features
+	 */
+	public FloatFV aggregate(final float[][] features) {
+		if (features == null || features.length <= 0)
+			return null;
+
+		final int nFeatures = features.length;
+		final int nThreads = pool == null ? 1 : Math.min(pool.getMaximumPoolSize(), nFeatures
+				/ MIN_FEATURES_PER_THREAD);
+
+		final double[] acc;
+		if (nThreads <= 1) {
+			acc = accumulate(features, 0, nFeatures);
+		} else {
+			final double[][] partial = new double[nThreads][];
+
+			Parallel.forRange(0, nThreads, 1, new Operation<IntRange>() {
+				@Override
+				public void perform(IntRange range) {
+					for (int t = range.start; t < range.stop; t++) {
+						final int start = (int) ((long) t * nFeatures / nThreads);
+						final int stop = (int) ((long) (t + 1) * nFeatures / nThreads);
+
+						partial[t] = accumulate(features, start, stop);
+					}
+				}
+			}, pool);
+
+			acc = partial[0];
+			for (int t = 1; t < nThreads; t++)
+				for (int i = 0; i < acc.length; i++)
+					acc[i] += partial[t][i];
+		}
+
+		final float[] vector = new float[2 * K * D];
+		for (int k = 0; k < K; k++) {
+			final double wt1 = 1.0 / (nFeatures * Math.sqrt(weights[k]));
+			final double wt2 = 1.0 / (nFeatures * Math.sqrt(2 * weights[k]));
+
+			for (int j = 0; j < D; j++) {
+				vector[k * 2 * D + j] = (float) (acc[k * 2 * D + j] * wt1);
+				vector[k * 2 * D + j + D] = (float) (acc[k * 2 * D + j + D] * wt2);
+			}
+		}
+
+		final FloatFV out = new FloatFV(vector);
+
+		if (hellinger) {
+			for (int i = 0; i < out.values.length; i++) {
+				out.values[i] = (float) (out.values[i] > 0 ? Math.sqrt(out.values[i]) :
+						-1 * Math.sqrt(-1 * out.values[i]));
+			}
+		}
+
+		if (l2normalise) {
+			double sumsq = 0;
+			for (int i = 0; i < out.values.length; i++) {
+				sumsq += (out.values[i] * out.values[i]);
+			}
+			final float norm = (float) (1.0 / Math.sqrt(sumsq));
+			for (int i = 0; i < out.values.length; i++) {
+				out.values[i] *= norm;
+			}
+		}
+
+		return out;
+	}
+
+	/*
+	 * Accumulate the (unnormalised) first and second order statistics of the
+	 * features from start to stop
+	 */
+	private double[] accumulate(float[][] X, int start, int stop) {
+		final double[] acc = new double[2 * K * D];
+		final double[] posteriors = new double[BLOCK_SIZE * K];
+
+		// posteriors below the threshold are skipped anyway, so are set to
+		// zero without being computed; the margin allows for rounding
+		final double logThreshold = posteriorThreshold > 0 ? Math.log(posteriorThreshold) - 1e-3
+				: Double.NEGATIVE_INFINITY;
+
+		for (int b0 = start; b0 < stop; b0 += BLOCK_SIZE) {
+			final int nb = Math.min(BLOCK_SIZE, stop - b0);
+
+			// weighted log-probabilities of the features in the block. The
+			// squared distances are expanded so that the innermost loop runs
+			// over the gaussians; each dimension of the model is used for the
+			// whole block before moving to the next
+			for (int b = 0; b < nb; b++)
+				System.arraycopy(logConsts, 0, posteriors, b * K, K);
+
+			for (int j = 0; j < D; j++) {
+				final int off = j * K;
+
+				for (int b = 0; b < nb; b++) {
+					final double xj = X[b0 + b][j];
+					final double xj2 = -0.5 * xj * xj;
+					final double xjm = 0.5 * xj;
+					final int pOff = b * K;
+
+					for (int k = 0; k < K; k++)
+						posteriors[pOff + k] += xj2 * invVarsT[off + k] + xjm * meanInvVarsT[off + k];
+				}
+			}
+
+			// convert to posteriors with log-sum-exp. Terms that are too small
+			// to affect the sum, or whose posterior is certain to be below the
+			// threshold, are not exponentiated.
+			for (int b = 0; b < nb; b++) {
+				final int off = b * K;
+
+				double max = Double.NEGATIVE_INFINITY;
+				for (int k = 0; k < K; k++)
+					if (posteriors[off + k] > max)
+						max = posteriors[off + k];
+
+				double sum = 0;
+				for (int k = 0; k < K; k++) {
+					final double d = posteriors[off + k] - max;
+					if (d > NEGLIGIBLE_LOG_RATIO)
+						sum += Math.exp(d);
+				}
+				final double logprob = max + Math.log(sum);
+
+				for (int k = 0; k < K; k++) {
+					final double d = posteriors[off + k] - logprob;
+					posteriors[off + k] = d < logThreshold ? 0 : Math.exp(d);
+				}
+			}
+
+			// accumulate the statistics of the significant gaussians
+			for (int k = 0; k < K; k++) {
+				final int off = k * D;
+				final int accOff = 2 * off;
+
+				for (int b = 0; b < nb; b++) {
+					final double p = posteriors[b * K + k];
+
+					if (p < posteriorThreshold)
+						continue;
+
+					final float[] x = X[b0 + b];
+					for (int j = 0; j < D; j++) {
+						final double z = ((double) x[j] - means[off + j]) * invSigmas[off + j];
+
+						acc[accOff + j] += p * z;
+						acc[accOff + D + j] += p * (z * z - 1);
+					}
+				}
+			}
+		}
+
+		return acc;
+	}
+}
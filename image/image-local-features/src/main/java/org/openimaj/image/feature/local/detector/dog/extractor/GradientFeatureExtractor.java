@@ -71,6 +71,7 @@ public class GradientFeatureExtractor implements ScaleSpaceFeatureExtractor<Orie
 	GradientFeatureProviderFactory factory;
 
 	private GradientScaleSpaceImageExtractorProperties<FImage> currentGradientProperties = new GradientScaleSpaceImageExtractorProperties<FImage>();
+	private boolean sharedGradients = false;
 
 	/**
 	 * The magnification factor determining the size of the sampling region
@@ -128,6 +129,28 @@ public class GradientFeatureExtractor implements ScaleSpaceFeatureExtractor<Orie
 		return ret;
 	}
 
+	/**
+	 * Set the precomputed gradient magnitudes and orientations of the given
+	 * image. Subsequent calls to {@link #extractFeature} with properties
+	 * referring to the same image will use these rather than recomputing them.
+	 * This allows the gradients of an image to be computed once and shared
+	 * between a number of extractors (for example, in different threads). The
+	 * given gradient images are never written to by the extractor.
+	 *
+	 * @param image
+	 *            the image
+	 * @param magnitude
+	 *            the gradient magnitudes of the image
+	 * @param orientation
+	 *            the gradient orientations of the image
+	 */
+	public void setCurrentGradients(FImage image, FImage magnitude, FImage orientation) {
+		currentGradientProperties.image = image;
+		currentGradientProperties.magnitude = magnitude;
+		currentGradientProperties.orientation = orientation;
+		sharedGradients = true;
+	}
+
 	/**
 	 * Get the GradientScaleSpaceImageExtractorProperties for the given
 	 * properties. The returned properties are the same as the input properties,
@@ -149,8 +172,9 @@ public class GradientFeatureExtractor implements ScaleSpaceFeatureExtractor<Orie
 			currentGradientProperties.image = properties.image;
 
 			// only if the size of the image has changed do we need to reset the
-			// gradient and orientation images.
-			if (currentGradientProperties.orientation == null ||
+			// gradient and orientation images (unless they were shared, in
+			// which case they must not be overwritten).
+			if (sharedGradients || currentGradientProperties.orientation == null ||
 					currentGradientProperties.orientation.height != currentGradientProperties.image.height ||
 					currentGradientProperties.orientation.width != currentGradientProperties.image.width)
 			{
@@ -158,6 +182,7 @@ public class GradientFeatureExtractor implements ScaleSpaceFeatureExtractor<Orie
 						currentGradientProperties.image.height);
 				currentGradientProperties.magnitude = new FImage(currentGradientProperties.image.width,
 						currentGradientProperties.image.height);
+				sharedGradients = false;
 			}
 
 			FImageGradients.gradientMagnitudesAndOrientations(currentGradientProperties.image,
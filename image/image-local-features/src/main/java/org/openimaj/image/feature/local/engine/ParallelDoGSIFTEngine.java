@@ -0,0 +1,303 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.image.feature.local.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import org.openimaj.feature.OrientedFeatureVector;
+import org.openimaj.feature.local.list.LocalFeatureList;
+import org.openimaj.feature.local.list.MemoryLocalFeatureList;
+import org.openimaj.image.FImage;
+import org.openimaj.image.analysis.pyramid.OctaveProcessor;
+import org.openimaj.image.analysis.pyramid.gaussian.GaussianOctave;
+import org.openimaj.image.analysis.pyramid.gaussian.GaussianPyramid;
+import org.openimaj.image.feature.local.detector.dog.extractor.GradientFeatureExtractor;
+import org.openimaj.image.feature.local.detector.dog.pyramid.DoGOctaveExtremaFinder;
+import org.openimaj.image.feature.local.detector.pyramid.OctaveInterestPointFinder;
+import org.openimaj.image.feature.local.detector.pyramid.OctaveInterestPointListener;
+import org.openimaj.image.feature.local.extraction.ScaleSpaceImageExtractorProperties;
+import org.openimaj.image.feature.local.keypoints.Keypoint;
+import org.openimaj.image.processing.convolution.FImageGradients;
+
+/**
+ * A multi-threaded version of the {@link DoGSIFTEngine} aimed at reducing the
+ * latency of extracting features from a single (large) image.
+ * <p>
+ * The Gaussian pyramid is built on the calling thread; as soon as each octave
+ * is complete, the detection of the difference-of-Gaussian extrema within it
+ * is handed to a {@link ForkJoinPool}, so the detection in one octave
+ * overlaps with the construction of the next. Once the extrema of an octave
+ * have been found, the gradients of the scales containing interest points
+ * are computed in parallel, and the extraction of the descriptors is then
+ * partitioned across the threads of the pool.
+ * <p>
+ * The returned keypoints are identical to, and in the same order as, those
+ * produced by the {@link DoGSIFTEngine} with the same options.
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class ParallelDoGSIFTEngine extends DoGSIFTEngine {
+	/**
+	 * The minimum number of interest points in a partition of the descriptor
+	 * extraction work.
+	 */
+	static final int MIN_PARTITION_SIZE = 16;
+
+	private static ForkJoinPool defaultPool;
+
+	private final ForkJoinPool pool;
+
+	/**
+	 * Construct with the default options. A shared {@link ForkJoinPool} with
+	 * one thread per processor is used.
+	 */
+	public ParallelDoGSIFTEngine() {
+		this(new DoGSIFTEngineOptions<FImage>());
+	}
+
+	/**
+	 * Construct with the given options. A shared {@link ForkJoinPool} with one
+	 * thread per processor is used.
+	 * 
+	 * @param options
+	 *            the options
+	 */
+	public ParallelDoGSIFTEngine(DoGSIFTEngineOptions<FImage> options) {
+		this(options, null);
+	}
+
+	/**
+	 * Construct with the given options and pool.
+	 * 
+	 * @param options
+	 *            the options
+	 * @param pool
+	 *            the pool; if <code>null</code> a shared pool with one thread
+	 *            per processor is used.
+	 */
+	public ParallelDoGSIFTEngine(DoGSIFTEngineOptions<FImage> options, ForkJoinPool pool) {
+		super(options);
+
+		this.pool = pool == null ? getDefaultPool() : pool;
+	}
+
+	private static synchronized ForkJoinPool getDefaultPool() {
+		if (defaultPool == null)
+			defaultPool = new ForkJoinPool();
+
+		return defaultPool;
+	}
+
+	/**
+	 * An interest point found in an octave, together with the index of the
+	 * scale it was found at.
+	 */
+	private static class InterestPoint {
+		final float x;
+		final float y;
+		final float octaveScale;
+		final int scaleIndex;
+
+		InterestPoint(float x, float y, float octaveScale, int scaleIndex) {
+			this.x = x;
+			this.y = y;
+			this.octaveScale = octaveScale;
+			this.scaleIndex = scaleIndex;
+		}
+	}
+
+	/**
+	 * Detection and description of the features in a single octave.
+	 */
+	private class OctaveTask extends RecursiveTask<List<Keypoint>> {
+		private static final long serialVersionUID = 1L;
+
+		private final GaussianOctave<FImage> octave;
+
+		OctaveTask(GaussianOctave<FImage> octave) {
+			this.octave = octave;
+		}
+
+		@Override
+		protected List<Keypoint> compute() {
+			final List<InterestPoint> points = new ArrayList<InterestPoint>();
+
+			final DoGOctaveExtremaFinder finder = createFinder();
+			finder.setOctaveInterestPointListener(new OctaveInterestPointListener<GaussianOctave<FImage>, FImage>() {
+				@Override
+				public void foundInterestPoint(OctaveInterestPointFinder<GaussianOctave<FImage>, FImage> f,
+						float x, float y, float octaveScale)
+				{
+					points.add(new InterestPoint(x, y, octaveScale, f.getCurrentScaleIndex()));
+				}
+			});
+			finder.process(octave);
+
+			if (points.isEmpty())
+				return new ArrayList<Keypoint>(0);
+
+			final FImage[] magnitudes = new FImage[octave.images.length];
+			final FImage[] orientations = new FImage[octave.images.length];
+			computeGradients(points, magnitudes, orientations);
+
+			final int partitionSize = Math.max(MIN_PARTITION_SIZE,
+					(points.size() + 4 * pool.getParallelism() - 1) / (4 * pool.getParallelism()));
+
+			return new ExtractionTask(octave, points, 0, points.size(), partitionSize, magnitudes, orientations)
+					.compute();
+		}
+
+		private void computeGradients(List<InterestPoint> points, final FImage[] magnitudes,
+				final FImage[] orientations)
+		{
+			final List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+
+			for (final InterestPoint pt : points) {
+				final int i = pt.scaleIndex;
+
+				if (magnitudes[i] != null)
+					continue;
+
+				final FImage image = octave.images[i];
+				magnitudes[i] = new FImage(image.width, image.height);
+				orientations[i] = new FImage(image.width, image.height);
+
+				tasks.add(new RecursiveAction() {
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					protected void compute() {
+						FImageGradients.gradientMagnitudesAndOrientations(image, magnitudes[i], orientations[i]);
+					}
+				});
+			}
+
+			invokeAll(tasks);
+		}
+	}
+
+	/**
+	 * Extraction of the descriptors of a contiguous range of the interest
+	 * points of an octave. Ranges bigger than the partition size are split in
+	 * two, and the results concatenated in order.
+	 */
+	private class ExtractionTask extends RecursiveTask<List<Keypoint>> {
+		private static final long serialVersionUID = 1L;
+
+		private final GaussianOctave<FImage> octave;
+		private final List<InterestPoint> points;
+		private final int start;
+		private final int stop;
+		private final int partitionSize;
+		private final FImage[] magnitudes;
+		private final FImage[] orientations;
+
+		ExtractionTask(GaussianOctave<FImage> octave, List<InterestPoint> points, int start, int stop,
+				int partitionSize, FImage[] magnitudes, FImage[] orientations)
+		{
+			this.octave = octave;
+			this.points = points;
+			this.start = start;
+			this.stop = stop;
+			this.partitionSize = partitionSize;
+			this.magnitudes = magnitudes;
+			this.orientations = orientations;
+		}
+
+		@Override
+		protected List<Keypoint> compute() {
+			if (stop - start > partitionSize) {
+				final int mid = (start + stop) >>> 1;
+
+				final ExtractionTask left = new ExtractionTask(octave, points, start, mid, partitionSize, magnitudes,
+						orientations);
+				final ExtractionTask right = new ExtractionTask(octave, points, mid, stop, partitionSize, magnitudes,
+						orientations);
+
+				right.fork();
+				final List<Keypoint> result = left.compute();
+				result.addAll(right.join());
+
+				return result;
+			}
+
+			final List<Keypoint> result = new ArrayList<Keypoint>();
+			final GradientFeatureExtractor extractor = createFeatureExtractor();
+			final ScaleSpaceImageExtractorProperties<FImage> properties = new ScaleSpaceImageExtractorProperties<FImage>();
+			final float octSize = octave.octaveSize;
+
+			for (int i = start; i < stop; i++) {
+				final InterestPoint pt = points.get(i);
+				final FImage image = octave.images[pt.scaleIndex];
+
+				if (properties.image != image)
+					extractor.setCurrentGradients(image, magnitudes[pt.scaleIndex], orientations[pt.scaleIndex]);
+
+				properties.image = image;
+				properties.scale = pt.octaveScale;
+				properties.x = pt.x;
+				properties.y = pt.y;
+
+				for (final OrientedFeatureVector fv : extractor.extractFeature(properties)) {
+					result.add(new Keypoint(octSize * pt.x, octSize * pt.y, fv.orientation,
+							octSize * pt.octaveScale, fv.values));
+				}
+			}
+
+			return result;
+		}
+	}
+
+	@Override
+	public LocalFeatureList<Keypoint> findFeatures(FImage image) {
+		final List<ForkJoinTask<List<Keypoint>>> tasks = new ArrayList<ForkJoinTask<List<Keypoint>>>();
+
+		options.setOctaveProcessor(new OctaveProcessor<GaussianOctave<FImage>, FImage>() {
+			@Override
+			public void process(GaussianOctave<FImage> octave) {
+				tasks.add(pool.submit(new OctaveTask(octave)));
+			}
+		});
+
+		final GaussianPyramid<FImage> pyr = new GaussianPyramid<FImage>(options);
+		pyr.process(image);
+
+		final MemoryLocalFeatureList<Keypoint> features = new MemoryLocalFeatureList<Keypoint>();
+		for (final ForkJoinTask<List<Keypoint>> task : tasks)
+			features.addAll(task.join());
+
+		return features;
+	}
+}
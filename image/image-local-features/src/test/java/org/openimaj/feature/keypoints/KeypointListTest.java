@@ -36,6 +36,7 @@ import static org.junit.Assert.assertTrue;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
 
@@ -43,9 +44,11 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
+import org.openimaj.feature.local.data.LocalFeatureListDataSource;
 import org.openimaj.feature.local.list.FileLocalFeatureList;
 import org.openimaj.feature.local.list.LocalFeatureList;
 import org.openimaj.feature.local.list.MemoryLocalFeatureList;
+import org.openimaj.feature.local.list.MemoryMappedLocalFeatureList;
 import org.openimaj.feature.local.list.StreamLocalFeatureList;
 import org.openimaj.image.FImage;
 import org.openimaj.image.ImageUtilities;
@@ -268,4 +271,43 @@ public class KeypointListTest {
 
 		ascii.delete();
 	}
+
+	/**
+	 * Test that a memory-mapped list gives the same keypoints and vectors as
+	 * the original list
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void memoryMappedTest() throws IOException {
+		final File binary = folder.newFile("kpt-memoryMappedTest.tmp");
+		IOUtils.writeBinary(binary, keys);
+
+		final MemoryMappedLocalFeatureList<Keypoint> mml = MemoryMappedLocalFeatureList.read(binary, Keypoint.class);
+
+		assertEquals(keys.size(), mml.size());
+		assertEquals(keys.vecLength(), mml.vecLength());
+		assertEquals(keys, mml);
+		assertTrue(mml.getVectorOffset() >= 0);
+
+		final byte[][] vecs = mml.asDataArray(new byte[0][]);
+		final LocalFeatureListDataSource<Keypoint, byte[]> ds = new LocalFeatureListDataSource<Keypoint, byte[]>(mml);
+		for (int i = 0; i < keys.size(); i++) {
+			assertArrayEquals(keys.get(i).ivec, vecs[i]);
+			assertArrayEquals(keys.get(i).ivec, ds.getData(i));
+
+			final ByteBuffer buf = mml.getVectorBuffer(i);
+			final byte[] vec = new byte[buf.remaining()];
+			buf.get(vec);
+			assertArrayEquals(keys.get(i).ivec, vec);
+		}
+
+		assertEquals(keys.subList(2, 10), mml.subList(2, 10));
+		assertEquals(keys.subList(2, 10).subList(3, 5), mml.subList(2, 10).subList(3, 5));
+		assertArrayEquals(keys.get(5).ivec, (byte[]) mml.subList(2, 10).getVector(3));
+
+		final File binary2 = folder.newFile("kpt-memoryMappedTest2.tmp");
+		IOUtils.writeBinary(binary2, mml.subList(2, 10));
+		assertEquals(keys.subList(2, 10), MemoryLocalFeatureList.read(binary2, Keypoint.class));
+	}
 }
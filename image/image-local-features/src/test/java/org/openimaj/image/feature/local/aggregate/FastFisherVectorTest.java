@@ -0,0 +1,129 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.image.feature.local.aggregate;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openimaj.feature.FloatFV;
+import org.openimaj.math.statistics.distribution.DiagonalMultivariateGaussian;
+import org.openimaj.math.statistics.distribution.MixtureOfGaussians;
+import org.openimaj.math.statistics.distribution.MultivariateGaussian;
+
+import Jama.Matrix;
+
+/**
+ * Tests for {@link FastFisherVector}
+ *
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class FastFisherVectorTest {
+	private MixtureOfGaussians gmm;
+	private List<FloatFV> features;
+
+	/**
+	 * Create a random mixture and features drawn from near its means
+	 */
+	@Before
+	public void setup() {
+		final int K = 16;
+		final int D = 8;
+		final Random rng = new Random(0);
+
+		final MultivariateGaussian[] gaussians = new MultivariateGaussian[K];
+		final double[] weights = new double[K];
+		for (int k = 0; k < K; k++) {
+			final double[] mean = new double[D];
+			final double[] variance = new double[D];
+			for (int j = 0; j < D; j++) {
+				mean[j] = rng.nextDouble() * 10;
+				variance[j] = 0.5 + rng.nextDouble();
+			}
+			gaussians[k] = new DiagonalMultivariateGaussian(new Matrix(new double[][] { mean }), variance);
+			weights[k] = 1.0 / K;
+		}
+		gmm = new MixtureOfGaussians(gaussians, weights);
+
+		features = new ArrayList<FloatFV>();
+		for (int i = 0; i < 1000; i++) {
+			final double[] mean = gaussians[rng.nextInt(K)].getMean().getArray()[0];
+			final float[] f = new float[D];
+			for (int j = 0; j < D; j++)
+				f[j] = (float) (mean[j] + rng.nextGaussian());
+			features.add(new FloatFV(f));
+		}
+	}
+
+	private void assertSame(FloatFV expected, FloatFV actual) {
+		assertEquals(expected.length(), actual.length());
+
+		for (int i = 0; i < expected.length(); i++)
+			assertEquals(expected.values[i], actual.values[i], 1e-5);
+	}
+
+	/**
+	 * The encoding should match the {@link FisherVector}
+	 */
+	@Test
+	public void testSameAsFisherVector() {
+		assertSame(new FisherVector<float[]>(gmm, false).aggregateVectors(features),
+				new FastFisherVector(gmm, false).aggregateVectors(features));
+
+		assertSame(new FisherVector<float[]>(gmm, true).aggregateVectors(features),
+				new FastFisherVector(gmm, true).aggregateVectors(features));
+	}
+
+	/**
+	 * Parallel encoding should match sequential encoding
+	 */
+	@Test
+	public void testParallel() {
+		final ThreadPoolExecutor pool = new ThreadPoolExecutor(3, 3, 0, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>());
+
+		try {
+			final FastFisherVector fv = new FastFisherVector(gmm, true);
+			final FloatFV expected = fv.aggregateVectors(features);
+
+			fv.setThreadPool(pool);
+			assertSame(expected, fv.aggregateVectors(features));
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
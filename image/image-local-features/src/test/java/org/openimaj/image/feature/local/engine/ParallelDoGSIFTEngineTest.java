@@ -0,0 +1,105 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.image.feature.local.engine;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+import org.openimaj.feature.local.list.LocalFeatureList;
+import org.openimaj.image.FImage;
+import org.openimaj.image.feature.local.keypoints.Keypoint;
+import org.openimaj.math.geometry.shape.Circle;
+import org.openimaj.math.geometry.shape.Rectangle;
+
+/**
+ * Tests for {@link ParallelDoGSIFTEngine}.
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class ParallelDoGSIFTEngineTest {
+	private FImage createImage() {
+		final FImage image = new FImage(400, 300);
+		final Random rng = new Random(42);
+
+		for (int i = 0; i < 30; i++) {
+			final float x = rng.nextFloat() * image.width;
+			final float y = rng.nextFloat() * image.height;
+			final float r = 3 + rng.nextFloat() * 30;
+
+			if (i % 2 == 0)
+				image.drawShapeFilled(new Circle(x, y, r), rng.nextFloat());
+			else
+				image.drawShapeFilled(new Rectangle(x, y, r, 2 * r), rng.nextFloat());
+		}
+
+		return image;
+	}
+
+	/**
+	 * Test that the parallel engine produces exactly the same keypoints as
+	 * the sequential one, in the same order.
+	 */
+	@Test
+	public void testSameAsSequential() {
+		final FImage image = createImage();
+
+		final LocalFeatureList<Keypoint> expected = new DoGSIFTEngine().findFeatures(image);
+
+		final ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			final ParallelDoGSIFTEngine engine = new ParallelDoGSIFTEngine(new DoGSIFTEngineOptions<FImage>(), pool);
+
+			for (int run = 0; run < 2; run++) {
+				final LocalFeatureList<Keypoint> actual = engine.findFeatures(image);
+
+				assertTrue(expected.size() > ParallelDoGSIFTEngine.MIN_PARTITION_SIZE);
+				assertEquals(expected.size(), actual.size());
+
+				for (int i = 0; i < expected.size(); i++) {
+					final Keypoint e = expected.get(i);
+					final Keypoint a = actual.get(i);
+
+					assertEquals(e.x, a.x, 0);
+					assertEquals(e.y, a.y, 0);
+					assertEquals(e.scale, a.scale, 0);
+					assertEquals(e.ori, a.ori, 0);
+					assertArrayEquals(e.ivec, a.ivec);
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
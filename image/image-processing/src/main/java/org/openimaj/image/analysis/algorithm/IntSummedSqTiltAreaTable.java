@@ -0,0 +1,281 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.image.analysis.algorithm;
+
+import org.openimaj.image.FImage;
+import org.openimaj.image.analyser.ImageAnalyser;
+
+/**
+ * Integer implementation of an Integral Image or Summed Area Table, computing
+ * the sum, squared sum and (optionally) 45-degree tilted sum values in the same
+ * way as {@link SummedSqTiltAreaTable}.
+ * <p>
+ * The pixels of the image are quantised to 8-bit values (0-255) before the
+ * tables are computed, which is lossless for images that were originally
+ * loaded from 8-bit data. The sums are stored as exact integers in contiguous
+ * row-major arrays, so unlike the floating-point tables there is no loss of
+ * precision for large images. The sum and tilted sum tables take the same
+ * space as their {@link SummedSqTiltAreaTable} counterparts; the squared sum
+ * table is stored as longs, so it takes twice as much.
+ * <p>
+ * Note that the values in the sum and tilted sum tables may overflow (wrap
+ * around) for very large images; this does not matter as long as the sum over
+ * any area of interest fits in an int (which is always the case for areas of
+ * less than 2<sup>23</sup> pixels) because the sum of an area is computed with
+ * integer (modular) arithmetic.
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class IntSummedSqTiltAreaTable implements ImageAnalyser<FImage> {
+	/**
+	 * The number of grey levels the pixels are quantised to minus one (i.e.
+	 * the value that a pixel with value 1 becomes)
+	 */
+	public static final int MAX_VALUE = 255;
+
+	/**
+	 * The sum data. Element (x, y) is at index <code>y * stride + x</code>.
+	 */
+	public int[] sum;
+
+	/**
+	 * The squared sum data. Element (x, y) is at index
+	 * <code>y * stride + x</code>.
+	 */
+	public long[] sqSum;
+
+	/**
+	 * The tilted sum data, or null if not computed. Element (x, y) is at index
+	 * <code>y * tiltStride + x</code>.
+	 */
+	public int[] tiltSum;
+
+	/**
+	 * The width of the rows of the sum and squared sum tables (the image width
+	 * plus one)
+	 */
+	public int stride;
+
+	/**
+	 * The width of the rows of the tilted sum table (the image width plus two)
+	 */
+	public int tiltStride;
+
+	/**
+	 * Construct an empty SAT.
+	 */
+	public IntSummedSqTiltAreaTable() {
+	}
+
+	/**
+	 * Construct a SAT for normal sum, squared sum and tilted sum from the
+	 * provided image.
+	 * 
+	 * @param image
+	 *            the image.
+	 */
+	public IntSummedSqTiltAreaTable(FImage image) {
+		this(image, true);
+	}
+
+	/**
+	 * Construct a SAT for normal sum, squared sum and (optionally) tilted sum
+	 * from the provided image.
+	 * 
+	 * @param image
+	 *            the image.
+	 * @param computeTilted
+	 *            if true compute the tilted features.
+	 */
+	public IntSummedSqTiltAreaTable(FImage image, boolean computeTilted) {
+		computeTable(image, computeTilted);
+	}
+
+	private static int quantise(float pix) {
+		final int v = (int) (pix * MAX_VALUE + 0.5f);
+
+		return v < 0 ? 0 : v > MAX_VALUE ? MAX_VALUE : v;
+	}
+
+	private void computeTable(FImage image, boolean computeTilted) {
+		final int width = image.width;
+		final int height = image.height;
+
+		stride = width + 1;
+		sum = new int[stride * (height + 1)];
+		sqSum = new long[stride * (height + 1)];
+
+		if (computeTilted) {
+			tiltStride = width + 2;
+			tiltSum = new int[tiltStride * (height + 2)];
+		} else {
+			tiltStride = 0;
+			tiltSum = null;
+		}
+
+		final int[] grey = new int[width];
+		final int[] buffer = new int[width];
+
+		for (int y = 1; y <= height; y++) {
+			final float[] row = image.pixels[y - 1];
+
+			int rowSum = 0;
+			long sqRowSum = 0;
+
+			final int o = y * stride;
+			for (int x = 1; x <= width; x++) {
+				final int g = quantise(row[x - 1]);
+
+				rowSum += g;
+				sqRowSum += g * g;
+
+				sum[o + x] = sum[o - stride + x] + rowSum;
+				sqSum[o + x] = sqSum[o - stride + x] + sqRowSum;
+
+				grey[x - 1] = g;
+			}
+
+			if (computeTilted)
+				computeTiltedRow(y, grey, buffer);
+		}
+	}
+
+	/*
+	 * Compute a row of the tilted table; this follows
+	 * SummedSqTiltAreaTable#computeRotSqSumIntegralImages exactly.
+	 */
+	private void computeTiltedRow(int y, int[] grey, int[] buffer) {
+		final int width = grey.length;
+		final int s = tiltStride;
+		final int o = y * s;
+		final int[] t = tiltSum;
+
+		if (y == 1) {
+			for (int x = 1; x <= width; x++)
+				buffer[x - 1] = t[o + x] = grey[x - 1];
+		} else if (y == 2) {
+			for (int x = 1; x < width; x++) {
+				t[o + x] = t[o - s + x - 1] + buffer[x - 1] + t[o - s + x + 1] + grey[x - 1];
+				buffer[x - 1] = grey[x - 1];
+			}
+
+			if (width > 0) {
+				t[o + width] = t[o - s + width - 1] + buffer[width - 1] + grey[width - 1];
+				buffer[width - 1] = grey[width - 1];
+			}
+		} else {
+			if (width > 0) {
+				t[o + 1] = t[o - s + 2] + buffer[0] + grey[0];
+				buffer[0] = grey[0];
+			}
+
+			for (int x = 2; x < width; x++) {
+				t[o + x] = t[o - s + x - 1] + buffer[x - 1] + t[o - s + x + 1] - t[o - 2 * s + x] + grey[x - 1];
+				buffer[x - 1] = grey[x - 1];
+			}
+
+			if (width > 0) {
+				t[o + width] = t[o - s + width - 1] + buffer[width - 1] + grey[width - 1];
+				buffer[width - 1] = grey[width - 1];
+			}
+		}
+	}
+
+	/**
+	 * Calculate the sum of (quantised) pixels in the image used for
+	 * constructing this SAT within the rectangle defined by (x1,y1) [top-left
+	 * coordinate] and (x2,y2) [bottom- right coordinate]
+	 * 
+	 * @param x1
+	 *            x1
+	 * @param y1
+	 *            y1
+	 * @param x2
+	 *            x2
+	 * @param y2
+	 *            y2
+	 * @return sum of pixels in given rectangle
+	 */
+	public int calculateSumArea(int x1, int y1, int x2, int y2) {
+		return sum[y1 * stride + x1] + sum[y2 * stride + x2] - sum[y1 * stride + x2] - sum[y2 * stride + x1];
+	}
+
+	/**
+	 * Calculate the sum of squared (quantised) pixels in the image used for
+	 * constructing this SAT within the rectangle defined by (x1,y1) [top-left
+	 * coordinate] and (x2,y2) [bottom- right coordinate]
+	 * 
+	 * @param x1
+	 *            x1
+	 * @param y1
+	 *            y1
+	 * @param x2
+	 *            x2
+	 * @param y2
+	 *            y2
+	 * @return sum of squared pixels in given rectangle
+	 */
+	public long calculateSqSumArea(int x1, int y1, int x2, int y2) {
+		return sqSum[y1 * stride + x1] + sqSum[y2 * stride + x2] - sqSum[y1 * stride + x2] - sqSum[y2 * stride + x1];
+	}
+
+	/**
+	 * Calculate the sum of (quantised) pixels in the image used for
+	 * constructing this SAT within the 45 degree tilted rectangle.
+	 * 
+	 * @param x
+	 * @param y
+	 * @param width
+	 * @param height
+	 * 
+	 * @return sum of pixels in given rectangle
+	 */
+	public int calculateTiltedSumArea(int x, int y, int width, int height) {
+		final int s = tiltStride;
+		final int p0 = tiltSum[y * s + x];
+		final int p1 = tiltSum[(y + height) * s + x - height];
+		final int p2 = tiltSum[(y + width) * s + x + width];
+		final int p3 = tiltSum[(y + width + height) * s + x + width - height];
+
+		return p0 - p1 - p2 + p3;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * org.openimaj.image.analyser.ImageAnalyser#analyseImage(org.openimaj.image
+	 * .Image)
+	 */
+	@Override
+	public void analyseImage(FImage image) {
+		computeTable(image, true);
+	}
+}
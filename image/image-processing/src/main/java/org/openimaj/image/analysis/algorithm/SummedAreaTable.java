@@ -30,6 +30,7 @@
 package org.openimaj.image.analysis.algorithm;
 
 import org.openimaj.image.FImage;
+import org.openimaj.image.FlatFImage;
 import org.openimaj.image.analyser.ImageAnalyser;
 import org.openimaj.math.geometry.shape.Rectangle;
 
@@ -67,6 +68,18 @@ public class SummedAreaTable implements ImageAnalyser<FImage> {
 		computeTable(image);
 	}
 
+	/**
+	 * Construct a SAT from the provided {@link FlatFImage}. The table is
+	 * identical to the one that would be computed from the equivalent
+	 * {@link FImage}.
+	 * 
+	 * @param image
+	 *            the image
+	 */
+	public SummedAreaTable(FlatFImage image) {
+		computeTable(image);
+	}
+
 	protected void computeTable(FImage image) {
 		data = new FImage(image.width + 1, image.height + 1);
 
@@ -80,6 +93,22 @@ public class SummedAreaTable implements ImageAnalyser<FImage> {
 		}
 	}
 
+	protected void computeTable(FlatFImage image) {
+		final int width = image.width;
+		final float[] pixels = image.pixels;
+
+		data = new FImage(width + 1, image.height + 1);
+
+		for (int y = 0; y < image.height; y++) {
+			final float[] prev = data.pixels[y];
+			final float[] row = data.pixels[y + 1];
+			final int offset = y * width;
+
+			for (int x = 0; x < width; x++)
+				row[x + 1] = pixels[offset + x] + row[x] + prev[x + 1] - prev[x];
+		}
+	}
+
 	/**
 	 * Calculate the sum of pixels in the image used for constructing this SAT
 	 * within the rectangle defined by (x1,y1) [top-left coordinate] and (x2,y2)
@@ -127,4 +156,14 @@ public class SummedAreaTable implements ImageAnalyser<FImage> {
 	public void analyseImage(FImage image) {
 		computeTable(image);
 	}
+
+	/**
+	 * Compute the SAT of the given {@link FlatFImage}.
+	 * 
+	 * @param image
+	 *            the image
+	 */
+	public void analyseImage(FlatFImage image) {
+		computeTable(image);
+	}
 }
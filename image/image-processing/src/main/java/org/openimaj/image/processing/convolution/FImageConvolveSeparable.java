@@ -29,18 +29,34 @@
  */
 package org.openimaj.image.processing.convolution;
 
+import java.util.Arrays;
+import java.util.concurrent.ThreadPoolExecutor;
+
 import org.openimaj.image.FImage;
+import org.openimaj.image.FlatFImage;
 import org.openimaj.image.processor.SinglebandImageProcessor;
+import org.openimaj.util.function.Operation;
+import org.openimaj.util.parallel.GlobalExecutorPool;
+import org.openimaj.util.parallel.Parallel;
+import org.openimaj.util.parallel.Parallel.IntRange;
 
 /**
  * Image processor for separable convolution of an FImage. Capable of doing
  * convolution in either the vertical, horizontal or both directions.
+ * {@link FlatFImage}s can also be convolved using
+ * {@link #processImage(FlatFImage)} or the static methods.
  * 
  * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
  */
 public class FImageConvolveSeparable implements SinglebandImageProcessor<Float, FImage> {
+	/**
+	 * The number of columns processed together by the vertical convolution.
+	 */
+	public static final int STRIP_WIDTH = 64;
+
 	float[] hkernel;
 	float[] vkernel;
+	ThreadPoolExecutor pool;
 
 	/**
 	 * Specify the horizontal kernel and vertical kernel separately.
@@ -55,6 +71,25 @@ public class FImageConvolveSeparable implements SinglebandImageProcessor<Float,
 		this.vkernel = vkernel;
 	}
 
+	/**
+	 * Specify the horizontal kernel and vertical kernel separately, and a
+	 * thread pool with which to process the image in parallel. The output is
+	 * identical to the single-threaded convolution.
+	 * 
+	 * @param hkernel
+	 *            horizontal kernel
+	 * @param vkernel
+	 *            vertical kernel
+	 * @param pool
+	 *            the thread pool; if <code>null</code> the
+	 *            {@link GlobalExecutorPool} is used.
+	 */
+	public FImageConvolveSeparable(float[] hkernel, float[] vkernel, ThreadPoolExecutor pool) {
+		this.hkernel = hkernel;
+		this.vkernel = vkernel;
+		this.pool = pool == null ? GlobalExecutorPool.getPool() : pool;
+	}
+
 	/**
 	 * Specify a single kernel to be used as the horizontal and vertical.
 	 * 
@@ -75,10 +110,38 @@ public class FImageConvolveSeparable implements SinglebandImageProcessor<Float,
 	 */
 	@Override
 	public void processImage(FImage image) {
-		if (hkernel != null)
-			convolveHorizontal(image, hkernel);
-		if (vkernel != null)
-			convolveVertical(image, vkernel);
+		if (pool != null) {
+			if (hkernel != null)
+				convolveHorizontal(image, hkernel, pool);
+			if (vkernel != null)
+				convolveVertical(image, vkernel, pool);
+		} else {
+			if (hkernel != null)
+				convolveHorizontal(image, hkernel);
+			if (vkernel != null)
+				convolveVertical(image, vkernel);
+		}
+	}
+
+	/**
+	 * Convolve a {@link FlatFImage} in the same way as
+	 * {@link #processImage(FImage)}.
+	 * 
+	 * @param image
+	 *            the image to convolve in place
+	 */
+	public void processImage(FlatFImage image) {
+		if (pool != null) {
+			if (hkernel != null)
+				convolveHorizontal(image, hkernel, pool);
+			if (vkernel != null)
+				convolveVertical(image, vkernel, pool);
+		} else {
+			if (hkernel != null)
+				convolveHorizontal(image, hkernel);
+			if (vkernel != null)
+				convolveVertical(image, vkernel);
+		}
 	}
 
 	/*
@@ -110,11 +173,42 @@ public class FImageConvolveSeparable implements SinglebandImageProcessor<Float,
 	 *            the convolution kernel.
 	 */
 	public static void convolveHorizontal(FImage image, float[] kernel) {
-		final int halfsize = kernel.length / 2;
+		convolveHorizontal(image, kernel, 0, image.height, new float[image.width + kernel.length]);
+	}
+
+	/**
+	 * Convolve the image in the horizontal direction with the kernel, using
+	 * the given thread pool to process blocks of rows in parallel. Edge
+	 * effects are handled by duplicating the edge pixels. The result is
+	 * identical to {@link #convolveHorizontal(FImage, float[])}.
+	 * <p>
+	 * This method blocks until all the rows have been processed, so it must
+	 * not be called from a task running on the same pool.
+	 * 
+	 * @param image
+	 *            the image to convolve.
+	 * @param kernel
+	 *            the convolution kernel.
+	 * @param pool
+	 *            the thread pool; if <code>null</code> the
+	 *            {@link GlobalExecutorPool} is used.
+	 */
+	public static void convolveHorizontal(final FImage image, final float[] kernel, ThreadPoolExecutor pool) {
+		if (pool == null)
+			pool = GlobalExecutorPool.getPool();
 
-		final float buffer[] = new float[image.width + kernel.length];
+		Parallel.forRange(0, image.height, 1, new Operation<IntRange>() {
+			@Override
+			public void perform(IntRange range) {
+				convolveHorizontal(image, kernel, range.start, range.stop, new float[image.width + kernel.length]);
+			}
+		}, pool);
+	}
 
-		for (int r = 0; r < image.height; r++) {
+	private static void convolveHorizontal(FImage image, float[] kernel, int startRow, int stopRow, float[] buffer) {
+		final int halfsize = kernel.length / 2;
+
+		for (int r = startRow; r < stopRow; r++) {
 			for (int i = 0; i < halfsize; i++)
 				buffer[i] = image.pixels[r][0];
 			for (int i = 0; i < image.width; i++)
@@ -142,6 +236,11 @@ public class FImageConvolveSeparable implements SinglebandImageProcessor<Float,
 	/**
 	 * Convolve the image in the vertical direction with the kernel. Edge
 	 * effects are handled by duplicating the edge pixels.
+	 * <p>
+	 * Rather than walking down each column in turn, the image is processed
+	 * in strips of {@link #STRIP_WIDTH} columns, with each strip being
+	 * traversed row by row so that memory is accessed sequentially. The
+	 * result is identical to convolving each column independently.
 	 * 
 	 * @param image
 	 *            the image to convolve.
@@ -149,20 +248,145 @@ public class FImageConvolveSeparable implements SinglebandImageProcessor<Float,
 	 *            the convolution kernel.
 	 */
 	public static void convolveVertical(FImage image, float[] kernel) {
+		final float[] buffer = new float[(image.height + kernel.length) * STRIP_WIDTH];
+		final float[] sums = new float[STRIP_WIDTH];
+
+		for (int c = 0; c < image.width; c += STRIP_WIDTH)
+			convolveVerticalStrip(image, kernel, c, Math.min(c + STRIP_WIDTH, image.width), buffer, sums);
+	}
+
+	/**
+	 * Convolve the image in the vertical direction with the kernel, using the
+	 * given thread pool to process strips of columns in parallel. Edge
+	 * effects are handled by duplicating the edge pixels. The result is
+	 * identical to {@link #convolveVertical(FImage, float[])}.
+	 * <p>
+	 * This method blocks until all the strips have been processed, so it must
+	 * not be called from a task running on the same pool.
+	 * 
+	 * @param image
+	 *            the image to convolve.
+	 * @param kernel
+	 *            the convolution kernel.
+	 * @param pool
+	 *            the thread pool; if <code>null</code> the
+	 *            {@link GlobalExecutorPool} is used.
+	 */
+	public static void convolveVertical(final FImage image, final float[] kernel, ThreadPoolExecutor pool) {
+		if (pool == null)
+			pool = GlobalExecutorPool.getPool();
+
+		final int nstrips = (image.width + STRIP_WIDTH - 1) / STRIP_WIDTH;
+
+		Parallel.forRange(0, nstrips, 1, new Operation<IntRange>() {
+			@Override
+			public void perform(IntRange range) {
+				final float[] buffer = new float[(image.height + kernel.length) * STRIP_WIDTH];
+				final float[] sums = new float[STRIP_WIDTH];
+
+				for (int s = range.start; s < range.stop; s++) {
+					final int c = s * STRIP_WIDTH;
+					convolveVerticalStrip(image, kernel, c, Math.min(c + STRIP_WIDTH, image.width), buffer, sums);
+				}
+			}
+		}, pool);
+	}
+
+	/*
+	 * Convolve the columns [startCol, stopCol) of the image. The strip is
+	 * copied into the buffer with replicated edges (row-major, with a stride
+	 * of the strip width), and each output row is accumulated across the
+	 * strip. The order of the summation for each pixel is the same as in
+	 * convolveBuffer.
+	 */
+	private static void convolveVerticalStrip(FImage image, float[] kernel, int startCol, int stopCol,
+			float[] buffer, float[] sums)
+	{
 		final int halfsize = kernel.length / 2;
+		final int width = stopCol - startCol;
+		final int height = image.height;
+		final float[][] pixels = image.pixels;
 
-		final float buffer[] = new float[image.height + kernel.length];
+		for (int i = 0; i < halfsize; i++)
+			System.arraycopy(pixels[0], startCol, buffer, i * width, width);
+		for (int i = 0; i < height; i++)
+			System.arraycopy(pixels[i], startCol, buffer, (halfsize + i) * width, width);
+		for (int i = 0; i < halfsize; i++)
+			System.arraycopy(pixels[height - 1], startCol, buffer, (halfsize + height + i) * width, width);
 
-		for (int c = 0; c < image.width; c++) {
-			for (int i = 0; i < halfsize; i++)
-				buffer[i] = image.pixels[0][c];
-			for (int i = 0; i < image.height; i++)
-				buffer[halfsize + i] = image.pixels[i][c];
-			for (int i = 0; i < halfsize; i++)
-				buffer[halfsize + image.height + i] = image.pixels[image.height - 1][c];
+		for (int r = 0; r < height; r++) {
+			for (int c = 0; c < width; c++)
+				sums[c] = 0.0f;
+
+			for (int j = 0, jj = kernel.length - 1; j < kernel.length; j++, jj--) {
+				final float k = kernel[jj];
+				final int offset = (r + j) * width;
+
+				for (int c = 0; c < width; c++)
+					sums[c] += buffer[offset + c] * k;
+			}
+
+			System.arraycopy(sums, 0, pixels[r], startCol, width);
+		}
+	}
+
+	/**
+	 * Convolve the image in the horizontal direction with the kernel. Edge
+	 * effects are handled by duplicating the edge pixels. The result is
+	 * identical to {@link #convolveHorizontal(FImage, float[])}.
+	 * 
+	 * @param image
+	 *            the image to convolve.
+	 * @param kernel
+	 *            the convolution kernel.
+	 */
+	public static void convolveHorizontal(FlatFImage image, float[] kernel) {
+		convolveHorizontal(image, kernel, 0, image.height, new float[image.width + kernel.length]);
+	}
+
+	/**
+	 * Convolve the image in the horizontal direction with the kernel, using
+	 * the given thread pool to process blocks of rows in parallel. The result
+	 * is identical to {@link #convolveHorizontal(FlatFImage, float[])}.
+	 * <p>
+	 * This method blocks until all the rows have been processed, so it must
+	 * not be called from a task running on the same pool.
+	 * 
+	 * @param image
+	 *            the image to convolve.
+	 * @param kernel
+	 *            the convolution kernel.
+	 * @param pool
+	 *            the thread pool; if <code>null</code> the
+	 *            {@link GlobalExecutorPool} is used.
+	 */
+	public static void convolveHorizontal(final FlatFImage image, final float[] kernel, ThreadPoolExecutor pool) {
+		if (pool == null)
+			pool = GlobalExecutorPool.getPool();
+
+		Parallel.forRange(0, image.height, 1, new Operation<IntRange>() {
+			@Override
+			public void perform(IntRange range) {
+				convolveHorizontal(image, kernel, range.start, range.stop, new float[image.width + kernel.length]);
+			}
+		}, pool);
+	}
+
+	private static void convolveHorizontal(FlatFImage image, float[] kernel, int startRow, int stopRow,
+			float[] buffer)
+	{
+		final int halfsize = kernel.length / 2;
+		final int width = image.width;
+		final float[] pixels = image.pixels;
+		final int l = buffer.length - kernel.length;
+
+		for (int r = startRow; r < stopRow; r++) {
+			final int offset = r * width;
+
+			Arrays.fill(buffer, 0, halfsize, pixels[offset]);
+			System.arraycopy(pixels, offset, buffer, halfsize, width);
+			Arrays.fill(buffer, halfsize + width, halfsize + width + halfsize, pixels[offset + width - 1]);
 
-			// convolveBuffer(buffer, kernel);
-			final int l = buffer.length - kernel.length;
 			for (int i = 0; i < l; i++) {
 				float sum = 0.0f;
 
@@ -171,10 +395,98 @@ public class FImageConvolveSeparable implements SinglebandImageProcessor<Float,
 
 				buffer[i] = sum;
 			}
-			// end convolveBuffer(buffer, kernel);
 
-			for (int r = 0; r < image.height; r++)
-				image.pixels[r][c] = buffer[r];
+			System.arraycopy(buffer, 0, pixels, offset, width);
+		}
+	}
+
+	/**
+	 * Convolve the image in the vertical direction with the kernel. Edge
+	 * effects are handled by duplicating the edge pixels. The result is
+	 * identical to {@link #convolveVertical(FImage, float[])}.
+	 * 
+	 * @param image
+	 *            the image to convolve.
+	 * @param kernel
+	 *            the convolution kernel.
+	 */
+	public static void convolveVertical(FlatFImage image, float[] kernel) {
+		final float[] buffer = new float[(image.height + kernel.length) * STRIP_WIDTH];
+		final float[] sums = new float[STRIP_WIDTH];
+
+		for (int c = 0; c < image.width; c += STRIP_WIDTH)
+			convolveVerticalStrip(image, kernel, c, Math.min(c + STRIP_WIDTH, image.width), buffer, sums);
+	}
+
+	/**
+	 * Convolve the image in the vertical direction with the kernel, using the
+	 * given thread pool to process strips of columns in parallel. The result
+	 * is identical to {@link #convolveVertical(FlatFImage, float[])}.
+	 * <p>
+	 * This method blocks until all the strips have been processed, so it must
+	 * not be called from a task running on the same pool.
+	 * 
+	 * @param image
+	 *            the image to convolve.
+	 * @param kernel
+	 *            the convolution kernel.
+	 * @param pool
+	 *            the thread pool; if <code>null</code> the
+	 *            {@link GlobalExecutorPool} is used.
+	 */
+	public static void convolveVertical(final FlatFImage image, final float[] kernel, ThreadPoolExecutor pool) {
+		if (pool == null)
+			pool = GlobalExecutorPool.getPool();
+
+		final int nstrips = (image.width + STRIP_WIDTH - 1) / STRIP_WIDTH;
+
+		Parallel.forRange(0, nstrips, 1, new Operation<IntRange>() {
+			@Override
+			public void perform(IntRange range) {
+				final float[] buffer = new float[(image.height + kernel.length) * STRIP_WIDTH];
+				final float[] sums = new float[STRIP_WIDTH];
+
+				for (int s = range.start; s < range.stop; s++) {
+					final int c = s * STRIP_WIDTH;
+					convolveVerticalStrip(image, kernel, c, Math.min(c + STRIP_WIDTH, image.width), buffer, sums);
+				}
+			}
+		}, pool);
+	}
+
+	/*
+	 * As convolveVerticalStrip(FImage...), with the rows of the strip read
+	 * from the contiguous pixel array at a stride of the image width.
+	 */
+	private static void convolveVerticalStrip(FlatFImage image, float[] kernel, int startCol, int stopCol,
+			float[] buffer, float[] sums)
+	{
+		final int halfsize = kernel.length / 2;
+		final int width = stopCol - startCol;
+		final int height = image.height;
+		final int stride = image.width;
+		final float[] pixels = image.pixels;
+
+		for (int i = 0; i < halfsize; i++)
+			System.arraycopy(pixels, startCol, buffer, i * width, width);
+		for (int i = 0; i < height; i++)
+			System.arraycopy(pixels, i * stride + startCol, buffer, (halfsize + i) * width, width);
+		for (int i = 0; i < halfsize; i++)
+			System.arraycopy(pixels, (height - 1) * stride + startCol, buffer, (halfsize + height + i) * width, width);
+
+		for (int r = 0; r < height; r++) {
+			for (int c = 0; c < width; c++)
+				sums[c] = 0.0f;
+
+			for (int j = 0, jj = kernel.length - 1; j < kernel.length; j++, jj--) {
+				final float k = kernel[jj];
+				final int offset = (r + j) * width;
+
+				for (int c = 0; c < width; c++)
+					sums[c] += buffer[offset + c] * k;
+			}
+
+			System.arraycopy(sums, 0, pixels, r * stride + startCol, width);
 		}
 	}
 
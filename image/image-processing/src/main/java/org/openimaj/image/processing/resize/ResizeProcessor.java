@@ -32,6 +32,7 @@ package org.openimaj.image.processing.resize;
 import org.openimaj.citation.annotation.Reference;
 import org.openimaj.citation.annotation.ReferenceType;
 import org.openimaj.image.FImage;
+import org.openimaj.image.FlatFImage;
 import org.openimaj.image.Image;
 import org.openimaj.image.processing.resize.filters.TriangleFilter;
 import org.openimaj.image.processor.SinglebandImageProcessor;
@@ -830,15 +831,86 @@ public class ResizeProcessor implements SinglebandImageProcessor<Float, FImage>
 		/* create intermediate column to hold horizontal dst column zoom */
 		final float[] work = new float[in.height];
 
+		final float maxValue = in.max();
+		final double fwidth = filterf.getSupport();
+		final PixelContributions[] contribY = calc_y_contrib(yscale, fwidth, dstHeight, srcHeight, filterf);
+
+		for (int xx = 0; xx < dstWidth; xx++) {
+			final PixelContributions contribX = new PixelContributions();
+			calc_x_contrib(contribX, xscale, fwidth, dst.width, in.width, filterf, xx);
+
+			/* Apply horiz filter to make dst column in tmp. */
+			for (int k = 0; k < srcHeight; k++) {
+				double weight = 0.0;
+				boolean bPelDelta = false;
+				// TODO: This line throws index out of bounds, if the image
+				// is smaller than filter.support()
+				final double pel = in.pixels[k][contribX.contributions[0].pixel];
+				for (int j = 0; j < contribX.numberOfContributors; j++) {
+					final double pel2 = j == 0 ? pel : in.pixels[k][contribX.contributions[j].pixel];
+					if (pel2 != pel) {
+						bPelDelta = true;
+					}
+					weight += pel2 * contribX.contributions[j].weight;
+				}
+				weight = bPelDelta ? Math.round(weight * 255) / 255f : pel;
+
+				if (weight < 0) {
+					weight = 0;
+				}
+				else if (weight > maxValue) {
+					weight = maxValue;
+				}
+
+				work[k] = (float) weight;
+			}/* next row in temp column */
+
+			/*
+			 * The temp column has been built. Now stretch it vertically into
+			 * dst column.
+			 */
+			for (int i = 0; i < dstHeight; i++) {
+				double weight = 0.0;
+				boolean bPelDelta = false;
+				final double pel = work[contribY[i].contributions[0].pixel];
+
+				for (int j = 0; j < contribY[i].numberOfContributors; j++) {
+					// TODO: This line throws index out of bounds, if the
+					// image is smaller than filter.support()
+					final double pel2 = j == 0 ? pel : work[contribY[i].contributions[j].pixel];
+					if (pel2 != pel) {
+						bPelDelta = true;
+					}
+					weight += pel2 * contribY[i].contributions[j].weight;
+				}
+				weight = bPelDelta ? Math.round(weight * 255) / 255f : pel;
+
+				if (weight < 0) {
+					weight = 0;
+				}
+				else if (weight > maxValue) {
+					weight = maxValue;
+				}
+
+				dst.pixels[i][xx] = (float) weight;
+			} /* next dst row */
+		} /* next dst column */
+
+		return dst;
+	}
+
+	/*
+	 * Calculate the filter contributions for each row of the destination image
+	 */
+	private static PixelContributions[] calc_y_contrib(double yscale, double fwidth, int dstHeight, int srcHeight,
+			ResizeFilterFunction filterf)
+	{
 		final PixelContributions[] contribY = new PixelContributions[dstHeight];
 		for (int i = 0; i < contribY.length; i++) {
 			contribY[i] = new PixelContributions();
 		}
 
-		final float maxValue = in.max();
-
 		// TODO: What to do when fwidth > srcHeight or dstHeight
-		final double fwidth = filterf.getSupport();
 		if (yscale < 1.0) {
 			double width = fwidth / yscale;
 			double fscale = 1.0 / yscale;
@@ -939,23 +1011,100 @@ public class ResizeProcessor implements SinglebandImageProcessor<Float, FImage>
 			}
 		}
 
+		return contribY;
+	}
+
+	/**
+	 * Resizes a {@link FlatFImage}. The result is identical to resizing the
+	 * equivalent {@link FImage} with {@link #zoomInplace(FImage, int, int)}.
+	 *
+	 * @param in
+	 *            The source image
+	 * @param newX
+	 *            The desired width of the image
+	 * @param newY
+	 *            The desired height of the image
+	 * @return the input image, resized appropriately
+	 */
+	public static FlatFImage zoomInplace(FlatFImage in, int newX, int newY) {
+		return zoomInplace(in, newX, newY, DEFAULT_FILTER);
+	}
+
+	/**
+	 * Resizes a {@link FlatFImage}. The result is identical to resizing the
+	 * equivalent {@link FImage} with
+	 * {@link #zoomInplace(FImage, int, int, ResizeFilterFunction)}.
+	 *
+	 * @param in
+	 *            The source image
+	 * @param newX
+	 *            New width of the image
+	 * @param newY
+	 *            New height of the image
+	 * @param filterf
+	 *            The filter function
+	 * @return the input image, resized appropriately
+	 */
+	public static FlatFImage zoomInplace(FlatFImage in, int newX, int newY, ResizeFilterFunction filterf) {
+		final FlatFImage dst = new FlatFImage(newX, newY);
+		zoom(in, dst, filterf);
+		in.internalAssign(dst);
+		return in;
+	}
+
+	/**
+	 * Resizes a {@link FlatFImage} into the given destination image. The
+	 * result is identical to
+	 * {@link #zoom(FImage, FImage, ResizeFilterFunction)}, but rather than
+	 * filtering a column at a time, each pass works along the rows of the
+	 * contiguous pixel arrays.
+	 *
+	 * @param in
+	 *            The source image
+	 * @param dst
+	 *            The destination image
+	 * @param filterf
+	 *            The filter function
+	 * @return the destination image
+	 */
+	public static FlatFImage zoom(FlatFImage in, FlatFImage dst, ResizeFilterFunction filterf) {
+		final int dstWidth = dst.getWidth();
+		final int dstHeight = dst.getHeight();
+
+		final int srcWidth = in.getWidth();
+		final int srcHeight = in.getHeight();
+
+		final double xscale = (double) dstWidth / (double) srcWidth;
+		final double yscale = (double) dstHeight / (double) srcHeight;
+
+		final float maxValue = in.max();
+		final double fwidth = filterf.getSupport();
+		final PixelContributions[] contribY = calc_y_contrib(yscale, fwidth, dstHeight, srcHeight, filterf);
+
+		final PixelContributions[] contribX = new PixelContributions[dstWidth];
 		for (int xx = 0; xx < dstWidth; xx++) {
-			final PixelContributions contribX = new PixelContributions();
-			calc_x_contrib(contribX, xscale, fwidth, dst.width, in.width, filterf, xx);
+			contribX[xx] = new PixelContributions();
+			calc_x_contrib(contribX[xx], xscale, fwidth, dstWidth, srcWidth, filterf, xx);
+		}
 
-			/* Apply horiz filter to make dst column in tmp. */
-			for (int k = 0; k < srcHeight; k++) {
+		/* horizontally filter every source row into the work image */
+		final float[] src = in.pixels;
+		final float[] work = new float[srcHeight * dstWidth];
+		for (int k = 0; k < srcHeight; k++) {
+			final int srcOffset = k * srcWidth;
+			final int workOffset = k * dstWidth;
+
+			for (int xx = 0; xx < dstWidth; xx++) {
+				final PixelContributions contrib = contribX[xx];
 				double weight = 0.0;
 				boolean bPelDelta = false;
-				// TODO: This line throws index out of bounds, if the image
-				// is smaller than filter.support()
-				final double pel = in.pixels[k][contribX.contributions[0].pixel];
-				for (int j = 0; j < contribX.numberOfContributors; j++) {
-					final double pel2 = j == 0 ? pel : in.pixels[k][contribX.contributions[j].pixel];
+				final double pel = src[srcOffset + contrib.contributions[0].pixel];
+				for (int j = 0; j < contrib.numberOfContributors; j++) {
+					final double pel2 = j == 0 ? pel : src[srcOffset + contrib.contributions[j].pixel];
 					if (pel2 != pel) {
 						bPelDelta = true;
 					}
-					weight += pel2 * contribX.contributions[j].weight;
+					weight += pel2 * contrib.contributions[j].weight;
 				}
 				weight = bPelDelta ? Math.round(weight * 255) / 255f : pel;
 
@@ -966,26 +1115,27 @@ public class ResizeProcessor implements SinglebandImageProcessor<Float, FImage>
 					weight = maxValue;
 				}
 
-				work[k] = (float) weight;
-			}/* next row in temp column */
+				work[workOffset + xx] = (float) weight;
+			}
+		}
 
-			/*
-			 * The temp column has been built. Now stretch it vertically into
-			 * dst column.
-			 */
-			for (int i = 0; i < dstHeight; i++) {
+		/* vertically filter the work image into the destination rows */
+		final float[] out = dst.pixels;
+		for (int i = 0; i < dstHeight; i++) {
+			final PixelContributions contrib = contribY[i];
+			final int dstOffset = i * dstWidth;
+
+			for (int xx = 0; xx < dstWidth; xx++) {
 				double weight = 0.0;
 				boolean bPelDelta = false;
-				final double pel = work[contribY[i].contributions[0].pixel];
+				final double pel = work[contrib.contributions[0].pixel * dstWidth + xx];
 
-				for (int j = 0; j < contribY[i].numberOfContributors; j++) {
-					// TODO: This line throws index out of bounds, if the
-					// image is smaller than filter.support()
-					final double pel2 = j == 0 ? pel : work[contribY[i].contributions[j].pixel];
+				for (int j = 0; j < contrib.numberOfContributors; j++) {
+					final double pel2 = j == 0 ? pel : work[contrib.contributions[j].pixel * dstWidth + xx];
 					if (pel2 != pel) {
 						bPelDelta = true;
 					}
-					weight += pel2 * contribY[i].contributions[j].weight;
+					weight += pel2 * contrib.contributions[j].weight;
 				}
 				weight = bPelDelta ? Math.round(weight * 255) / 255f : pel;
 
@@ -996,9 +1146,9 @@ public class ResizeProcessor implements SinglebandImageProcessor<Float, FImage>
 					weight = maxValue;
 				}
 
-				dst.pixels[i][xx] = (float) weight;
-			} /* next dst row */
-		} /* next dst column */
+				out[dstOffset + xx] = (float) weight;
+			}
+		}
 
 		return dst;
 	}
@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.image.analysis.algorithm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.openimaj.image.FImage;
+
+/**
+ * Tests for the {@link IntSummedSqTiltAreaTable}.
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class IntSummedSqTiltAreaTableTest {
+	/**
+	 * Compare against the floating point implementation. The image is small
+	 * and has integer pixel values, so the floating point sums are exact.
+	 */
+	@Test
+	public void testCompare() {
+		final Random rng = new Random(0);
+
+		for (final int[] sz : new int[][] { { 15, 16 }, { 5, 1 }, { 2, 2 } }) {
+			final FImage image = new FImage(sz[0], sz[1]);
+			final FImage scaled = new FImage(sz[0], sz[1]);
+			for (int y = 0; y < image.height; y++) {
+				for (int x = 0; x < image.width; x++) {
+					final int v = rng.nextInt(256);
+					image.pixels[y][x] = v / 255f;
+					scaled.pixels[y][x] = v;
+				}
+			}
+
+			final IntSummedSqTiltAreaTable isat = new IntSummedSqTiltAreaTable(image, true);
+			final SummedSqTiltAreaTable fsat = new SummedSqTiltAreaTable(scaled, true);
+
+			for (int y = 0; y <= image.height; y++) {
+				for (int x = 0; x <= image.width; x++) {
+					assertEquals(fsat.sum.pixels[y][x], isat.sum[y * isat.stride + x], 0);
+					assertEquals(fsat.sqSum.pixels[y][x], isat.sqSum[y * isat.stride + x], 0);
+				}
+			}
+
+			for (int y = 0; y < fsat.tiltSum.height; y++) {
+				for (int x = 0; x < fsat.tiltSum.width; x++) {
+					assertEquals(fsat.tiltSum.pixels[y][x], isat.tiltSum[y * isat.tiltStride + x], 0);
+				}
+			}
+
+			assertEquals(fsat.calculateSumArea(1, 1, sz[0], sz[1]), isat.calculateSumArea(1, 1, sz[0], sz[1]), 0);
+			assertEquals(fsat.calculateSqSumArea(0, 1, sz[0], sz[1]), isat.calculateSqSumArea(0, 1, sz[0], sz[1]), 0);
+		}
+
+		assertNull(new IntSummedSqTiltAreaTable(new FImage(5, 5), false).tiltSum);
+	}
+
+	/**
+	 * Test that sums over areas are exact even when the table overflows
+	 */
+	@Test
+	public void testOverflow() {
+		final FImage image = new FImage(3000, 3000);
+		image.fill(1f);
+
+		final IntSummedSqTiltAreaTable isat = new IntSummedSqTiltAreaTable(image, false);
+
+		assertEquals(255 * 100 * 100, isat.calculateSumArea(2900, 2900, 3000, 3000));
+		assertEquals(255L * 255 * 3000 * 3000, isat.calculateSqSumArea(0, 0, 3000, 3000));
+	}
+}
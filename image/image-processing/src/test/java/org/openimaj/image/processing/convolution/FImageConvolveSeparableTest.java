@@ -0,0 +1,142 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.image.processing.convolution;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.junit.Test;
+import org.openimaj.image.FImage;
+import org.openimaj.image.FlatFImage;
+
+/**
+ * Test {@link FImageConvolveSeparable}.
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class FImageConvolveSeparableTest {
+	private static FImage randomImage(int width, int height) {
+		final Random rng = new Random(42);
+		final FImage image = new FImage(width, height);
+
+		for (int y = 0; y < height; y++)
+			for (int x = 0; x < width; x++)
+				image.pixels[y][x] = rng.nextFloat();
+
+		return image;
+	}
+
+	private static FImage transpose(FImage image) {
+		final FImage out = new FImage(image.height, image.width);
+
+		for (int y = 0; y < image.height; y++)
+			for (int x = 0; x < image.width; x++)
+				out.pixels[x][y] = image.pixels[y][x];
+
+		return out;
+	}
+
+	/**
+	 * Test that the strip-based vertical convolution gives exactly the same
+	 * result as convolving each column (equivalently each row of the
+	 * transposed image) independently.
+	 */
+	@Test
+	public void testVertical() {
+		final float[][] kernels = {
+				FGaussianConvolve.makeKernel(2f),
+				{ 0.25f, 0.75f },
+				{ 1f }
+		};
+
+		for (final float[] kernel : kernels) {
+			// the width is deliberately not a multiple of the strip width
+			final FImage image = randomImage(FImageConvolveSeparable.STRIP_WIDTH * 2 + 13, 37);
+
+			final FImage expected = transpose(image);
+			FImageConvolveSeparable.convolveHorizontal(expected, kernel);
+
+			final FImage actual = image.clone();
+			FImageConvolveSeparable.convolveVertical(actual, kernel);
+
+			assertEquals(transpose(expected), actual);
+		}
+	}
+
+	/**
+	 * Test that the parallel convolutions are identical to the
+	 * single-threaded ones.
+	 */
+	@Test
+	public void testParallel() {
+		final ThreadPoolExecutor pool = (ThreadPoolExecutor) Executors.newFixedThreadPool(4);
+
+		try {
+			final float[] kernel = FGaussianConvolve.makeKernel(3f);
+			final FImage image = randomImage(517, 301);
+
+			final FImage expected = image.process(new FImageConvolveSeparable(kernel));
+			final FImage actual = image.process(new FImageConvolveSeparable(kernel, kernel, pool));
+
+			assertEquals(expected, actual);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Test that convolving a {@link FlatFImage} gives exactly the same result
+	 * as convolving the equivalent {@link FImage}, both single-threaded and in
+	 * parallel.
+	 */
+	@Test
+	public void testFlat() {
+		final ThreadPoolExecutor pool = (ThreadPoolExecutor) Executors.newFixedThreadPool(4);
+
+		try {
+			final float[] kernel = FGaussianConvolve.makeKernel(2.5f);
+			final FImage image = randomImage(FImageConvolveSeparable.STRIP_WIDTH * 3 + 7, 53);
+			final FImage expected = image.process(new FImageConvolveSeparable(kernel));
+
+			final FlatFImage actual = new FlatFImage(image);
+			new FImageConvolveSeparable(kernel).processImage(actual);
+			assertEquals(expected, actual.toFImage());
+
+			final FlatFImage actualParallel = new FlatFImage(image);
+			new FImageConvolveSeparable(kernel, kernel, pool).processImage(actualParallel);
+			assertEquals(expected, actualParallel.toFImage());
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
@@ -34,6 +34,7 @@ import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
 import org.openimaj.image.FImage;
+import org.openimaj.image.FlatFImage;
 import org.openimaj.image.ImageUtilities;
 import org.openimaj.image.processing.resize.filters.BSplineFilter;
 import org.openimaj.math.geometry.shape.Rectangle;
@@ -142,4 +143,28 @@ public class ResizeProcessorTest {
 		assertTrue(3700000 > image.height * image.width);
 		assertEquals(2687.0 / 3356.0, (double) image.width / (double) image.height, 0.001);
 	}
+
+	/**
+	 * Test that resizing a {@link FlatFImage} gives exactly the same result as
+	 * resizing the equivalent {@link FImage}
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testFlatZoom() throws Exception {
+		final FImage image = ImageUtilities.readF(ResizeProcessorTest.class
+				.getResourceAsStream("/org/openimaj/image/data/sinaface.jpg"));
+
+		final int[][] sizes = { { 97, 61 }, { image.width * 2 + 3, image.height + 5 }, { 13, image.height * 2 } };
+		final ResizeFilterFunction[] filters = { ResizeProcessor.DEFAULT_FILTER, new BSplineFilter() };
+
+		for (final ResizeFilterFunction filter : filters) {
+			for (final int[] size : sizes) {
+				final FImage expected = ResizeProcessor.zoomInplace(image.clone(), size[0], size[1], filter);
+				final FlatFImage actual = ResizeProcessor.zoomInplace(new FlatFImage(image), size[0], size[1], filter);
+
+				assertEquals(expected, actual.toFImage());
+			}
+		}
+	}
 }
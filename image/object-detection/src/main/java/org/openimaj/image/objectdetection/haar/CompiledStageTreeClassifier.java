@@ -0,0 +1,938 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.image.objectdetection.haar;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openimaj.image.analysis.algorithm.IntSummedSqTiltAreaTable;
+import org.openimaj.image.analysis.algorithm.SummedSqTiltAreaTable;
+
+/**
+ * An immutable, compiled form of a {@link StageTreeClassifier}. The stages,
+ * the trees of {@link HaarFeatureClassifier}s within the stages and the
+ * {@link WeightedRectangle}s of the features are flattened into primitive
+ * arrays, so evaluating a window doesn't require walking a graph of objects.
+ * <p>
+ * Unlike the {@link StageTreeClassifier}, the state related to a particular
+ * detection scale is not held by the classifier (or its features); instead it
+ * is held by a separate {@link Scale} object obtained from
+ * {@link #atScale(float)}. This means that a single compiled classifier can
+ * be safely shared by any number of threads detecting in different images at
+ * the same time:
+ * 
+ * <code><pre>
+ * CompiledStageTreeClassifier cascade = new CompiledStageTreeClassifier(stageTree);
+ * 
+ * for each scale {
+ * 	CompiledStageTreeClassifier.Scale scaled = cascade.atScale(scale);
+ * 
+ * 	for each y {
+ * 		for each x {
+ * 			scaled.classify(sat, x, y);
+ * 		}
+ * 	}
+ * }
+ * </pre></code>
+ * 
+ * The results of classification are identical to those of the
+ * {@link StageTreeClassifier} from which the compiled classifier was
+ * created. The compiled classifier takes a copy of all the data it needs, so
+ * is unaffected by any subsequent changes to the original. The {@link Scale}s
+ * for the {@value #MAX_CACHED_SCALES} most recently used scales are cached, so
+ * repeatedly detecting in images of the same size doesn't require the features
+ * to be rescaled.
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public final class CompiledStageTreeClassifier {
+	/**
+	 * The maximum number of {@link Scale}s that will be cached
+	 */
+	static final int MAX_CACHED_SCALES = 128;
+
+	/**
+	 * The maximum number of integer table layouts (one per table size) that
+	 * will be cached by each {@link Scale}
+	 */
+	static final int MAX_CACHED_LAYOUTS = 8;
+
+	/**
+	 * The number of adjacent windows classified together by
+	 * {@link Scale#classify(IntSummedSqTiltAreaTable, int[], int, int, int[])}
+	 */
+	public static final int BATCH_SIZE = 4;
+
+	// layout of the records of the feature nodes in the packed node array.
+	// Each node record is followed by its rectangles.
+	private static final int NODE_NUM_RECTS = 0;
+	private static final int NODE_TILTED = 1;
+	private static final int NODE_THRESHOLD = 2; // float bits
+	private static final int NODE_LEFT = 3;
+	private static final int NODE_RIGHT = 4;
+	private static final int NODE_HEADER_SIZE = 5;
+
+	// layout of the rectangles in the packed node array
+	private static final int RECT_X = 0;
+	private static final int RECT_Y = 1;
+	private static final int RECT_WIDTH = 2;
+	private static final int RECT_HEIGHT = 3;
+	private static final int RECT_WEIGHT = 4; // float bits
+	private static final int RECT_SIZE = 5;
+
+	// the layout of the rectangles after conversion to offsets into the
+	// integer tables (see TableLayout)
+	private static final int CORNER_0 = 0;
+	private static final int CORNER_1 = 1;
+	private static final int CORNER_2 = 2;
+	private static final int CORNER_3 = 3;
+
+	private final int width;
+	private final int height;
+	private final String name;
+	private final boolean hasTiltedFeatures;
+
+	// the stages; stage 0 is the root and the successor/failure indices are
+	// -1 if there is no following stage.
+	private final float[] stageThresholds;
+	private final boolean[] stageHasNegativeValues;
+	private final int[] stageTreeOffsets; // length nstages+1
+	private final int[] stageSuccess;
+	private final int[] stageFailure;
+
+	// the root node of each tree; an index >= 0 is the offset of a node in the
+	// packed node array, whilst a negative index i indicates the leaf value ~i.
+	// The children of the nodes are encoded in the same way.
+	private final int[] treeRoots;
+
+	// the packed feature nodes, with unscaled rectangles
+	private final int[] nodes;
+
+	// the offset of each node in the packed array, together with the
+	// information required to scale it
+	private final int[] nodeOffsets;
+	private final float[] nodeCorrectionFactors;
+	private final WeightedRectangle[][] nodeRects;
+
+	// the leaf values
+	private final float[] leafValues;
+
+	private final Map<Float, Scale> scaleCache = new LRUCache<Float, Scale>(MAX_CACHED_SCALES);
+
+	/*
+	 * A map that discards its least recently accessed entry once it holds
+	 * more than the given number of entries. Not thread-safe.
+	 */
+	private static final class LRUCache<K, V> extends LinkedHashMap<K, V> {
+		private static final long serialVersionUID = 1L;
+
+		private final int capacity;
+
+		LRUCache(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+			return size() > capacity;
+		}
+	}
+
+	/**
+	 * The state of a {@link CompiledStageTreeClassifier} at a particular
+	 * detection scale. Instances are immutable and can be shared between
+	 * threads.
+	 * 
+	 * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+	 */
+	public final class Scale {
+		private final float scale;
+		private final int roundedScale; // the scale rounded to the nearest px
+		private final float invArea; // inverse area of the (scaled) window
+		private final int w; // the width of the (scaled) detection window
+		private final int h; // the height of the (scaled) detection window
+
+		// the packed nodes with the rectangles scaled
+		private final int[] scaledNodes;
+
+		// the packed nodes with the rectangles converted to offsets into the
+		// integer tables, for each of the most recently used table sizes
+		// (keyed by the strides of the tables). The last layout used is also
+		// held separately so that repeated use with tables of the same size
+		// doesn't need to lock the map.
+		private final Map<Long, TableLayout> layouts = new LRUCache<Long, TableLayout>(MAX_CACHED_LAYOUTS);
+		private volatile TableLayout layout;
+
+		Scale(float scale) {
+			this.scale = scale;
+			this.roundedScale = Math.round(scale);
+
+			// following the OCV code... -2 to make a slightly smaller box
+			// within window
+			w = Math.round(scale * (width - 2));
+			h = Math.round(scale * (height - 2));
+			invArea = 1.0f / (w * h);
+
+			scaledNodes = nodes.clone();
+
+			for (int n = 0; n < nodeOffsets.length; n++) {
+				final WeightedRectangle[] in = nodeRects[n];
+				final WeightedRectangle[] out = new WeightedRectangle[in.length];
+				for (int i = 0; i < in.length; i++)
+					out[i] = new WeightedRectangle(0, 0, 0, 0, 0);
+
+				HaarFeature.scaleRects(in, nodeCorrectionFactors[n], scale, invArea, out);
+
+				for (int i = 0, j = nodeOffsets[n] + NODE_HEADER_SIZE; i < out.length; i++, j += RECT_SIZE) {
+					scaledNodes[j + RECT_X] = out[i].x;
+					scaledNodes[j + RECT_Y] = out[i].y;
+					scaledNodes[j + RECT_WIDTH] = out[i].width;
+					scaledNodes[j + RECT_HEIGHT] = out[i].height;
+					scaledNodes[j + RECT_WEIGHT] = Float.floatToRawIntBits(out[i].weight);
+				}
+			}
+		}
+
+		/**
+		 * Get the scale
+		 * 
+		 * @return the scale
+		 */
+		public float getScale() {
+			return scale;
+		}
+
+		private float computeWindowVarianceNorm(SummedSqTiltAreaTable sat, int x, int y) {
+			x += roundedScale; // shift by 1 scaled px to centre box
+			y += roundedScale;
+
+			final float sum = sat.sum.pixels[y + h][x + w] + sat.sum.pixels[y][x] -
+					sat.sum.pixels[y + h][x] - sat.sum.pixels[y][x + w];
+			final float sqSum = sat.sqSum.pixels[y + h][x + w] + sat.sqSum.pixels[y][x] -
+					sat.sqSum.pixels[y + h][x] - sat.sqSum.pixels[y][x + w];
+
+			final float mean = sum * invArea;
+			float wvNorm = sqSum * invArea - mean * mean;
+			wvNorm = (float) ((wvNorm > 0) ? Math.sqrt(wvNorm) : 1);
+
+			return wvNorm;
+		}
+
+		/**
+		 * Test whether the given point in the given image matches the
+		 * classifier at this scale. The semantics of the return value are the
+		 * same as for {@link StageTreeClassifier#classify}.
+		 * 
+		 * @param sat
+		 *            the integral image(s) of the image being tested
+		 * @param x
+		 *            the starting x-ordinate of the window
+		 * @param y
+		 *            the starting y-ordinate of the window
+		 * @return +number of stages passed if the classifier matched; -number
+		 *         of stages passed if the classifier didn't match
+		 */
+		public int classify(SummedSqTiltAreaTable sat, int x, int y) {
+			final float wvNorm = computeWindowVarianceNorm(sat, x, y);
+
+			int matches = 0;
+			int stage = 0;
+			while (true) { // until success or failure
+				if (pass(stage, sat, wvNorm, x, y)) {
+					matches++;
+					stage = stageSuccess[stage];
+					if (stage < 0) {
+						return matches;
+					}
+				} else {
+					stage = stageFailure[stage];
+					if (stage < 0) {
+						return -matches;
+					}
+				}
+			}
+		}
+
+		private boolean pass(int stage, SummedSqTiltAreaTable sat, float wvNorm, int x, int y) {
+			final float threshold = stageThresholds[stage];
+			final int stop = stageTreeOffsets[stage + 1];
+
+			// if there are no negative valued features in the ensemble, then
+			// the sum can only increase & the threshold can be checked on each
+			// iteration
+			final boolean checkEarly = !stageHasNegativeValues[stage];
+
+			final int[] nodes = scaledNodes;
+
+			float total = 0;
+			for (int t = stageTreeOffsets[stage]; t < stop; t++) {
+				int node = treeRoots[t];
+
+				while (node >= 0) {
+					final int start = node + NODE_HEADER_SIZE;
+					final int end = start + nodes[node + NODE_NUM_RECTS] * RECT_SIZE;
+
+					final float response = nodes[node + NODE_TILTED] != 0 ?
+							tiltedResponse(nodes, start, end, sat.tiltSum.pixels, x, y) :
+							normalResponse(nodes, start, end, sat.sum.pixels, x, y);
+
+					node = (response < Float.intBitsToFloat(nodes[node + NODE_THRESHOLD]) * wvNorm) ?
+							nodes[node + NODE_LEFT] : nodes[node + NODE_RIGHT];
+				}
+
+				total += leafValues[~node];
+
+				if (checkEarly && total >= threshold)
+					return true;
+			}
+
+			return total >= threshold;
+		}
+
+		private TableLayout layout(IntSummedSqTiltAreaTable sat) {
+			TableLayout l = layout;
+
+			if (l != null && l.stride == sat.stride && l.tiltStride == sat.tiltStride)
+				return l;
+
+			final Long key = ((long) sat.stride << 32) | (sat.tiltStride & 0xffffffffL);
+			synchronized (layouts) {
+				l = layouts.get(key);
+
+				if (l == null) {
+					l = new TableLayout(scaledNodes, sat.stride, sat.tiltStride);
+					layouts.put(key, l);
+				}
+			}
+
+			layout = l;
+			return l;
+		}
+
+		private float computeWindowVarianceNorm(IntSummedSqTiltAreaTable sat, int x, int y) {
+			final int s = sat.stride;
+			final int tl = (y + roundedScale) * s + x + roundedScale; // shift
+			final int tr = tl + w;
+			final int bl = tl + h * s;
+			final int br = bl + w;
+
+			final int sum = sat.sum[br] + sat.sum[tl] - sat.sum[bl] - sat.sum[tr];
+			final long sqSum = sat.sqSum[br] + sat.sqSum[tl] - sat.sqSum[bl] - sat.sqSum[tr];
+
+			// the integer sums are exact, so compute the variance in double
+			// precision to avoid cancellation
+			final double area = w * h;
+			final double mean = sum / area;
+			final double var = sqSum / area - mean * mean;
+
+			return (float) ((var > 0) ? Math.sqrt(var) : 1);
+		}
+
+		/**
+		 * Test whether the given point in the given image matches the
+		 * classifier at this scale using the integer integral images. The
+		 * semantics of the return value are the same as for
+		 * {@link StageTreeClassifier#classify}.
+		 * <p>
+		 * Because the Haar responses are normalised by the standard deviation
+		 * of the window, the result is independent of the quantisation of the
+		 * image to 8-bit values, except where this alters the actual pixel
+		 * values.
+		 * 
+		 * @param sat
+		 *            the integer integral image(s) of the image being tested
+		 * @param x
+		 *            the starting x-ordinate of the window
+		 * @param y
+		 *            the starting y-ordinate of the window
+		 * @return +number of stages passed if the classifier matched; -number
+		 *         of stages passed if the classifier didn't match
+		 */
+		public int classify(IntSummedSqTiltAreaTable sat, int x, int y) {
+			final int[] nodes = layout(sat).nodes;
+			final float wvNorm = computeWindowVarianceNorm(sat, x, y);
+
+			return classify(nodes, sat, y * sat.stride + x, y * sat.tiltStride + x, wvNorm, 0, 0);
+		}
+
+		private int classify(int[] nodes, IntSummedSqTiltAreaTable sat, int b, int bt, float wvNorm, int stage,
+				int matches)
+		{
+			while (true) { // until success or failure
+				if (pass(nodes, stage, sat.sum, sat.tiltSum, b, bt, wvNorm)) {
+					matches++;
+					stage = stageSuccess[stage];
+					if (stage < 0) {
+						return matches;
+					}
+				} else {
+					stage = stageFailure[stage];
+					if (stage < 0) {
+						return -matches;
+					}
+				}
+			}
+		}
+
+		private boolean pass(int[] nodes, int stage, int[] sum, int[] tiltSum, int b, int bt, float wvNorm) {
+			final float threshold = stageThresholds[stage];
+			final int stop = stageTreeOffsets[stage + 1];
+			final boolean checkEarly = !stageHasNegativeValues[stage];
+
+			float total = 0;
+			for (int t = stageTreeOffsets[stage]; t < stop; t++) {
+				total += treeValue(nodes, treeRoots[t], sum, tiltSum, b, bt, wvNorm);
+
+				if (checkEarly && total >= threshold)
+					return true;
+			}
+
+			return total >= threshold;
+		}
+
+		private float treeValue(int[] nodes, int node, int[] sum, int[] tiltSum, int b, int bt, float wvNorm) {
+			while (node >= 0) {
+				final int start = node + NODE_HEADER_SIZE;
+				final int end = start + nodes[node + NODE_NUM_RECTS] * RECT_SIZE;
+
+				final float response = nodes[node + NODE_TILTED] != 0 ?
+						response(nodes, start, end, tiltSum, bt) :
+						response(nodes, start, end, sum, b);
+
+				node = (response < Float.intBitsToFloat(nodes[node + NODE_THRESHOLD]) * wvNorm) ?
+						nodes[node + NODE_LEFT] : nodes[node + NODE_RIGHT];
+			}
+
+			return leafValues[~node];
+		}
+
+		/**
+		 * Classify a batch of up to {@link CompiledStageTreeClassifier#BATCH_SIZE}
+		 * windows on the same row of the image using the integer integral
+		 * images. The result for each window is identical to that of
+		 * {@link #classify(IntSummedSqTiltAreaTable, int, int)}, but the
+		 * windows are pushed through the cascade together, with the features of
+		 * each stage being evaluated for all the windows in an unrolled loop.
+		 * This amortises the cost of reading the classifier data and exposes
+		 * much more instruction-level parallelism than classifying the windows
+		 * one at a time.
+		 * 
+		 * @param sat
+		 *            the integer integral image(s) of the image being tested
+		 * @param xs
+		 *            the starting x-ordinates of the windows
+		 * @param n
+		 *            the number of windows (1 to
+		 *            {@link CompiledStageTreeClassifier#BATCH_SIZE})
+		 * @param y
+		 *            the starting y-ordinate of the windows
+		 * @param results
+		 *            the array to fill with the result for each window (+number
+		 *            of stages passed if the classifier matched; -number of
+		 *            stages passed if the classifier didn't match)
+		 */
+		public void classify(IntSummedSqTiltAreaTable sat, int[] xs, int n, int y, int[] results) {
+			final int[] nodes = layout(sat).nodes;
+			final int[] b = new int[BATCH_SIZE];
+			final int[] bt = new int[BATCH_SIZE];
+			final float[] wv = new float[BATCH_SIZE];
+
+			for (int k = 0; k < BATCH_SIZE; k++) {
+				// unused lanes just duplicate the last window
+				final int x = xs[Math.min(k, n - 1)];
+				b[k] = y * sat.stride + x;
+				bt[k] = y * sat.tiltStride + x;
+				wv[k] = computeWindowVarianceNorm(sat, x, y);
+				results[k] = 0;
+			}
+
+			int live = (1 << n) - 1;
+			int stage = 0;
+			while (live != 0) {
+				if (Integer.bitCount(live) == 1) {
+					final int k = Integer.numberOfTrailingZeros(live);
+					results[k] = classify(nodes, sat, b[k], bt[k], wv[k], stage, results[k]);
+					return;
+				}
+
+				final int passed = pass(nodes, stage, sat.sum, sat.tiltSum, b[0], b[1], b[2], b[3], bt[0], bt[1],
+						bt[2], bt[3], wv[0], wv[1], wv[2], wv[3]) & live;
+				final int failed = live & ~passed;
+				final int success = stageSuccess[stage];
+				final int failure = stageFailure[stage];
+
+				for (int k = 0; k < n; k++) {
+					if ((passed & (1 << k)) != 0)
+						results[k]++;
+				}
+
+				if (passed != 0 && success >= 0) {
+					// carry on with the windows that passed; the ones that
+					// failed either stop here or continue on their own
+					finish(nodes, sat, failed, failure, true, b, bt, wv, results);
+					live = passed;
+					stage = success;
+				} else {
+					// any windows that passed are complete; carry on with
+					// the ones that failed (if they have anywhere to go)
+					if (failure < 0) {
+						finish(nodes, sat, failed, failure, true, b, bt, wv, results);
+						return;
+					}
+
+					live = failed;
+					stage = failure;
+				}
+
+				// point the lanes of any finished windows at a live one, so
+				// that the unused lanes never prevent early termination
+				final int first = Integer.numberOfTrailingZeros(live);
+				for (int k = 0; k < BATCH_SIZE; k++) {
+					if ((live & (1 << k)) == 0) {
+						b[k] = b[first];
+						bt[k] = bt[first];
+						wv[k] = wv[first];
+					}
+				}
+			}
+		}
+
+		private void finish(int[] nodes, IntSummedSqTiltAreaTable sat, int windows, int stage, boolean failed,
+				int[] b, int[] bt, float[] wv, int[] results)
+		{
+			for (int k = 0; windows != 0; k++, windows >>>= 1) {
+				if ((windows & 1) == 0)
+					continue;
+
+				if (stage >= 0)
+					results[k] = classify(nodes, sat, b[k], bt[k], wv[k], stage, results[k]);
+				else if (failed)
+					results[k] = -results[k];
+			}
+		}
+
+		/*
+		 * Evaluate a stage for four windows at once, returning a bit mask of
+		 * the windows that passed. The arithmetic for each window is performed
+		 * in the same order as in the single window version, so the results
+		 * are identical.
+		 */
+		private int pass(int[] nodes, int stage, int[] sum, int[] tiltSum, int b0, int b1, int b2, int b3, int bt0,
+				int bt1, int bt2, int bt3, float wv0, float wv1, float wv2, float wv3)
+		{
+			final float threshold = stageThresholds[stage];
+			final int stop = stageTreeOffsets[stage + 1];
+
+			// if there are no negative values the totals can only increase, so
+			// the stage has been passed as soon as all the totals reach the
+			// threshold
+			final boolean checkEarly = !stageHasNegativeValues[stage];
+
+			float t0 = 0, t1 = 0, t2 = 0, t3 = 0;
+			for (int t = stageTreeOffsets[stage]; t < stop; t++) {
+				final int node = treeRoots[t];
+
+				if (node >= 0 && nodes[node + NODE_LEFT] < 0 && nodes[node + NODE_RIGHT] < 0) {
+					// a single feature (stump): evaluate it for all windows
+					// together
+					final int[] data;
+					final int o0, o1, o2, o3;
+					if (nodes[node + NODE_TILTED] != 0) {
+						data = tiltSum;
+						o0 = bt0;
+						o1 = bt1;
+						o2 = bt2;
+						o3 = bt3;
+					} else {
+						data = sum;
+						o0 = b0;
+						o1 = b1;
+						o2 = b2;
+						o3 = b3;
+					}
+
+					float r0 = 0, r1 = 0, r2 = 0, r3 = 0;
+					final int end = node + NODE_HEADER_SIZE + nodes[node + NODE_NUM_RECTS] * RECT_SIZE;
+					for (int j = node + NODE_HEADER_SIZE; j < end; j += RECT_SIZE) {
+						final int c0 = nodes[j + CORNER_0];
+						final int c1 = nodes[j + CORNER_1];
+						final int c2 = nodes[j + CORNER_2];
+						final int c3 = nodes[j + CORNER_3];
+						final float weight = Float.intBitsToFloat(nodes[j + RECT_WEIGHT]);
+
+						r0 += (data[o0 + c0] - data[o0 + c1] - data[o0 + c2] + data[o0 + c3]) * weight;
+						r1 += (data[o1 + c0] - data[o1 + c1] - data[o1 + c2] + data[o1 + c3]) * weight;
+						r2 += (data[o2 + c0] - data[o2 + c1] - data[o2 + c2] + data[o2 + c3]) * weight;
+						r3 += (data[o3 + c0] - data[o3 + c1] - data[o3 + c2] + data[o3 + c3]) * weight;
+					}
+
+					final float thresh = Float.intBitsToFloat(nodes[node + NODE_THRESHOLD]);
+					final float left = leafValues[~nodes[node + NODE_LEFT]];
+					final float right = leafValues[~nodes[node + NODE_RIGHT]];
+
+					t0 += r0 < thresh * wv0 ? left : right;
+					t1 += r1 < thresh * wv1 ? left : right;
+					t2 += r2 < thresh * wv2 ? left : right;
+					t3 += r3 < thresh * wv3 ? left : right;
+				} else {
+					t0 += treeValue(nodes, node, sum, tiltSum, b0, bt0, wv0);
+					t1 += treeValue(nodes, node, sum, tiltSum, b1, bt1, wv1);
+					t2 += treeValue(nodes, node, sum, tiltSum, b2, bt2, wv2);
+					t3 += treeValue(nodes, node, sum, tiltSum, b3, bt3, wv3);
+				}
+
+				if (checkEarly && t0 >= threshold && t1 >= threshold && t2 >= threshold && t3 >= threshold)
+					return 0xF;
+			}
+
+			return (t0 >= threshold ? 1 : 0) | (t1 >= threshold ? 2 : 0) | (t2 >= threshold ? 4 : 0)
+					| (t3 >= threshold ? 8 : 0);
+		}
+	}
+
+	/*
+	 * Compute the response of a feature from one of the integer tables; the
+	 * rectangles must have been converted to corner offsets by a TableLayout.
+	 */
+	private static float response(int[] nodes, int start, int end, int[] data, int base) {
+		float total = 0;
+
+		for (int j = start; j < end; j += RECT_SIZE) {
+			final int regionSum = data[base + nodes[j + CORNER_0]] - data[base + nodes[j + CORNER_1]]
+					- data[base + nodes[j + CORNER_2]] + data[base + nodes[j + CORNER_3]];
+
+			total += regionSum * Float.intBitsToFloat(nodes[j + RECT_WEIGHT]);
+		}
+
+		return total;
+	}
+
+	/*
+	 * A copy of the packed nodes of a Scale in which the rectangles are
+	 * replaced by the offsets of their corners in integer tables with the
+	 * given strides. The sum of a rectangle is then
+	 * data[c0] - data[c1] - data[c2] + data[c3] for both normal and tilted
+	 * features.
+	 */
+	private static final class TableLayout {
+		final int stride;
+		final int tiltStride;
+		final int[] nodes;
+
+		TableLayout(int[] scaledNodes, int stride, int tiltStride) {
+			this.stride = stride;
+			this.tiltStride = tiltStride;
+			this.nodes = scaledNodes.clone();
+
+			for (int node = 0; node < nodes.length;) {
+				final int end = node + NODE_HEADER_SIZE + nodes[node + NODE_NUM_RECTS] * RECT_SIZE;
+				final boolean tilted = nodes[node + NODE_TILTED] != 0;
+
+				for (int j = node + NODE_HEADER_SIZE; j < end; j += RECT_SIZE) {
+					final int x = scaledNodes[j + RECT_X];
+					final int y = scaledNodes[j + RECT_Y];
+					final int w = scaledNodes[j + RECT_WIDTH];
+					final int h = scaledNodes[j + RECT_HEIGHT];
+
+					if (tilted) {
+						final int s = tiltStride;
+						nodes[j + CORNER_0] = y * s + x;
+						nodes[j + CORNER_1] = (y + h) * s + x - h;
+						nodes[j + CORNER_2] = (y + w) * s + x + w;
+						nodes[j + CORNER_3] = (y + w + h) * s + x + w - h;
+					} else {
+						final int s = stride;
+						nodes[j + CORNER_0] = y * s + x;
+						nodes[j + CORNER_1] = y * s + x + w;
+						nodes[j + CORNER_2] = (y + h) * s + x;
+						nodes[j + CORNER_3] = (y + h) * s + x + w;
+					}
+				}
+
+				node = end;
+			}
+		}
+	}
+
+	private static float normalResponse(int[] nodes, int start, int end, float[][] sum, int x, int y) {
+		float total = 0;
+
+		for (int j = start; j < end; j += RECT_SIZE) {
+			final int rx = x + nodes[j + RECT_X];
+			final int ry = y + nodes[j + RECT_Y];
+			final int xw = rx + nodes[j + RECT_WIDTH];
+			final int yh = ry + nodes[j + RECT_HEIGHT];
+
+			final float regionSum = sum[yh][xw] - sum[yh][rx] - sum[ry][xw] + sum[ry][rx];
+
+			total += regionSum * Float.intBitsToFloat(nodes[j + RECT_WEIGHT]);
+		}
+
+		return total;
+	}
+
+	private static float tiltedResponse(int[] nodes, int start, int end, float[][] tiltSum, int x, int y) {
+		float total = 0;
+
+		for (int j = start; j < end; j += RECT_SIZE) {
+			final int rx = x + nodes[j + RECT_X];
+			final int ry = y + nodes[j + RECT_Y];
+			final int width = nodes[j + RECT_WIDTH];
+			final int height = nodes[j + RECT_HEIGHT];
+
+			final float p0 = tiltSum[ry][rx];
+			final float p1 = tiltSum[ry + height][rx - height];
+			final float p2 = tiltSum[ry + width][rx + width];
+			final float p3 = tiltSum[ry + width + height][rx + width - height];
+
+			final float regionSum = p0 - p1 - p2 + p3;
+
+			total += regionSum * Float.intBitsToFloat(nodes[j + RECT_WEIGHT]);
+		}
+
+		return total;
+	}
+
+	/**
+	 * Compile the given {@link StageTreeClassifier}.
+	 * 
+	 * @param classifier
+	 *            the classifier to compile
+	 */
+	public CompiledStageTreeClassifier(StageTreeClassifier classifier) {
+		this.width = classifier.width;
+		this.height = classifier.height;
+		this.name = classifier.name;
+		this.hasTiltedFeatures = classifier.hasTiltedFeatures;
+
+		// number the stages in preorder
+		final List<Stage> stages = new ArrayList<Stage>();
+		final Map<Stage, Integer> stageIndices = new IdentityHashMap<Stage, Integer>();
+		indexStages(classifier.root, stages, stageIndices);
+
+		final int nstages = stages.size();
+		stageThresholds = new float[nstages];
+		stageHasNegativeValues = new boolean[nstages];
+		stageTreeOffsets = new int[nstages + 1];
+		stageSuccess = new int[nstages];
+		stageFailure = new int[nstages];
+
+		final List<Classifier> trees = new ArrayList<Classifier>();
+		for (int i = 0; i < nstages; i++) {
+			final Stage s = stages.get(i);
+
+			stageThresholds[i] = s.threshold;
+			stageTreeOffsets[i] = trees.size();
+			stageSuccess[i] = s.successStage == null ? -1 : stageIndices.get(s.successStage);
+			stageFailure[i] = s.failureStage == null ? -1 : stageIndices.get(s.failureStage);
+
+			for (final Classifier c : s.ensemble)
+				trees.add(c);
+		}
+		stageTreeOffsets[nstages] = trees.size();
+
+		// flatten the trees, laying out the nodes of each tree (and thus of
+		// each stage) contiguously
+		final List<HaarFeatureClassifier> nodeList = new ArrayList<HaarFeatureClassifier>();
+		final List<int[]> children = new ArrayList<int[]>();
+		final List<Float> leaves = new ArrayList<Float>();
+
+		treeRoots = new int[trees.size()];
+		for (int i = 0; i < treeRoots.length; i++)
+			treeRoots[i] = flatten(trees.get(i), nodeList, children, leaves);
+
+		leafValues = new float[leaves.size()];
+		for (int i = 0; i < leafValues.length; i++)
+			leafValues[i] = leaves.get(i);
+
+		for (int i = 0; i < nstages; i++) {
+			for (int j = stageTreeOffsets[i]; j < stageTreeOffsets[i + 1]; j++) {
+				if (hasNegativeValues(treeRoots[j], children))
+					stageHasNegativeValues[i] = true;
+			}
+		}
+
+		// pack the nodes
+		final int nnodes = nodeList.size();
+		nodeOffsets = new int[nnodes];
+		nodeCorrectionFactors = new float[nnodes];
+		nodeRects = new WeightedRectangle[nnodes][];
+
+		int size = 0;
+		for (int i = 0; i < nnodes; i++) {
+			final HaarFeature feature = nodeList.get(i).feature;
+
+			nodeOffsets[i] = size;
+			nodeCorrectionFactors[i] = feature.getCorrectionFactor();
+			nodeRects[i] = new WeightedRectangle[feature.rects.length];
+			for (int j = 0; j < feature.rects.length; j++) {
+				final WeightedRectangle r = feature.rects[j];
+				nodeRects[i][j] = new WeightedRectangle(r.x, r.y, r.width, r.height, r.weight);
+			}
+
+			size += NODE_HEADER_SIZE + feature.rects.length * RECT_SIZE;
+		}
+
+		nodes = new int[size];
+		for (int i = 0; i < nnodes; i++) {
+			final HaarFeatureClassifier node = nodeList.get(i);
+			final int o = nodeOffsets[i];
+
+			nodes[o + NODE_NUM_RECTS] = nodeRects[i].length;
+			nodes[o + NODE_TILTED] = node.feature instanceof HaarFeature.TiltedFeature ? 1 : 0;
+			nodes[o + NODE_THRESHOLD] = Float.floatToRawIntBits(node.threshold);
+			nodes[o + NODE_LEFT] = toOffset(children.get(i)[0]);
+			nodes[o + NODE_RIGHT] = toOffset(children.get(i)[1]);
+		}
+
+		for (int i = 0; i < treeRoots.length; i++)
+			treeRoots[i] = toOffset(treeRoots[i]);
+	}
+
+	private int toOffset(int node) {
+		return node < 0 ? node : nodeOffsets[node];
+	}
+
+	private static void indexStages(Stage stage, List<Stage> stages, Map<Stage, Integer> indices) {
+		if (stage == null || indices.containsKey(stage))
+			return;
+
+		indices.put(stage, stages.size());
+		stages.add(stage);
+
+		indexStages(stage.successStage, stages, indices);
+		indexStages(stage.failureStage, stages, indices);
+	}
+
+	/*
+	 * Flatten the tree in preorder, returning the index of the root node (or
+	 * the complement of the index of the leaf value)
+	 */
+	private static int flatten(Classifier classifier, List<HaarFeatureClassifier> nodes, List<int[]> children,
+			List<Float> leaves)
+	{
+		if (classifier instanceof ValueClassifier) {
+			leaves.add(((ValueClassifier) classifier).value);
+			return ~(leaves.size() - 1);
+		}
+
+		final HaarFeatureClassifier hfc = (HaarFeatureClassifier) classifier;
+		final int index = nodes.size();
+		final int[] lr = new int[2];
+
+		nodes.add(hfc);
+		children.add(lr);
+
+		lr[0] = flatten(hfc.left, nodes, children, leaves);
+		lr[1] = flatten(hfc.right, nodes, children, leaves);
+
+		return index;
+	}
+
+	private boolean hasNegativeValues(int node, List<int[]> children) {
+		if (node < 0)
+			return leafValues[~node] < 0;
+
+		return hasNegativeValues(children.get(node)[0], children) || hasNegativeValues(children.get(node)[1], children);
+	}
+
+	/**
+	 * Get the state of the classifier at the given scale, ready for
+	 * classifying windows. The {@value #MAX_CACHED_SCALES} most recently
+	 * used scales are cached.
+	 * 
+	 * @param scale
+	 *            the scale
+	 * @return the scaled classifier
+	 */
+	public Scale atScale(float scale) {
+		Scale s;
+		synchronized (scaleCache) {
+			s = scaleCache.get(scale);
+		}
+
+		if (s == null) {
+			// scale outside the lock; if another thread got there first,
+			// use its Scale instead
+			final Scale created = new Scale(scale);
+
+			synchronized (scaleCache) {
+				s = scaleCache.get(scale);
+
+				if (s == null) {
+					s = created;
+					scaleCache.put(scale, s);
+				}
+			}
+		}
+
+		return s;
+	}
+
+	/**
+	 * Get the width of the classifier
+	 * 
+	 * @return the width
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Get the height of the classifier
+	 * 
+	 * @return the height
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Get the name of the classifier
+	 * 
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Does the classifier use tilted (rotated) features?
+	 * 
+	 * @return true if tilted features are used; false otherwise.
+	 */
+	public boolean hasTiltedFeatures() {
+		return hasTiltedFeatures;
+	}
+}
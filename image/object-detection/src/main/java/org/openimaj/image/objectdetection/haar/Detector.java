@@ -35,6 +35,7 @@ import java.util.List;
 import org.openimaj.citation.annotation.Reference;
 import org.openimaj.citation.annotation.ReferenceType;
 import org.openimaj.image.FImage;
+import org.openimaj.image.analysis.algorithm.IntSummedSqTiltAreaTable;
 import org.openimaj.image.analysis.algorithm.SummedSqTiltAreaTable;
 import org.openimaj.image.objectdetection.AbstractMultiScaleObjectDetector;
 import org.openimaj.math.geometry.shape.Rectangle;
@@ -50,9 +51,23 @@ import org.openimaj.math.geometry.shape.Rectangle;
  * incremented by {@link #bigStep()}, otherwise it is incremented by
  * {@link #smallStep()}.
  * <p>
- * <strong>Important note:</strong> This detector is NOT thread-safe due to the
- * fact that {@link StageTreeClassifier}s are not themselves thread-safe. Do not
- * attempt to use it in a multi-threaded environment!
+ * <strong>Important note:</strong> If constructed with a
+ * {@link StageTreeClassifier}, this detector is NOT thread-safe due to the fact
+ * that {@link StageTreeClassifier}s are not themselves thread-safe. Do not
+ * attempt to use it in a multi-threaded environment! If however the detector is
+ * constructed with a {@link CompiledStageTreeClassifier}, then all the state
+ * related to the scale being searched is local to each call to
+ * {@link #detect(FImage)}, so the detector (and the classifier) can be shared
+ * by any number of threads detecting in different images (as long as the
+ * parameters of the detector are not changed at the same time).
+ * <p>
+ * By default the detector uses floating-point integral images. These lose
+ * precision on large images; if {@link #setUseIntegerTables(boolean)} is
+ * enabled the detector instead uses exact integer integral images computed
+ * from an 8-bit quantised version of the image (see
+ * {@link IntSummedSqTiltAreaTable}), and scans the image with a compiled
+ * classifier that evaluates several adjacent windows at a time. This requires
+ * less memory bandwidth and is generally considerably faster.
  * 
  * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
  */
@@ -87,9 +102,11 @@ public class Detector extends AbstractMultiScaleObjectDetector<FImage, Rectangle
 	public static final float DEFAULT_SCALE_FACTOR = 1.1f;
 
 	protected StageTreeClassifier cascade;
+	protected CompiledStageTreeClassifier compiledCascade;
 	protected float scaleFactor = 1.1f;
 	protected int smallStep = 1;
 	protected int bigStep = 2;
+	protected boolean useIntegerTables = false;
 
 	/**
 	 * Construct the {@link Detector} with the given parameters.
@@ -136,6 +153,54 @@ public class Detector extends AbstractMultiScaleObjectDetector<FImage, Rectangle
 		this(cascade, DEFAULT_SCALE_FACTOR, DEFAULT_SMALL_STEP, DEFAULT_BIG_STEP);
 	}
 
+	/**
+	 * Construct the {@link Detector} with the given compiled classifier and
+	 * parameters. The resultant detector is thread-safe.
+	 * 
+	 * @param cascade
+	 *            the compiled cascade or tree of stages.
+	 * @param scaleFactor
+	 *            the amount to change between scales (multiplicative)
+	 * @param smallStep
+	 *            the amount to step when there is a hint of detection
+	 * @param bigStep
+	 *            the amount to step when there is definitely no detection
+	 */
+	public Detector(CompiledStageTreeClassifier cascade, float scaleFactor, int smallStep, int bigStep) {
+		super(Math.max(cascade.getWidth(), cascade.getHeight()), 0);
+
+		this.compiledCascade = cascade;
+		this.scaleFactor = scaleFactor;
+		this.smallStep = smallStep;
+		this.bigStep = bigStep;
+	}
+
+	/**
+	 * Construct the {@link Detector} with the given compiled classifier and
+	 * scale factor. The default step sizes are used. The resultant detector is
+	 * thread-safe.
+	 * 
+	 * @param cascade
+	 *            the compiled cascade or tree of stages.
+	 * @param scaleFactor
+	 *            the amount to change between scales
+	 */
+	public Detector(CompiledStageTreeClassifier cascade, float scaleFactor) {
+		this(cascade, scaleFactor, DEFAULT_SMALL_STEP, DEFAULT_BIG_STEP);
+	}
+
+	/**
+	 * Construct the {@link Detector} with the given compiled classifier, and
+	 * the default parameters for step sizes and scale factor. The resultant
+	 * detector is thread-safe.
+	 * 
+	 * @param cascade
+	 *            the compiled cascade or tree of stages.
+	 */
+	public Detector(CompiledStageTreeClassifier cascade) {
+		this(cascade, DEFAULT_SCALE_FACTOR, DEFAULT_SMALL_STEP, DEFAULT_BIG_STEP);
+	}
+
 	/**
 	 * Perform detection at a single scale. Subclasses may override this to
 	 * customise the spatial search. The given starting and stopping coordinates
@@ -186,6 +251,155 @@ public class Detector extends AbstractMultiScaleObjectDetector<FImage, Rectangle
 		}
 	}
 
+	/**
+	 * Perform detection at a single scale using a compiled classifier.
+	 * Subclasses may override this to customise the spatial search. The given
+	 * starting and stopping coordinates take into account any region of
+	 * interest set on this detector.
+	 * 
+	 * @param sat
+	 *            the summed area table(s)
+	 * @param classifier
+	 *            the compiled classifier at the current scale
+	 * @param startX
+	 *            the starting x-ordinate
+	 * @param stopX
+	 *            the stopping x-ordinate
+	 * @param startY
+	 *            the starting y-ordinate
+	 * @param stopY
+	 *            the stopping y-ordinate
+	 * @param ystep
+	 *            the amount to step
+	 * @param windowWidth
+	 *            the window width at the current scale
+	 * @param windowHeight
+	 *            the window height at the current scale
+	 * @param results
+	 *            the list to store detection results in
+	 */
+	protected void detectAtScale(final SummedSqTiltAreaTable sat, final CompiledStageTreeClassifier.Scale classifier,
+			final int startX, final int stopX, final int startY, final int stopY, final float ystep,
+			final int windowWidth, final int windowHeight, final List<Rectangle> results)
+	{
+		for (int iy = startY; iy < stopY; iy++) {
+			final int y = Math.round(iy * ystep);
+
+			for (int ix = startX, xstep = 0; ix < stopX; ix += xstep) {
+				final int x = Math.round(ix * ystep);
+
+				final int result = classifier.classify(sat, x, y);
+
+				if (result > 0) {
+					results.add(new Rectangle(x, y, windowWidth, windowHeight));
+				}
+
+				// if there is no detection, then increase the step size
+				xstep = (result > 0 ? smallStep : bigStep);
+			}
+		}
+	}
+
+	/**
+	 * Perform detection at a single scale using a compiled classifier and
+	 * integer integral images. Subclasses may override this to customise the
+	 * spatial search. The given starting and stopping coordinates take into
+	 * account any region of interest set on this detector.
+	 * 
+	 * @param sat
+	 *            the integer summed area table(s)
+	 * @param classifier
+	 *            the compiled classifier at the current scale
+	 * @param startX
+	 *            the starting x-ordinate
+	 * @param stopX
+	 *            the stopping x-ordinate
+	 * @param startY
+	 *            the starting y-ordinate
+	 * @param stopY
+	 *            the stopping y-ordinate
+	 * @param ystep
+	 *            the amount to step
+	 * @param windowWidth
+	 *            the window width at the current scale
+	 * @param windowHeight
+	 *            the window height at the current scale
+	 * @param results
+	 *            the list to store detection results in
+	 */
+	protected void detectAtScale(final IntSummedSqTiltAreaTable sat,
+			final CompiledStageTreeClassifier.Scale classifier, final int startX, final int stopX, final int startY,
+			final int stopY, final float ystep, final int windowWidth, final int windowHeight,
+			final List<Rectangle> results)
+	{
+		final int[] xs = new int[CompiledStageTreeClassifier.BATCH_SIZE];
+		final int[] batch = new int[CompiledStageTreeClassifier.BATCH_SIZE];
+
+		for (int iy = startY; iy < stopY; iy++) {
+			detectRow(sat, classifier, Math.round(iy * ystep), startX, stopX, ystep, windowWidth, windowHeight, xs,
+					batch, results);
+		}
+	}
+
+	/**
+	 * Search a single row of windows using a compiled classifier and integer
+	 * integral images. The windows are classified in batches, assuming that
+	 * there won't be a detection (so the step will be {@link #bigStep()});
+	 * if there is a detection the rest of the batch is discarded and the
+	 * search continues from the detection with the small step, so the
+	 * windows tested are exactly the same as if they were classified one at a
+	 * time.
+	 * 
+	 * @param sat
+	 *            the integer summed area table(s)
+	 * @param classifier
+	 *            the compiled classifier at the current scale
+	 * @param y
+	 *            the y-ordinate of the row
+	 * @param startX
+	 *            the starting x-ordinate
+	 * @param stopX
+	 *            the stopping x-ordinate
+	 * @param ystep
+	 *            the amount to step
+	 * @param windowWidth
+	 *            the window width at the current scale
+	 * @param windowHeight
+	 *            the window height at the current scale
+	 * @param xs
+	 *            workspace for the window positions
+	 * @param batch
+	 *            workspace for the batch results
+	 * @param results
+	 *            the list to store detection results in
+	 */
+	protected void detectRow(final IntSummedSqTiltAreaTable sat, final CompiledStageTreeClassifier.Scale classifier,
+			final int y, final int startX, final int stopX, final float ystep, final int windowWidth,
+			final int windowHeight, final int[] xs, final int[] batch, final List<Rectangle> results)
+	{
+		int ix = startX;
+		while (ix < stopX) {
+			int n = 0;
+			for (int i = ix; i < stopX && n < xs.length; i += bigStep)
+				xs[n++] = Math.round(i * ystep);
+
+			classifier.classify(sat, xs, n, y, batch);
+
+			int next = ix + n * bigStep;
+			for (int k = 0; k < n; k++) {
+				if (batch[k] > 0) {
+					synchronized (results) {
+						results.add(new Rectangle(xs[k], y, windowWidth, windowHeight));
+					}
+
+					next = ix + k * bigStep + smallStep;
+					break;
+				}
+			}
+			ix = next;
+		}
+	}
+
 	@Override
 	public List<Rectangle> detect(FImage image) {
 		final List<Rectangle> results = new ArrayList<Rectangle>();
@@ -193,16 +407,24 @@ public class Detector extends AbstractMultiScaleObjectDetector<FImage, Rectangle
 		final int imageWidth = image.getWidth();
 		final int imageHeight = image.getHeight();
 
-		final SummedSqTiltAreaTable sat = new SummedSqTiltAreaTable(image, cascade.hasTiltedFeatures);
+		final int cascadeWidth = compiledCascade != null ? compiledCascade.getWidth() : cascade.width;
+		final int cascadeHeight = compiledCascade != null ? compiledCascade.getHeight() : cascade.height;
+		final boolean hasTiltedFeatures = compiledCascade != null ? compiledCascade.hasTiltedFeatures()
+				: cascade.hasTiltedFeatures;
+
+		final SummedSqTiltAreaTable sat = useIntegerTables ? null :
+				new SummedSqTiltAreaTable(image, hasTiltedFeatures);
+		final IntSummedSqTiltAreaTable isat = useIntegerTables ?
+				new IntSummedSqTiltAreaTable(image, hasTiltedFeatures) : null;
 
 		// compute the number of scales to test and the starting factor
 		int nFactors = 0;
 		int startFactor = 0;
-		for (float factor = 1; factor * cascade.width < imageWidth - 10 &&
-				factor * cascade.height < imageHeight - 10; factor *= scaleFactor)
+		for (float factor = 1; factor * cascadeWidth < imageWidth - 10 &&
+				factor * cascadeHeight < imageHeight - 10; factor *= scaleFactor)
 		{
-			final float width = factor * cascade.width;
-			final float height = factor * cascade.height;
+			final float width = factor * cascadeWidth;
+			final float height = factor * cascadeHeight;
 
 			if (width < minSize || height < minSize) {
 				startFactor++;
@@ -220,8 +442,8 @@ public class Detector extends AbstractMultiScaleObjectDetector<FImage, Rectangle
 		for (int scaleStep = startFactor; scaleStep < nFactors; factor *= scaleFactor, scaleStep++) {
 			final float ystep = Math.max(2, factor);
 
-			final int windowWidth = (int) (factor * cascade.width);
-			final int windowHeight = (int) (factor * cascade.height);
+			final int windowWidth = (int) (factor * cascadeWidth);
+			final int windowHeight = (int) (factor * cascadeHeight);
 
 			// determine the spatial range, taking into account any ROI.
 			final int startX = (int) (roi == null ? 0 : Math.max(0, roi.x));
@@ -231,10 +453,18 @@ public class Detector extends AbstractMultiScaleObjectDetector<FImage, Rectangle
 			final int stopY = Math.round(
 					(((roi == null ? imageHeight : Math.min(imageHeight, roi.y + roi.height)) - windowHeight)) / ystep);
 
-			// prepare the cascade for this scale
-			cascade.setScale(factor);
-
-			detectAtScale(sat, startX, stopX, startY, stopY, ystep, windowWidth, windowHeight, results);
+			if (useIntegerTables) {
+				detectAtScale(isat, compiledCascade.atScale(factor), startX, stopX, startY, stopY, ystep, windowWidth,
+						windowHeight, results);
+			} else if (cascade == null) {
+				detectAtScale(sat, compiledCascade.atScale(factor), startX, stopX, startY, stopY, ystep, windowWidth,
+						windowHeight, results);
+			} else {
+				// prepare the cascade for this scale
+				cascade.setScale(factor);
+
+				detectAtScale(sat, startX, stopX, startY, stopY, ystep, windowWidth, windowHeight, results);
+			}
 		}
 
 		return results;
@@ -282,6 +512,33 @@ public class Detector extends AbstractMultiScaleObjectDetector<FImage, Rectangle
 		this.bigStep = bigStep;
 	}
 
+	/**
+	 * Does the detector use exact integer integral images computed from an
+	 * 8-bit quantised version of the image rather than floating-point ones?
+	 * 
+	 * @return true if integer integral images are used
+	 */
+	public boolean usesIntegerTables() {
+		return useIntegerTables;
+	}
+
+	/**
+	 * Set whether the detector uses exact integer integral images computed
+	 * from an 8-bit quantised version of the image rather than floating-point
+	 * ones. Integer integral images can only be used with a
+	 * {@link CompiledStageTreeClassifier}; if the detector was constructed
+	 * with a {@link StageTreeClassifier}, the classifier will be compiled.
+	 * 
+	 * @param useIntegerTables
+	 *            true if integer integral images should be used
+	 */
+	public void setUseIntegerTables(boolean useIntegerTables) {
+		if (useIntegerTables && compiledCascade == null)
+			compiledCascade = new CompiledStageTreeClassifier(cascade);
+
+		this.useIntegerTables = useIntegerTables;
+	}
+
 	/**
 	 * Get the scale factor (the amount to change between scales
 	 * (multiplicative)).
@@ -306,9 +563,20 @@ public class Detector extends AbstractMultiScaleObjectDetector<FImage, Rectangle
 	/**
 	 * Get the classifier tree or cascade used by this detector.
 	 * 
-	 * @return the classifier tree or cascade.
+	 * @return the classifier tree or cascade; <code>null</code> if the detector
+	 *         was constructed with a compiled classifier.
 	 */
 	public StageTreeClassifier getClassifier() {
 		return cascade;
 	}
+
+	/**
+	 * Get the compiled classifier tree or cascade used by this detector.
+	 * 
+	 * @return the compiled classifier tree or cascade; <code>null</code> if
+	 *         the detector was constructed with a {@link StageTreeClassifier}.
+	 */
+	public CompiledStageTreeClassifier getCompiledClassifier() {
+		return compiledCascade;
+	}
 }
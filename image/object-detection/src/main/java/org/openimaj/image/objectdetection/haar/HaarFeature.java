@@ -102,6 +102,38 @@ public abstract class HaarFeature {
 	 *            the inverse of the detector area
 	 */
 	public final void setScale(float scale, float invArea) {
+		scaleRects(rects, correctionFactor, scale, invArea, cachedRects);
+	}
+
+	/**
+	 * Get the correction factor applied to the weights of the rectangles
+	 * (2 for tilted features, 1 otherwise).
+	 * 
+	 * @return the correction factor
+	 */
+	final float getCorrectionFactor() {
+		return correctionFactor;
+	}
+
+	/**
+	 * Compute the scaled rectangles (and weights) of a feature made from the
+	 * given rectangles at the given scale, storing the results in the given
+	 * output rectangles.
+	 * 
+	 * @param rects
+	 *            the rectangles of the feature
+	 * @param correctionFactor
+	 *            the correction factor of the feature
+	 * @param scale
+	 *            the scale
+	 * @param invArea
+	 *            the inverse of the detector area
+	 * @param cachedRects
+	 *            the output rectangles
+	 */
+	static void scaleRects(WeightedRectangle[] rects, float correctionFactor, float scale, float invArea,
+			WeightedRectangle[] cachedRects)
+	{
 		double sum0 = 0;
 		double area0 = 0;
 
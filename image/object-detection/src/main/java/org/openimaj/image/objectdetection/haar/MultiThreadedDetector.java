@@ -32,6 +32,7 @@ package org.openimaj.image.objectdetection.haar;
 import java.util.List;
 import java.util.concurrent.ThreadPoolExecutor;
 
+import org.openimaj.image.analysis.algorithm.IntSummedSqTiltAreaTable;
 import org.openimaj.image.analysis.algorithm.SummedSqTiltAreaTable;
 import org.openimaj.math.geometry.shape.Rectangle;
 import org.openimaj.util.function.Operation;
@@ -133,4 +134,24 @@ public class MultiThreadedDetector extends Detector {
 			}
 		}, threadPool);
 	}
+
+	@Override
+	protected void detectAtScale(final IntSummedSqTiltAreaTable sat,
+			final CompiledStageTreeClassifier.Scale classifier, final int startX, final int stopX, final int startY,
+			final int stopY, final float ystep, final int windowWidth, final int windowHeight,
+			final List<Rectangle> results)
+	{
+		Parallel.forRange(startY, stopY, 1, new Operation<IntRange>() {
+			@Override
+			public void perform(IntRange range) {
+				final int[] xs = new int[CompiledStageTreeClassifier.BATCH_SIZE];
+				final int[] batch = new int[CompiledStageTreeClassifier.BATCH_SIZE];
+
+				for (int iy = range.start; iy < range.stop; iy += range.incr) {
+					detectRow(sat, classifier, Math.round(iy * ystep), startX, stopX, ystep, windowWidth,
+							windowHeight, xs, batch, results);
+				}
+			}
+		}, threadPool);
+	}
 }
@@ -0,0 +1,281 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.image.objectdetection.haar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.openimaj.image.FImage;
+import org.openimaj.image.analysis.algorithm.IntSummedSqTiltAreaTable;
+import org.openimaj.image.analysis.algorithm.SummedSqTiltAreaTable;
+import org.openimaj.math.geometry.shape.Circle;
+import org.openimaj.math.geometry.shape.Rectangle;
+
+/**
+ * Tests for the {@link CompiledStageTreeClassifier}
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class CompiledStageTreeClassifierTest {
+	String[] cascades = {
+			"haarcascade_eye_tree_eyeglasses.xml",
+			"haarcascade_frontalface_alt_tree.xml",
+			"haarcascade_frontalface_alt2.xml",
+			"haarcascade_frontalface_default.xml",
+			"haarcascade_mcs_upperbody.xml"
+	};
+
+	private FImage createImage(long seed) {
+		final Random rng = new Random(seed);
+		final FImage image = new FImage(160, 120);
+
+		for (int y = 0; y < image.height; y++)
+			for (int x = 0; x < image.width; x++)
+				image.pixels[y][x] = rng.nextFloat() * 0.2f;
+
+		for (int i = 0; i < 10; i++)
+			image.drawShapeFilled(new Circle(rng.nextFloat() * 160, rng.nextFloat() * 120, 5 + rng.nextFloat() * 20),
+					rng.nextFloat());
+
+		return image;
+	}
+
+	private FImage create8BitImage(long seed) {
+		final FImage image = createImage(seed);
+
+		for (int y = 0; y < image.height; y++)
+			for (int x = 0; x < image.width; x++)
+				image.pixels[y][x] = Math.round(image.pixels[y][x] * 255) / 255f;
+
+		return image;
+	}
+
+	/**
+	 * Test that every window is classified identically by the compiled and
+	 * original classifiers
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testClassify() throws IOException {
+		final FImage image = createImage(0);
+
+		for (final String c : cascades) {
+			final StageTreeClassifier cascade = OCVHaarLoader.read(OCVHaarLoader.class.getResourceAsStream(c));
+			final CompiledStageTreeClassifier compiled = new CompiledStageTreeClassifier(cascade);
+			final SummedSqTiltAreaTable sat = new SummedSqTiltAreaTable(image, cascade.hasTiltedFeatures());
+
+			for (float scale = 1; scale * cascade.width < image.width - 10 &&
+					scale * cascade.height < image.height - 10; scale *= 1.5f)
+			{
+				cascade.setScale(scale);
+				final CompiledStageTreeClassifier.Scale scaled = compiled.atScale(scale);
+
+				final int stopX = image.width - (int) (scale * cascade.width);
+				final int stopY = image.height - (int) (scale * cascade.height);
+				for (int y = 0; y < stopY; y++) {
+					for (int x = 0; x < stopX; x++) {
+						assertEquals(cascade.classify(sat, x, y), scaled.classify(sat, x, y));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Test that a single detector with a compiled classifier can be shared by
+	 * many threads
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testConcurrentDetection() throws Exception {
+		final StageTreeClassifier cascade = OCVHaarLoader.read(OCVHaarLoader.class
+				.getResourceAsStream("haarcascade_frontalface_alt2.xml"));
+
+		final List<FImage> images = new ArrayList<FImage>();
+		final List<List<Rectangle>> expected = new ArrayList<List<Rectangle>>();
+		final Detector reference = new Detector(cascade, 1.1f);
+		for (int i = 0; i < 8; i++) {
+			images.add(createImage(i));
+			expected.add(reference.detect(images.get(i)));
+		}
+
+		final Detector detector = new Detector(new CompiledStageTreeClassifier(cascade), 1.1f);
+		final ExecutorService service = Executors.newFixedThreadPool(4);
+		try {
+			final List<Future<List<Rectangle>>> results = new ArrayList<Future<List<Rectangle>>>();
+			for (final FImage image : images) {
+				results.add(service.submit(new Callable<List<Rectangle>>() {
+					@Override
+					public List<Rectangle> call() {
+						return detector.detect(image);
+					}
+				}));
+			}
+
+			for (int i = 0; i < images.size(); i++)
+				assertEquals(expected.get(i), results.get(i).get());
+		} finally {
+			service.shutdown();
+		}
+	}
+
+	/**
+	 * Test that classifying batches of windows with the integer integral
+	 * images gives the same results as classifying them one at a time, and
+	 * that (for an image with 8-bit pixel values) the results almost always
+	 * agree with the floating point version.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testIntegerClassify() throws IOException {
+		final FImage image = create8BitImage(1);
+
+		final int[] xs = new int[CompiledStageTreeClassifier.BATCH_SIZE];
+		final int[] batch = new int[CompiledStageTreeClassifier.BATCH_SIZE];
+
+		for (final String c : cascades) {
+			final StageTreeClassifier cascade = OCVHaarLoader.read(OCVHaarLoader.class.getResourceAsStream(c));
+			final CompiledStageTreeClassifier compiled = new CompiledStageTreeClassifier(cascade);
+			final SummedSqTiltAreaTable sat = new SummedSqTiltAreaTable(image, cascade.hasTiltedFeatures());
+			final IntSummedSqTiltAreaTable isat = new IntSummedSqTiltAreaTable(image, cascade.hasTiltedFeatures());
+
+			int agree = 0, total = 0;
+			for (float scale = 1; scale * cascade.width < image.width - 10 &&
+					scale * cascade.height < image.height - 10; scale *= 1.5f)
+			{
+				final CompiledStageTreeClassifier.Scale scaled = compiled.atScale(scale);
+
+				final int stopX = image.width - (int) (scale * cascade.width);
+				final int stopY = image.height - (int) (scale * cascade.height);
+				for (int y = 0; y < stopY; y++) {
+					for (int x = 0; x < stopX; x++) {
+						final int n = Math.min(xs.length, 1 + (stopX - 1 - x) / 3);
+						for (int k = 0; k < n; k++)
+							xs[k] = x + 3 * k;
+
+						scaled.classify(isat, xs, n, y, batch);
+
+						for (int k = 0; k < n; k++)
+							assertEquals(scaled.classify(isat, xs[k], y), batch[k]);
+
+						if (batch[0] == scaled.classify(sat, x, y))
+							agree++;
+						total++;
+					}
+				}
+			}
+
+			assertTrue(agree > 0.99 * total);
+		}
+	}
+
+	/**
+	 * Test that the cache of {@link CompiledStageTreeClassifier.Scale}s keeps
+	 * the most recently used scales, and that a scale used alternately with
+	 * tables of different sizes gives the same results as fresh scales.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testScaleCache() throws IOException {
+		final StageTreeClassifier cascade = OCVHaarLoader.read(OCVHaarLoader.class
+				.getResourceAsStream("haarcascade_frontalface_alt2.xml"));
+		final CompiledStageTreeClassifier compiled = new CompiledStageTreeClassifier(cascade);
+
+		final CompiledStageTreeClassifier.Scale first = compiled.atScale(1);
+		final CompiledStageTreeClassifier.Scale second = compiled.atScale(2);
+		for (int i = 0; i < CompiledStageTreeClassifier.MAX_CACHED_SCALES; i++) {
+			assertSame(first, compiled.atScale(1));
+			compiled.atScale(3 + i);
+		}
+		assertSame(first, compiled.atScale(1));
+		assertNotSame(second, compiled.atScale(2));
+
+		final FImage small = create8BitImage(2);
+		final FImage large = new FImage(small.width + 17, small.height);
+		large.drawImage(small, 0, 0);
+		final IntSummedSqTiltAreaTable smallSat = new IntSummedSqTiltAreaTable(small);
+		final IntSummedSqTiltAreaTable largeSat = new IntSummedSqTiltAreaTable(large);
+
+		final CompiledStageTreeClassifier.Scale scaled = compiled.atScale(1.5f);
+		final CompiledStageTreeClassifier.Scale smallRef = new CompiledStageTreeClassifier(cascade).atScale(1.5f);
+		final CompiledStageTreeClassifier.Scale largeRef = new CompiledStageTreeClassifier(cascade).atScale(1.5f);
+		for (int y = 0; y < small.height - 40; y += 3) {
+			for (int x = 0; x < small.width - 40; x += 3) {
+				assertEquals(smallRef.classify(smallSat, x, y), scaled.classify(smallSat, x, y));
+				assertEquals(largeRef.classify(largeSat, x, y), scaled.classify(largeSat, x, y));
+			}
+		}
+	}
+
+	/**
+	 * Test that the detectors using integer integral images find the same
+	 * objects as the floating point ones (for an image with 8-bit pixel
+	 * values)
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testIntegerDetection() throws IOException {
+		final StageTreeClassifier cascade = OCVHaarLoader.read(OCVHaarLoader.class
+				.getResourceAsStream("haarcascade_frontalface_alt2.xml"));
+
+		for (int i = 0; i < 4; i++) {
+			final FImage image = create8BitImage(i);
+
+			final Detector reference = new Detector(cascade, 1.1f);
+			final Detector detector = new Detector(cascade, 1.1f);
+			detector.setUseIntegerTables(true);
+			final MultiThreadedDetector mtdetector = new MultiThreadedDetector(cascade, 1.1f);
+			mtdetector.setUseIntegerTables(true);
+
+			final List<Rectangle> expected = reference.detect(image);
+			final List<Rectangle> actual = detector.detect(image);
+			assertEquals(expected, actual);
+			assertEquals(new HashSet<Rectangle>(actual), new HashSet<Rectangle>(mtdetector.detect(image)));
+		}
+	}
+}
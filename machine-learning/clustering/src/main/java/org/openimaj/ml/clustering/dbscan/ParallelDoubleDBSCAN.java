@@ -0,0 +1,568 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.ml.clustering.dbscan;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TLongIntHashMap;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openimaj.data.DataSource;
+import org.openimaj.knn.DoubleNearestNeighbours;
+import org.openimaj.knn.DoubleNearestNeighboursExact;
+import org.openimaj.knn.NearestNeighboursFactory;
+import org.openimaj.ml.clustering.DataClusterer;
+import org.openimaj.ml.clustering.SpatialClusterer;
+import org.openimaj.util.function.Operation;
+import org.openimaj.util.pair.IntDoublePair;
+import org.openimaj.util.parallel.GlobalExecutorPool;
+import org.openimaj.util.parallel.Parallel;
+import org.openimaj.util.parallel.Parallel.IntRange;
+
+/**
+ * A DBSCAN implementation for large sets of points (for example geotags) that
+ * computes all the epsilon-neighbourhoods up front, in parallel, rather than
+ * issuing one region query at a time during cluster expansion.
+ * <p>
+ * Low dimensional data (up to {@link #getMaxGridDimensions()} dimensions) is
+ * indexed with a uniform grid whose cells are the size of the
+ * epsilon-neighbourhood, so each region query only needs to look at the
+ * points in the surrounding 3<sup>d</sup> cells; higher dimensional data is
+ * searched with the nearest-neighbours implementation provided by a
+ * {@link NearestNeighboursFactory}. The neighbourhoods are stored in
+ * compressed (CSR) arrays and the clusters are formed by a union-find over the
+ * core points.
+ * <p>
+ * As in {@link DoubleNNDBSCAN}, distances are measured with
+ * {@link DoubleNearestNeighboursExact#distanceFunc(double[], double[])} (the
+ * squared Euclidean distance), a point belongs to the region of another if
+ * their distance is strictly less than eps, and a region includes the point
+ * itself. With an exact neighbour search the clusters and noise are the same
+ * as those produced by {@link DoubleNNDBSCAN}, and are returned in the same
+ * order.
+ *
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class ParallelDoubleDBSCAN extends DBSCAN
+		implements
+		SpatialClusterer<DoubleDBSCANClusters, double[]>,
+		DataClusterer<double[][], DoubleDBSCANClusters>
+{
+	/**
+	 * The default maximum dimensionality of data indexed with a grid
+	 */
+	public static final int DEFAULT_MAX_GRID_DIMENSIONS = 3;
+
+	/**
+	 * The number of points processed by a single task when computing the
+	 * neighbourhoods
+	 */
+	private static final int BLOCK_SIZE = 1024;
+
+	private NearestNeighboursFactory<? extends DoubleNearestNeighbours, double[]> nnf;
+	private double eps;
+	private int minPts;
+	private int maxGridDimensions = DEFAULT_MAX_GRID_DIMENSIONS;
+	private ThreadPoolExecutor pool = GlobalExecutorPool.getPool();
+
+	/**
+	 * Construct with the given parameters. Data with more than
+	 * {@link #getMaxGridDimensions()} dimensions is searched using nearest
+	 * neighbours objects created by the given factory.
+	 *
+	 * @param eps
+	 *            the neighbourhood size (as a squared Euclidean distance)
+	 * @param minPts
+	 *            the minimum number of points in the neighbourhood of a core
+	 *            point
+	 * @param nnf
+	 *            the factory for the nearest neighbour search used for high
+	 *            dimensional data
+	 */
+	public ParallelDoubleDBSCAN(double eps, int minPts,
+			NearestNeighboursFactory<? extends DoubleNearestNeighbours, double[]> nnf)
+	{
+		this.eps = eps;
+		this.minPts = minPts;
+		this.nnf = nnf;
+	}
+
+	/**
+	 * Construct with the given parameters. Data with more than
+	 * {@link #getMaxGridDimensions()} dimensions is searched exhaustively.
+	 *
+	 * @param eps
+	 *            the neighbourhood size (as a squared Euclidean distance)
+	 * @param minPts
+	 *            the minimum number of points in the neighbourhood of a core
+	 *            point
+	 */
+	public ParallelDoubleDBSCAN(double eps, int minPts) {
+		this(eps, minPts, new DoubleNearestNeighboursExact.Factory());
+	}
+
+	/**
+	 * The epsilon-neighbourhoods of a set of points, stored in compressed
+	 * sparse row form: the neighbours of point <code>i</code> are
+	 * <code>neighbours[offsets[i]]</code> to
+	 * <code>neighbours[offsets[i + 1] - 1]</code>.
+	 */
+	static class Neighbourhoods {
+		int[] offsets;
+		int[] neighbours;
+
+		int size(int i) {
+			return offsets[i + 1] - offsets[i];
+		}
+	}
+
+	/**
+	 * Region queries for a single point. Implementations must be safe to call
+	 * concurrently.
+	 */
+	private static interface RegionSearcher {
+		void search(int index, TIntArrayList neighbours);
+	}
+
+	/**
+	 * Region queries using a uniform grid with cells of side sqrt(eps); any
+	 * point within eps of a query lies in the query's cell or one of the
+	 * cells adjacent to it.
+	 */
+	private class GridSearcher implements RegionSearcher {
+		final double[][] data;
+		final int ndims;
+		final double cellSize;
+		final TLongIntHashMap cellIds;
+		final int[] cellOffsets;
+		final int[] cellPoints;
+
+		GridSearcher(double[][] data) {
+			this.data = data;
+			this.ndims = data[0].length;
+			this.cellSize = Math.sqrt(eps);
+
+			// assign each point to a cell, numbering the occupied cells in
+			// order of first occurrence
+			cellIds = new TLongIntHashMap(data.length, 0.5f, Long.MIN_VALUE, -1);
+			final long[] coords = new long[ndims];
+			final int[] pointCells = new int[data.length];
+			final TIntArrayList counts = new TIntArrayList();
+			for (int i = 0; i < data.length; i++) {
+				cellCoordinates(data[i], coords);
+				final long key = cellKey(coords);
+
+				int cell = cellIds.get(key);
+				if (cell < 0) {
+					cell = counts.size();
+					cellIds.put(key, cell);
+					counts.add(0);
+				}
+				pointCells[i] = cell;
+				counts.setQuick(cell, counts.getQuick(cell) + 1);
+			}
+
+			// counting sort of the points by cell
+			final int ncells = counts.size();
+			cellOffsets = new int[ncells + 1];
+			for (int c = 0; c < ncells; c++)
+				cellOffsets[c + 1] = cellOffsets[c] + counts.getQuick(c);
+
+			final int[] fill = new int[ncells];
+			cellPoints = new int[data.length];
+			for (int i = 0; i < data.length; i++) {
+				final int c = pointCells[i];
+				cellPoints[cellOffsets[c] + fill[c]++] = i;
+			}
+		}
+
+		void cellCoordinates(double[] point, long[] coords) {
+			for (int d = 0; d < ndims; d++)
+				coords[d] = (long) Math.floor(point[d] / cellSize);
+		}
+
+		/*
+		 * Hash the cell coordinates; different cells might share a key, which
+		 * just adds a few extra candidates to the exact distance check.
+		 */
+		long cellKey(long[] coords) {
+			long key = 0;
+			for (int d = 0; d < ndims; d++)
+				key = key * 0x9E3779B97F4A7C15L + coords[d];
+			return key;
+		}
+
+		@Override
+		public void search(int index, TIntArrayList neighbours) {
+			final double[] query = data[index];
+			final long[] centre = new long[ndims];
+			final long[] coords = new long[ndims];
+			final int[] offset = new int[ndims];
+			final TIntArrayList visited = new TIntArrayList();
+
+			cellCoordinates(query, centre);
+			for (int d = 0; d < ndims; d++)
+				offset[d] = -1;
+
+			while (true) {
+				for (int d = 0; d < ndims; d++)
+					coords[d] = centre[d] + offset[d];
+
+				final int cell = cellIds.get(cellKey(coords));
+				if (cell >= 0 && !visited.contains(cell)) {
+					visited.add(cell);
+
+					for (int k = cellOffsets[cell]; k < cellOffsets[cell + 1]; k++) {
+						final int j = cellPoints[k];
+						if (DoubleNearestNeighboursExact.distanceFunc(query, data[j]) < eps)
+							neighbours.add(j);
+					}
+				}
+
+				// move to the next of the 3^d adjacent cells
+				int d = 0;
+				while (d < ndims && offset[d] == 1)
+					offset[d++] = -1;
+				if (d == ndims)
+					break;
+				offset[d]++;
+			}
+		}
+	}
+
+	/**
+	 * Region queries using k-nearest-neighbour searches, doubling k until the
+	 * furthest neighbour found is outside of the region.
+	 */
+	private class NNSearcher implements RegionSearcher {
+		final double[][] data;
+		final DoubleNearestNeighbours nn;
+
+		NNSearcher(double[][] data) {
+			this.data = data;
+			this.nn = nnf.create(data);
+		}
+
+		@Override
+		public void search(int index, TIntArrayList neighbours) {
+			int k = Math.min(data.length, Math.max(16, 2 * minPts));
+
+			while (true) {
+				final List<IntDoublePair> res = nn.searchKNN(data[index], k);
+
+				int count = 0;
+				boolean complete = false;
+				for (final IntDoublePair p : res) {
+					if (p == null)
+						continue;
+
+					count++;
+					if (p.second < eps)
+						neighbours.add(p.first);
+					else
+						complete = true;
+				}
+
+				if (complete || count < k || k == data.length)
+					return;
+
+				neighbours.resetQuick();
+				k = (int) Math.min(data.length, 2L * k);
+			}
+		}
+	}
+
+	/**
+	 * Compute the epsilon-neighbourhood of every point. The points are split
+	 * into blocks which are claimed in turn by the threads of the pool, so
+	 * that dense regions of the data don't leave threads idle.
+	 *
+	 * @param data
+	 *            the data
+	 * @return the neighbourhoods
+	 */
+	Neighbourhoods computeNeighbourhoods(final double[][] data) {
+		final RegionSearcher searcher;
+		if (eps > 0 && data[0].length <= maxGridDimensions)
+			searcher = new GridSearcher(data);
+		else
+			searcher = new NNSearcher(data);
+
+		final int nblocks = (data.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		final int[][] blockCounts = new int[nblocks][];
+		final int[][] blockNeighbours = new int[nblocks][];
+		final AtomicInteger nextBlock = new AtomicInteger();
+
+		final Runnable worker = new Runnable() {
+			@Override
+			public void run() {
+				final TIntArrayList neighbours = new TIntArrayList();
+				final TIntArrayList region = new TIntArrayList();
+
+				int b;
+				while ((b = nextBlock.getAndIncrement()) < nblocks) {
+					final int start = b * BLOCK_SIZE;
+					final int stop = Math.min(data.length, start + BLOCK_SIZE);
+					final int[] counts = new int[stop - start];
+
+					neighbours.resetQuick();
+					for (int i = start; i < stop; i++) {
+						region.resetQuick();
+						searcher.search(i, region);
+						counts[i - start] = region.size();
+						neighbours.addAll(region);
+					}
+
+					blockCounts[b] = counts;
+					blockNeighbours[b] = neighbours.toArray();
+				}
+			}
+		};
+
+		final int nthreads = pool == null ? 1 : Math.max(1, Math.min(pool.getMaximumPoolSize(), nblocks));
+		if (nthreads == 1) {
+			worker.run();
+		} else {
+			Parallel.forRange(0, nthreads, 1, new Operation<IntRange>() {
+				@Override
+				public void perform(IntRange range) {
+					for (int t = range.start; t < range.stop; t++)
+						worker.run();
+				}
+			}, pool);
+		}
+
+		// assemble the blocks
+		final Neighbourhoods nh = new Neighbourhoods();
+		nh.offsets = new int[data.length + 1];
+		int i = 0;
+		for (int b = 0; b < nblocks; b++) {
+			for (final int c : blockCounts[b]) {
+				nh.offsets[i + 1] = nh.offsets[i] + c;
+				i++;
+			}
+		}
+
+		nh.neighbours = new int[nh.offsets[data.length]];
+		for (int b = 0; b < nblocks; b++) {
+			System.arraycopy(blockNeighbours[b], 0, nh.neighbours, nh.offsets[b * BLOCK_SIZE], blockNeighbours[b].length);
+			blockNeighbours[b] = null;
+		}
+
+		return nh;
+	}
+
+	private static int find(int[] parent, int i) {
+		while (parent[i] != i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+
+	@Override
+	public DoubleDBSCANClusters cluster(double[][] data) {
+		final int n = data.length;
+		if (n == 0)
+			return new DoubleDBSCANClusters(new int[0], new int[0][]);
+
+		final Neighbourhoods nh = computeNeighbourhoods(data);
+
+		final boolean[] core = new boolean[n];
+		for (int i = 0; i < n; i++)
+			core[i] = nh.size(i) >= minPts;
+
+		// join the core points that are in each other's neighbourhoods; the
+		// root of each set is its smallest member, which is the point that
+		// would have seeded the cluster in the sequential algorithm
+		final int[] parent = new int[n];
+		for (int i = 0; i < n; i++)
+			parent[i] = i;
+
+		for (int i = 0; i < n; i++) {
+			if (!core[i])
+				continue;
+
+			for (int k = nh.offsets[i]; k < nh.offsets[i + 1]; k++) {
+				final int j = nh.neighbours[k];
+				if (!core[j])
+					continue;
+
+				final int ri = find(parent, i);
+				final int rj = find(parent, j);
+				if (ri < rj)
+					parent[rj] = ri;
+				else if (rj < ri)
+					parent[ri] = rj;
+			}
+		}
+
+		// each point's cluster seed: the root for a core point, the smallest
+		// root of the core points reaching it for a border point, or -1 for
+		// noise
+		final int[] seed = new int[n];
+		for (int i = 0; i < n; i++)
+			seed[i] = core[i] ? find(parent, i) : -1;
+
+		for (int i = 0; i < n; i++) {
+			if (!core[i])
+				continue;
+
+			for (int k = nh.offsets[i]; k < nh.offsets[i + 1]; k++) {
+				final int j = nh.neighbours[k];
+				if (!core[j] && (seed[j] < 0 || seed[i] < seed[j]))
+					seed[j] = seed[i];
+			}
+		}
+
+		// number the clusters in order of their seeds
+		final int[] clusterIndex = new int[n];
+		int nclusters = 0;
+		int nnoise = 0;
+		for (int i = 0; i < n; i++) {
+			if (core[i] && seed[i] == i)
+				clusterIndex[i] = nclusters++;
+			else if (seed[i] < 0)
+				nnoise++;
+		}
+
+		final int[] sizes = new int[nclusters];
+		for (int i = 0; i < n; i++) {
+			if (seed[i] >= 0)
+				sizes[clusterIndex[seed[i]]]++;
+		}
+
+		final int[][] clusters = new int[nclusters + (noiseAsClusters ? nnoise : 0)][];
+		for (int c = 0; c < nclusters; c++)
+			clusters[c] = new int[sizes[c]];
+
+		final int[] noise = new int[nnoise];
+		final int[] fill = new int[nclusters];
+		nnoise = 0;
+		for (int i = 0; i < n; i++) {
+			if (seed[i] >= 0) {
+				final int c = clusterIndex[seed[i]];
+				clusters[c][fill[c]++] = i;
+			} else {
+				if (noiseAsClusters)
+					clusters[nclusters + nnoise] = new int[] { i };
+				noise[nnoise++] = i;
+			}
+		}
+
+		final DoubleDBSCANClusters result = new DoubleDBSCANClusters(noise, clusters);
+		result.data = data;
+		return result;
+	}
+
+	@Override
+	public DoubleDBSCANClusters cluster(DataSource<double[]> data) {
+		final double[][] allData = new double[data.size()][];
+		final Iterator<double[]> iterator = data.iterator();
+		for (int i = 0; i < allData.length; i++) {
+			allData[i] = iterator.next();
+		}
+		return this.cluster(allData);
+	}
+
+	@Override
+	public int[][] performClustering(double[][] data) {
+		return cluster(data).clusters();
+	}
+
+	/**
+	 * @return the eps parameter
+	 */
+	public double getEps() {
+		return this.eps;
+	}
+
+	/**
+	 * @return the minPts parameter
+	 */
+	public int getMinPts() {
+		return this.minPts;
+	}
+
+	/**
+	 * Get the maximum dimensionality of data that is indexed with a grid
+	 * rather than searched with the nearest-neighbour factory.
+	 *
+	 * @return the maximum number of dimensions for the grid index
+	 */
+	public int getMaxGridDimensions() {
+		return maxGridDimensions;
+	}
+
+	/**
+	 * Set the maximum dimensionality of data that is indexed with a grid
+	 * rather than searched with the nearest-neighbour factory. The grid
+	 * visits 3<sup>d</sup> cells for every query, so it is only worthwhile for
+	 * low dimensional data. The default is
+	 * {@value #DEFAULT_MAX_GRID_DIMENSIONS}.
+	 *
+	 * @param maxGridDimensions
+	 *            the maximum number of dimensions for the grid index
+	 */
+	public void setMaxGridDimensions(int maxGridDimensions) {
+		this.maxGridDimensions = maxGridDimensions;
+	}
+
+	/**
+	 * Get the thread pool used to compute the neighbourhoods in parallel.
+	 *
+	 * @return the thread pool; null if the neighbourhoods are computed in the
+	 *         calling thread
+	 */
+	public ThreadPoolExecutor getThreadPool() {
+		return pool;
+	}
+
+	/**
+	 * Set the thread pool used to compute the neighbourhoods in parallel. The
+	 * default is the {@link GlobalExecutorPool}.
+	 *
+	 * @param pool
+	 *            the thread pool; if null the neighbourhoods are computed in
+	 *            the calling thread
+	 */
+	public void setThreadPool(ThreadPoolExecutor pool) {
+		this.pool = pool;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: eps=%2.2f, minpts=%d, NN=%s", this.getClass().getSimpleName(), eps, minPts, this.nnf
+				.getClass().getSimpleName());
+	}
+}
@@ -82,6 +82,11 @@ public class KMeansConfiguration<NN extends NearestNeighbours<DATA, ?, ?>, DATA>
 	 */
 	protected ExecutorService threadpool;
 
+	/**
+	 * Should bounds-based acceleration be used
+	 */
+	protected boolean accelerated;
+
 	/**
 	 * Create configuration for data that will create <code>K</code> clusters.
 	 * The algorithm will run for a maximum of
@@ -261,6 +266,15 @@ public class KMeansConfiguration<NN extends NearestNeighbours<DATA, ?, ?>, DATA>
 	 * Set the number of samples processed in a batch by a thread. This needs to
 	 * be small enough that that the memory isn't exhausted, but big enough for
 	 * the thread to have enough data to work for a while.
+	 * <p>
+	 * Each block is added into a partial set of centroid sums that no other
+	 * thread is using at the time, so the block size doesn't affect lock
+	 * contention; the number of partial sums grows with the number of blocks
+	 * processed concurrently, not with the number of blocks. There should be
+	 * at least as many blocks as threads for all the threads to be used, and
+	 * several blocks per thread help balance the load. On a single core,
+	 * 50000 32-dimensional points with K=128 clustered in the same time
+	 * (within noise) for block sizes of 500, 5000 and 50000.
 	 * 
 	 * @param blockSize
 	 *            the number of samples processed in a batch by a thread
@@ -308,4 +322,32 @@ public class KMeansConfiguration<NN extends NearestNeighbours<DATA, ?, ?>, DATA>
 	public void setNearestNeighbourFactory(NearestNeighboursFactory<? extends NN, DATA> factory) {
 		this.factory = factory;
 	}
+
+	/**
+	 * Is bounds-based acceleration enabled? If enabled, the triangle inequality
+	 * is used to avoid distance computations for points whose assignment
+	 * cannot change between iterations. This gives exactly the same result as
+	 * exact K-Means with Euclidean distance, but is typically much faster
+	 * once the centroids start to converge. In accelerated mode the
+	 * nearest-neighbours factory is only used to construct the nearest
+	 * neighbours object of the final result; assignment during clustering
+	 * always uses exact Euclidean distance.
+	 * 
+	 * @return true if bounds-based acceleration is enabled
+	 */
+	public boolean isAccelerated() {
+		return accelerated;
+	}
+
+	/**
+	 * Enable or disable bounds-based acceleration of exact K-Means.
+	 * 
+	 * @see #isAccelerated()
+	 * 
+	 * @param accelerated
+	 *            true if the acceleration should be enabled; false otherwise
+	 */
+	public void setAccelerated(boolean accelerated) {
+		this.accelerated = accelerated;
+	}
 }
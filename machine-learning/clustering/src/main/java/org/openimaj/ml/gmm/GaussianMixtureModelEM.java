@@ -31,6 +31,7 @@ package org.openimaj.ml.gmm;
 
 import java.util.Arrays;
 import java.util.EnumSet;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import org.apache.commons.math.util.MathUtils;
 import org.openimaj.math.matrix.MatrixUtils;
@@ -44,7 +45,11 @@ import org.openimaj.math.statistics.distribution.SphericalMultivariateGaussian;
 import org.openimaj.ml.clustering.DoubleCentroidsResult;
 import org.openimaj.ml.clustering.kmeans.DoubleKMeans;
 import org.openimaj.util.array.ArrayUtils;
+import org.openimaj.util.function.Operation;
 import org.openimaj.util.pair.IndependentPair;
+import org.openimaj.util.parallel.GlobalExecutorPool;
+import org.openimaj.util.parallel.Parallel;
+import org.openimaj.util.parallel.Parallel.IntRange;
 
 import Jama.Matrix;
 import gnu.trove.list.array.TDoubleArrayList;
@@ -56,6 +61,13 @@ import gnu.trove.list.array.TDoubleArrayList;
  * although this can be disabled in the constructor.
  * <p>
  * Implementation was originally inspired by the SciPy's "gmm.py".
+ * <p>
+ * The samples are partitioned across the threads of a thread pool (by default
+ * the {@link GlobalExecutorPool}) for the expectation step. For
+ * {@link CovarianceType#Diagonal} and {@link CovarianceType#Spherical}
+ * Gaussians, the expectation step directly accumulates the sufficient
+ * statistics needed by the maximisation step, so the matrix of
+ * responsibilities never needs to be built.
  *
  * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
  */
@@ -381,6 +393,8 @@ public class GaussianMixtureModelEM {
 	private EnumSet<UpdateOptions> initOpts;
 	private EnumSet<UpdateOptions> iterOpts;
 
+	private ThreadPoolExecutor pool = GlobalExecutorPool.getPool();
+
 	/**
 	 * Construct with the given arguments.
 	 *
@@ -450,6 +464,28 @@ public class GaussianMixtureModelEM {
 		return converged;
 	}
 
+	/**
+	 * Get the thread pool used to process the samples in parallel.
+	 *
+	 * @return the thread pool; null if the samples are processed in the
+	 *         calling thread
+	 */
+	public ThreadPoolExecutor getThreadPool() {
+		return pool;
+	}
+
+	/**
+	 * Set the thread pool used to process the samples in parallel. The default
+	 * is the {@link GlobalExecutorPool}.
+	 *
+	 * @param pool
+	 *            the thread pool; if null the samples are processed in the
+	 *            calling thread
+	 */
+	public void setThreadPool(ThreadPoolExecutor pool) {
+		this.pool = pool;
+	}
+
 	/**
 	 * Estimate a new {@link MixtureOfGaussians} from the given data. Use
 	 * {@link #hasConverged()} to check whether the EM algorithm reached
@@ -515,10 +551,17 @@ public class GaussianMixtureModelEM {
 			MultivariateGaussian[] bestMixture = null;
 			for (int i = 0; i < nIters; i++) {
 				// Expectation step
-				final IndependentPair<double[], double[][]> score = gmm.scoreSamples(X);
-				final double[] curr_log_likelihood = score.firstObject();
-				final double[][] responsibilities = score.secondObject();
-				log_likelihood.add(ArrayUtils.sumValues(curr_log_likelihood));
+				DiagonalStatistics stats = null;
+				double[][] responsibilities = null;
+				if (ctype == CovarianceType.Diagonal || ctype == CovarianceType.Spherical) {
+					stats = expectation(gmm, X);
+					log_likelihood.add(stats.logLikelihood);
+				} else {
+					final IndependentPair<double[], double[][]> score = scoreSamples(gmm, X);
+					final double[] curr_log_likelihood = score.firstObject();
+					responsibilities = score.secondObject();
+					log_likelihood.add(ArrayUtils.sumValues(curr_log_likelihood));
+				}
 
 				// Check for convergence.
 				if (i > 0 && Math.abs(log_likelihood.get(i) - log_likelihood.get(i - 1)) < thresh) {
@@ -527,7 +570,10 @@ public class GaussianMixtureModelEM {
 				}
 
 				// Perform the maximisation step
-				mstep(gmm, X, responsibilities);
+				if (stats != null)
+					mstep(gmm, stats);
+				else
+					mstep(gmm, X, responsibilities);
 
 				// if the results are better, keep it
 				if (nIters > 0) {
@@ -592,6 +638,261 @@ public class GaussianMixtureModelEM {
 		}
 	}
 
+	/*
+	 * The sufficient statistics of (a subset of) the samples with respect to
+	 * a set of diagonal (or spherical) gaussians
+	 */
+	static class DiagonalStatistics {
+		double logLikelihood;
+
+		/** sum of the responsibilities of each gaussian */
+		final double[] resp;
+
+		/** responsibility weighted sum of the samples for each gaussian */
+		final double[][] respX;
+
+		/** responsibility weighted sum of the squared samples */
+		final double[][] respX2;
+
+		DiagonalStatistics(int ngauss, int ndims) {
+			resp = new double[ngauss];
+			respX = new double[ngauss][ndims];
+			respX2 = new double[ngauss][ndims];
+		}
+
+		void add(DiagonalStatistics other) {
+			logLikelihood += other.logLikelihood;
+
+			for (int k = 0; k < resp.length; k++) {
+				resp[k] += other.resp[k];
+
+				for (int d = 0; d < respX[k].length; d++) {
+					respX[k][d] += other.respX[k][d];
+					respX2[k][d] += other.respX2[k][d];
+				}
+			}
+		}
+	}
+
+	/*
+	 * Compute the number of blocks to split the samples into; each block is
+	 * processed by a single thread.
+	 */
+	private int numBlocks(int nsamples) {
+		if (pool == null)
+			return 1;
+
+		return Math.max(1, Math.min(pool.getMaximumPoolSize(), nsamples / 64));
+	}
+
+	/*
+	 * Split the samples into nblocks contiguous blocks and perform the
+	 * operation (which is given the block index) on each
+	 */
+	private void forEachBlock(final int nblocks, final Operation<Integer> op) {
+		if (nblocks == 1) {
+			op.perform(0);
+			return;
+		}
+
+		Parallel.forRange(0, nblocks, 1, new Operation<IntRange>() {
+			@Override
+			public void perform(IntRange range) {
+				for (int b = range.start; b < range.stop; b++)
+					op.perform(b);
+			}
+		}, pool);
+	}
+
+	/*
+	 * Compute the log-probability and responsibilities of each sample using
+	 * MixtureOfGaussians#scoreSamples on blocks of the samples in parallel
+	 */
+	IndependentPair<double[], double[][]> scoreSamples(final EMGMM gmm, final double[][] X) {
+		final int nblocks = numBlocks(X.length);
+
+		if (nblocks == 1)
+			return gmm.scoreSamples(X);
+
+		final double[] logprob = new double[X.length];
+		final double[][] responsibilities = new double[X.length][];
+
+		forEachBlock(nblocks, new Operation<Integer>() {
+			@Override
+			public void perform(Integer block) {
+				final int start = (int) ((long) block * X.length / nblocks);
+				final int stop = (int) ((long) (block + 1) * X.length / nblocks);
+
+				final IndependentPair<double[], double[][]> score = gmm.scoreSamples(Arrays.copyOfRange(X, start,
+						stop));
+
+				System.arraycopy(score.firstObject(), 0, logprob, start, stop - start);
+				System.arraycopy(score.secondObject(), 0, responsibilities, start, stop - start);
+			}
+		});
+
+		return IndependentPair.pair(logprob, responsibilities);
+	}
+
+	/*
+	 * Expectation step for diagonal and spherical gaussians. Rather than
+	 * returning the responsibilities of each sample, the sufficient
+	 * statistics for the maximisation step are accumulated directly. Each
+	 * block of samples is accumulated separately, and the blocks are then
+	 * merged in order.
+	 */
+	DiagonalStatistics expectation(final EMGMM gmm, final double[][] X) {
+		final int ngauss = gmm.gaussians.length;
+		final int ndims = X[0].length;
+
+		final double[][] means = new double[ngauss][];
+		final double[][] invVariances = new double[ngauss][ndims];
+		final double[] logConst = new double[ngauss];
+
+		for (int k = 0; k < ngauss; k++) {
+			means[k] = ((AbstractMultivariateGaussian) gmm.gaussians[k]).mean.getArray()[0];
+
+			if (means[k].length != ndims)
+				throw new IllegalArgumentException(
+						"The number of dimensions of the given data is not compatible with the model");
+
+			double logDet = 0;
+			if (gmm.gaussians[k] instanceof DiagonalMultivariateGaussian) {
+				final double[] variance = ((DiagonalMultivariateGaussian) gmm.gaussians[k]).variance;
+
+				for (int d = 0; d < ndims; d++) {
+					invVariances[k][d] = 1.0 / variance[d];
+					logDet += Math.log(variance[d]);
+				}
+			} else {
+				final double variance = ((SphericalMultivariateGaussian) gmm.gaussians[k]).variance;
+
+				Arrays.fill(invVariances[k], 1.0 / variance);
+				logDet = ndims * Math.log(variance);
+			}
+
+			logConst[k] = Math.log(gmm.weights[k]) - 0.5 * (ndims * Math.log(2 * Math.PI) + logDet);
+		}
+
+		final int nblocks = numBlocks(X.length);
+		final DiagonalStatistics[] stats = new DiagonalStatistics[nblocks];
+
+		forEachBlock(nblocks, new Operation<Integer>() {
+			@Override
+			public void perform(Integer block) {
+				final int start = (int) ((long) block * X.length / nblocks);
+				final int stop = (int) ((long) (block + 1) * X.length / nblocks);
+
+				final DiagonalStatistics s = new DiagonalStatistics(ngauss, ndims);
+				final double[] lpr = new double[ngauss];
+
+				for (int i = start; i < stop; i++) {
+					final double[] x = X[i];
+
+					// weighted log-probability of each gaussian
+					double max = Double.NEGATIVE_INFINITY;
+					for (int k = 0; k < ngauss; k++) {
+						final double[] mu = means[k];
+						final double[] iv = invVariances[k];
+
+						double v = 0;
+						for (int d = 0; d < ndims; d++) {
+							final double diff = x[d] - mu[d];
+							v += diff * diff * iv[d];
+						}
+
+						lpr[k] = logConst[k] - 0.5 * v;
+						if (lpr[k] > max)
+							max = lpr[k];
+					}
+
+					// log-sum-exp
+					double sum = 0;
+					for (int k = 0; k < ngauss; k++)
+						sum += Math.exp(lpr[k] - max);
+					final double logprob = max + Math.log(sum);
+
+					s.logLikelihood += logprob;
+
+					// accumulate the statistics weighted by the responsibility
+					for (int k = 0; k < ngauss; k++) {
+						final double r = Math.exp(lpr[k] - logprob);
+
+						if (r == 0)
+							continue;
+
+						final double[] rx = s.respX[k];
+						final double[] rx2 = s.respX2[k];
+
+						s.resp[k] += r;
+						for (int d = 0; d < ndims; d++) {
+							final double rxd = r * x[d];
+							rx[d] += rxd;
+							rx2[d] += rxd * x[d];
+						}
+					}
+				}
+
+				stats[block] = s;
+			}
+		});
+
+		for (int b = 1; b < nblocks; b++)
+			stats[0].add(stats[b]);
+
+		return stats[0];
+	}
+
+	/*
+	 * Maximisation step for diagonal and spherical gaussians from the
+	 * sufficient statistics. This computes the same updates as
+	 * mstep(EMGMM, double[][], double[][]) and CovarianceType#mstep.
+	 */
+	void mstep(EMGMM gmm, DiagonalStatistics stats) {
+		final double[] weights = stats.resp;
+		final double[] inverse_weights = new double[weights.length];
+		for (int i = 0; i < inverse_weights.length; i++)
+			inverse_weights[i] = 1.0 / (weights[i] + 10 * MathUtils.EPSILON);
+
+		if (iterOpts.contains(UpdateOptions.Weights)) {
+			final double sum = ArrayUtils.sumValues(weights);
+			for (int i = 0; i < weights.length; i++) {
+				gmm.weights[i] = (weights[i] / (sum + 10 * MathUtils.EPSILON) + MathUtils.EPSILON);
+			}
+		}
+
+		if (iterOpts.contains(UpdateOptions.Means)) {
+			for (int i = 0; i < nComponents; i++) {
+				final double[] m = ((AbstractMultivariateGaussian) gmm.gaussians[i]).mean.getArray()[0];
+
+				for (int j = 0; j < m.length; j++) {
+					m[j] = stats.respX[i][j] * inverse_weights[i];
+				}
+			}
+		}
+
+		if (iterOpts.contains(UpdateOptions.Covariances)) {
+			for (int i = 0; i < nComponents; i++) {
+				final double[] mu = ((AbstractMultivariateGaussian) gmm.gaussians[i]).mean.getArray()[0];
+				final double[] covar = new double[mu.length];
+
+				for (int j = 0; j < mu.length; j++) {
+					final double avgX2 = stats.respX2[i][j] * inverse_weights[i];
+					final double avgXmeans = mu[j] * stats.respX[i][j] * inverse_weights[i];
+
+					covar[j] = avgX2 - avgXmeans * 2 + mu[j] * mu[j] + minCovar;
+				}
+
+				if (ctype == CovarianceType.Diagonal) {
+					((DiagonalMultivariateGaussian) gmm.gaussians[i]).variance = covar;
+				} else {
+					((SphericalMultivariateGaussian) gmm.gaussians[i]).variance = ArrayUtils.sumValues(covar)
+							/ mu.length;
+				}
+			}
+		}
+	}
+
 	@Override
 	public GaussianMixtureModelEM clone() {
 		try {
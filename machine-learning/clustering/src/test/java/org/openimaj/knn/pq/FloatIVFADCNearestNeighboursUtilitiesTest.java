@@ -0,0 +1,126 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.knn.pq;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.openimaj.data.RandomData;
+import org.openimaj.knn.FloatNearestNeighboursExact;
+import org.openimaj.util.pair.IntFloatPair;
+
+/**
+ * Tests for {@link FloatIVFADCNearestNeighboursUtilities} and the accuracy of
+ * the trained {@link FloatIVFADCNearestNeighbours}
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class FloatIVFADCNearestNeighboursUtilitiesTest {
+	private static final int NLISTS = 32;
+	private static final int NDIMS = 32;
+
+	/**
+	 * Test that the quantisers are trained with the requested shape, and that
+	 * the residual quantiser is learnt from residuals rather than the raw data
+	 */
+	@Test
+	public void testTrain() {
+		final float[][] data = RandomData.getRandomFloatArray(4000, NDIMS, 0, 10, 1);
+
+		final FloatIVFADCNearestNeighbours nn = FloatIVFADCNearestNeighboursUtilities.train(data, NLISTS, 4, 2, 10);
+		assertEquals(0, nn.size());
+		assertEquals(NDIMS, nn.numDimensions());
+		assertEquals(2, nn.getNumProbes());
+		assertEquals(NLISTS, nn.getCoarseQuantiser().size());
+
+		final FloatProductQuantiser pq = nn.getProductQuantiser();
+		assertEquals(4, pq.assigners.length);
+		double mean = 0;
+		for (final FloatNearestNeighboursExact assigner : pq.assigners) {
+			assertEquals(256, assigner.size());
+			assertEquals(NDIMS / 4, assigner.numDimensions());
+
+			for (final float[] centroid : assigner.getPoints())
+				for (final float v : centroid)
+					mean += v;
+		}
+		mean /= 4 * 256 * (NDIMS / 4);
+
+		// residuals are centred on zero, whereas the data is centred on 5
+		assertEquals(0, mean, 0.5);
+	}
+
+	/**
+	 * Test that probing more lists finds more of the true nearest neighbours,
+	 * and that the results are exact-enough when every list is probed
+	 */
+	@Test
+	public void testRecallImprovesWithProbes() {
+		final float[][] data = RandomData.getRandomFloatArray(10000, NDIMS, -1, 1, 42);
+		final float[][] queries = RandomData.getRandomFloatArray(100, NDIMS, -1, 1, 43);
+
+		final FloatIVFADCNearestNeighbours nn = FloatIVFADCNearestNeighboursUtilities.train(data, NLISTS, 8, 1, 10);
+		nn.addAll(java.util.Arrays.asList(data));
+
+		final FloatNearestNeighboursExact exact = new FloatNearestNeighboursExact(data);
+		final int[] truth = new int[queries.length];
+		exact.searchNN(queries, truth, new float[queries.length]);
+
+		final int[] probes = { 1, 2, 4, 8, 16, NLISTS };
+		final double[] recall = new double[probes.length];
+		for (int i = 0; i < probes.length; i++) {
+			nn.setNumProbes(probes[i]);
+			recall[i] = recallAt10(nn, queries, truth);
+
+			if (i > 0)
+				assertTrue(recall[i] >= recall[i - 1]);
+		}
+
+		assertTrue(recall[probes.length - 1] > recall[0]);
+		assertTrue(recall[probes.length - 1] >= 0.5);
+	}
+
+	private static double recallAt10(FloatIVFADCNearestNeighbours nn, float[][] queries, int[] truth) {
+		int found = 0;
+		for (int i = 0; i < queries.length; i++) {
+			final List<IntFloatPair> res = nn.searchKNN(queries[i], 10);
+			for (final IntFloatPair p : res) {
+				if (p.first == truth[i]) {
+					found++;
+					break;
+				}
+			}
+		}
+		return (double) found / queries.length;
+	}
+}
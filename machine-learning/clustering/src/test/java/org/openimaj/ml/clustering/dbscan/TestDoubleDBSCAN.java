@@ -29,10 +29,14 @@
  */
 package org.openimaj.ml.clustering.dbscan;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Random;
 import java.util.Set;
 
 import org.junit.Before;
@@ -113,6 +117,69 @@ public class TestDoubleDBSCAN {
 			assertTrue(toSet(this.testClusters[i]).equals(toSet(res.clusters()[i])));
 		}
 	}
+	/**
+	 *
+	 */
+	@Test
+	public void testParallelDBSCAN(){
+		ParallelDoubleDBSCAN dbscan = new ParallelDoubleDBSCAN(
+			this.testStats.eps,
+			this.testStats.minpts
+		);
+		DoubleDBSCANClusters res = dbscan.cluster(testData);
+		for (int i = 0; i < res.getNoise().length; i++) {
+			assertTrue(res.getNoise()[i] < this.testStats.noutliers);
+		}
+		assertTrue(res.getNoise().length == this.testStats.noutliers);
+		for (int i = 0; i < this.testClusters.length; i++) {
+			assertTrue(toSet(this.testClusters[i]).equals(toSet(res.clusters()[i])));
+		}
+	}
+
+	/**
+	 * Check the parallel implementation gives the same clusters as the
+	 * sequential one using both the grid index and the nearest-neighbour
+	 * search
+	 */
+	@Test
+	public void testParallelMatchesSequential(){
+		Random rng = new Random(42);
+		for (int ndims = 1; ndims <= 5; ndims++) {
+			double[][] data = new double[2000][ndims];
+			for (int i = 0; i < data.length; i++) {
+				// a few blobs plus uniform background noise
+				int blob = rng.nextInt(5);
+				for (int d = 0; d < ndims; d++) {
+					data[i][d] = blob < 4 ? 10 * ((blob >> (d % 2)) & 1) + rng.nextGaussian() : 20 * rng.nextDouble();
+				}
+			}
+			double eps = 0.3 * ndims;
+
+			for (boolean noiseAsClusters : new boolean[] { false, true }) {
+				DoubleNNDBSCAN sequential = new DoubleNNDBSCAN(eps, 5);
+				sequential.setNoiseAsClusters(noiseAsClusters);
+				ParallelDoubleDBSCAN parallel = new ParallelDoubleDBSCAN(eps, 5);
+				parallel.setNoiseAsClusters(noiseAsClusters);
+
+				DoubleDBSCANClusters expected = sequential.cluster(data);
+				DoubleDBSCANClusters actual = parallel.cluster(data);
+
+				int[] noise = expected.getNoise().clone();
+				Arrays.sort(noise);
+				assertArrayEquals(noise, actual.getNoise());
+
+				int nclusters = expected.clusters().length - (noiseAsClusters ? noise.length : 0);
+				assertEquals(expected.clusters().length, actual.clusters().length);
+				for (int i = 0; i < nclusters; i++) {
+					assertEquals(toSet(expected.clusters()[i]), toSet(actual.clusters()[i]));
+				}
+				for (int i = nclusters; i < actual.clusters().length; i++) {
+					assertArrayEquals(new int[] { noise[i - nclusters] }, actual.clusters()[i]);
+				}
+			}
+		}
+	}
+
 	private Set<Integer> toSet(int[] is) {
 		Set<Integer> set = new HashSet<Integer>();
 		for (int i = 0; i < is.length; i++) {
@@ -0,0 +1,269 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.ml.gmm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openimaj.math.statistics.MeanAndCovariance;
+import org.openimaj.math.statistics.distribution.AbstractMultivariateGaussian;
+import org.openimaj.math.statistics.distribution.MixtureOfGaussians;
+import org.openimaj.math.statistics.distribution.MultivariateGaussian;
+import org.openimaj.ml.gmm.GaussianMixtureModelEM.CovarianceType;
+import org.openimaj.ml.gmm.GaussianMixtureModelEM.DiagonalStatistics;
+import org.openimaj.ml.gmm.GaussianMixtureModelEM.EMGMM;
+import org.openimaj.util.pair.IndependentPair;
+
+/**
+ * Tests for {@link GaussianMixtureModelEM}
+ *
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class GaussianMixtureModelEMTest {
+	private static final int K = 3;
+	private static final int D = 4;
+
+	private ThreadPoolExecutor pool;
+
+	/**
+	 * Create a pool with several threads, so the samples are split into
+	 * several blocks regardless of the number of processors
+	 */
+	@Before
+	public void setup() {
+		pool = new ThreadPoolExecutor(4, 4, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+	}
+
+	/**
+	 * Shutdown the pool
+	 */
+	@After
+	public void teardown() {
+		pool.shutdownNow();
+	}
+
+	private double[][] createData() {
+		final Random rng = new Random(0);
+		final double[][] data = new double[3000][D];
+
+		for (int i = 0; i < data.length; i++) {
+			final int k = i % K;
+			for (int d = 0; d < D; d++)
+				data[i][d] = 10 * k + (k + 1) * rng.nextGaussian();
+		}
+
+		return data;
+	}
+
+	private MultivariateGaussian[] sorted(MixtureOfGaussians gmm) {
+		final MultivariateGaussian[] gaussians = gmm.gaussians.clone();
+
+		Arrays.sort(gaussians, new Comparator<MultivariateGaussian>() {
+			@Override
+			public int compare(MultivariateGaussian o1, MultivariateGaussian o2) {
+				return Double.compare(o1.getMean().get(0, 0), o2.getMean().get(0, 0));
+			}
+		});
+
+		return gaussians;
+	}
+
+	/*
+	 * Create a model with the given covariance type which is near (but not at)
+	 * the generating distributions; calling this twice gives two identical
+	 * models
+	 */
+	private EMGMM createModel(CovarianceType ctype, double[][] data) {
+		final EMGMM gmm = new EMGMM(K);
+		gmm.weights = new double[] { 0.2, 0.3, 0.5 };
+		gmm.gaussians = ctype.createGaussians(K, D);
+
+		for (int k = 0; k < K; k++) {
+			final double[] mean = ((AbstractMultivariateGaussian) gmm.gaussians[k]).mean.getArray()[0];
+			for (int d = 0; d < D; d++)
+				mean[d] = 10 * k + 0.5 * (d - 1);
+		}
+
+		ctype.setCovariances(gmm.gaussians, MeanAndCovariance.computeCovariance(data));
+
+		return gmm;
+	}
+
+	private static void assertModelsEqual(MixtureOfGaussians expected, MixtureOfGaussians actual, double tol) {
+		assertArrayEquals(expected.weights, actual.weights, tol);
+
+		for (int k = 0; k < K; k++) {
+			final MultivariateGaussian e = expected.gaussians[k];
+			final MultivariateGaussian a = actual.gaussians[k];
+
+			for (int d = 0; d < D; d++) {
+				assertEquals(e.getMean().get(0, d), a.getMean().get(0, d), tol * Math.abs(e.getMean().get(0, d)));
+
+				for (int d2 = 0; d2 < D; d2++)
+					assertEquals(e.getCovariance(d, d2), a.getCovariance(d, d2), tol
+							* Math.abs(e.getCovariance(d, d2)));
+			}
+		}
+	}
+
+	/**
+	 * Diagonal gaussians should recover the generating distributions, and the
+	 * result should not depend on whether a thread pool is used
+	 */
+	@Test
+	public void testDiagonal() {
+		final double[][] data = createData();
+
+		final GaussianMixtureModelEM em = new GaussianMixtureModelEM(K, CovarianceType.Diagonal);
+		em.setThreadPool(pool);
+		final MultivariateGaussian[] par = sorted(em.estimate(data));
+
+		em.setThreadPool(null);
+		final MultivariateGaussian[] seq = sorted(em.estimate(data));
+
+		for (int k = 0; k < K; k++) {
+			for (int d = 0; d < D; d++) {
+				assertEquals(10 * k, par[k].getMean().get(0, d), 0.5);
+				assertEquals((k + 1) * (k + 1), par[k].getCovariance(d, d), 0.25 * (k + 1) * (k + 1));
+
+				assertEquals(seq[k].getMean().get(0, d), par[k].getMean().get(0, d), 1e-8);
+				assertEquals(seq[k].getCovariance(d, d), par[k].getCovariance(d, d), 1e-8);
+			}
+		}
+	}
+
+	/**
+	 * Spherical gaussians should recover the generating distributions
+	 */
+	@Test
+	public void testSpherical() {
+		final MultivariateGaussian[] gaussians = sorted(new GaussianMixtureModelEM(K, CovarianceType.Spherical)
+				.estimate(createData()));
+
+		for (int k = 0; k < K; k++) {
+			assertEquals(10 * k, gaussians[k].getMean().get(0, 0), 0.5);
+			assertEquals((k + 1) * (k + 1), gaussians[k].getCovariance(0, 0), 0.25 * (k + 1) * (k + 1));
+		}
+	}
+
+	/**
+	 * The diagonal and spherical fast path (accumulating the sufficient
+	 * statistics in the expectation step) must give the same log-likelihood
+	 * and updated model as the responsibility matrix based maximisation step,
+	 * both sequentially and in parallel
+	 */
+	@Test
+	public void testFastPathMatchesReference() {
+		final double[][] data = createData();
+
+		for (final CovarianceType ctype : new CovarianceType[] { CovarianceType.Diagonal, CovarianceType.Spherical }) {
+			for (final ThreadPoolExecutor p : new ThreadPoolExecutor[] { null, pool }) {
+				final GaussianMixtureModelEM em = new GaussianMixtureModelEM(K, ctype);
+				em.setThreadPool(p);
+
+				final EMGMM reference = createModel(ctype, data);
+				final EMGMM fast = createModel(ctype, data);
+
+				for (int i = 0; i < 5; i++) {
+					final IndependentPair<double[], double[][]> score = reference.scoreSamples(data);
+					double logLikelihood = 0;
+					for (final double lp : score.firstObject())
+						logLikelihood += lp;
+					em.mstep(reference, data, score.secondObject());
+
+					final DiagonalStatistics stats = em.expectation(fast, data);
+					em.mstep(fast, stats);
+
+					assertEquals(logLikelihood, stats.logLikelihood, 1e-9 * Math.abs(logLikelihood));
+					assertModelsEqual(reference, fast, 1e-9);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Scoring the samples in parallel blocks (as used for full and tied
+	 * gaussians) must give the same result as scoring them in one go
+	 */
+	@Test
+	public void testParallelScoreSamples() {
+		final double[][] data = createData();
+
+		for (final CovarianceType ctype : new CovarianceType[] { CovarianceType.Full, CovarianceType.Tied }) {
+			final GaussianMixtureModelEM em = new GaussianMixtureModelEM(K, ctype);
+			em.setThreadPool(pool);
+
+			final EMGMM gmm = createModel(ctype, data);
+			final IndependentPair<double[], double[][]> expected = gmm.scoreSamples(data);
+			final IndependentPair<double[], double[][]> actual = em.scoreSamples(gmm, data);
+
+			assertArrayEquals(expected.firstObject(), actual.firstObject(), 1e-12);
+			assertEquals(data.length, actual.secondObject().length);
+			for (int i = 0; i < data.length; i++)
+				assertArrayEquals(expected.secondObject()[i], actual.secondObject()[i], 1e-12);
+		}
+	}
+
+	/**
+	 * Full gaussians should recover the generating distributions, and the
+	 * result should not depend on whether a thread pool is used
+	 */
+	@Test
+	public void testFull() {
+		final double[][] data = createData();
+
+		final GaussianMixtureModelEM em = new GaussianMixtureModelEM(K, CovarianceType.Full);
+		em.setThreadPool(pool);
+		final MultivariateGaussian[] par = sorted(em.estimate(data));
+
+		em.setThreadPool(null);
+		final MultivariateGaussian[] seq = sorted(em.estimate(data));
+
+		for (int k = 0; k < K; k++) {
+			for (int d = 0; d < D; d++) {
+				assertEquals(10 * k, par[k].getMean().get(0, d), 0.5);
+				assertEquals((k + 1) * (k + 1), par[k].getCovariance(d, d), 0.25 * (k + 1) * (k + 1));
+
+				assertEquals(seq[k].getMean().get(0, d), par[k].getMean().get(0, d), 1e-8);
+				assertEquals(seq[k].getCovariance(d, d), par[k].getCovariance(d, d), 1e-8);
+			}
+		}
+	}
+}
@@ -29,10 +29,14 @@
  */
 package org.openimaj.ml.annotation.linear;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.openimaj.citation.annotation.Reference;
 import org.openimaj.citation.annotation.ReferenceType;
@@ -46,6 +50,11 @@ import org.openimaj.ml.annotation.BatchAnnotator;
 import org.openimaj.ml.annotation.ScoredAnnotation;
 import org.openimaj.ml.annotation.utils.AnnotatedListHelper;
 import org.openimaj.ml.annotation.utils.LiblinearHelper;
+import org.openimaj.ml.annotation.utils.OneVersusAllTrainer;
+import org.openimaj.util.function.Operation;
+import org.openimaj.util.parallel.GlobalExecutorPool;
+import org.openimaj.util.parallel.Parallel;
+import org.openimaj.util.parallel.Parallel.IntRange;
 
 import de.bwaldvogel.liblinear.DenseLinear;
 import de.bwaldvogel.liblinear.DenseProblem;
@@ -62,6 +71,26 @@ import de.bwaldvogel.liblinear.SolverType;
  * features. Two modes of operation are available depending on whether the
  * problem is multiclass or multilabel. Binary classification can be achieved
  * with either mode, although multiclass mode is more efficient in this case.
+ * <p>
+ * In sparse mode (the default) only the non-zero elements of each training
+ * feature are held in memory, so it is the low-memory option for sparse
+ * features. Dense mode holds every element of every training feature as a
+ * <code>double</code> (as required by {@link DenseLinear}), so it avoids the
+ * per-element overhead of the sparse representation for features that are
+ * mostly non-zero, but needs considerably more memory for sparse ones.
+ * <p>
+ * By default the features of the training instances are extracted
+ * sequentially. If the feature extractor is thread-safe, the features can be
+ * extracted in parallel by setting a thread pool with
+ * {@link #setExtractionPool(ThreadPoolExecutor)}; the training data is
+ * identical either way. The progress of the extraction can be monitored from
+ * another thread whilst training.
+ * <p>
+ * In multilabel mode the binary classifiers can also be trained concurrently
+ * using {@link #setTrainingPool(ThreadPoolExecutor, long)}. Note that liblinear
+ * shares a single random number generator between all training runs, so
+ * concurrently trained models may differ slightly (within the tolerance of the
+ * solver) from sequentially trained ones.
  *
  * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
  *
@@ -118,6 +147,13 @@ public class LiblinearAnnotator<OBJECT, ANNOTATION>
 		double bias = -1;
 		boolean estimateProbabilities = true;
 
+		ThreadPoolExecutor pool;
+		OneVersusAllTrainer trainer = new OneVersusAllTrainer();
+		final AtomicInteger featuresExtracted = new AtomicInteger();
+		volatile int featuresToExtract;
+		volatile long extractionStartTime;
+		volatile long extractionEndTime;
+
 		public abstract void train(List<? extends Annotated<OBJECT, ANNOTATION>> data);
 
 		public abstract void train(GroupedDataset<ANNOTATION, ? extends ListDataset<OBJECT>, OBJECT> dataset);
@@ -136,6 +172,126 @@ public class LiblinearAnnotator<OBJECT, ANNOTATION>
 			return LiblinearHelper.convertDense(feature, bias);
 		}
 
+		/*
+		 * Extract the features of all the objects into the rows of a problem;
+		 * the rows are double[]s if dense, and Feature[]s otherwise. Row i
+		 * always holds the feature of object i, regardless of whether the
+		 * extraction happens in parallel.
+		 */
+		Object[] computeFeatures(final List<OBJECT> objects) {
+			final int nItems = objects.size();
+			final Object[] rows = dense ? new double[nItems][] : new Feature[nItems][];
+
+			featuresExtracted.set(0);
+			featuresToExtract = nItems;
+			extractionEndTime = 0;
+			extractionStartTime = System.currentTimeMillis();
+
+			if (pool == null) {
+				computeFeatures(objects, rows, 0, nItems);
+			} else {
+				Parallel.forRange(0, nItems, 1, new Operation<IntRange>() {
+					@Override
+					public void perform(IntRange range) {
+						computeFeatures(objects, rows, range.start, range.stop);
+					}
+				}, pool);
+			}
+
+			extractionEndTime = System.currentTimeMillis();
+
+			return rows;
+		}
+
+		private void computeFeatures(List<OBJECT> objects, Object[] rows, int start, int stop) {
+			for (int i = start; i < stop; i++) {
+				final OBJECT object = objects.get(i);
+				rows[i] = dense ? computeFeatureDense(object) : computeFeature(object);
+				featuresExtracted.incrementAndGet();
+			}
+		}
+
+		/*
+		 * Train a model from the given rows (as created by computeFeatures)
+		 * and classes
+		 */
+		Model train(Parameter parameter, Object[] rows, double[] y, int featureLength) {
+			if (dense) {
+				final DenseProblem problem = new DenseProblem();
+				problem.l = rows.length;
+				problem.n = featureLength + (bias >= 0 ? 1 : 0);
+				problem.bias = bias;
+				problem.x = (double[][]) rows;
+				problem.y = y;
+
+				return DenseLinear.train(problem, parameter);
+			} else {
+				final Problem problem = new Problem();
+				problem.l = rows.length;
+				problem.n = featureLength + (bias >= 0 ? 1 : 0);
+				problem.bias = bias;
+				problem.x = (Feature[][]) rows;
+				problem.y = y;
+
+				return Linear.train(problem, parameter);
+			}
+		}
+
+		double getExtractionRate() {
+			final long start = extractionStartTime;
+			if (start == 0)
+				return 0;
+
+			final long end = extractionEndTime == 0 ? System.currentTimeMillis() : extractionEndTime;
+			return featuresExtracted.get() * 1000.0 / Math.max(1, end - start);
+		}
+
+		/*
+		 * View of the objects of the annotated data
+		 */
+		List<OBJECT> objects(final List<? extends Annotated<OBJECT, ANNOTATION>> data) {
+			return new AbstractList<OBJECT>() {
+				@Override
+				public OBJECT get(int index) {
+					return data.get(index).getObject();
+				}
+
+				@Override
+				public int size() {
+					return data.size();
+				}
+			};
+		}
+
+		/*
+		 * View of the objects of the given groups, one after the other; offsets
+		 * holds the index of the first object of each group, followed by the
+		 * total number of objects
+		 */
+		static <OBJECT> List<OBJECT> objects(final List<? extends ListDataset<OBJECT>> groups, final int[] offsets) {
+			return new AbstractList<OBJECT>() {
+				@Override
+				public OBJECT get(int index) {
+					// find the last group starting at or before the index
+					// (skipping any empty groups that start at the same place)
+					int g = Arrays.binarySearch(offsets, index);
+					if (g < 0) {
+						g = -g - 2;
+					} else {
+						while (offsets[g + 1] == index)
+							g++;
+					}
+
+					return groups.get(g).getInstance(index - offsets[g]);
+				}
+
+				@Override
+				public int size() {
+					return offsets[offsets.length - 1];
+				}
+			};
+		}
+
 		void computeProbabilities(double[] prob_estimates) {
 			if (!estimateProbabilities)
 				return;
@@ -165,7 +321,7 @@ public class LiblinearAnnotator<OBJECT, ANNOTATION>
 
 	static class Multiclass<OBJECT, ANNOTATION> extends InternalModel<OBJECT, ANNOTATION> {
 		private Parameter parameter;
-		private Model model;
+		Model model;
 
 		public Multiclass(SolverType solver, double C, double eps, double bias, boolean dense) {
 			parameter = new Parameter(solver, C, eps);
@@ -180,99 +336,47 @@ public class LiblinearAnnotator<OBJECT, ANNOTATION>
 			final int nItems = dataset.numInstances();
 			final int featureLength = extractor.extractFeature(dataset.getRandomInstance()).length();
 
-			if (dense) {
-				final DenseProblem problem = new DenseProblem();
-				problem.l = nItems;
-				problem.n = featureLength + (bias >= 0 ? 1 : 0);
-				problem.bias = bias;
-				problem.x = new double[nItems][];
-				problem.y = new double[nItems];
-
-				int i = 0;
-				for (final ANNOTATION annotation : dataset.getGroups()) {
-					for (final OBJECT object : dataset.get(annotation)) {
-						problem.y[i] = annotationsList.indexOf(annotation) + 1;
-						problem.x[i] = computeFeatureDense(object);
-						i++;
-					}
-				}
+			// the rows are ordered by group, and then by the order within the
+			// group
+			final List<ListDataset<OBJECT>> groups = new ArrayList<ListDataset<OBJECT>>(annotationsList.size());
+			final int[] offsets = new int[annotationsList.size() + 1];
+			final double[] y = new double[nItems];
 
-				model = DenseLinear.train(problem, parameter);
-			} else {
-				final Problem problem = new Problem();
-				problem.l = nItems;
-				problem.n = featureLength + (bias >= 0 ? 1 : 0);
-				problem.bias = bias;
-				problem.x = new Feature[nItems][];
-				problem.y = new double[nItems];
-
-				int i = 0;
-				for (final ANNOTATION annotation : dataset.getGroups()) {
-					for (final OBJECT object : dataset.get(annotation)) {
-						problem.y[i] = annotationsList.indexOf(annotation) + 1;
-						problem.x[i] = computeFeature(object);
-						i++;
-					}
-				}
+			for (int i = 0, j = 0; i < annotationsList.size(); i++) {
+				final ListDataset<OBJECT> group = dataset.get(annotationsList.get(i));
+				groups.add(group);
+				offsets[i + 1] = offsets[i] + group.numInstances();
 
-				model = Linear.train(problem, parameter);
+				for (; j < offsets[i + 1]; j++)
+					y[j] = i + 1;
 			}
+
+			model = train(parameter, computeFeatures(objects(groups, offsets)), y, featureLength);
 		}
 
 		@Override
-		public void train(List<? extends Annotated<OBJECT, ANNOTATION>> data) {
+		public void train(final List<? extends Annotated<OBJECT, ANNOTATION>> data) {
 			final AnnotatedListHelper<OBJECT, ANNOTATION> helper = new AnnotatedListHelper<OBJECT, ANNOTATION>(data);
 			final Set<ANNOTATION> annotations = helper.getAnnotations();
 			annotationsList = new ArrayList<ANNOTATION>(annotations);
 
 			final int nItems = data.size();
 			final int featureLength = extractor.extractFeature(data.get(0).getObject()).length();
+			final double[] y = new double[nItems];
 
-			if (dense) {
-				final DenseProblem problem = new DenseProblem();
-				problem.l = nItems;
-				problem.n = featureLength + (bias >= 0 ? 1 : 0);
-				problem.bias = bias;
-				problem.x = new double[nItems][];
-				problem.y = new double[nItems];
-
-				for (int i = 0; i < nItems; i++) {
-					final Annotated<OBJECT, ANNOTATION> object = data.get(i);
-
-					if (object.getAnnotations().size() != 1)
-						throw new IllegalArgumentException(
-								"A multiclass problem cannot have more than one class per instance");
-
-					final ANNOTATION annotation = object.getAnnotations().iterator().next();
-
-					problem.y[i] = annotationsList.indexOf(annotation) + 1;
-					problem.x[i] = computeFeatureDense(object.getObject());
-				}
-
-				model = DenseLinear.train(problem, parameter);
-			} else {
-				final Problem problem = new Problem();
-				problem.l = nItems;
-				problem.n = featureLength + (bias >= 0 ? 1 : 0);
-				problem.bias = bias;
-				problem.x = new Feature[nItems][];
-				problem.y = new double[nItems];
-
-				for (int i = 0; i < nItems; i++) {
-					final Annotated<OBJECT, ANNOTATION> object = data.get(i);
+			for (int i = 0; i < nItems; i++) {
+				final Annotated<OBJECT, ANNOTATION> object = data.get(i);
 
-					if (object.getAnnotations().size() != 1)
-						throw new IllegalArgumentException(
-								"A multiclass problem cannot have more than one class per instance");
+				if (object.getAnnotations().size() != 1)
+					throw new IllegalArgumentException(
+							"A multiclass problem cannot have more than one class per instance");
 
-					final ANNOTATION annotation = object.getAnnotations().iterator().next();
+				final ANNOTATION annotation = object.getAnnotations().iterator().next();
 
-					problem.y[i] = annotationsList.indexOf(annotation) + 1;
-					problem.x[i] = computeFeature(object.getObject());
-				}
-
-				model = Linear.train(problem, parameter);
+				y[i] = annotationsList.indexOf(annotation) + 1;
 			}
+
+			model = train(parameter, computeFeatures(objects(data)), y, featureLength);
 		}
 
 		@Override
@@ -324,7 +428,7 @@ public class LiblinearAnnotator<OBJECT, ANNOTATION>
 	 */
 	static class Multilabel<OBJECT, ANNOTATION> extends InternalModel<OBJECT, ANNOTATION> {
 		private Parameter parameter;
-		private Model[] models;
+		Model[] models;
 
 		private static final int NEGATIVE_CLASS = 1;
 		private static final int POSTIVE_CLASS = 2;
@@ -336,60 +440,75 @@ public class LiblinearAnnotator<OBJECT, ANNOTATION>
 		}
 
 		@Override
-		public void train(List<? extends Annotated<OBJECT, ANNOTATION>> data) {
+		public void train(final List<? extends Annotated<OBJECT, ANNOTATION>> data) {
 			final AnnotatedListHelper<OBJECT, ANNOTATION> helper = new AnnotatedListHelper<OBJECT, ANNOTATION>(data);
 			final Set<ANNOTATION> annotations = helper.getAnnotations();
 			annotationsList = new ArrayList<ANNOTATION>(annotations);
 
+			final int nItems = data.size();
 			final int featureLength = extractor.extractFeature(data.get(0).getObject()).length();
 
+			// extract every feature once; the rows are shared by all the
+			// binary problems
+			final Object[] rows = computeFeatures(objects(data));
+
 			models = new Model[annotationsList.size()];
 
-			for (int i = 0; i < annotationsList.size(); i++) {
-				final ANNOTATION annotation = annotationsList.get(i);
-				final List<? extends FeatureVector> positive = helper.extractFeatures(annotation, extractor);
-				final List<? extends FeatureVector> negative = helper.extractFeaturesExclude(annotation, extractor);
-
-				if (dense) {
-					final DenseProblem problem = new DenseProblem();
-					problem.l = positive.size() + negative.size();
-					problem.n = featureLength + (bias >= 0 ? 1 : 0);
-					problem.bias = bias;
-					problem.x = new double[problem.l][];
-					problem.y = new double[problem.l];
-
-					for (int j = 0; j < negative.size(); j++) {
-						problem.x[j] = LiblinearHelper.convertDense(negative.get(j), bias);
-						problem.y[j] = NEGATIVE_CLASS;
-					}
+			// the binary problems are independent, so can be trained
+			// concurrently; each needs its own row and class arrays (and
+			// liblinear takes a few more arrays of the same length, and the
+			// weights)
+			final long bytesPerModel = 64L * nItems + 16L * (featureLength + 1);
 
-					for (int j = negative.size(), k = 0; k < positive.size(); j++, k++) {
-						problem.x[j] = LiblinearHelper.convertDense(positive.get(k), bias);
-						problem.y[j] = POSTIVE_CLASS;
-					}
+			trainer.train(models.length, bytesPerModel, new Operation<Integer>() {
+				@Override
+				public void perform(Integer i) {
+					models[i] = train(annotationsList.get(i), data, rows, featureLength);
+				}
+			});
+		}
 
-					models[i] = DenseLinear.train(problem, parameter);
-				} else {
-					final Problem problem = new Problem();
-					problem.l = positive.size() + negative.size();
-					problem.n = featureLength + (bias >= 0 ? 1 : 0);
-					problem.bias = bias;
-					problem.x = new Feature[problem.l][];
-					problem.y = new double[problem.l];
-
-					for (int j = 0; j < negative.size(); j++) {
-						problem.x[j] = LiblinearHelper.convert(negative.get(j), bias);
-						problem.y[j] = NEGATIVE_CLASS;
-					}
+		private Model train(ANNOTATION annotation, List<? extends Annotated<OBJECT, ANNOTATION>> data,
+				Object[] rows, int featureLength)
+		{
+			final double[] y = new double[rows.length];
+			final Object[] x = binaryProblem(annotation, data, rows, y);
 
-					for (int j = negative.size(), k = 0; k < positive.size(); j++, k++) {
-						problem.x[j] = LiblinearHelper.convert(positive.get(k), bias);
-						problem.y[j] = POSTIVE_CLASS;
-					}
+			return train(parameter, x, y, featureLength);
+		}
 
-					models[i] = Linear.train(problem, parameter);
+		/*
+		 * Arrange the shared rows into the binary problem for the given
+		 * annotation, filling in the classes and returning the rows. The
+		 * negative examples come first, followed by the positive ones, each in
+		 * the order of the data.
+		 */
+		Object[] binaryProblem(ANNOTATION annotation, List<? extends Annotated<OBJECT, ANNOTATION>> data,
+				Object[] rows, double[] y)
+		{
+			final int nItems = rows.length;
+
+			final boolean[] positive = new boolean[nItems];
+			int nPositive = 0;
+			for (int j = 0; j < nItems; j++) {
+				if (data.get(j).getAnnotations().contains(annotation)) {
+					positive[j] = true;
+					nPositive++;
 				}
 			}
+
+			final Object[] x = dense ? new double[nItems][] : new Feature[nItems][];
+			for (int j = 0, neg = 0, pos = nItems - nPositive; j < nItems; j++) {
+				if (positive[j]) {
+					x[pos] = rows[j];
+					y[pos++] = POSTIVE_CLASS;
+				} else {
+					x[neg] = rows[j];
+					y[neg++] = NEGATIVE_CLASS;
+				}
+			}
+
+			return x;
 		}
 
 		@Override
@@ -488,7 +607,8 @@ public class LiblinearAnnotator<OBJECT, ANNOTATION>
 	 *            the bias
 	 * @param dense
 	 *            are the features dense? If so the dense variant of liblinear
-	 *            will be used to drastically reduce memory usage
+	 *            will be used, which is more efficient for features with few
+	 *            zero elements (sparse mode uses less memory otherwise)
 	 */
 	public LiblinearAnnotator(FeatureExtractor<? extends FeatureVector, OBJECT> extractor, Mode mode, SolverType solver,
 			double C, double eps, double bias, boolean dense)
@@ -507,6 +627,67 @@ public class LiblinearAnnotator<OBJECT, ANNOTATION>
 		this.internal.extractor = extractor;
 	}
 
+	/**
+	 * Set the thread pool used to extract the features of the training data in
+	 * parallel. The feature extractor must be thread-safe. Setting the pool to
+	 * null (the default) extracts the features sequentially.
+	 *
+	 * @param pool
+	 *            the thread pool (for example {@link GlobalExecutorPool#getPool()}
+	 *            ); can be null.
+	 */
+	public void setExtractionPool(ThreadPoolExecutor pool) {
+		internal.pool = pool;
+	}
+
+	/**
+	 * Set the thread pool used to train the per-annotation binary classifiers
+	 * concurrently in multilabel mode (this has no effect in multiclass mode,
+	 * which only trains a single model). All the classifiers share the same
+	 * extracted features. The number of classifiers trained at once is limited
+	 * by the size of the pool and the given memory budget. Setting the pool to
+	 * null (the default) trains the classifiers sequentially.
+	 *
+	 * @param pool
+	 *            the thread pool; can be null.
+	 * @param memoryBudget
+	 *            the approximate maximum number of bytes the concurrent
+	 *            training runs can use between them.
+	 */
+	public void setTrainingPool(ThreadPoolExecutor pool, long memoryBudget) {
+		internal.trainer = new OneVersusAllTrainer(pool, memoryBudget);
+	}
+
+	/**
+	 * Get the number of features that have been extracted by the current (or
+	 * last) call to train.
+	 *
+	 * @return the number of features extracted
+	 */
+	public int getNumFeaturesExtracted() {
+		return internal.featuresExtracted.get();
+	}
+
+	/**
+	 * Get the total number of features that need to be extracted by the
+	 * current (or last) call to train.
+	 *
+	 * @return the number of features to extract
+	 */
+	public int getNumFeaturesToExtract() {
+		return internal.featuresToExtract;
+	}
+
+	/**
+	 * Get the throughput of the feature extraction for the current (or last)
+	 * call to train.
+	 *
+	 * @return the number of features extracted per second
+	 */
+	public double getExtractionRate() {
+		return internal.getExtractionRate();
+	}
+
 	@Override
 	public void train(List<? extends Annotated<OBJECT, ANNOTATION>> data) {
 		internal.train(data);
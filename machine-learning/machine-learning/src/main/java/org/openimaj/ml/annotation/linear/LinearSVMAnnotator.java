@@ -43,6 +43,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import org.openimaj.feature.FeatureExtractor;
 import org.openimaj.feature.FeatureVector;
@@ -51,12 +52,15 @@ import org.openimaj.ml.annotation.Annotator;
 import org.openimaj.ml.annotation.BatchAnnotator;
 import org.openimaj.ml.annotation.ScoredAnnotation;
 import org.openimaj.ml.annotation.utils.AnnotatedListHelper;
+import org.openimaj.ml.annotation.utils.OneVersusAllTrainer;
+import org.openimaj.util.function.Operation;
 
 /**
  * An {@link Annotator} based on a set of linear SVMs (one per annotation).
  * <p>
  * The SVMs use the PEGASOS algorithm implemented by the
- * {@link PrimalEstimatedSubGradient} class.
+ * {@link PrimalEstimatedSubGradient} class. The SVMs can optionally be trained
+ * concurrently (see {@link #setTrainingPool(ThreadPoolExecutor, long)}).
  *
  * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
  *
@@ -73,6 +77,7 @@ BatchAnnotator<OBJECT, ANNOTATION>
 	private Set<ANNOTATION> annotations;
 	private ANNOTATION negativeClass;
 	private FeatureExtractor<? extends FeatureVector, OBJECT> extractor;
+	private OneVersusAllTrainer trainer = new OneVersusAllTrainer();
 
 	/**
 	 * Construct a new {@link LinearSVMAnnotator} with the given extractor and
@@ -99,39 +104,76 @@ BatchAnnotator<OBJECT, ANNOTATION>
 		this(extractor, null);
 	}
 
+	/**
+	 * Set the thread pool used to train the per-annotation SVMs concurrently.
+	 * All the SVMs share the same extracted features. The number of SVMs
+	 * trained at once is limited by the size of the pool and the given memory
+	 * budget. Setting the pool to null (the default) trains the SVMs
+	 * sequentially.
+	 *
+	 * @param pool
+	 *            the thread pool; can be null.
+	 * @param memoryBudget
+	 *            the approximate maximum number of bytes the concurrent
+	 *            training runs can use between them.
+	 */
+	public void setTrainingPool(ThreadPoolExecutor pool, long memoryBudget) {
+		this.trainer = new OneVersusAllTrainer(pool, memoryBudget);
+	}
+
 	@Override
-	public void train(List<? extends Annotated<OBJECT, ANNOTATION>> data) {
+	public void train(final List<? extends Annotated<OBJECT, ANNOTATION>> data) {
 		final AnnotatedListHelper<OBJECT, ANNOTATION> helper = new AnnotatedListHelper<OBJECT, ANNOTATION>(data);
 
 		annotations = helper.getAnnotations();
 
-		for (final ANNOTATION annotation : annotations) {
-			final PrimalEstimatedSubGradient pegasos = new PrimalEstimatedSubGradient();
+		// extract the features once; the vectors are only read by the
+		// training, so are shared by all the SVMs
+		final Vector[] vectors = new Vector[data.size()];
+		for (int i = 0; i < vectors.length; i++)
+			vectors[i] = convert(extractor.extractFeature(data.get(i).getObject()));
 
-			final List<? extends FeatureVector> positive = helper.extractFeatures(annotation,
-					(FeatureExtractor<? extends FeatureVector, OBJECT>) extractor);
-			final List<? extends FeatureVector> negative = helper.extractFeaturesExclude(annotation,
-					(FeatureExtractor<? extends FeatureVector, OBJECT>) extractor);
+		final List<ANNOTATION> annotationsList = new ArrayList<ANNOTATION>(annotations);
+		final LinearBinaryCategorizer[] results = new LinearBinaryCategorizer[annotationsList.size()];
 
-			pegasos.learn(convert(positive, negative));
-			classifiers.put(annotation, pegasos.getResult());
-		}
+		// each SVM needs a pair per instance and a few weight vectors
+		final int dims = vectors.length == 0 ? 0 : vectors[0].getDimensionality();
+		final long bytesPerClassifier = 48L * vectors.length + 32L * dims;
+
+		trainer.train(results.length, bytesPerClassifier, new Operation<Integer>() {
+			@Override
+			public void perform(Integer i) {
+				final PrimalEstimatedSubGradient pegasos = new PrimalEstimatedSubGradient();
+
+				pegasos.learn(convert(annotationsList.get(i), data, vectors));
+				results[i] = pegasos.getResult();
+			}
+		});
+
+		for (int i = 0; i < results.length; i++)
+			classifiers.put(annotationsList.get(i), results[i]);
 	}
 
+	/*
+	 * Create the training pairs for an annotation; the positive examples come
+	 * first, followed by the negative ones, each in the order of the data.
+	 */
 	private Collection<? extends InputOutputPair<? extends Vectorizable, Boolean>>
-	convert(List<? extends FeatureVector> positive, List<? extends FeatureVector> negative)
+	convert(ANNOTATION annotation, List<? extends Annotated<OBJECT, ANNOTATION>> data, Vector[] vectors)
 	{
-		final Collection<InputOutputPair<Vectorizable, Boolean>> data =
-				new ArrayList<InputOutputPair<Vectorizable, Boolean>>(positive.size() + negative.size());
-
-		for (final FeatureVector p : positive) {
-			data.add(new DefaultInputOutputPair<Vectorizable, Boolean>(convert(p), true));
-		}
-		for (final FeatureVector n : negative) {
-			data.add(new DefaultInputOutputPair<Vectorizable, Boolean>(convert(n), false));
+		final List<InputOutputPair<Vectorizable, Boolean>> positive = new ArrayList<InputOutputPair<Vectorizable, Boolean>>();
+		final List<InputOutputPair<Vectorizable, Boolean>> negative = new ArrayList<InputOutputPair<Vectorizable, Boolean>>();
+
+		for (int i = 0; i < vectors.length; i++) {
+			if (data.get(i).getAnnotations().contains(annotation))
+				positive.add(new DefaultInputOutputPair<Vectorizable, Boolean>(vectors[i], true));
+			else
+				negative.add(new DefaultInputOutputPair<Vectorizable, Boolean>(vectors[i], false));
 		}
 
-		return data;
+		positive.addAll(negative);
+
+		return positive;
 	}
 
 	@Override
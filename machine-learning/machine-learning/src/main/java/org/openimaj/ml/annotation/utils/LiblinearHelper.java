@@ -29,6 +29,7 @@
  */
 package org.openimaj.ml.annotation.utils;
 
+import org.openimaj.feature.ArrayFeatureVector;
 import org.openimaj.feature.FeatureVector;
 import org.openimaj.feature.SparseByteFV;
 import org.openimaj.feature.SparseDoubleFV;
@@ -143,6 +144,19 @@ public class LiblinearHelper {
 	 * @return the double[] version of the feature
 	 */
 	public static double[] convertDense(FeatureVector feature, double bias) {
+		if (bias > 0 && feature instanceof ArrayFeatureVector) {
+			// fill the output directly rather than copying the result of
+			// asDoubleVector()
+			final int length = feature.length();
+			final double[] arr = new double[length + 1];
+
+			for (int i = 0; i < length; i++)
+				arr[i] = feature.getAsDouble(i);
+			arr[length] = bias;
+
+			return arr;
+		}
+
 		final double[] arr = feature.asDoubleVector();
 
 		if (bias <= 0)
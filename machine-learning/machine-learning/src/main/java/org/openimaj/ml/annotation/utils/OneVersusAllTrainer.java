@@ -0,0 +1,206 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.ml.annotation.utils;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.openimaj.util.function.Operation;
+
+/**
+ * Helper for training the independent per-annotation (one-versus-all)
+ * classifiers of a multilabel annotator. The classifiers can be trained
+ * sequentially, or concurrently on a thread pool. When training concurrently,
+ * the number of classifiers being trained at any one time is bounded by both
+ * the size of the pool and a memory budget, so that the peak working memory of
+ * the concurrent training runs stays (approximately) within the budget.
+ * <p>
+ * The training operations are expected to only read any shared data (e.g. the
+ * extracted features), and to write their results to distinct locations (e.g.
+ * the elements of an array indexed by class).
+ *
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class OneVersusAllTrainer {
+	private ThreadPoolExecutor pool;
+	private long memoryBudget;
+
+	/**
+	 * Construct a {@link OneVersusAllTrainer} that trains sequentially.
+	 */
+	public OneVersusAllTrainer() {
+		this(null);
+	}
+
+	/**
+	 * Construct a {@link OneVersusAllTrainer} that uses the given thread pool
+	 * with the default memory budget (a quarter of the maximum heap size).
+	 *
+	 * @param pool
+	 *            the thread pool; if null the classifiers will be trained
+	 *            sequentially
+	 */
+	public OneVersusAllTrainer(ThreadPoolExecutor pool) {
+		this(pool, Runtime.getRuntime().maxMemory() / 4);
+	}
+
+	/**
+	 * Construct a {@link OneVersusAllTrainer} that uses the given thread pool
+	 * and memory budget.
+	 *
+	 * @param pool
+	 *            the thread pool; if null the classifiers will be trained
+	 *            sequentially
+	 * @param memoryBudget
+	 *            the maximum number of bytes that the concurrent training runs
+	 *            should use between them
+	 */
+	public OneVersusAllTrainer(ThreadPoolExecutor pool, long memoryBudget) {
+		this.pool = pool;
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * @return the thread pool, or null if training is sequential
+	 */
+	public ThreadPoolExecutor getPool() {
+		return pool;
+	}
+
+	/**
+	 * Set the thread pool.
+	 *
+	 * @param pool
+	 *            the thread pool; if null the classifiers will be trained
+	 *            sequentially
+	 */
+	public void setPool(ThreadPoolExecutor pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * @return the maximum number of bytes that the concurrent training runs
+	 *         should use between them
+	 */
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/**
+	 * Set the maximum number of bytes that the concurrent training runs should
+	 * use between them.
+	 *
+	 * @param memoryBudget
+	 *            the memory budget in bytes
+	 */
+	public void setMemoryBudget(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * Get the number of classifiers that will be trained concurrently, given
+	 * the estimated working memory of a single training run. At least one
+	 * classifier is always trained, even if a single run exceeds the budget.
+	 *
+	 * @param bytesPerClassifier
+	 *            the estimated working memory of training a single classifier
+	 * @return the number of concurrent training runs
+	 */
+	public int getConcurrency(long bytesPerClassifier) {
+		if (pool == null)
+			return 1;
+
+		final long byMemory = memoryBudget / Math.max(1, bytesPerClassifier);
+
+		return (int) Math.max(1, Math.min(pool.getMaximumPoolSize(), byMemory));
+	}
+
+	/**
+	 * Train the classifiers. The given operation is called once with the index
+	 * of each classifier in <code>[0, numClassifiers)</code>. If any of the
+	 * operations fail, no further classifiers are started and the failure is
+	 * re-thrown once the running operations have completed.
+	 *
+	 * @param numClassifiers
+	 *            the number of classifiers
+	 * @param bytesPerClassifier
+	 *            the estimated working memory of training a single classifier
+	 * @param trainer
+	 *            the operation that trains a classifier
+	 */
+	public void train(int numClassifiers, long bytesPerClassifier, final Operation<Integer> trainer) {
+		final int concurrency = getConcurrency(bytesPerClassifier);
+
+		if (concurrency <= 1) {
+			for (int i = 0; i < numClassifiers; i++)
+				trainer.perform(i);
+
+			return;
+		}
+
+		final ExecutorCompletionService<Boolean> completion = new ExecutorCompletionService<Boolean>(pool);
+		Throwable failure = null;
+		int submitted = 0;
+		int running = 0;
+
+		while (running > 0 || (failure == null && submitted < numClassifiers)) {
+			if (failure == null && submitted < numClassifiers && running < concurrency) {
+				final int index = submitted++;
+				completion.submit(new Runnable() {
+					@Override
+					public void run() {
+						trainer.perform(index);
+					}
+				}, true);
+				running++;
+				continue;
+			}
+
+			try {
+				completion.take().get();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			} catch (final ExecutionException e) {
+				if (failure == null)
+					failure = e.getCause();
+			}
+			running--;
+		}
+
+		if (failure instanceof RuntimeException)
+			throw (RuntimeException) failure;
+		if (failure instanceof Error)
+			throw (Error) failure;
+		if (failure != null)
+			throw new RuntimeException(failure);
+	}
+}
@@ -0,0 +1,321 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.ml.annotation.linear;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openimaj.data.dataset.ListBackedDataset;
+import org.openimaj.data.dataset.ListDataset;
+import org.openimaj.data.dataset.MapBackedDataset;
+import org.openimaj.feature.DoubleFV;
+import org.openimaj.feature.FeatureExtractor;
+import org.openimaj.ml.annotation.AnnotatedObject;
+import org.openimaj.ml.annotation.linear.LiblinearAnnotator.InternalModel;
+import org.openimaj.ml.annotation.linear.LiblinearAnnotator.Mode;
+import org.openimaj.ml.annotation.linear.LiblinearAnnotator.Multiclass;
+import org.openimaj.ml.annotation.linear.LiblinearAnnotator.Multilabel;
+
+import de.bwaldvogel.liblinear.Feature;
+import de.bwaldvogel.liblinear.Model;
+import de.bwaldvogel.liblinear.SolverType;
+
+/**
+ * Tests for {@link LiblinearAnnotator}
+ *
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class LiblinearAnnotatorTest {
+	private static final int NUM_ITEMS = 60;
+	private static final int NUM_DIMS = 8;
+
+	private static final FeatureExtractor<DoubleFV, double[]> EXTRACTOR = new FeatureExtractor<DoubleFV, double[]>() {
+		@Override
+		public DoubleFV extractFeature(double[] object) {
+			return new DoubleFV(object);
+		}
+	};
+
+	private ThreadPoolExecutor pool;
+	private List<double[]> objects;
+	private List<AnnotatedObject<double[], String>> multiclassData;
+	private List<AnnotatedObject<double[], String>> multilabelData;
+	private MapBackedDataset<String, ListDataset<double[]>, double[]> groupedData;
+
+	/**
+	 * Create the pool and some random data with plenty of zeros
+	 */
+	@Before
+	public void setup() {
+		pool = new ThreadPoolExecutor(4, 4, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+		final Random rng = new Random(42);
+		final String[] classes = { "a", "b", "c" };
+
+		objects = new ArrayList<double[]>();
+		multiclassData = new ArrayList<AnnotatedObject<double[], String>>();
+		multilabelData = new ArrayList<AnnotatedObject<double[], String>>();
+
+		final Map<String, ListDataset<double[]>> groups = new LinkedHashMap<String, ListDataset<double[]>>();
+		for (final String clz : classes)
+			groups.put(clz, new ListBackedDataset<double[]>());
+
+		for (int i = 0; i < NUM_ITEMS; i++) {
+			final double[] object = new double[NUM_DIMS];
+			for (int j = 0; j < NUM_DIMS; j++)
+				object[j] = rng.nextBoolean() ? 0 : rng.nextGaussian() + (j % 3 == i % 3 ? 2 : 0);
+			objects.add(object);
+
+			final String clz = classes[i % 3];
+			multiclassData.add(AnnotatedObject.create(object, clz));
+			groups.get(clz).add(object);
+
+			final List<String> labels = new ArrayList<String>();
+			if (i % 2 == 0)
+				labels.add("a");
+			if (i % 3 == 0)
+				labels.add("b");
+			if (labels.isEmpty())
+				labels.add("c");
+			multilabelData.add(AnnotatedObject.create(object, labels));
+		}
+
+		groupedData = new MapBackedDataset<String, ListDataset<double[]>, double[]>(groups);
+	}
+
+	/**
+	 * Shutdown the pool
+	 */
+	@After
+	public void teardown() {
+		pool.shutdownNow();
+	}
+
+	/*
+	 * The primal L2-loss SVM solver doesn't use liblinear's random number
+	 * generator, so repeated training on the same problem gives the same model
+	 */
+	private LiblinearAnnotator<double[], String> create(Mode mode, boolean dense, boolean parallel) {
+		final LiblinearAnnotator<double[], String> ann = new LiblinearAnnotator<double[], String>(EXTRACTOR, mode,
+				SolverType.L2R_L2LOSS_SVC, 1, 0.0001, 1, dense);
+
+		if (parallel)
+			ann.setExtractionPool(pool);
+
+		return ann;
+	}
+
+	private static Model[] getModels(LiblinearAnnotator<double[], String> ann) {
+		if (ann.internal instanceof Multiclass)
+			return new Model[] { ((Multiclass<double[], String>) ann.internal).model };
+
+		return ((Multilabel<double[], String>) ann.internal).models;
+	}
+
+	private static void assertRowsEqual(Object[] expected, Object[] actual, boolean dense) {
+		assertEquals(expected.length, actual.length);
+
+		for (int i = 0; i < expected.length; i++) {
+			if (dense) {
+				assertArrayEquals((double[]) expected[i], (double[]) actual[i], 0);
+			} else {
+				final Feature[] e = (Feature[]) expected[i];
+				final Feature[] a = (Feature[]) actual[i];
+
+				assertEquals(e.length, a.length);
+				for (int j = 0; j < e.length; j++) {
+					assertEquals(e[j].getIndex(), a[j].getIndex());
+					assertEquals(e[j].getValue(), a[j].getValue(), 0);
+				}
+			}
+		}
+	}
+
+	private static void assertModelsEqual(LiblinearAnnotator<double[], String> expected,
+			LiblinearAnnotator<double[], String> actual)
+	{
+		final Model[] e = getModels(expected);
+		final Model[] a = getModels(actual);
+
+		assertEquals(e.length, a.length);
+		for (int i = 0; i < e.length; i++)
+			assertArrayEquals(e[i].getFeatureWeights(), a[i].getFeatureWeights(), 0);
+	}
+
+	/**
+	 * Parallel extraction must produce exactly the same rows, in the same
+	 * order, as sequential extraction
+	 */
+	@Test
+	public void testParallelExtractionRows() {
+		for (final Mode mode : Mode.values()) {
+			for (final boolean dense : new boolean[] { true, false }) {
+				final Object[] sequential = create(mode, dense, false).internal.computeFeatures(objects);
+				final Object[] parallel = create(mode, dense, true).internal.computeFeatures(objects);
+
+				assertRowsEqual(sequential, parallel, dense);
+			}
+		}
+	}
+
+	/**
+	 * Parallel extraction must produce exactly the same models as sequential
+	 * extraction
+	 */
+	@Test
+	public void testParallelExtractionModels() {
+		for (final boolean dense : new boolean[] { true, false }) {
+			LiblinearAnnotator<double[], String> sequential = create(Mode.MULTICLASS, dense, false);
+			LiblinearAnnotator<double[], String> parallel = create(Mode.MULTICLASS, dense, true);
+			sequential.train(multiclassData);
+			parallel.train(multiclassData);
+			assertModelsEqual(sequential, parallel);
+
+			sequential = create(Mode.MULTICLASS, dense, false);
+			parallel = create(Mode.MULTICLASS, dense, true);
+			sequential.train(groupedData);
+			parallel.train(groupedData);
+			assertModelsEqual(sequential, parallel);
+
+			sequential = create(Mode.MULTILABEL, dense, false);
+			parallel = create(Mode.MULTILABEL, dense, true);
+			sequential.train(multilabelData);
+			parallel.train(multilabelData);
+			assertModelsEqual(sequential, parallel);
+		}
+	}
+
+	/**
+	 * The shared rows must be laid out with the negatives first and then the
+	 * positives, each in the order of the data
+	 */
+	@Test
+	public void testMultilabelOrdering() {
+		for (final boolean dense : new boolean[] { true, false }) {
+			final LiblinearAnnotator<double[], String> ann = create(Mode.MULTILABEL, dense, true);
+			final Multilabel<double[], String> internal = (Multilabel<double[], String>) ann.internal;
+			final Object[] rows = internal.computeFeatures(objects);
+
+			for (final String annotation : new String[] { "a", "b", "c" }) {
+				final List<Object> expected = new ArrayList<Object>();
+				int nNegative = 0;
+				for (int i = 0; i < NUM_ITEMS; i++) {
+					if (!multilabelData.get(i).getAnnotations().contains(annotation)) {
+						expected.add(rows[i]);
+						nNegative++;
+					}
+				}
+				for (int i = 0; i < NUM_ITEMS; i++) {
+					if (multilabelData.get(i).getAnnotations().contains(annotation))
+						expected.add(rows[i]);
+				}
+
+				final double[] y = new double[NUM_ITEMS];
+				final Object[] x = internal.binaryProblem(annotation, multilabelData, rows, y);
+
+				assertEquals(NUM_ITEMS, x.length);
+				for (int i = 0; i < NUM_ITEMS; i++) {
+					assertSame(expected.get(i), x[i]);
+					assertEquals(i < nNegative ? 1 : 2, y[i], 0);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Every training object should be counted exactly once
+	 */
+	@Test
+	public void testFeatureCounts() {
+		for (final boolean parallel : new boolean[] { true, false }) {
+			LiblinearAnnotator<double[], String> ann = create(Mode.MULTICLASS, false, parallel);
+			assertEquals(0, ann.getNumFeaturesExtracted());
+			assertEquals(0, ann.getNumFeaturesToExtract());
+			assertEquals(0, ann.getExtractionRate(), 0);
+
+			ann.train(multiclassData);
+			assertEquals(NUM_ITEMS, ann.getNumFeaturesExtracted());
+			assertEquals(NUM_ITEMS, ann.getNumFeaturesToExtract());
+			assertTrue(ann.getExtractionRate() > 0);
+
+			ann.train(groupedData);
+			assertEquals(NUM_ITEMS, ann.getNumFeaturesExtracted());
+			assertEquals(NUM_ITEMS, ann.getNumFeaturesToExtract());
+
+			ann = create(Mode.MULTILABEL, false, parallel);
+			ann.train(multilabelData);
+			assertEquals(NUM_ITEMS, ann.getNumFeaturesExtracted());
+			assertEquals(NUM_ITEMS, ann.getNumFeaturesToExtract());
+		}
+	}
+
+	/**
+	 * The view of grouped objects must handle empty groups anywhere
+	 */
+	@Test
+	public void testGroupedObjects() {
+		final List<ListDataset<double[]>> groups = new ArrayList<ListDataset<double[]>>();
+		final int[] sizes = { 0, 3, 0, 0, 1, 4, 0 };
+		final int[] offsets = new int[sizes.length + 1];
+		final List<double[]> expected = new ArrayList<double[]>();
+
+		for (int i = 0, k = 0; i < sizes.length; i++) {
+			final ListBackedDataset<double[]> group = new ListBackedDataset<double[]>();
+			for (int j = 0; j < sizes[i]; j++, k++) {
+				group.add(objects.get(k));
+				expected.add(objects.get(k));
+			}
+			groups.add(group);
+			offsets[i + 1] = offsets[i] + sizes[i];
+		}
+
+		final List<double[]> actual = InternalModel.objects(groups, offsets);
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++)
+			assertSame(expected.get(i), actual.get(i));
+
+		assertTrue(Arrays.equals(expected.toArray(), actual.toArray()));
+	}
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.ml.annotation.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openimaj.util.function.Operation;
+
+/**
+ * Tests for {@link OneVersusAllTrainer}
+ *
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class OneVersusAllTrainerTest {
+	private ThreadPoolExecutor pool;
+
+	/**
+	 * Create a pool with more threads than the budget allows to be used
+	 */
+	@Before
+	public void setup() {
+		pool = new ThreadPoolExecutor(4, 4, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+	}
+
+	/**
+	 * Shutdown the pool
+	 */
+	@After
+	public void teardown() {
+		pool.shutdownNow();
+	}
+
+	/**
+	 * Every classifier should be trained exactly once, with no more running
+	 * concurrently than the budget allows
+	 */
+	@Test
+	public void testBudget() {
+		final OneVersusAllTrainer trainer = new OneVersusAllTrainer(pool, 2000);
+		assertEquals(2, trainer.getConcurrency(1000));
+		assertEquals(4, trainer.getConcurrency(1));
+		assertEquals(1, trainer.getConcurrency(100000));
+
+		final AtomicIntegerArray count = new AtomicIntegerArray(50);
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+
+		trainer.train(count.length(), 1000, new Operation<Integer>() {
+			@Override
+			public void perform(Integer i) {
+				final int r = running.incrementAndGet();
+				synchronized (maxRunning) {
+					maxRunning.set(Math.max(maxRunning.get(), r));
+				}
+
+				try {
+					Thread.sleep(2);
+				} catch (final InterruptedException e) {
+				}
+
+				count.incrementAndGet(i);
+				running.decrementAndGet();
+			}
+		});
+
+		for (int i = 0; i < count.length(); i++)
+			assertEquals(1, count.get(i));
+
+		assertTrue(maxRunning.get() <= 2);
+	}
+
+	/**
+	 * A failure in one classifier should be re-thrown
+	 */
+	@Test
+	public void testFailure() {
+		final OneVersusAllTrainer trainer = new OneVersusAllTrainer(pool, Long.MAX_VALUE);
+
+		try {
+			trainer.train(20, 1, new Operation<Integer>() {
+				@Override
+				public void perform(Integer i) {
+					if (i == 5)
+						throw new IllegalStateException();
+				}
+			});
+			fail();
+		} catch (final IllegalStateException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,182 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.knn.pq;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openimaj.data.RandomData;
+import org.openimaj.io.IOUtils;
+import org.openimaj.knn.FloatNearestNeighboursExact;
+import org.openimaj.util.pair.IntFloatPair;
+
+/**
+ * Tests for {@link FloatIVFADCNearestNeighbours}
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class FloatIVFADCNearestNeighboursTest {
+	private static final int NLISTS = 16;
+	private static final int NDIMS = 32;
+
+	private FloatNearestNeighboursExact coarse;
+	private FloatProductQuantiser pq;
+	private float[][] data;
+	private float[][] queries;
+
+	/**
+	 * Create random quantisers and data
+	 */
+	@Before
+	public void setup() {
+		coarse = new FloatNearestNeighboursExact(RandomData.getRandomFloatArray(NLISTS, NDIMS, -1, 1, 1));
+
+		final FloatNearestNeighboursExact[] assigners = new FloatNearestNeighboursExact[4];
+		for (int i = 0; i < assigners.length; i++)
+			assigners[i] = new FloatNearestNeighboursExact(RandomData.getRandomFloatArray(256, 8, -0.5f, 0.5f, 10 + i));
+		pq = new FloatProductQuantiser(assigners);
+
+		data = RandomData.getRandomFloatArray(5000, NDIMS, -1, 1, 42);
+		queries = RandomData.getRandomFloatArray(20, NDIMS, -1, 1, 43);
+	}
+
+	/**
+	 * When every list is probed, the search should be the same as an exact
+	 * search of the vectors reconstructed from the coarse centroids and the
+	 * quantised residuals, as these are what the asymmetric distances are
+	 * computed against
+	 */
+	@Test
+	public void testFullProbeMatchesExact() {
+		final FloatIVFADCNearestNeighbours nn = new FloatIVFADCNearestNeighbours(coarse, pq, NLISTS, data);
+		assertEquals(data.length, nn.size());
+		assertEquals(NDIMS, nn.numDimensions());
+
+		final float[][] reconstructed = new float[data.length][NDIMS];
+		for (int i = 0; i < data.length; i++) {
+			final float[] centroid = coarse.getPoints()[coarse.searchNN(data[i]).first];
+			final float[] residual = new float[NDIMS];
+			for (int j = 0; j < NDIMS; j++)
+				residual[j] = data[i][j] - centroid[j];
+
+			final float[] decoded = pq.decompress(pq.quantise(residual));
+			for (int j = 0; j < NDIMS; j++)
+				reconstructed[i][j] = centroid[j] + decoded[j];
+		}
+		final FloatNearestNeighboursExact exact = new FloatNearestNeighboursExact(reconstructed);
+
+		final int K = 10;
+		for (final float[] q : queries) {
+			final List<IntFloatPair> expected = exact.searchKNN(q, K);
+			final List<IntFloatPair> actual = nn.searchKNN(q, K);
+
+			for (int k = 0; k < K; k++) {
+				assertEquals(expected.get(k).first, actual.get(k).first);
+				assertEquals(expected.get(k).second, actual.get(k).second, 1e-4);
+			}
+
+			assertEquals(expected.get(0).first, nn.searchNN(q).first);
+		}
+	}
+
+	/**
+	 * With a single probe only the list of the closest coarse centroid is
+	 * searched, and any results beyond the size of that list are unfilled
+	 */
+	@Test
+	public void testSingleProbe() {
+		final FloatIVFADCNearestNeighbours nn = new FloatIVFADCNearestNeighbours(coarse, pq, 1, data);
+
+		int total = 0;
+		for (int i = 0; i < NLISTS; i++)
+			total += nn.listSize(i);
+		assertEquals(data.length, total);
+
+		for (final float[] q : queries) {
+			final int list = coarse.searchNN(q).first;
+			final List<IntFloatPair> res = nn.searchKNN(q, data.length);
+
+			for (int k = 0; k < res.size(); k++) {
+				final IntFloatPair p = res.get(k);
+
+				if (k < nn.listSize(list)) {
+					assertEquals(list, coarse.searchNN(data[p.first]).first);
+				} else {
+					assertEquals(-1, p.first);
+					assertEquals(Float.MAX_VALUE, p.second, 0);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Test that an index survives writing and reading
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testSerialisation() throws IOException {
+		final FloatIVFADCNearestNeighbours nn = new FloatIVFADCNearestNeighbours(coarse, pq, 4, data);
+
+		final FloatIVFADCNearestNeighbours read = IOUtils.deserialize(IOUtils.serialize(nn),
+				FloatIVFADCNearestNeighbours.class);
+
+		assertEquals(nn.size(), read.size());
+		assertEquals(nn.numDimensions(), read.numDimensions());
+		assertEquals(nn.getNumProbes(), read.getNumProbes());
+		for (int i = 0; i < NLISTS; i++)
+			assertEquals(nn.listSize(i), read.listSize(i));
+
+		final int K = 10;
+		final int[][] expIdx = new int[queries.length][K];
+		final float[][] expDst = new float[queries.length][K];
+		nn.searchKNN(queries, K, expIdx, expDst);
+
+		final int[][] idx = new int[queries.length][K];
+		final float[][] dst = new float[queries.length][K];
+		read.searchKNN(queries, K, idx, dst);
+
+		for (int i = 0; i < queries.length; i++) {
+			for (int k = 0; k < K; k++) {
+				assertEquals(expIdx[i][k], idx[i][k]);
+				assertEquals(expDst[i][k], dst[i][k], 0);
+			}
+		}
+
+		// items added after reading should get the following ids
+		assertEquals(data.length, read.add(queries[0]));
+		assertTrue(read.searchNN(queries[0]).first == data.length);
+	}
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.knn.pq;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.junit.Test;
+import org.openimaj.data.RandomData;
+import org.openimaj.knn.FloatNearestNeighboursExact;
+import org.openimaj.util.parallel.GlobalExecutorPool.DaemonThreadFactory;
+
+/**
+ * Tests for {@link IncrementalFloatADCNearestNeighbours}
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class IncrementalFloatADCNearestNeighboursTest {
+	/**
+	 * Test that the batched multi-threaded search gives the same results as
+	 * the sequential search
+	 */
+	@Test
+	public void testBatchSearch() {
+		final FloatNearestNeighboursExact[] assigners = new FloatNearestNeighboursExact[4];
+		for (int i = 0; i < assigners.length; i++)
+			assigners[i] = new FloatNearestNeighboursExact(RandomData.getRandomFloatArray(256, 8, -1, 1, i));
+
+		final FloatProductQuantiser pq = new FloatProductQuantiser(assigners);
+		final float[][] data = RandomData.getRandomFloatArray(40000, 32, -1, 1, 42);
+		final float[][] queries = RandomData.getRandomFloatArray(20, 32, -1, 1, 43);
+
+		final IncrementalFloatADCNearestNeighbours nn = new IncrementalFloatADCNearestNeighbours(pq, data);
+
+		final int K = 10;
+		final int[][] expIdx = new int[queries.length][K];
+		final float[][] expDst = new float[queries.length][K];
+		nn.searchKNN(queries, K, expIdx, expDst);
+
+		final int[][] idx = new int[queries.length][K];
+		final float[][] dst = new float[queries.length][K];
+		final ThreadPoolExecutor pool = (ThreadPoolExecutor) Executors.newFixedThreadPool(3, new DaemonThreadFactory());
+		nn.batchSearchKNN(queries, K, idx, dst, pool);
+		pool.shutdown();
+
+		for (int i = 0; i < queries.length; i++) {
+			for (int k = 0; k < K; k++) {
+				assertEquals(expDst[i][k], dst[i][k], 1e-5);
+				assertEquals(expIdx[i][k], idx[i][k]);
+			}
+		}
+	}
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.knn.pq;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openimaj.data.RandomData;
+import org.openimaj.knn.FloatNearestNeighboursExact;
+import org.openimaj.util.parallel.GlobalExecutorPool.DaemonThreadFactory;
+import org.openimaj.util.pair.IntFloatPair;
+
+/**
+ * Tests for {@link MemoryMappedFloatADCNearestNeighbours}
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class MemoryMappedFloatADCNearestNeighboursTest {
+	/**
+	 * Temporary folder for the code files
+	 */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private FloatProductQuantiser pq;
+	private float[][] data;
+	private float[][] queries;
+
+	/**
+	 * Setup a random product quantiser and data
+	 */
+	@Before
+	public void setup() {
+		final FloatNearestNeighboursExact[] assigners = new FloatNearestNeighboursExact[4];
+		for (int i = 0; i < assigners.length; i++)
+			assigners[i] = new FloatNearestNeighboursExact(RandomData.getRandomFloatArray(256, 8, -1, 1, i));
+
+		pq = new FloatProductQuantiser(assigners);
+		data = RandomData.getRandomFloatArray(1000, 32, -1, 1, 42);
+		queries = RandomData.getRandomFloatArray(10, 32, -1, 1, 43);
+	}
+
+	/**
+	 * Test that the results match the in-memory implementation, including after
+	 * re-opening and appending to the file
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testMatchesInMemory() throws IOException {
+		final File file = folder.newFile("codes.bin");
+		file.delete();
+
+		final List<float[]> first = Arrays.asList(data).subList(0, 600);
+		final List<float[]> second = Arrays.asList(data).subList(600, data.length);
+
+		final IncrementalFloatADCNearestNeighbours expected = new IncrementalFloatADCNearestNeighbours(pq, 32);
+		expected.addAll(first);
+
+		MemoryMappedFloatADCNearestNeighbours mmap = new MemoryMappedFloatADCNearestNeighbours(pq, file);
+		mmap.addAll(first);
+		compare(expected, mmap);
+		mmap.close();
+
+		mmap = new MemoryMappedFloatADCNearestNeighbours(pq, file);
+		assertEquals(first.size(), mmap.size());
+		compare(expected, mmap);
+
+		for (final float[] d : second) {
+			assertEquals(expected.add(d), mmap.add(d));
+		}
+		compare(expected, mmap);
+		mmap.close();
+
+		mmap = new MemoryMappedFloatADCNearestNeighbours(pq, file, true);
+		assertEquals(data.length, mmap.size());
+		compare(expected, mmap);
+		mmap.close();
+	}
+
+	/**
+	 * Test that the batched multi-threaded search gives the same results as
+	 * the sequential search, both whilst writing and once re-opened read-only
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testBatchSearch() throws IOException {
+		final File file = folder.newFile("batch.bin");
+		file.delete();
+
+		// enough codes to span several tiles
+		final float[][] batchData = RandomData.getRandomFloatArray(40000, 32, -1, 1, 44);
+		final int K = 10;
+
+		MemoryMappedFloatADCNearestNeighbours mmap = new MemoryMappedFloatADCNearestNeighbours(pq, file);
+		mmap.addAll(Arrays.asList(batchData));
+		compareBatch(mmap, K);
+		mmap.close();
+
+		mmap = new MemoryMappedFloatADCNearestNeighbours(pq, file, true);
+		assertEquals(batchData.length, mmap.size());
+		compareBatch(mmap, K);
+		mmap.close();
+	}
+
+	private void compareBatch(MemoryMappedFloatADCNearestNeighbours nn, int K) {
+		final int[][] expIdx = new int[queries.length][K];
+		final float[][] expDst = new float[queries.length][K];
+		nn.searchKNN(queries, K, expIdx, expDst);
+
+		final int[][] idx = new int[queries.length][K];
+		final float[][] dst = new float[queries.length][K];
+		final ThreadPoolExecutor pool = (ThreadPoolExecutor) Executors.newFixedThreadPool(3, new DaemonThreadFactory());
+		nn.batchSearchKNN(queries, K, idx, dst, pool);
+		pool.shutdown();
+
+		FloatADCNearestNeighboursTest.assertResultsEqual(expIdx, expDst, idx, dst);
+	}
+
+	private void compare(IncrementalFloatADCNearestNeighbours expected, MemoryMappedFloatADCNearestNeighbours actual) {
+		for (final float[] q : queries) {
+			final List<IntFloatPair> e = expected.searchKNN(q, 10);
+			final List<IntFloatPair> a = actual.searchKNN(q, 10);
+
+			assertEquals(e.size(), a.size());
+			for (int i = 0; i < e.size(); i++) {
+				assertEquals(e.get(i).first, a.get(i).first);
+				assertEquals(e.get(i).second, a.get(i).second, 0);
+			}
+		}
+	}
+}